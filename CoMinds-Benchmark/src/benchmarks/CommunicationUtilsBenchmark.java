@@ -0,0 +1,69 @@
+/*
+ *  CoMinds is a Java framework for collaborative robotic scenarios with
+ *  Lego Mindstorms based leJOS. A complete documentation can be found
+ *  in docs/thesis.pdf.
+ *
+ *  Copyright (C) 2010  Annabelle Klarl
+ *  All rights reserved.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ * 
+ */
+package benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import communication.CommunicationUtils;
+
+/**
+ * Benchmarks the encoders for the values that are sent via bluetooth.
+ * 
+ * @author Annabelle Klarl
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CommunicationUtilsBenchmark {
+
+	private int intValue = 4095;
+	private float floatValue = 271.5f;
+	private String name = "Johnny";
+
+	@Benchmark
+	public byte[] convertInt() {
+		return CommunicationUtils.convertIntToByteArray(this.intValue);
+	}
+
+	@Benchmark
+	public byte[] convertFloat() {
+		return CommunicationUtils.convertFloatToByteArray(this.floatValue);
+	}
+
+	@Benchmark
+	public byte[] convertString() {
+		return CommunicationUtils.convertStringToByteArray(this.name);
+	}
+}
@@ -0,0 +1,94 @@
+/*
+ *  CoMinds is a Java framework for collaborative robotic scenarios with
+ *  Lego Mindstorms based leJOS. A complete documentation can be found
+ *  in docs/thesis.pdf.
+ *
+ *  Copyright (C) 2010  Annabelle Klarl
+ *  All rights reserved.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ * 
+ */
+package benchmarks;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import common.NameTable;
+import communication.CommunicationUtils;
+import communication.extendedClasses.ExtendedDataInputStream;
+
+/**
+ * Benchmarks reading the names of the routing header from a stream, with and
+ * without interning them in a {@link NameTable}.
+ * 
+ * @author Annabelle Klarl
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ExtendedDataInputStreamBenchmark {
+
+	@Param( { "Josy", "log_car_with_a_much_longer_file_name.txt" })
+	public String string;
+
+	private ByteArrayInputStream bytes;
+	private ExtendedDataInputStream dis;
+	private NameTable names;
+	private byte[] nameBuffer;
+
+	@Setup
+	public void setup() {
+		this.bytes = new ByteArrayInputStream(CommunicationUtils
+				.convertStringToByteArray(this.string));
+		this.dis = new ExtendedDataInputStream(this.bytes);
+		this.names = new NameTable(16);
+		this.nameBuffer = new byte[64];
+	}
+
+	@Benchmark
+	public String readString() throws IOException {
+		this.bytes.reset();
+		return this.dis.readString();
+	}
+
+	@Benchmark
+	public byte[] readStringBytes() throws IOException {
+		this.bytes.reset();
+		return this.dis.readStringBytes();
+	}
+
+	@Benchmark
+	public String readInternedName() throws IOException {
+		this.bytes.reset();
+		int length = this.dis.readInt();
+		this.dis.readFully(this.nameBuffer, 0, length);
+		return this.names.getName(this.nameBuffer, 0, length);
+	}
+}
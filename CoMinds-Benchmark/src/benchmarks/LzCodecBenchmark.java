@@ -0,0 +1,87 @@
+/*
+ *  CoMinds is a Java framework for collaborative robotic scenarios with
+ *  Lego Mindstorms based leJOS. A complete documentation can be found
+ *  in docs/thesis.pdf.
+ *
+ *  Copyright (C) 2010  Annabelle Klarl
+ *  All rights reserved.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ * 
+ */
+package benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import common.LzCodec;
+
+/**
+ * Benchmarks the compression of a part of a log file as it is sent via
+ * bluetooth.
+ * 
+ * @author Annabelle Klarl
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class LzCodecBenchmark {
+
+	private static final int PART_SIZE = 4095;
+
+	private final LzCodec codec = new LzCodec();
+	private byte[] part;
+	private byte[] compressed;
+	private int compressedLength;
+	private byte[] decompressed;
+
+	@Setup
+	public void setUp() {
+		StringBuilder log = new StringBuilder();
+		for (int i = 0; log.length() < PART_SIZE; i++) {
+			log.append("2010-06-01 12:00:").append(i % 60).append(
+					" DEBUG Johnny: degree ").append((i * 37) % 360).append(
+					" sent to PC\n");
+		}
+		this.part = log.substring(0, PART_SIZE).getBytes();
+		this.compressed = new byte[LzCodec.getMaxCompressedLength(PART_SIZE)];
+		this.compressedLength = this.codec.compress(this.part, 0, PART_SIZE,
+				this.compressed, 0);
+		this.decompressed = new byte[PART_SIZE];
+	}
+
+	@Benchmark
+	public int compress() {
+		return this.codec.compress(this.part, 0, PART_SIZE, this.compressed,
+				0);
+	}
+
+	@Benchmark
+	public int decompress() {
+		return LzCodec.decompress(this.compressed, 0, this.compressedLength,
+				this.decompressed, 0, PART_SIZE);
+	}
+}
@@ -0,0 +1,139 @@
+/*
+ *  CoMinds is a Java framework for collaborative robotic scenarios with
+ *  Lego Mindstorms based leJOS. A complete documentation can be found
+ *  in docs/thesis.pdf.
+ *
+ *  Copyright (C) 2010  Annabelle Klarl
+ *  All rights reserved.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ * 
+ */
+package benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Group;
+import org.openjdk.jmh.annotations.GroupThreads;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.BenchmarkParams;
+
+import common.GenericBoundedQueue;
+import common.MessageQueue;
+import common.RingBufferQueue;
+import common.exceptions.EmptyQueueException;
+import common.exceptions.QueueBlockedException;
+
+/**
+ * Benchmarks the hand off of messages from producer threads to one consumer
+ * thread (as between the threads that write to a writer and the writer
+ * thread). Compares the synchronized bounded queue with the single producer
+ * and the multiple producers variant of the lock free ring buffer.
+ * 
+ * @author Annabelle Klarl
+ */
+@State(Scope.Group)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class QueueHandoffBenchmark {
+
+	@Param( { "generic", "ringBuffer" })
+	public String queue;
+
+	private MessageQueue<byte[]> messageQueue;
+	private byte[] message = new byte[32];
+
+	@Setup
+	public void setup(BenchmarkParams params) {
+		if (this.queue.equals("ringBuffer")) {
+			// the single producer variant can only be used by the group with
+			// one producer
+			boolean multipleProducers = !params.getBenchmark().endsWith(
+					"oneProducer");
+			this.messageQueue = new RingBufferQueue<byte[]>(500,
+					multipleProducers);
+		}
+		else {
+			this.messageQueue = new GenericBoundedQueue<byte[]>(500);
+		}
+	}
+
+	/**
+	 * one producer pushes messages
+	 */
+	@Benchmark
+	@Group("oneProducer")
+	@GroupThreads(1)
+	public void oneProducerPush() throws QueueBlockedException {
+		this.messageQueue.push(this.message);
+	}
+
+	/**
+	 * the consumer pops the messages of one producer
+	 */
+	@Benchmark
+	@Group("oneProducer")
+	@GroupThreads(1)
+	public byte[] oneProducerPop() throws QueueBlockedException {
+		return this.pop();
+	}
+
+	/**
+	 * three producers push messages concurrently
+	 */
+	@Benchmark
+	@Group("threeProducers")
+	@GroupThreads(3)
+	public void threeProducersPush() throws QueueBlockedException {
+		this.messageQueue.push(this.message);
+	}
+
+	/**
+	 * the consumer pops the messages of three producers
+	 */
+	@Benchmark
+	@Group("threeProducers")
+	@GroupThreads(1)
+	public byte[] threeProducersPop() throws QueueBlockedException {
+		return this.pop();
+	}
+
+	/**
+	 * pops a message from the queue
+	 * 
+	 * @return the message or null if the queue is empty
+	 * @throws QueueBlockedException
+	 *             if the queue is blocked (never)
+	 */
+	private byte[] pop() throws QueueBlockedException {
+		try {
+			return this.messageQueue.pop();
+		}
+		catch (EmptyQueueException e) {
+			return null;
+		}
+	}
+}
@@ -0,0 +1,112 @@
+/*
+ *  CoMinds is a Java framework for collaborative robotic scenarios with
+ *  Lego Mindstorms based leJOS. A complete documentation can be found
+ *  in docs/thesis.pdf.
+ *
+ *  Copyright (C) 2010  Annabelle Klarl
+ *  All rights reserved.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ * 
+ */
+package benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import common.RingBufferQueue;
+import common.exceptions.EmptyQueueException;
+import common.exceptions.QueueBlockedException;
+
+/**
+ * Benchmarks for pushing to and popping from the lock free ring buffer in a
+ * single thread (the same operations as in
+ * {@link GenericBoundedQueueBenchmark}).
+ * 
+ * @author Annabelle Klarl
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class RingBufferQueueBenchmark {
+
+	@Param( { "1", "500" })
+	public int queueSize;
+
+	@Param( { "false", "true" })
+	public boolean multipleProducers;
+
+	private RingBufferQueue<byte[]> queue;
+	private byte[] message = new byte[32];
+
+	@Setup
+	public void setup() {
+		this.queue = new RingBufferQueue<byte[]>(this.queueSize,
+				this.multipleProducers);
+	}
+
+	/**
+	 * one push followed by one pop (the queue is empty afterwards)
+	 */
+	@Benchmark
+	public byte[] pushPop() throws QueueBlockedException, EmptyQueueException {
+		this.queue.push(this.message);
+		return this.queue.pop();
+	}
+
+	/**
+	 * fills the queue completely and empties it again
+	 */
+	@Benchmark
+	public int fillAndDrain() throws QueueBlockedException,
+			EmptyQueueException {
+		for (int i = 0; i < this.queueSize; i++) {
+			this.queue.push(this.message);
+		}
+		int popped = 0;
+		while (!this.queue.isEmpty()) {
+			popped += this.queue.pop().length;
+		}
+		return popped;
+	}
+
+	/**
+	 * pushes into a full queue, which overwrites the oldest element
+	 */
+	@Benchmark
+	public byte[] pushOverwrite() throws QueueBlockedException,
+			EmptyQueueException {
+		for (int i = 0; i <= this.queueSize; i++) {
+			this.queue.push(this.message);
+		}
+		byte[] last = null;
+		while (!this.queue.isEmpty()) {
+			last = this.queue.pop();
+		}
+		return last;
+	}
+}
@@ -0,0 +1,149 @@
+/*
+ *  CoMinds is a Java framework for collaborative robotic scenarios with
+ *  Lego Mindstorms based leJOS. A complete documentation can be found
+ *  in docs/thesis.pdf.
+ *
+ *  Copyright (C) 2010  Annabelle Klarl
+ *  All rights reserved.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ * 
+ */
+package benchmarks;
+
+import java.io.OutputStream;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import common.GenericBoundedQueue;
+import common.MessageQueue;
+import common.RingBufferQueue;
+import common.Writer;
+import common.exceptions.QueueBlockedException;
+
+/**
+ * Benchmarks the throughput of a writer from the call of write until the
+ * message is written to the output stream by the writer thread. The output
+ * stream only counts the bytes. The writer either uses the lock free ring
+ * buffer (the writer thread is parked) or the synchronized bounded queue (the
+ * writer thread waits on the writer).
+ * 
+ * @author Annabelle Klarl
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class WriterBenchmark {
+
+	private static final int MESSAGES = 100;
+
+	@Param( { "16", "4095" })
+	public int messageSize;
+
+	@Param( { "false", "true" })
+	public boolean flushAfterWrite;
+
+	@Param( { "generic", "ringBuffer" })
+	public String queue;
+
+	private CountingOutputStream output;
+	private Writer writer;
+	private Thread writerThread;
+	private byte[] message;
+
+	@Setup
+	public void setup() {
+		this.message = new byte[this.messageSize];
+		this.output = new CountingOutputStream();
+
+		// the queue is large enough so that no message is overwritten
+		this.writer = new Writer(this.output, this.createQueue(),
+				this.flushAfterWrite);
+		this.writerThread = new Thread(this.writer, "BenchmarkWriterThread");
+		this.writerThread.start();
+	}
+
+	@TearDown
+	public void tearDown() throws InterruptedException {
+		this.writer.stop();
+		this.writerThread.join();
+	}
+
+	/**
+	 * creates the message queue of the writer according to the parameter
+	 * queue
+	 * 
+	 * @return the message queue
+	 */
+	private MessageQueue<byte[]> createQueue() {
+		if (this.queue.equals("ringBuffer")) {
+			return new RingBufferQueue<byte[]>(MESSAGES, true);
+		}
+		else {
+			return new GenericBoundedQueue<byte[]>(MESSAGES);
+		}
+	}
+
+	/**
+	 * writes a batch of messages and waits until the writer thread has
+	 * written all of them to the output stream
+	 */
+	@Benchmark
+	@OperationsPerInvocation(MESSAGES)
+	public long writeBatch() throws QueueBlockedException {
+		long expected = this.output.count + MESSAGES * this.messageSize;
+		for (int i = 0; i < MESSAGES; i++) {
+			this.writer.write(this.message);
+		}
+		while (this.output.count < expected) {
+			Thread.yield();
+		}
+		return this.output.count;
+	}
+
+	/**
+	 * an output stream that only counts the written bytes
+	 * 
+	 * @author Annabelle Klarl
+	 */
+	private static class CountingOutputStream extends OutputStream {
+
+		private volatile long count = 0;
+
+		@Override
+		public void write(int b) {
+			this.count++;
+		}
+
+		@Override
+		public void write(byte[] b, int off, int len) {
+			this.count += len;
+		}
+	}
+}
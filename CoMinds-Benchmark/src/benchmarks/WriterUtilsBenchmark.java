@@ -0,0 +1,104 @@
+/*
+ *  CoMinds is a Java framework for collaborative robotic scenarios with
+ *  Lego Mindstorms based leJOS. A complete documentation can be found
+ *  in docs/thesis.pdf.
+ *
+ *  Copyright (C) 2010  Annabelle Klarl
+ *  All rights reserved.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ * 
+ */
+package benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import common.FrameBuilder;
+import common.FramePool;
+import common.WriterUtils;
+import communication.CommunicationUtils;
+
+/**
+ * Benchmarks the concatenation of byte arrays that is used to build every
+ * frame (here with the parts of a routed data frame) against building the same
+ * frame with a {@link FrameBuilder} in recycled arrays.
+ * 
+ * @author Annabelle Klarl
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class WriterUtilsBenchmark {
+
+	@Param( { "4", "4095" })
+	public int payloadSize;
+
+	private byte[] from;
+	private byte[] to;
+	private byte[] length;
+	private byte[] payload;
+	private FramePool pool;
+	private FrameBuilder builder;
+
+	@Setup
+	public void setup() {
+		this.from = CommunicationUtils.convertStringToByteArray("Johnny");
+		this.to = CommunicationUtils.convertStringToByteArray("Josy");
+		this.length = CommunicationUtils.convertIntToByteArray(this.payloadSize);
+		this.payload = new byte[this.payloadSize];
+		this.pool = new FramePool(8, 8192);
+		this.builder = new FrameBuilder(this.pool, 32);
+	}
+
+	@Benchmark
+	public byte[] concatArrays() {
+		return WriterUtils.concatArrays(this.from, this.to,
+				new byte[] { 0x00 }, this.length, this.payload);
+	}
+
+	@Benchmark
+	public byte[] concatArraysWithFirstByte() {
+		return WriterUtils.concatArrays((byte) 0x10, this.length, this.payload);
+	}
+
+	@Benchmark
+	public byte[] concatArraysIntoArrayWithLength() {
+		return WriterUtils.concatArraysIntoArrayWithLength(
+				this.payloadSize + 5, (byte) 0x10, this.length, this.payload);
+	}
+
+	@Benchmark
+	public int frameBuilder() {
+		byte[] frame = this.builder.reset().putString("Johnny").putString(
+				"Josy").putByte((byte) 0x00).putInt(this.payloadSize)
+				.putBytes(this.payload).toFrame();
+		int length = frame.length;
+		this.pool.release(frame);
+		return length;
+	}
+}
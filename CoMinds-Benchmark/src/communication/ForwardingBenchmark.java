@@ -0,0 +1,211 @@
+/*
+ *  CoMinds is a Java framework for collaborative robotic scenarios with
+ *  Lego Mindstorms based leJOS. A complete documentation can be found
+ *  in docs/thesis.pdf.
+ *
+ *  Copyright (C) 2010  Annabelle Klarl
+ *  All rights reserved.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ * 
+ */
+package communication;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import communication.transport.ChannelTransport;
+import communication.transport.Link;
+import communication.transport.PipedTransport;
+import communication.transport.Transport;
+
+/**
+ * Benchmarks the forwarding of data frames by the pc from one simulated nxt
+ * to another (see {@link PipedTransport}): the frames are read by the
+ * {@link RoutingReader} of the sending nxt (or the event loop) and written by
+ * the {@link RoutingWriter} of the receiving nxt, until the receiving nxt has
+ * read all of them. The frames either have the header with the names (which
+ * is forwarded as it is) or the compact header (which is converted to the
+ * names as the receiving nxt does not know the ids).
+ * 
+ * @author Annabelle Klarl
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ForwardingBenchmark {
+
+	private static final int FRAMES = 100;
+
+	@Param( { "16", "200" })
+	public int dataSize;
+
+	@Param( { "names", "compact" })
+	public String header;
+
+	@Param( { "threads", "eventLoop" })
+	public String router;
+
+	private Link sender;
+	private Link receiver;
+	private OutputStream output;
+	private CountingDrain drain;
+	private Thread drainThread;
+	private Thread senderDrainThread;
+	private byte[] batch;
+	private int forwardedBytes;
+
+	@Setup
+	public void setup() throws IOException {
+		PipedTransport transport = new PipedTransport();
+		this.sender = transport.createPeer("NXT1");
+		this.receiver = transport.createPeer("NXT2");
+		this.output = this.sender.getOutputStream();
+		this.drain = new CountingDrain(this.receiver.getInputStream());
+		this.drainThread = new Thread(this.drain, "BenchmarkDrainThread");
+		this.drainThread.start();
+		// the credits and answers of the pc to the sending nxt are not needed
+		this.senderDrainThread = new Thread(new CountingDrain(this.sender
+				.getInputStream()), "BenchmarkSenderDrainThread");
+		this.senderDrainThread.start();
+
+		// the queues are large enough so that no frame is dropped
+		if (this.router.equals("eventLoop")) {
+			PCConnectionManager.getManager(2 * FRAMES, false,
+					(ChannelTransport) transport, 1, "NXT1", "NXT2");
+		}
+		else {
+			PCConnectionManager.getManager(2 * FRAMES, false,
+					(Transport) transport, "NXT1", "NXT2");
+		}
+
+		byte[] frame = this.createFrame();
+		this.batch = new byte[FRAMES * frame.length];
+		for (int i = 0; i < FRAMES; i++) {
+			System.arraycopy(frame, 0, this.batch, i * frame.length,
+					frame.length);
+		}
+		// the receiving nxt gets every frame with the names
+		this.forwardedBytes = FRAMES * (4 + 4 + 4 + 4 + 1 + 4 + this.dataSize);
+	}
+
+	@TearDown
+	public void tearDown() throws IOException, InterruptedException {
+		this.sender.close();
+		this.receiver.close();
+		// the manager may wait for the close of a connection whose loss it
+		// has not noticed yet (at most once per trial)
+		PCConnectionManager.closeManager();
+		this.drainThread.join();
+		this.senderDrainThread.join();
+	}
+
+	/**
+	 * creates a data frame from NXT1 to NXT2 with the header according to the
+	 * parameter header. The data is a file part, so that the frames are
+	 * neither replaced by newer ones nor reordered.
+	 *
+	 * @return the frame
+	 */
+	private byte[] createFrame() {
+		ByteBuffer buffer = ByteBuffer.allocate(32 + this.dataSize);
+		if (this.header.equals("compact")) {
+			// the ids are given by the order of the nxts (the pc has id 0)
+			buffer.put(PCConnectionManager.COMPACT_HEADER).put((byte) 1).put(
+					(byte) 2);
+		}
+		else {
+			buffer.put(CommunicationUtils.convertStringToByteArray("NXT1"))
+					.put(CommunicationUtils.convertStringToByteArray("NXT2"));
+		}
+		buffer.put(PCConnectionManager.DATA).putInt(this.dataSize);
+		buffer.put((byte) (BTComm.SEND | BTComm.FILE_PART));
+		buffer.position(buffer.position() + this.dataSize - 1);
+
+		byte[] frame = new byte[buffer.position()];
+		buffer.flip();
+		buffer.get(frame);
+		return frame;
+	}
+
+	/**
+	 * writes a batch of frames to the pc and waits until the receiving nxt
+	 * has read all of them
+	 */
+	@Benchmark
+	@OperationsPerInvocation(FRAMES)
+	public long forwardBatch() throws IOException {
+		long expected = this.drain.count + this.forwardedBytes;
+		this.output.write(this.batch);
+		this.output.flush();
+		while (this.drain.count < expected) {
+			Thread.yield();
+		}
+		return this.drain.count;
+	}
+
+	/**
+	 * drains the stream of a simulated nxt and counts the bytes
+	 *
+	 * @author Annabelle Klarl
+	 */
+	private static class CountingDrain implements Runnable {
+
+		private final InputStream input;
+		private volatile long count = 0;
+
+		/**
+		 * Constructor
+		 *
+		 * @param input
+		 *            the stream to drain
+		 */
+		public CountingDrain(InputStream input) {
+			this.input = input;
+		}
+
+		@Override
+		public void run() {
+			byte[] buffer = new byte[1024];
+			try {
+				int read;
+				while ((read = this.input.read(buffer)) != -1) {
+					this.count += read;
+				}
+			}
+			catch (IOException e) {
+				// the simulated nxt was closed
+			}
+		}
+	}
+}
@@ -0,0 +1,184 @@
+/*
+ *  CoMinds is a Java framework for collaborative robotic scenarios with
+ *  Lego Mindstorms based leJOS. A complete documentation can be found
+ *  in docs/thesis.pdf.
+ *
+ *  Copyright (C) 2010  Annabelle Klarl
+ *  All rights reserved.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ * 
+ */
+package communication;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import communication.extendedClasses.ExtendedDataInputStream;
+import communication.extendedClasses.FrameInputStream;
+import communication.transport.Link;
+import communication.transport.PipedTransport;
+import communication.transport.Transport;
+
+/**
+ * Benchmarks the decoding of a single message by the {@link MessageReader} of
+ * the pc, from the code of the message to the notification of the observers
+ * or the answer. The reader belongs to a connection to a simulated nxt (see
+ * {@link PipedTransport}) whose end only drains what the pc answers. The
+ * benchmark is in the package of the reader as the reader cannot be used from
+ * outside.
+ * 
+ * @author Annabelle Klarl
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MessageReaderBenchmark {
+
+	private static final int QUEUE_SIZE = 100;
+
+	@Param( { "degree", "degreeCompact", "light", "lightCompact",
+			"requestDegree", "fileCredit" })
+	public String message;
+
+	private Link nxt;
+	private Thread drainThread;
+	private BTComm btcomm;
+	private MessageReader reader;
+	private FrameInputStream input;
+	private ExtendedDataInputStream dis;
+	private byte[] frame;
+
+	@Setup
+	public void setup() throws IOException {
+		PipedTransport transport = new PipedTransport();
+		this.nxt = transport.createPeer("NXT1");
+		this.drainThread = new Thread(new Drain(this.nxt.getInputStream()),
+				"BenchmarkDrainThread");
+		this.drainThread.start();
+
+		// the connection is not opened by the manager as it would wait for
+		// the simulated nxt to acknowledge it
+		PCConnectionManager manager = PCConnectionManager.getManager(
+				QUEUE_SIZE, false, (Transport) transport);
+		this.btcomm = new BTComm("PC", "NXT1", transport, QUEUE_SIZE, false,
+				manager);
+		this.reader = new MessageReader("benchmark: ", this.btcomm, false);
+
+		this.input = new FrameInputStream();
+		this.dis = new ExtendedDataInputStream(this.input);
+		this.frame = this.createMessage();
+	}
+
+	@TearDown
+	public void tearDown() throws IOException, InterruptedException {
+		this.nxt.close();
+		this.btcomm.close();
+		PCConnectionManager.closeManager();
+		this.drainThread.join();
+	}
+
+	/**
+	 * creates the message according to the parameter message
+	 *
+	 * @return the message
+	 */
+	private byte[] createMessage() {
+		ByteBuffer buffer = ByteBuffer.allocate(16);
+		if (this.message.equals("degree")) {
+			buffer.put((byte) (BTComm.SEND | BTComm.DEGREE)).putFloat(123.4f);
+		}
+		else if (this.message.equals("degreeCompact")) {
+			buffer.put((byte) (BTComm.SEND | BTComm.DEGREE | BTComm.COMPACT))
+					.putShort((short) CommunicationUtils
+							.convertFloatToFixedPoint(123.4f));
+		}
+		else if (this.message.equals("light")) {
+			buffer.put((byte) (BTComm.SEND | BTComm.LIGHT)).putFloat(56.7f);
+		}
+		else if (this.message.equals("lightCompact")) {
+			buffer.put((byte) (BTComm.SEND | BTComm.LIGHT | BTComm.COMPACT))
+					.putShort((short) CommunicationUtils
+							.convertFloatToFixedPoint(56.7f));
+		}
+		else if (this.message.equals("requestDegree")) {
+			buffer.put((byte) (BTComm.REQUEST | BTComm.DEGREE));
+		}
+		else {
+			buffer.put((byte) (BTComm.REQUEST | BTComm.FILE_CREDIT)).putInt(1);
+		}
+
+		byte[] frame = new byte[buffer.position()];
+		buffer.flip();
+		buffer.get(frame);
+		return frame;
+	}
+
+	@Benchmark
+	public float decode() {
+		this.input.setFrame(this.frame, 0, this.frame.length);
+		this.reader.read(this.dis);
+		return this.reader.getRemoteDegree();
+	}
+
+	/**
+	 * drains the stream of the simulated nxt (the answers of the pc)
+	 *
+	 * @author Annabelle Klarl
+	 */
+	private static class Drain implements Runnable {
+
+		private final InputStream input;
+
+		/**
+		 * Constructor
+		 *
+		 * @param input
+		 *            the stream to drain
+		 */
+		public Drain(InputStream input) {
+			this.input = input;
+		}
+
+		@Override
+		public void run() {
+			byte[] buffer = new byte[1024];
+			try {
+				while (this.input.read(buffer) != -1) {
+					// the answers are not needed
+				}
+			}
+			catch (IOException e) {
+				// the simulated nxt was closed
+			}
+		}
+	}
+}
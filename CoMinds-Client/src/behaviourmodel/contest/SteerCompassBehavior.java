@@ -22,6 +22,7 @@
 package behaviourmodel.contest;
 
 import lejos.robotics.navigation.DifferentialPilot;
+import logging.Logger.LogLevel;
 import sensorwrappers.compass.AbstractCompassSensorWrapper;
 import sensorwrappers.compass.CompassSensorUtils;
 import sensorwrappers.exceptions.RemoteSensorException;
@@ -82,8 +83,8 @@ public class SteerCompassBehavior extends StoppableBehavior {
 
 	@Override
 	public void doAction() {
-		logger.info("own deg: " + this.ownDegrees);
-		logger.info("remote deg: " + this.remoteDegrees);
+		logger.log(LogLevel.INFO, "own deg: {}", this.ownDegrees);
+		logger.log(LogLevel.INFO, "remote deg: {}", this.remoteDegrees);
 
 		// sensor update
 		try {
@@ -115,7 +116,7 @@ public class SteerCompassBehavior extends StoppableBehavior {
 		float currentError = CompassSensorUtils.getSmallestDiff(
 				this.remoteDegrees, this.ownDegrees);
 
-		logger.info("turn deg: " + currentError);
+		logger.log(LogLevel.INFO, "turn deg: {}", currentError);
 		this.pilot.steer(currentError);
 	}
 
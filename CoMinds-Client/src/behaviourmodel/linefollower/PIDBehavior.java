@@ -22,6 +22,7 @@
 package behaviourmodel.linefollower;
 
 import lejos.robotics.navigation.DifferentialPilot;
+import logging.Logger.LogLevel;
 import sensorwrappers.color.AbstractColorSensorWrapper;
 import sensorwrappers.exceptions.SensorException;
 import behaviourmodel.StoppableBehavior;
@@ -146,7 +147,7 @@ public class PIDBehavior extends StoppableBehavior {
 		float lightValue = 0.0f;
 		try {
 			lightValue = this.light.getLightValue();
-			logger.debug(this.name + " lightvalue " + lightValue);
+			logger.debug("{} lightvalue {}", this.name, lightValue);
 		}
 		catch (SensorException e) {
 			// ignore noise reads
@@ -200,27 +201,29 @@ public class PIDBehavior extends StoppableBehavior {
 			// of the object. If the radius is smaller than the distance, the
 			// inner robot must arc backward
 			if (Math.signum(radius_middle) != Math.signum(radius_side)) {
-				logger.debug(this.name + " radius bwd: " + radius_side
-						+ " (speed " + speed_side + ")");
+				logger.debug("{} radius bwd: {} (speed {})", this.name,
+						radius_side, speed_side);
 				this.pilot.arcBackward(radius_side);
 			}
 			else {
-				logger.debug(this.name + " radius fwd: " + radius_side
-						+ " (speed " + speed_side + ")");
+				logger.debug("{} radius fwd: {} (speed {})", this.name,
+						radius_side, speed_side);
 				this.pilot.arcForward(radius_side);
 			}
 		}
 		else {
 			if (turnRate > 200) {
-				logger.error(this.name + " turnrate > 200: " + turnRate);
+				logger.log(LogLevel.ERROR, "{} turnrate > 200: {}", this.name,
+						turnRate);
 				turnRate = 200f;
 			}
 			else if (turnRate < -200) {
-				logger.error(this.name + " turnrate < -200: " + turnRate);
+				logger.log(LogLevel.ERROR, "{} turnrate < -200: {}", this.name,
+						turnRate);
 				turnRate = -200f;
 			}
 			else {
-				logger.debug(this.name + " turnrate: " + turnRate);
+				logger.debug("{} turnrate: {}", this.name, turnRate);
 			}
 
 			// faster variant
@@ -0,0 +1,66 @@
+/*
+ *  CoMinds is a Java framework for collaborative robotic scenarios with
+ *  Lego Mindstorms based leJOS. A complete documentation can be found
+ *  in docs/thesis.pdf.
+ *
+ *  Copyright (C) 2010  Annabelle Klarl
+ *  All rights reserved.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ * 
+ */
+package common;
+
+/**
+ * Computes CRC32 checksums (the same as java.util.zip.CRC32 which is not
+ * available on the nxt). The checksums are computed with a table of 256
+ * entries, so that each byte only needs one lookup.
+ * 
+ * @author Annabelle Klarl
+ */
+public class Crc32 {
+
+	// the reversed polynomial of CRC32
+	private static final int POLYNOMIAL = 0xEDB88320;
+
+	private static final int[] TABLE = new int[256];
+
+	static {
+		for (int i = 0; i < 256; i++) {
+			int crc = i;
+			for (int j = 0; j < 8; j++) {
+				crc = (crc & 1) != 0 ? (crc >>> 1) ^ POLYNOMIAL : crc >>> 1;
+			}
+			TABLE[i] = crc;
+		}
+	}
+
+	/**
+	 * computes the CRC32 checksum of the given bytes
+	 * 
+	 * @param bytes
+	 *            the array that holds the bytes
+	 * @param offset
+	 *            where the bytes start in the array
+	 * @param length
+	 *            the number of bytes
+	 * @return the checksum
+	 */
+	public static int getChecksum(byte[] bytes, int offset, int length) {
+		int crc = 0xFFFFFFFF;
+		for (int i = offset; i < offset + length; i++) {
+			crc = TABLE[(crc ^ bytes[i]) & 0xFF] ^ (crc >>> 8);
+		}
+		return ~crc;
+	}
+}
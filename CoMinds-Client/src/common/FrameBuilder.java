@@ -0,0 +1,417 @@
+/*
+ *  CoMinds is a Java framework for collaborative robotic scenarios with
+ *  Lego Mindstorms based leJOS. A complete documentation can be found
+ *  in docs/thesis.pdf.
+ *
+ *  Copyright (C) 2010  Annabelle Klarl
+ *  All rights reserved.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ * 
+ */
+package common;
+
+/**
+ * This class builds frames (header and content of a message) in a buffer that
+ * is reused for every frame instead of concatenating several byte arrays (see
+ * {@link WriterUtils}). Ints, floats and Strings are encoded directly into the
+ * buffer in the same way as by communication.CommunicationUtils. The finished
+ * frame is copied into an array from the frame pool. A frame builder must not
+ * be used by several threads at the same time.
+ * 
+ * @author Annabelle Klarl
+ */
+public class FrameBuilder {
+
+	private final FramePool pool;
+	private byte[] buffer;
+	private int length;
+
+	/**
+	 * Constructor
+	 * 
+	 * @param pool
+	 *            the pool where to get the arrays for the frames from (if
+	 *            null, a new array is allocated for every frame)
+	 * @param capacity
+	 *            the initial size of the buffer (the buffer grows if a frame
+	 *            is larger)
+	 */
+	public FrameBuilder(FramePool pool, int capacity) {
+		this.pool = pool;
+		this.buffer = new byte[capacity];
+		this.length = 0;
+	}
+
+	/**
+	 * starts a new frame
+	 * 
+	 * @return this builder
+	 */
+	public FrameBuilder reset() {
+		this.length = 0;
+		return this;
+	}
+
+	/**
+	 * gets the length of the current frame
+	 * 
+	 * @return the number of bytes in the frame so far
+	 */
+	public int length() {
+		return this.length;
+	}
+
+	/**
+	 * appends a single byte
+	 * 
+	 * @param value
+	 *            the byte
+	 * @return this builder
+	 */
+	public FrameBuilder putByte(byte value) {
+		this.ensureCapacity(1);
+		this.buffer[this.length++] = value;
+		return this;
+	}
+
+	/**
+	 * appends all bytes of an array
+	 * 
+	 * @param bytes
+	 *            the array
+	 * @return this builder
+	 */
+	public FrameBuilder putBytes(byte[] bytes) {
+		return this.putBytes(bytes, 0, bytes.length);
+	}
+
+	/**
+	 * appends some bytes of an array
+	 * 
+	 * @param bytes
+	 *            the array
+	 * @param offset
+	 *            the first byte to append
+	 * @param count
+	 *            the number of bytes to append
+	 * @return this builder
+	 */
+	public FrameBuilder putBytes(byte[] bytes, int offset, int count) {
+		this.ensureCapacity(count);
+		System.arraycopy(bytes, offset, this.buffer, this.length, count);
+		this.length += count;
+		return this;
+	}
+
+	/**
+	 * appends the lower 16 bits of an int (big endian)
+	 * 
+	 * @param value
+	 *            the int
+	 * @return this builder
+	 */
+	public FrameBuilder putShort(int value) {
+		this.ensureCapacity(2);
+		this.buffer[this.length++] = (byte) (value >>> 8);
+		this.buffer[this.length++] = (byte) value;
+		return this;
+	}
+
+	/**
+	 * appends an int (big endian as in a DataOutputStream)
+	 * 
+	 * @param value
+	 *            the int
+	 * @return this builder
+	 */
+	public FrameBuilder putInt(int value) {
+		this.ensureCapacity(4);
+		this.setInt(this.length, value);
+		this.length += 4;
+		return this;
+	}
+
+	/**
+	 * appends a float (as the bits of the float)
+	 * 
+	 * @param value
+	 *            the float
+	 * @return this builder
+	 */
+	public FrameBuilder putFloat(float value) {
+		return this.putInt(Float.floatToIntBits(value));
+	}
+
+	/**
+	 * appends a non-negative int as an unsigned varint (seven bits per byte,
+	 * the highest bit of a byte is set if another byte follows)
+	 * 
+	 * @param value
+	 *            the int
+	 * @return this builder
+	 */
+	public FrameBuilder putVarInt(int value) {
+		this.ensureCapacity(5);
+		while ((value & ~0x7F) != 0) {
+			this.buffer[this.length++] = (byte) ((value & 0x7F) | 0x80);
+			value >>>= 7;
+		}
+		this.buffer[this.length++] = (byte) value;
+		return this;
+	}
+
+	/**
+	 * appends a non-negative long as an unsigned varint (see
+	 * {@link #putVarInt(int)})
+	 * 
+	 * @param value
+	 *            the long
+	 * @return this builder
+	 */
+	public FrameBuilder putVarLong(long value) {
+		this.ensureCapacity(10);
+		while ((value & ~0x7FL) != 0) {
+			this.buffer[this.length++] = (byte) ((value & 0x7F) | 0x80);
+			value >>>= 7;
+		}
+		this.buffer[this.length++] = (byte) value;
+		return this;
+	}
+
+	/**
+	 * appends a String with its length (as an int)
+	 * 
+	 * @param value
+	 *            the String
+	 * @return this builder
+	 */
+	public FrameBuilder putString(String value) {
+		byte[] bytes = value.getBytes();
+		this.putInt(bytes.length);
+		return this.putBytes(bytes);
+	}
+
+	/**
+	 * appends a String with its length (as a varint)
+	 * 
+	 * @param value
+	 *            the String
+	 * @return this builder
+	 */
+	public FrameBuilder putCompactString(String value) {
+		byte[] bytes = value.getBytes();
+		this.putVarInt(bytes.length);
+		return this.putBytes(bytes);
+	}
+
+	/**
+	 * appends the characters of a String without its length. A String that
+	 * only contains ASCII characters is appended without any allocation.
+	 * 
+	 * @param value
+	 *            the String
+	 * @return this builder
+	 */
+	public FrameBuilder putText(String value) {
+		int count = value.length();
+		this.ensureCapacity(count);
+		for (int i = 0; i < count; i++) {
+			char c = value.charAt(i);
+			if (c >= 0x80) {
+				// not only ASCII: let the String encode itself
+				return this.putBytes(value.getBytes());
+			}
+			this.buffer[this.length + i] = (byte) c;
+		}
+		this.length += count;
+		return this;
+	}
+
+	/**
+	 * appends the characters from begin to end of a String without its length
+	 * (see {@link #putText(String)})
+	 * 
+	 * @param value
+	 *            the String
+	 * @param begin
+	 *            the index of the first character
+	 * @param end
+	 *            the index behind the last character
+	 * @return this builder
+	 */
+	public FrameBuilder putText(String value, int begin, int end) {
+		int count = end - begin;
+		this.ensureCapacity(count);
+		for (int i = 0; i < count; i++) {
+			char c = value.charAt(begin + i);
+			if (c >= 0x80) {
+				// not only ASCII: let the String encode itself
+				return this.putBytes(value.substring(begin, end).getBytes());
+			}
+			this.buffer[this.length + i] = (byte) c;
+		}
+		this.length += count;
+		return this;
+	}
+
+	/**
+	 * appends a long as decimal ASCII digits without allocating a String
+	 * 
+	 * @param value
+	 *            the long
+	 * @return this builder
+	 */
+	public FrameBuilder putDecimal(long value) {
+		if (value < 0) {
+			if (value == Long.MIN_VALUE) {
+				return this.putText(Long.toString(value));
+			}
+			this.putByte((byte) '-');
+			value = -value;
+		}
+
+		int digits = 1;
+		for (long rest = value / 10; rest != 0; rest /= 10) {
+			digits++;
+		}
+
+		this.ensureCapacity(digits);
+		for (int i = this.length + digits - 1; i >= this.length; i--) {
+			this.buffer[i] = (byte) ('0' + value % 10);
+			value /= 10;
+		}
+		this.length += digits;
+		return this;
+	}
+
+	/**
+	 * appends a float as decimal ASCII digits with at most the given number
+	 * of fraction digits (trailing zeros are left out, but at least one
+	 * fraction digit is written) without allocating a String
+	 * 
+	 * @param value
+	 *            the float
+	 * @param fractionDigits
+	 *            the maximal number of fraction digits
+	 * @return this builder
+	 */
+	public FrameBuilder putDecimal(float value, int fractionDigits) {
+		if (value != value) {
+			return this.putText("NaN");
+		}
+		if (value < 0) {
+			this.putByte((byte) '-');
+			value = -value;
+		}
+		if (value == Float.POSITIVE_INFINITY) {
+			return this.putText("Infinity");
+		}
+
+		long scale = 1;
+		for (int i = 0; i < fractionDigits; i++) {
+			scale *= 10;
+		}
+		if (value >= Long.MAX_VALUE / scale) {
+			// too big for a long (rare, so a String is allowed)
+			return this.putText(String.valueOf(value));
+		}
+
+		long scaled = (long) (value * scale + 0.5f);
+		this.putDecimal(scaled / scale);
+		if (fractionDigits == 0) {
+			return this;
+		}
+
+		long fraction = scaled % scale;
+		int digits = fractionDigits;
+		while (digits > 1 && fraction % 10 == 0) {
+			fraction /= 10;
+			digits--;
+		}
+
+		this.putByte((byte) '.');
+		this.ensureCapacity(digits);
+		for (int i = this.length + digits - 1; i >= this.length; i--) {
+			this.buffer[i] = (byte) ('0' + fraction % 10);
+			fraction /= 10;
+		}
+		this.length += digits;
+		return this;
+	}
+
+	/**
+	 * overwrites an int at the given position of the current frame (e.g. a
+	 * length that is only known after the content was appended)
+	 * 
+	 * @param index
+	 *            the position of the int in the frame
+	 * @param value
+	 *            the int
+	 */
+	public void setInt(int index, int value) {
+		this.buffer[index] = (byte) (value >>> 24);
+		this.buffer[index + 1] = (byte) (value >>> 16);
+		this.buffer[index + 2] = (byte) (value >>> 8);
+		this.buffer[index + 3] = (byte) value;
+	}
+
+	/**
+	 * gets the current frame in an array from the frame pool
+	 * 
+	 * @return the frame
+	 */
+	public byte[] toFrame() {
+		return this.toFrame(0);
+	}
+
+	/**
+	 * gets the current frame in an array from the frame pool with the given
+	 * number of bytes left free at its end (e.g. for content that is read
+	 * directly into the frame)
+	 * 
+	 * @param reserved
+	 *            how many bytes to leave free at the end of the frame
+	 * @return the frame
+	 */
+	public byte[] toFrame(int reserved) {
+		int frameLength = this.length + reserved;
+		byte[] frame;
+		if (this.pool != null) {
+			frame = this.pool.acquire(frameLength);
+		}
+		else {
+			frame = new byte[frameLength];
+		}
+		System.arraycopy(this.buffer, 0, frame, 0, this.length);
+		return frame;
+	}
+
+	/**
+	 * makes sure that the given number of bytes can be appended
+	 * 
+	 * @param count
+	 *            the number of bytes to append
+	 */
+	private void ensureCapacity(int count) {
+		if (this.length + count > this.buffer.length) {
+			int capacity = this.buffer.length * 2;
+			if (capacity < this.length + count) {
+				capacity = this.length + count;
+			}
+			byte[] buffer = new byte[capacity];
+			System.arraycopy(this.buffer, 0, buffer, 0, this.length);
+			this.buffer = buffer;
+		}
+	}
+}
@@ -0,0 +1,99 @@
+/*
+ *  CoMinds is a Java framework for collaborative robotic scenarios with
+ *  Lego Mindstorms based leJOS. A complete documentation can be found
+ *  in docs/thesis.pdf.
+ *
+ *  Copyright (C) 2010  Annabelle Klarl
+ *  All rights reserved.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ * 
+ */
+package common;
+
+/**
+ * A pool of frames (byte arrays) that can be reused instead of allocating a
+ * new array for every message. The pool holds a fixed number of frames of any
+ * length; a frame is only handed out again for a frame of exactly the same
+ * length, so that the writer can still write whole arrays. Frames that are
+ * longer than the maximum length (e.g. parts of files) are never pooled. All
+ * methods are thread safe.
+ * 
+ * @author Annabelle Klarl
+ */
+public class FramePool {
+
+	private final byte[][] frames;
+	private final int maxLength;
+	private int count;
+
+	/**
+	 * Constructor
+	 * 
+	 * @param size
+	 *            the maximum number of frames the pool holds
+	 * @param maxLength
+	 *            the maximum length of a pooled frame
+	 */
+	public FramePool(int size, int maxLength) {
+		this.frames = new byte[size][];
+		this.maxLength = maxLength;
+		this.count = 0;
+	}
+
+	/**
+	 * gets a frame with the given length. A frame from the pool is returned
+	 * if there is one with this length, otherwise a new one is allocated. The
+	 * content of the frame is undefined.
+	 * 
+	 * @param length
+	 *            the length of the frame
+	 * @return a frame with the given length
+	 */
+	public byte[] acquire(int length) {
+		if (length <= this.maxLength) {
+			synchronized (this) {
+				for (int i = 0; i < this.count; i++) {
+					byte[] frame = this.frames[i];
+					if (frame.length == length) {
+						this.count--;
+						this.frames[i] = this.frames[this.count];
+						this.frames[this.count] = null;
+						return frame;
+					}
+				}
+			}
+		}
+		return new byte[length];
+	}
+
+	/**
+	 * gives a frame back to the pool. The frame must not be used by the
+	 * caller any more. If the pool is full or the frame is too long, the
+	 * frame is left to the garbage collector.
+	 * 
+	 * @param frame
+	 *            the frame that is not used any more
+	 */
+	public void release(byte[] frame) {
+		if (frame.length > this.maxLength) {
+			return;
+		}
+		synchronized (this) {
+			if (this.count < this.frames.length) {
+				this.frames[this.count] = frame;
+				this.count++;
+			}
+		}
+	}
+}
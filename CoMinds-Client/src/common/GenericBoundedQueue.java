@@ -27,16 +27,20 @@ import common.exceptions.QueueBlockedException;
 
 /**
  * A thread safe generic queue that can only hold a fixed number of elements.
+ * The elements are popped in the order they were pushed.
  * 
  * @author Annabelle Klarl
  * @param <T>
  *            the elements the queue holds
  */
-public class GenericBoundedQueue<T> {
+public class GenericBoundedQueue<T> implements MessageQueue<T> {
 
 	private final Object sync;
 
 	private Object[] queue;
+	// the keys of the elements that were pushed by pushLatest (only created
+	// if pushLatest is used)
+	private Object[] keys;
 	private int size;
 	private int pointerPush;
 	private int pointerPop;
@@ -71,6 +75,7 @@ public class GenericBoundedQueue<T> {
 	 * @throws QueueBlockedException
 	 *             thrown if something shall be pushed but the queue is blocked
 	 */
+	@Override
 	public void push(T object) throws QueueBlockedException {
 		this.push(object, false);
 	}
@@ -91,6 +96,7 @@ public class GenericBoundedQueue<T> {
 	 * @throws QueueBlockedException
 	 *             thrown if something shall be pushed but the queue is blocked
 	 */
+	@Override
 	public void push(T object, boolean blocked) throws QueueBlockedException {
 		synchronized (this.sync) {
 			if (this.pointerBlocked != -1) {
@@ -99,6 +105,9 @@ public class GenericBoundedQueue<T> {
 			}
 
 			this.queue[this.pointerPush] = object;
+			if (this.keys != null) {
+				this.keys[this.pointerPush] = null;
+			}
 
 			this.pointerPush = (this.pointerPush + 1) % this.size;
 
@@ -117,6 +126,69 @@ public class GenericBoundedQueue<T> {
 		}
 	}
 
+	/**
+	 * see documentation {@link GenericBoundedQueue#push(Object, boolean)}. The
+	 * priority is ignored: all objects are popped in the order they were
+	 * pushed.
+	 * 
+	 * @param object
+	 *            the object to add
+	 * @param priority
+	 *            the priority of the object (ignored)
+	 * @param blocked
+	 *            whether the queue shall be blocked or not
+	 * @throws QueueBlockedException
+	 *             thrown if something shall be pushed but the queue is blocked
+	 */
+	@Override
+	public void push(T object, int priority, boolean blocked)
+			throws QueueBlockedException {
+		this.push(object, blocked);
+	}
+
+	/**
+	 * pushes an object onto the queue. If an object with the same key is still
+	 * in the queue, this object will be replaced by the new one (at its
+	 * position in the queue). Otherwise the object will be pushed at the last
+	 * position. The priority is ignored.
+	 * 
+	 * @param object
+	 *            the object to add
+	 * @param priority
+	 *            the priority of the object (ignored)
+	 * @param key
+	 *            the key of the object
+	 * @throws QueueBlockedException
+	 *             thrown if something shall be pushed but the queue is blocked
+	 */
+	@Override
+	public void pushLatest(T object, int priority, Object key)
+			throws QueueBlockedException {
+		synchronized (this.sync) {
+			if (this.pointerBlocked != -1) {
+				throw new QueueBlockedException(
+						"Cannot push into queue because queue is blocked");
+			}
+
+			if (this.keys == null) {
+				this.keys = new Object[this.size];
+			}
+			else {
+				for (int i = 0; i < this.diff; i++) {
+					int index = (this.pointerPop + i) % this.size;
+					if (key.equals(this.keys[index])) {
+						this.queue[index] = object;
+						return;
+					}
+				}
+			}
+
+			int index = this.pointerPush;
+			this.push(object, false);
+			this.keys[index] = key;
+		}
+	}
+
 	/**
 	 * pops an object from the queue (at the first position) => FIFO principal
 	 * holds). If the queue is blocked, no element can be retrieved from the
@@ -130,6 +202,7 @@ public class GenericBoundedQueue<T> {
 	 *             getting an element so that no more elements can be got from
 	 *             the queue until the queue is deblocked
 	 */
+	@Override
 	@SuppressWarnings("unchecked")
 	public T pop() throws EmptyQueueException, QueueBlockedException {
 		synchronized (this.sync) {
@@ -144,6 +217,9 @@ public class GenericBoundedQueue<T> {
 			else {
 				T result = (T) this.queue[this.pointerPop];
 				this.queue[this.pointerPop] = null;
+				if (this.keys != null) {
+					this.keys[this.pointerPop] = null;
+				}
 
 				this.pointerPop = (this.pointerPop + 1) % this.size;
 				this.diff--;
@@ -159,6 +235,7 @@ public class GenericBoundedQueue<T> {
 	 * 
 	 * @return true if the queue is emtpy, false otherwise
 	 */
+	@Override
 	public boolean isEmpty() {
 		return this.diff == 0;
 	}
@@ -168,6 +245,7 @@ public class GenericBoundedQueue<T> {
 	 * 
 	 * @return whether the queue is blocked
 	 */
+	@Override
 	public boolean isBlocked() {
 		return this.pointerBlocked != -1;
 	}
@@ -176,6 +254,7 @@ public class GenericBoundedQueue<T> {
 	 * deblocks the queue. That means if the queue was blocked at a specific
 	 * element this method will cancel the blocking.
 	 */
+	@Override
 	public void deblock() {
 		this.pointerBlocked = -1;
 	}
@@ -183,12 +262,14 @@ public class GenericBoundedQueue<T> {
 	/**
 	 * clears this queue
 	 */
+	@Override
 	public void clearQueue() {
 		synchronized (this.sync) {
 			this.pointerPush = 0;
 			this.pointerPop = 0;
 			this.diff = 0;
 			this.pointerBlocked = -1;
+			this.keys = null;
 		}
 	}
 }
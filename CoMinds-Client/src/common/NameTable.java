@@ -0,0 +1,108 @@
+/*
+ *  CoMinds is a Java framework for collaborative robotic scenarios with
+ *  Lego Mindstorms based leJOS. A complete documentation can be found
+ *  in docs/thesis.pdf.
+ *
+ *  Copyright (C) 2010  Annabelle Klarl
+ *  All rights reserved.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ * 
+ */
+package common;
+
+/**
+ * A table of interned names. A name is looked up by its bytes, so the same
+ * String object is returned every time the same bytes are read and no String
+ * has to be created for a name that was already read. The table holds only a
+ * fixed number of names: if it is full, the oldest name is replaced. This
+ * table is not thread safe.
+ * 
+ * @author Annabelle Klarl
+ */
+public class NameTable {
+
+	private final byte[][] bytes;
+	private final String[] names;
+	private int size = 0;
+	private int next = 0;
+
+	/**
+	 * Constructor
+	 * 
+	 * @param capacity
+	 *            the number of names the table can hold
+	 */
+	public NameTable(int capacity) {
+		this.bytes = new byte[capacity][];
+		this.names = new String[capacity];
+	}
+
+	/**
+	 * gets the name for the given bytes. If the name is not in the table yet,
+	 * it is created and added to the table.
+	 * 
+	 * @param buffer
+	 *            the buffer that holds the bytes of the name
+	 * @param offset
+	 *            where the name starts in the buffer
+	 * @param length
+	 *            the number of bytes of the name
+	 * @return the name
+	 */
+	public String getName(byte[] buffer, int offset, int length) {
+		for (int i = 0; i < this.size; i++) {
+			if (this.equals(this.bytes[i], buffer, offset, length)) {
+				return this.names[i];
+			}
+		}
+
+		byte[] nameBytes = new byte[length];
+		System.arraycopy(buffer, offset, nameBytes, 0, length);
+		String name = new String(nameBytes);
+
+		this.bytes[this.next] = nameBytes;
+		this.names[this.next] = name;
+		this.next = (this.next + 1) % this.names.length;
+		if (this.size < this.names.length) {
+			this.size++;
+		}
+		return name;
+	}
+
+	/**
+	 * compares the bytes of a name with a part of a buffer
+	 * 
+	 * @param nameBytes
+	 *            the bytes of the name
+	 * @param buffer
+	 *            the buffer
+	 * @param offset
+	 *            where to start in the buffer
+	 * @param length
+	 *            the number of bytes to compare
+	 * @return whether the bytes are the same
+	 */
+	private boolean equals(byte[] nameBytes, byte[] buffer, int offset,
+			int length) {
+		if (nameBytes.length != length) {
+			return false;
+		}
+		for (int i = 0; i < length; i++) {
+			if (nameBytes[i] != buffer[offset + i]) {
+				return false;
+			}
+		}
+		return true;
+	}
+}
@@ -0,0 +1,225 @@
+/*
+ *  CoMinds is a Java framework for collaborative robotic scenarios with
+ *  Lego Mindstorms based leJOS. A complete documentation can be found
+ *  in docs/thesis.pdf.
+ *
+ *  Copyright (C) 2010  Annabelle Klarl
+ *  All rights reserved.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ * 
+ */
+package common;
+
+import java.util.EmptyQueueException;
+
+import common.exceptions.QueueBlockedException;
+
+/**
+ * A thread safe message queue with a lane for each priority (see
+ * {@link Writer#PRIORITY_HIGH}, {@link Writer#PRIORITY_NORMAL} and
+ * {@link Writer#PRIORITY_LOW}). The next message is always taken from the lane
+ * with the highest priority that has messages. So that the lower lanes do not
+ * starve, a lower lane that was passed over too often will get the next turn.
+ * 
+ * Messages without a priority are put into the low lane: they keep their order
+ * with the bulk messages (e.g. the parts of a file). If the queue is blocked
+ * after a message, this message will be popped after all other messages.
+ * 
+ * @author Annabelle Klarl
+ * @param <T>
+ *            the elements the queue holds
+ */
+public class PriorityMessageQueue<T> implements MessageQueue<T> {
+
+	// how often a lower lane may be passed over before it gets a turn
+	private static final int STARVATION_LIMIT = 8;
+
+	private final Object sync;
+
+	private final MessageQueue<T>[] lanes;
+	private final int[] passedOver;
+
+	// the element after which the queue is blocked (popped after all others)
+	private T blockingElement;
+	private int blockingPriority;
+	private boolean blocked;
+
+	/**
+	 * Constructor for a queue whose lanes are bounded FIFO queues
+	 * 
+	 * @param size
+	 *            the number of elements each lane can hold
+	 */
+	public PriorityMessageQueue(int size) {
+		this(new GenericBoundedQueue<T>(size), new GenericBoundedQueue<T>(size),
+				new GenericBoundedQueue<T>(size));
+	}
+
+	/**
+	 * Constructor
+	 * 
+	 * @param high
+	 *            the lane for the elements with high priority
+	 * @param normal
+	 *            the lane for the elements with normal priority
+	 * @param low
+	 *            the lane for the elements with low priority
+	 */
+	public PriorityMessageQueue(MessageQueue<T> high, MessageQueue<T> normal,
+			MessageQueue<T> low) {
+		this.sync = new Object();
+		@SuppressWarnings("unchecked")
+		MessageQueue<T>[] lanes = (MessageQueue<T>[]) new MessageQueue<?>[] {
+				high, normal, low };
+		this.lanes = lanes;
+		this.passedOver = new int[this.lanes.length];
+		this.blockingElement = null;
+		this.blocked = false;
+	}
+
+	@Override
+	public void push(T object) throws QueueBlockedException {
+		this.push(object, Writer.PRIORITY_LOW, false);
+	}
+
+	@Override
+	public void push(T object, boolean blocked) throws QueueBlockedException {
+		this.push(object, Writer.PRIORITY_LOW, blocked);
+	}
+
+	@Override
+	public void push(T object, int priority, boolean blocked)
+			throws QueueBlockedException {
+		synchronized (this.sync) {
+			if (this.blocked) {
+				throw new QueueBlockedException(
+						"Cannot push into queue because queue is blocked");
+			}
+
+			if (blocked) {
+				this.blocked = true;
+				this.blockingElement = object;
+				this.blockingPriority = priority;
+			}
+			else {
+				this.lanes[this.getLane(priority)].push(object, priority,
+						false);
+			}
+		}
+	}
+
+	@Override
+	public void pushLatest(T object, int priority, Object key)
+			throws QueueBlockedException {
+		synchronized (this.sync) {
+			if (this.blocked) {
+				throw new QueueBlockedException(
+						"Cannot push into queue because queue is blocked");
+			}
+
+			this.lanes[this.getLane(priority)].pushLatest(object, priority, key);
+		}
+	}
+
+	@Override
+	public T pop() throws EmptyQueueException, QueueBlockedException {
+		synchronized (this.sync) {
+			int next = -1;
+			for (int lane = 0; lane < this.lanes.length; lane++) {
+				if (!this.lanes[lane].isEmpty()) {
+					if (next == -1) {
+						next = lane;
+					}
+					else if (++this.passedOver[lane] > STARVATION_LIMIT) {
+						// give the lower lane a turn and stop looking
+						next = lane;
+						break;
+					}
+				}
+			}
+
+			if (next == -1) {
+				if (this.blockingElement == null) {
+					throw new EmptyQueueException();
+				}
+				T element = this.blockingElement;
+				this.blockingElement = null;
+				return element;
+			}
+
+			this.passedOver[next] = 0;
+			return this.lanes[next].pop();
+		}
+	}
+
+	@Override
+	public boolean isEmpty() {
+		synchronized (this.sync) {
+			for (MessageQueue<T> lane : this.lanes) {
+				if (!lane.isEmpty()) {
+					return false;
+				}
+			}
+			return this.blockingElement == null;
+		}
+	}
+
+	@Override
+	public boolean isBlocked() {
+		return this.blocked;
+	}
+
+	@Override
+	public void deblock() {
+		synchronized (this.sync) {
+			this.blocked = false;
+			if (this.blockingElement != null) {
+				try {
+					this.lanes[this.getLane(this.blockingPriority)].push(
+							this.blockingElement, this.blockingPriority, false);
+				}
+				catch (QueueBlockedException e) {
+					// the lanes themselves are never blocked
+				}
+				this.blockingElement = null;
+			}
+		}
+	}
+
+	@Override
+	public void clearQueue() {
+		synchronized (this.sync) {
+			for (int lane = 0; lane < this.lanes.length; lane++) {
+				this.lanes[lane].clearQueue();
+				this.passedOver[lane] = 0;
+			}
+			this.blockingElement = null;
+			this.blocked = false;
+		}
+	}
+
+	/**
+	 * gets the lane for the given priority (unknown priorities are low)
+	 * 
+	 * @param priority
+	 *            the priority of an element
+	 * @return the index of the lane
+	 */
+	private int getLane(int priority) {
+		if (priority < 0 || priority >= this.lanes.length) {
+			return Writer.PRIORITY_LOW;
+		}
+		return priority;
+	}
+}
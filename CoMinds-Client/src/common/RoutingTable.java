@@ -0,0 +1,317 @@
+/*
+ *  CoMinds is a Java framework for collaborative robotic scenarios with
+ *  Lego Mindstorms based leJOS. A complete documentation can be found
+ *  in docs/thesis.pdf.
+ *
+ *  Copyright (C) 2010  Annabelle Klarl
+ *  All rights reserved.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ * 
+ */
+package common;
+
+import java.util.ArrayList;
+
+/**
+ * This is a routing table that maps the names of devices to connections. Each
+ * name gets a small id when it is first seen (the id of a name never changes),
+ * so a connection can be looked up by its name with a hash lookup or directly
+ * by its id. Lookups are lock free: the table is never changed in place, but
+ * every change (which only happens on connect or close) creates a new snapshot
+ * of the table that replaces the old one.
+ * 
+ * @author Annabelle Klarl
+ * @param <T>
+ *            generic type of the connections
+ */
+public class RoutingTable<T> {
+
+	private static final int INITIAL_CAPACITY = 8;
+
+	private volatile Snapshot snapshot = new Snapshot(INITIAL_CAPACITY);
+
+	/**
+	 * gets the id of the given name. If the name has no id yet it will get
+	 * the next free id.
+	 * 
+	 * @param name
+	 *            the name of the device
+	 * @return the id of the name
+	 */
+	public synchronized int intern(String name) {
+		int id = this.snapshot.idOf(name);
+		if (id == -1) {
+			Snapshot copy = this.snapshot.copy();
+			id = copy.add(name);
+			this.snapshot = copy;
+		}
+		return id;
+	}
+
+	/**
+	 * gets the id of the given name
+	 * 
+	 * @param name
+	 *            the name of the device
+	 * @return the id of the name or -1 if the name has no id
+	 */
+	public int idOf(String name) {
+		return this.snapshot.idOf(name);
+	}
+
+	/**
+	 * gets the name for the given id
+	 * 
+	 * @param id
+	 *            the id of a device
+	 * @return the name of the device or null if there is no device with this
+	 *         id
+	 */
+	public String nameOf(int id) {
+		Snapshot current = this.snapshot;
+		if (id < 0 || id >= current.size) {
+			return null;
+		}
+		return current.names[id];
+	}
+
+	/**
+	 * puts the connection for the given name into the table (will replace any
+	 * previous connection for this name)
+	 * 
+	 * @param name
+	 *            the name of the device
+	 * @param value
+	 *            the connection to the device
+	 */
+	public synchronized void put(String name, T value) {
+		Snapshot copy = this.snapshot.copy();
+		int id = copy.idOf(name);
+		if (id == -1) {
+			id = copy.add(name);
+		}
+		copy.values[id] = value;
+		this.snapshot = copy;
+	}
+
+	/**
+	 * removes the connection for the given name from the table (the name will
+	 * keep its id). It will return the removed connection or null if there was
+	 * no connection for the name.
+	 * 
+	 * @param name
+	 *            the name of the device
+	 * @return the removed connection or null if there was no connection
+	 */
+	@SuppressWarnings("unchecked")
+	public synchronized T remove(String name) {
+		int id = this.snapshot.idOf(name);
+		if (id == -1 || this.snapshot.values[id] == null) {
+			return null;
+		}
+
+		Snapshot copy = this.snapshot.copy();
+		T value = (T) copy.values[id];
+		copy.values[id] = null;
+		this.snapshot = copy;
+		return value;
+	}
+
+	/**
+	 * gets the connection for the given name
+	 * 
+	 * @param name
+	 *            the name of the device
+	 * @return the connection or null if there is no connection for the name
+	 */
+	@SuppressWarnings("unchecked")
+	public T get(String name) {
+		Snapshot current = this.snapshot;
+		int id = current.idOf(name);
+		if (id == -1) {
+			return null;
+		}
+		return (T) current.values[id];
+	}
+
+	/**
+	 * gets the connection for the given id
+	 * 
+	 * @param id
+	 *            the id of the device
+	 * @return the connection or null if there is no connection for the id
+	 */
+	@SuppressWarnings("unchecked")
+	public T get(int id) {
+		Snapshot current = this.snapshot;
+		if (id < 0 || id >= current.size) {
+			return null;
+		}
+		return (T) current.values[id];
+	}
+
+	/**
+	 * returns whether there is a connection for the given name
+	 * 
+	 * @param name
+	 *            the name of the device
+	 * @return whether there is a connection
+	 */
+	public boolean contains(String name) {
+		return this.get(name) != null;
+	}
+
+	/**
+	 * gets a list of the names of all devices there is a connection for
+	 * 
+	 * @return the names of all connected devices
+	 */
+	public ArrayList<String> keys() {
+		Snapshot current = this.snapshot;
+		ArrayList<String> keys = new ArrayList<String>(current.size);
+		for (int id = 0; id < current.size; id++) {
+			if (current.values[id] != null) {
+				keys.add(current.names[id]);
+			}
+		}
+		return keys;
+	}
+
+	/**
+	 * This is one version of the routing table. The names are hashed into an
+	 * open addressing table that holds the id for each name. The names and
+	 * connections are stored in arrays indexed by id.
+	 * 
+	 * @author Annabelle Klarl
+	 */
+	private static class Snapshot {
+
+		// hash table from names to ids (length is a power of two)
+		private String[] hashedNames;
+		private int[] hashedIds;
+
+		// names and connections indexed by id
+		private String[] names;
+		private Object[] values;
+		private int size;
+
+		/**
+		 * Constructor for an empty snapshot
+		 * 
+		 * @param capacity
+		 *            the number of ids there is space for
+		 */
+		private Snapshot(int capacity) {
+			this.hashedNames = new String[capacity * 2];
+			this.hashedIds = new int[capacity * 2];
+			this.names = new String[capacity];
+			this.values = new Object[capacity];
+			this.size = 0;
+		}
+
+		/**
+		 * gets the id of the given name
+		 * 
+		 * @param name
+		 *            the name of the device
+		 * @return the id or -1 if the name has no id
+		 */
+		private int idOf(String name) {
+			int mask = this.hashedNames.length - 1;
+			int index = name.hashCode() & mask;
+			String current;
+			while ((current = this.hashedNames[index]) != null) {
+				if (current == name || current.equals(name)) {
+					return this.hashedIds[index];
+				}
+				index = (index + 1) & mask;
+			}
+			return -1;
+		}
+
+		/**
+		 * gives the next free id to the given name (may only be called on a
+		 * copy that is not published yet)
+		 * 
+		 * @param name
+		 *            the name of the device
+		 * @return the new id of the name
+		 */
+		private int add(String name) {
+			if (this.size == this.names.length) {
+				this.grow();
+			}
+
+			int id = this.size++;
+			this.names[id] = name;
+			this.hash(name, id);
+			return id;
+		}
+
+		/**
+		 * puts the name with the given id into the hash table
+		 * 
+		 * @param name
+		 *            the name of the device
+		 * @param id
+		 *            the id of the name
+		 */
+		private void hash(String name, int id) {
+			int mask = this.hashedNames.length - 1;
+			int index = name.hashCode() & mask;
+			while (this.hashedNames[index] != null) {
+				index = (index + 1) & mask;
+			}
+			this.hashedNames[index] = name;
+			this.hashedIds[index] = id;
+		}
+
+		/**
+		 * doubles the capacity of this snapshot
+		 */
+		private void grow() {
+			int capacity = this.names.length * 2;
+
+			String[] names = new String[capacity];
+			Object[] values = new Object[capacity];
+			System.arraycopy(this.names, 0, names, 0, this.size);
+			System.arraycopy(this.values, 0, values, 0, this.size);
+			this.names = names;
+			this.values = values;
+
+			this.hashedNames = new String[capacity * 2];
+			this.hashedIds = new int[capacity * 2];
+			for (int id = 0; id < this.size; id++) {
+				this.hash(this.names[id], id);
+			}
+		}
+
+		/**
+		 * creates a copy of this snapshot that can be changed
+		 * 
+		 * @return the copy
+		 */
+		private Snapshot copy() {
+			Snapshot copy = new Snapshot(this.names.length);
+			System.arraycopy(this.hashedNames, 0, copy.hashedNames, 0,
+					this.hashedNames.length);
+			System.arraycopy(this.hashedIds, 0, copy.hashedIds, 0,
+					this.hashedIds.length);
+			System.arraycopy(this.names, 0, copy.names, 0, this.size);
+			System.arraycopy(this.values, 0, copy.values, 0, this.size);
+			copy.size = this.size;
+			return copy;
+		}
+	}
+}
@@ -83,10 +83,77 @@ public abstract class BTComm {
 	protected static final byte FILE_PART = 0x03; // 0000 0011
 	protected static final byte FILE = 0x04; // 0000 0100
 	protected static final byte LIGHT = 0x05; // 0000 0101
+	protected static final byte FILE_RESUME = 0x06; // 0000 0110
+	// a REQUEST of the receiver of files: the sender may write the given
+	// number of further frames of files (FILE_WHOLE or a part). The
+	// receiver answers the FILE_CREDIT_OFFER of the sender with a credit for
+	// FILE_WINDOW frames, then it grants one frame for every frame it has
+	// received.
+	protected static final byte FILE_CREDIT = 0x03; // 0000 0011
+	protected static final byte CODEC_OFFER = 0x03; // 0000 0011
+	protected static final byte CODEC_ACK = 0x04; // 0000 0100
+	protected static final byte COMPRESSION_OFFER = 0x05; // 0000 0101
+	protected static final byte COMPRESSION_ACK = 0x06; // 0000 0110
+	// a COMMAND of the sender of files before its first file: it offers to
+	// write the files only as fast as the receiver grants credits (see
+	// FILE_CREDIT). A remote device that does not understand it ignores the
+	// offer and gets the files without waiting for credits.
+	protected static final byte FILE_CREDIT_OFFER = 0x07; // 0000 0111
+	// a COMMAND of a managed connection before its first data frame: it
+	// offers to write the data frames only as fast as the remote device
+	// grants credits (see NXTConnectionManager#DATA_CREDIT). A remote device
+	// that understands the credits acknowledges the offer with its first
+	// credit. A remote device that does not understand it ignores the offer
+	// and neither grants nor gets credits.
+	protected static final byte DATA_CREDIT_OFFER = 0x08; // 0000 1000
+	// COMMANDs that offer and acknowledge to send the parts of files as
+	// FILE_RESUMABLE_PART and to request missing parts with FILE_RESUME. A
+	// remote device that does not understand it ignores the offer and gets
+	// the parts as FILE_PART.
+	protected static final byte RESUME_OFFER = 0x09; // 0000 1001
+	protected static final byte RESUME_ACK = 0x0A; // 0000 1010
+
+	// a SEND of a part of a file that can be resumed (instead of a FILE_PART
+	// with the number of parts, the name of the file ending with the index of
+	// the part and its size): the id of the transfer, the number of parts,
+	// the size of the file, the index of the part, the name of the file, the
+	// size of the part and its CRC32 checksum. Missing parts are requested
+	// again with FILE_RESUME. It is only sent after the remote device offered
+	// or acknowledged it (see RESUME_OFFER), but it is always understood.
+	protected static final byte FILE_RESUMABLE_PART = 0x04; // 0000 0100
+
+	// a SEND of a FILE_WHOLE or a part whose content is compressed (see
+	// LzCodec): the next byte is the code of the file frame, then the fields
+	// of this frame follow (with the size of the uncompressed content and its
+	// checksum), then the size of the compressed content as an int and the
+	// compressed content. It is only sent after the remote device offered or
+	// acknowledged the compression, but it is always understood.
+	protected static final byte FILE_COMPRESSED = 0x06; // 0000 0110
+
+	// a SEND of binary log records of a nxt to the pc (see the LogWriter of
+	// the nxt): a byte LOG_RECORDS or LOG_SEGMENT, the length of the records
+	// as an int and the records. LOG_RECORDS continue the records that were
+	// sent before, a LOG_SEGMENT is a segment of the ring log file of the nxt
+	// that was kept while the connection was busy and is decoded on its own.
+	// It is written by the connection manager of the nxt with low priority
+	// and takes no data credit.
+	protected static final byte LOG = 0x07; // 0000 0111
+	protected static final byte LOG_RECORDS = 0x00;
+	protected static final byte LOG_SEGMENT = 0x01;
+
+	// flag in the lower four bits of a SEND or REQUEST: lengths and numbers
+	// are sent as varints and degrees and light values as 16 bit fixed point
+	// values (see CommunicationUtils). It is only set after the remote device
+	// offered or acknowledged this codec, but it is always understood.
+	protected static final byte COMPACT = 0x08; // 0000 1000
 
 	protected static final byte UPPER_BITS = -0x10;
 	protected static final byte LOWER_BITS = 0x0F;
 
+	// how many frames of files the receiver grants with the answer to the
+	// FILE_CREDIT_OFFER (see FILE_CREDIT)
+	protected static final int FILE_WINDOW = 2;
+
 	// number of users which use this bt connection
 	private int users = 0;
 
@@ -110,6 +177,10 @@ public abstract class BTComm {
 
 	// sync object for the communication
 	private Object sync = new Object();
+	// sync object for the writing of files (a file is not written while
+	// holding sync as it waits for the credits of the remote device, which
+	// the reader may only add if it can write its own messages)
+	private final Object fileSync = new Object();
 
 	/**
 	 * Constructor
@@ -131,6 +202,193 @@ public abstract class BTComm {
 		this.users++;
 	}
 
+	/**
+	 * sets how long the writer of this connection waits for more messages
+	 * before it sends the messages it has gathered so far (see
+	 * {@link common.Writer#setLingerTime(int)}). A longer time means less but
+	 * fuller packets but a higher delay of single messages. All managed
+	 * connections share one writer.
+	 * 
+	 * @param lingerTime
+	 *            the time to wait for more messages (in ms)
+	 */
+	public void setLingerTime(int lingerTime) {
+		if (this.writer != null) {
+			this.writer.setLingerTime(lingerTime);
+		}
+	}
+
+	/**
+	 * offers the remote device to encode the content of the messages
+	 * compactly (see {@link #COMPACT}). If the remote device understands the
+	 * compact codec, it will acknowledge the offer and both devices will use
+	 * it from then on. A remote device that does not understand it will just
+	 * ignore the offer.
+	 */
+	protected void offerCompactCodec() {
+		try {
+			this.writeCommand(CODEC_OFFER);
+		}
+		catch (ConnectionClosedException e) {
+			// nothing to offer
+		}
+		catch (QueueBlockedException e) {
+			if (this.logging) {
+				logger.error(this.connName + "in offerCompactCodec: "
+						+ e.getMessage());
+			}
+		}
+	}
+
+	/**
+	 * encodes the content of all following messages compactly (see
+	 * {@link #COMPACT}) because the remote device offered or acknowledged the
+	 * compact codec
+	 * 
+	 * @param acknowledge
+	 *            whether the remote device offered the codec and the offer
+	 *            must be acknowledged
+	 */
+	protected void useCompactCodec(boolean acknowledge) {
+		if (this.writer == null) {
+			return;
+		}
+		this.writer.setCompact(true);
+		if (acknowledge) {
+			try {
+				this.writeCommand(CODEC_ACK);
+			}
+			catch (ConnectionClosedException e) {
+				// nothing to acknowledge
+			}
+			catch (QueueBlockedException e) {
+				if (this.logging) {
+					logger.error(this.connName + "in useCompactCodec: "
+							+ e.getMessage());
+				}
+			}
+		}
+	}
+
+	/**
+	 * offers the remote device to compress the content of the files that are
+	 * sent (see {@link #FILE_COMPRESSED}). If the remote device understands
+	 * the compression, it will acknowledge the offer and both devices will
+	 * compress the files from then on. A remote device that does not
+	 * understand it will just ignore the offer.
+	 */
+	protected void offerCompression() {
+		try {
+			this.writeCommand(COMPRESSION_OFFER);
+		}
+		catch (ConnectionClosedException e) {
+			// nothing to offer
+		}
+		catch (QueueBlockedException e) {
+			if (this.logging) {
+				logger.error(this.connName + "in offerCompression: "
+						+ e.getMessage());
+			}
+		}
+	}
+
+	/**
+	 * compresses the content of all following files (see
+	 * {@link #FILE_COMPRESSED}) because the remote device offered or
+	 * acknowledged the compression
+	 * 
+	 * @param acknowledge
+	 *            whether the remote device offered the compression and the
+	 *            offer must be acknowledged
+	 */
+	protected void useCompression(boolean acknowledge) {
+		if (this.writer == null) {
+			return;
+		}
+		this.writer.setCompression(true);
+		if (acknowledge) {
+			try {
+				this.writeCommand(COMPRESSION_ACK);
+			}
+			catch (ConnectionClosedException e) {
+				// nothing to acknowledge
+			}
+			catch (QueueBlockedException e) {
+				if (this.logging) {
+					logger.error(this.connName + "in useCompression: "
+							+ e.getMessage());
+				}
+			}
+		}
+	}
+
+	/**
+	 * offers the remote device to send the parts of files so that they can be
+	 * resumed (see {@link #FILE_RESUMABLE_PART}). If the remote device
+	 * understands the resumable parts, it will acknowledge the offer and both
+	 * devices will send them from then on. A remote device that does not
+	 * understand it will just ignore the offer.
+	 */
+	protected void offerResumableFiles() {
+		try {
+			this.writeCommand(RESUME_OFFER);
+		}
+		catch (ConnectionClosedException e) {
+			// nothing to offer
+		}
+		catch (QueueBlockedException e) {
+			if (this.logging) {
+				logger.error(this.connName + "in offerResumableFiles: "
+						+ e.getMessage());
+			}
+		}
+	}
+
+	/**
+	 * sends the parts of all following files so that they can be resumed (see
+	 * {@link #FILE_RESUMABLE_PART}) because the remote device offered or
+	 * acknowledged the resumable parts. The first time, the parts of the files
+	 * that were not received completely are requested again (see
+	 * {@link #resumeFileTransfers()}).
+	 * 
+	 * @param acknowledge
+	 *            whether the remote device offered the resumable parts and the
+	 *            offer must be acknowledged
+	 */
+	protected void useResumableFiles(boolean acknowledge) {
+		if (this.writer == null) {
+			return;
+		}
+		boolean resumable = this.writer.isResumable();
+		this.writer.setResumable(true);
+		if (acknowledge) {
+			try {
+				this.writeCommand(RESUME_ACK);
+			}
+			catch (ConnectionClosedException e) {
+				// nothing to acknowledge
+			}
+			catch (QueueBlockedException e) {
+				if (this.logging) {
+					logger.error(this.connName + "in useResumableFiles: "
+							+ e.getMessage());
+				}
+			}
+		}
+		if (!resumable) {
+			this.resumeFileTransfers();
+		}
+	}
+
+	/**
+	 * grants credits for data frames to the remote device because it offered
+	 * to wait for them (see {@link #DATA_CREDIT_OFFER}). Only a managed
+	 * connection grants credits, so the offer is ignored here.
+	 */
+	protected void acceptDataCredits() {
+		// only the frames of managed connections are routed by the pc
+	}
+
 	/**
 	 * adds a new user to this bt comm. That means the number of users will be
 	 * increased
@@ -343,15 +601,121 @@ public abstract class BTComm {
 	 */
 	public void writeFile(String fileName) throws FileNotFoundException,
 			IOException, ConnectionClosedException, QueueBlockedException {
-		synchronized (this.sync) {
-			if (this.closed) {
-				throw new ConnectionClosedException(
-						"Call of write file after closing the connection.");
+		synchronized (this.fileSync) {
+			synchronized (this.sync) {
+				if (this.closed) {
+					throw new ConnectionClosedException(
+							"Call of write file after closing the connection.");
+				}
 			}
-			else {
-				this.writer.writeFile(fileName);
+
+			this.writer.writeFile(fileName);
+			if (this.logging) {
+				logger.debug(this.connName + "file " + fileName + " sent");
+			}
+		}
+	}
+
+	/**
+	 * see documentation {@link MessageWriter#resendFile(int, int, byte[])}
+	 * 
+	 * @param transferId
+	 *            the id of the transfer of the file
+	 * @param fileSize
+	 *            the size of the file the remote device knows
+	 * @param receivedParts
+	 *            the bitmap of the parts the remote device received
+	 * @throws FileNotFoundException
+	 *             thrown if the file is not known any more or could not be
+	 *             found
+	 * @throws IOException
+	 *             thrown if something couldn't be written to output
+	 * @throws ConnectionClosedException
+	 *             thrown if this method was called when connection has already
+	 *             been closed
+	 * @throws QueueBlockedException
+	 *             thrown if the writer thread is blocked and nothing can be
+	 *             written to it at the moment
+	 */
+	protected void resendFile(int transferId, int fileSize,
+			byte[] receivedParts) throws FileNotFoundException, IOException,
+			ConnectionClosedException, QueueBlockedException {
+		synchronized (this.fileSync) {
+			synchronized (this.sync) {
+				if (this.closed) {
+					throw new ConnectionClosedException(
+							"Call of resend file after closing the connection.");
+				}
+			}
+
+			this.writer.resendFile(transferId, fileSize, receivedParts);
+			if (this.logging) {
+				logger.debug(this.connName + "file " + transferId + " resent");
+			}
+		}
+	}
+
+	/**
+	 * grants the remote device to write the given number of further frames of
+	 * files (see {@link #FILE_CREDIT}). The credit is written without waiting
+	 * for a file that is written at the same time.
+	 * 
+	 * @param credits
+	 *            how many frames of files the remote device may write
+	 */
+	protected void grantFileCredits(int credits) {
+		if (this.closed || this.writer == null) {
+			return;
+		}
+		try {
+			this.writer.writeFileCredits(credits);
+		}
+		catch (QueueBlockedException e) {
+			if (this.logging) {
+				logger.error(this.connName + "in grantFileCredits: "
+						+ e.getMessage());
+			}
+		}
+	}
+
+	/**
+	 * lets this device write further frames of files because the remote
+	 * device granted credits for them (see {@link #FILE_CREDIT})
+	 * 
+	 * @param credits
+	 *            how many frames of files may be written
+	 */
+	protected void addFileCredits(int credits) {
+		if (this.writer != null) {
+			this.writer.addFileCredits(credits);
+		}
+	}
+
+	/**
+	 * requests the parts of all files that were not received from the remote
+	 * device before the last connection to it was lost (see
+	 * {@link #FILE_RESUME}). Only the missing parts will be sent again. It is
+	 * only called after the remote device offered or acknowledged the
+	 * resumable parts (see {@link #useResumableFiles(boolean)}).
+	 */
+	public void resumeFileTransfers() {
+		FileAssembler[] assemblers = FileTransfers
+				.getReceivedFiles(this.remoteName);
+		for (FileAssembler assembler : assemblers) {
+			try {
+				synchronized (this.sync) {
+					if (this.closed || this.writer == null) {
+						return;
+					}
+					this.writer.writeResumeRequest(assembler.getTransferId(),
+							assembler.getFileSize(), assembler
+									.getReceivedParts());
+				}
+			}
+			catch (QueueBlockedException e) {
 				if (this.logging) {
-					logger.debug(this.connName + "file " + fileName + " sent");
+					logger.error(this.connName + "in resumeFileTransfers: "
+							+ e.getMessage());
 				}
 			}
 		}
@@ -21,10 +21,10 @@
  */
 package communication;
 
-import java.io.ByteArrayInputStream;
-
 import common.Writer;
+import common.exceptions.QueueBlockedException;
 import communication.extendedClasses.ExtendedDataInputStream;
+import communication.extendedClasses.FrameInputStream;
 
 /**
  * This is a class for a managed connection. It will be managed by a pc server
@@ -34,6 +34,22 @@ import communication.extendedClasses.ExtendedDataInputStream;
  */
 public class BTCommManaged extends BTComm {
 
+	// the stream where the reader reads the data of every frame from
+	private final FrameInputStream input = new FrameInputStream();
+
+	// the writer that writes the data frames as long as the remote device
+	// grants credits for them
+	private final RoutingWriter routingWriter;
+
+	// whether the remote device offered to wait for credits for its data
+	// frames, whether the offer still has to be acknowledged and how many
+	// data frames were received since the last credit was granted for them
+	// (see BTComm#DATA_CREDIT_OFFER and NXTConnectionManager#DATA_CREDIT, only
+	// used by the reader thread of the connection manager)
+	private boolean dataCreditsAccepted = false;
+	private boolean dataCreditAckPending = false;
+	private int receivedFrames = 0;
+
 	/**
 	 * Constructor which gets a logical connection to the nxt named toNxtName.
 	 * This connection will be managed by the ConnectionManager
@@ -44,27 +60,32 @@ public class BTCommManaged extends BTComm {
 	 *            a String with the name to which nxt to connect
 	 * @param the
 	 *            writer which writes all message to the output
+	 * @param nodeIds
+	 *            the ids of all devices for the compact header
 	 * @param logging
 	 *            whether all communication shall be logged to a log file
 	 */
 	protected BTCommManaged(String myName, String remoteName, Writer writer,
-			boolean logging) {
+			NodeIds nodeIds, boolean logging) {
 		super(myName, remoteName, logging);
 
 		this.reader = new MessageReader(this.connName,
-				new ExtendedDataInputStream(new ByteArrayInputStream(
-						new byte[0])), this, true, logging);
-		this.writer = new RoutingWriter(myName, remoteName, writer);
+				new ExtendedDataInputStream(this.input), this, true, logging);
+		this.routingWriter = new RoutingWriter(myName, remoteName, writer,
+				nodeIds);
+		this.writer = this.routingWriter;
 	}
 
 	/**
-	 * sets a new stream where to get the remote data
+	 * sets the data where to read the next remote message from
 	 * 
-	 * @param dis
-	 *            the new input stream where to get the remote data
+	 * @param data
+	 *            the buffer that holds the remote data
+	 * @param length
+	 *            the length of the data in the buffer
 	 */
-	protected void setDataInput(ExtendedDataInputStream dis) {
-		this.reader.setExtendedDataInputStream(dis);
+	protected void setDataInput(byte[] data, int length) {
+		this.input.setFrame(data, 0, length);
 	}
 
 	/**
@@ -76,4 +97,128 @@ public class BTCommManaged extends BTComm {
 		this.reader.read();
 	}
 
+	/**
+	 * offers the remote device to write the data frames of this connection
+	 * only as fast as it grants credits (see {@link #DATA_CREDIT_OFFER})
+	 */
+	protected void offerDataCredits() {
+		try {
+			this.routingWriter.offerDataCredits();
+		}
+		catch (QueueBlockedException e) {
+			if (this.logging) {
+				logger.error(this.connName + "in offerDataCredits: "
+						+ e.getMessage());
+			}
+		}
+	}
+
+	/**
+	 * grants credits for data frames to the remote device from now on because
+	 * it offered to wait for them (see {@link #DATA_CREDIT_OFFER}). The first
+	 * credit acknowledges the offer, the frames are counted from the offer on.
+	 */
+	@Override
+	protected void acceptDataCredits() {
+		this.dataCreditsAccepted = true;
+		this.dataCreditAckPending = true;
+		this.receivedFrames = 0;
+	}
+
+	/**
+	 * counts a data frame that was received from the remote device and
+	 * returns whether a credit has to be granted to the remote device (see
+	 * {@link NXTConnectionManager#DATA_CREDIT}). Credits are only granted if
+	 * the remote device offered to wait for them.
+	 * 
+	 * @param code
+	 *            the code of the message in the frame
+	 * @return whether the remote device shall get a credit (either the
+	 *         acknowledgement of the offer or a credit for
+	 *         {@link NXTConnectionManager#DATA_CREDIT_BATCH} further frames)
+	 */
+	protected boolean countReceivedFrame(byte code) {
+		if (!this.dataCreditsAccepted) {
+			return false;
+		}
+		if (this.dataCreditAckPending) {
+			this.dataCreditAckPending = false;
+			return true;
+		}
+		if (RoutingWriter.takesDataCredit(code)
+				&& ++this.receivedFrames >= NXTConnectionManager.DATA_CREDIT_BATCH) {
+			this.receivedFrames -= NXTConnectionManager.DATA_CREDIT_BATCH;
+			return true;
+		}
+		return false;
+	}
+
+	/**
+	 * gets a command of the connection manager to the remote device with the
+	 * header of this connection
+	 * 
+	 * @param command
+	 *            the command of the connection manager
+	 * @return the command with header
+	 */
+	protected byte[] getManagerCommand(byte command) {
+		return this.routingWriter.getManagerCommand(command);
+	}
+
+	/**
+	 * lets this device write further data frames because the remote device
+	 * granted a credit for them (see {@link NXTConnectionManager#DATA_CREDIT})
+	 * 
+	 * @param credits
+	 *            how many data frames may be written
+	 */
+	protected void addDataCredits(int credits) {
+		try {
+			this.routingWriter.addDataCredits(credits);
+		}
+		catch (QueueBlockedException e) {
+			if (this.logging) {
+				logger.error(this.connName + "in addDataCredits: "
+						+ e.getMessage());
+			}
+		}
+	}
+
+	/**
+	 * writes the frames that wait for a credit of the remote device anyway if
+	 * the remote device did not grant any credit for too long (see
+	 * {@link RoutingWriter#checkCreditTimeout()})
+	 */
+	protected void checkDataCredits() {
+		try {
+			this.routingWriter.checkCreditTimeout();
+		}
+		catch (QueueBlockedException e) {
+			if (this.logging) {
+				logger.error(this.connName + "in checkDataCredits: "
+						+ e.getMessage());
+			}
+		}
+	}
+
+	/**
+	 * gets how many frames had to wait for a credit of the remote device
+	 * before they could be written
+	 * 
+	 * @return the number of frames that were throttled
+	 */
+	public int getThrottledFrames() {
+		return this.routingWriter.getThrottledFrames();
+	}
+
+	/**
+	 * gets how long frames were waiting for a credit of the remote device
+	 * altogether
+	 * 
+	 * @return the time this connection was throttled (in ms)
+	 */
+	public long getThrottledTime() {
+		return this.routingWriter.getThrottledTime();
+	}
+
 }
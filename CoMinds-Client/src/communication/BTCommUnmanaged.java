@@ -23,11 +23,11 @@ package communication;
 
 import java.io.DataOutputStream;
 
-import lejos.nxt.comm.BTConnection;
-import lejos.nxt.comm.Bluetooth;
-import lejos.nxt.comm.NXTConnection;
 
 import communication.extendedClasses.ExtendedDataInputStream;
+import communication.transport.BluetoothTransport;
+import communication.transport.Link;
+import communication.transport.Transport;
 
 /**
  * This is a class for an unmanaged bt connection. The connectoin will be
@@ -41,7 +41,7 @@ public class BTCommUnmanaged extends BTComm {
 	private int timeout = -1;
 
 	// bt connection
-	private BTConnection btc;
+	private Link btc;
 	private ExtendedDataInputStream dis;
 	private DataOutputStream dos;
 
@@ -56,7 +56,7 @@ public class BTCommUnmanaged extends BTComm {
 	 *            a String to which nxt to connect
 	 */
 	protected BTCommUnmanaged(String myName, String remoteName) {
-		this(myName, remoteName, 1, true);
+		this(myName, remoteName, new BluetoothTransport(), 1, true);
 	}
 
 	/**
@@ -64,18 +64,20 @@ public class BTCommUnmanaged extends BTComm {
 	 * 
 	 * @param remoteName
 	 *            a String to which nxt to connect
+	 * @param transport
+	 *            the transport to open the connection with
 	 * @param queueSize
 	 *            an int for the queue size for the writer thread
 	 * @param logging
 	 *            whether all communication shall be logged to a log file
 	 */
-	protected BTCommUnmanaged(String myName, String remoteName, int queueSize,
-			boolean logging) {
+	protected BTCommUnmanaged(String myName, String remoteName,
+			Transport transport, int queueSize, boolean logging) {
 		super(myName, remoteName, logging);
 
 		this.queueSize = queueSize;
 
-		if (this.connect()) {
+		if (this.connect(transport)) {
 			this.initReader(logging);
 			this.initWriter(this.queueSize);
 		}
@@ -92,12 +94,14 @@ public class BTCommUnmanaged extends BTComm {
 	 *            an int how long to wait
 	 */
 	protected BTCommUnmanaged(String myName, int timeOut) {
-		this(myName, timeOut, 1, true);
+		this(myName, new BluetoothTransport(), timeOut, 1, true);
 	}
 
 	/**
 	 * Constructor which simply waits for an connection
 	 * 
+	 * @param transport
+	 *            the transport to wait for the connection with
 	 * @param timeOut
 	 *            an int how long to wait
 	 * @param queueSize
@@ -105,13 +109,13 @@ public class BTCommUnmanaged extends BTComm {
 	 * @param logging
 	 *            whether all communication shall be logged
 	 */
-	protected BTCommUnmanaged(String myName, int timeOut, int queueSize,
-			boolean logging) {
+	protected BTCommUnmanaged(String myName, Transport transport, int timeOut,
+			int queueSize, boolean logging) {
 		super(myName, "unknown", logging);
 		this.timeout = timeOut;
 		this.queueSize = queueSize;
 
-		if (this.waitForConnection()) {
+		if (this.waitForConnection(transport)) {
 			this.initReader(logging);
 			this.initWriter(this.queueSize);
 		}
@@ -124,15 +128,17 @@ public class BTCommUnmanaged extends BTComm {
 	 * connects to the a given nxt (via the private variable nxtName) and opens
 	 * input and output streams for the connection
 	 * 
+	 * @param transport
+	 *            the transport to open the connection with
 	 * @return returns whether a connection could be found or not
 	 */
-	private boolean connect() {
+	private boolean connect(Transport transport) {
 		System.out.println("conn to " + this.remoteName);
 		if (this.logging) {
 			logger.debug("connecting to " + this.remoteName);
 		}
 
-		this.btc = Bluetooth.connect(this.remoteName, NXTConnection.PACKET);
+		this.btc = transport.connect(this.remoteName);
 
 		if (this.btc != null) {
 
@@ -160,16 +166,17 @@ public class BTCommUnmanaged extends BTComm {
 	 * waits for any connection until a timeout is reached (via the private
 	 * variable timeout)
 	 * 
+	 * @param transport
+	 *            the transport to wait for the connection with
 	 * @return returns whether a connection could be found or not
 	 */
-	private boolean waitForConnection() {
+	private boolean waitForConnection(Transport transport) {
 		System.out.println("waiting for conn");
 		if (this.logging) {
 			logger.debug("waiting for conn");
 		}
 
-		this.btc = Bluetooth.waitForConnection(this.timeout,
-				NXTConnection.PACKET);
+		this.btc = transport.waitForConnection(this.timeout);
 
 		if (this.btc != null) {
 			this.dis = new ExtendedDataInputStream(this.btc
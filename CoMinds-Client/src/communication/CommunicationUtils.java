@@ -23,6 +23,12 @@ package communication;
 
 public class CommunicationUtils {
 
+	// the scale of a fixed point value: the value is sent in hundredths
+	public static final int FIXED_POINT_SCALE = 100;
+	// the fixed point value for a value that cannot be encoded (e.g. a
+	// negative value for a degree that could not be got from the sensor)
+	public static final int FIXED_POINT_INVALID = 0xFFFF;
+
 	/**
 	 * gets a single int as a byte array
 	 * 
@@ -39,6 +45,24 @@ public class CommunicationUtils {
 		return bytes;
 	}
 
+	/**
+	 * writes a single int into the given byte array at the given offset
+	 * 
+	 * @param message
+	 *            single int
+	 * @param bytes
+	 *            the byte array to write into
+	 * @param offset
+	 *            where to write the int
+	 */
+	public static void convertIntToByteArray(int message, byte[] bytes,
+			int offset) {
+		bytes[offset] = (byte) (message >>> 24);
+		bytes[offset + 1] = (byte) (message >>> 16);
+		bytes[offset + 2] = (byte) (message >>> 8);
+		bytes[offset + 3] = (byte) message;
+	}
+
 	/**
 	 * gets a single float as a byte array for writing it to the bt
 	 * 
@@ -49,6 +73,78 @@ public class CommunicationUtils {
 		return convertIntToByteArray(Float.floatToIntBits(message));
 	}
 
+	/**
+	 * gets a non-negative int as an unsigned varint for writing it to the bt:
+	 * seven bits per byte starting with the lowest bits, the highest bit of a
+	 * byte is set if another byte follows. Small ints (e.g. lengths or
+	 * numbers of parts) need less than four bytes this way.
+	 * 
+	 * @param message
+	 *            single non-negative int
+	 * @return the int as a varint byte array (one to five bytes)
+	 */
+	public static byte[] convertIntToVarIntByteArray(int message) {
+		int length = 1;
+		for (int rest = message >>> 7; rest != 0; rest >>>= 7) {
+			length++;
+		}
+
+		byte[] bytes = new byte[length];
+		for (int i = 0; i < length - 1; i++) {
+			bytes[i] = (byte) ((message & 0x7F) | 0x80);
+			message >>>= 7;
+		}
+		bytes[length - 1] = (byte) message;
+		return bytes;
+	}
+
+	/**
+	 * gets a float as a 16 bit fixed point value for writing it to the bt. The
+	 * value is sent in hundredths (see {@link #FIXED_POINT_SCALE}), so degrees
+	 * (0 - 360) and light values (0 - 100) fit into two bytes. A value that
+	 * does not fit (e.g. a negative value) is sent as
+	 * {@link #FIXED_POINT_INVALID}.
+	 * 
+	 * @param message
+	 *            single float
+	 * @return the float as a fixed point byte array (two bytes)
+	 */
+	public static byte[] convertFloatToFixedPointByteArray(float message) {
+		int fixedPoint = convertFloatToFixedPoint(message);
+		return new byte[] { (byte) (fixedPoint >>> 8), (byte) fixedPoint };
+	}
+
+	/**
+	 * gets a float as a 16 bit fixed point value (see
+	 * {@link #convertFloatToFixedPointByteArray(float)})
+	 * 
+	 * @param message
+	 *            single float
+	 * @return the fixed point value (the lower 16 bits of the int)
+	 */
+	public static int convertFloatToFixedPoint(float message) {
+		if (message >= 0
+				&& message * FIXED_POINT_SCALE < FIXED_POINT_INVALID - 0.5f) {
+			return (int) (message * FIXED_POINT_SCALE + 0.5f);
+		}
+		return FIXED_POINT_INVALID;
+	}
+
+	/**
+	 * gets a String as a byte array for writing it to the bt (including string
+	 * length as a varint, see {@link #convertIntToVarIntByteArray(int)})
+	 * 
+	 * @param message
+	 *            a String
+	 * @return the byte array with the string length and the message itself
+	 */
+	public static byte[] convertStringToCompactByteArray(String message) {
+		byte[] messageBytes = message.getBytes();
+		byte[] lengthBytes = convertIntToVarIntByteArray(messageBytes.length);
+
+		return common.WriterUtils.concatArrays(lengthBytes, messageBytes);
+	}
+
 	/**
 	 * gets a String as a byte array for writing it to the bt (including string
 	 * length)
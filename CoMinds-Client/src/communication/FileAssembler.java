@@ -0,0 +1,365 @@
+/*
+ *  CoMinds is a Java framework for collaborative robotic scenarios with
+ *  Lego Mindstorms based leJOS. A complete documentation can be found
+ *  in docs/thesis.pdf.
+ *
+ *  Copyright (C) 2010  Annabelle Klarl
+ *  All rights reserved.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ * 
+ */
+package communication;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+import common.Crc32;
+import common.LzCodec;
+
+/**
+ * This assembles a file that is received in several parts (see
+ * {@link BTComm#FILE_RESUMABLE_PART} and {@link BTComm#FILE_PART}). The parts
+ * are written directly into the file (and not into a file for each part). A
+ * part is only written if its checksum (if it has one) is correct. As a file
+ * on the nxt can only be written from the beginning to the end, only the part
+ * that continues the file is written: any other part is skipped. So the
+ * received parts are always the beginning of the file and only the missing
+ * parts have to be requested again if the connection is lost (see
+ * {@link BTComm#FILE_RESUME}). In the meantime the assembler can be
+ * suspended: the file is closed and opened again with the next part.
+ * 
+ * @author Annabelle Klarl
+ */
+class FileAssembler {
+
+	private final int transferId;
+	private final String fileName;
+	private final int partSize;
+	private FileOutputStream output;
+
+	private int numberOfParts = 0;
+	private int fileSize = 0;
+	// how many bytes at the beginning of the file are written
+	private int written = 0;
+
+	// the buffer for a part and for a compressed part (only while the file is
+	// open and the latter only if a part is compressed)
+	private byte[] buffer;
+	private byte[] compressed;
+
+	/**
+	 * Constructor
+	 * 
+	 * @param transferId
+	 *            the id the sender gave the transfer of the file
+	 * @param fileName
+	 *            the name of the file to assemble
+	 * @param partSize
+	 *            the size of all parts except the last one
+	 * @throws IOException
+	 *             thrown if the file could not be created
+	 */
+	public FileAssembler(int transferId, String fileName, int partSize)
+			throws IOException {
+		this.transferId = transferId;
+		this.fileName = fileName;
+		this.partSize = partSize;
+
+		File file = new File(fileName);
+		if (file.exists()) {
+			file.delete();
+		}
+		file.createNewFile();
+		this.output = new FileOutputStream(file);
+	}
+
+	/**
+	 * returns the id the sender gave the transfer of the file
+	 * 
+	 * @return the transfer id
+	 */
+	public int getTransferId() {
+		return this.transferId;
+	}
+
+	/**
+	 * returns the name of the file that is assembled
+	 * 
+	 * @return the file name
+	 */
+	public String getFileName() {
+		return this.fileName;
+	}
+
+	/**
+	 * returns the size of the whole file
+	 * 
+	 * @return the file size
+	 */
+	public int getFileSize() {
+		return this.fileSize;
+	}
+
+	/**
+	 * sets the number of parts and the size of the file (may change while the
+	 * file is sent if the file grows)
+	 * 
+	 * @param numberOfParts
+	 *            the number of parts
+	 * @param fileSize
+	 *            the size of the whole file
+	 */
+	public void setSize(int numberOfParts, int fileSize) {
+		this.numberOfParts = numberOfParts;
+		this.fileSize = fileSize;
+	}
+
+	/**
+	 * reads a part from the input and appends it to the file if the size of
+	 * the part and its checksum are correct and the part continues the file.
+	 * Otherwise the part is read, but skipped and has to be received again.
+	 * If the part was already written (e.g. the last part of the file before
+	 * the file grew), only its new bytes are appended. If the part is
+	 * compressed (see {@link LzCodec}), it is decompressed before its checksum
+	 * is checked.
+	 * 
+	 * @param index
+	 *            the index of the part
+	 * @param input
+	 *            the input where to read the part from
+	 * @param size
+	 *            the size of the (uncompressed) part
+	 * @param compressedSize
+	 *            the size of the compressed part or -1 if the part is not
+	 *            compressed
+	 * @param checksum
+	 *            the CRC32 checksum of the (uncompressed) part
+	 * @return whether the part is written to the file
+	 * @throws IOException
+	 *             thrown if the part could not be read or written
+	 */
+	public boolean writePart(int index, InputStream input, int size,
+			int compressedSize, int checksum) throws IOException {
+		return this.readPart(index, input, size, compressedSize)
+				&& Crc32.getChecksum(this.buffer, 0, size) == checksum
+				&& this.appendPart(index, size);
+	}
+
+	/**
+	 * reads a part without a checksum from the input (see
+	 * {@link BTComm#FILE_PART}) and appends it to the file like
+	 * {@link #writePart(int, InputStream, int, int, int)}
+	 * 
+	 * @param index
+	 *            the index of the part
+	 * @param input
+	 *            the input where to read the part from
+	 * @param size
+	 *            the size of the (uncompressed) part
+	 * @param compressedSize
+	 *            the size of the compressed part or -1 if the part is not
+	 *            compressed
+	 * @return whether the part is written to the file
+	 * @throws IOException
+	 *             thrown if the part could not be read or written
+	 */
+	public boolean writePart(int index, InputStream input, int size,
+			int compressedSize) throws IOException {
+		return this.readPart(index, input, size, compressedSize)
+				&& this.appendPart(index, size);
+	}
+
+	/**
+	 * reads a part from the input into the buffer and decompresses it if it
+	 * is compressed
+	 * 
+	 * @param index
+	 *            the index of the part
+	 * @param input
+	 *            the input where to read the part from
+	 * @param size
+	 *            the size of the (uncompressed) part
+	 * @param compressedSize
+	 *            the size of the compressed part or -1 if the part is not
+	 *            compressed
+	 * @return whether the part could be decompressed
+	 * @throws IOException
+	 *             thrown if the part could not be read
+	 */
+	private boolean readPart(int index, InputStream input, int size,
+			int compressedSize) throws IOException {
+		int maxCompressedSize = LzCodec.getMaxCompressedLength(this.partSize);
+		if (size > this.partSize || compressedSize > maxCompressedSize) {
+			throw new IOException("invalid part " + index);
+		}
+		if (this.buffer == null) {
+			this.buffer = new byte[this.partSize];
+		}
+
+		if (compressedSize < 0) {
+			this.readPart(index, input, this.buffer, size);
+			return true;
+		}
+		if (this.compressed == null) {
+			this.compressed = new byte[maxCompressedSize];
+		}
+		this.readPart(index, input, this.compressed, compressedSize);
+		return LzCodec.decompress(this.compressed, 0, compressedSize,
+				this.buffer, 0, size) == size;
+	}
+
+	/**
+	 * appends the part in the buffer to the file if its size is correct and
+	 * it continues the file
+	 * 
+	 * @param index
+	 *            the index of the part
+	 * @param size
+	 *            the size of the part
+	 * @return whether the part is written to the file
+	 * @throws IOException
+	 *             thrown if the part could not be written
+	 */
+	private boolean appendPart(int index, int size) throws IOException {
+		int offset = index * this.partSize;
+		if (index < 0 || index >= this.numberOfParts
+				|| offset + size != Math.min(offset + this.partSize,
+						this.fileSize) || offset > this.written) {
+			return false;
+		}
+
+		if (offset + size > this.written) {
+			if (this.output == null) {
+				this.output = new FileOutputStream(new File(this.fileName),
+						true);
+			}
+			this.output.write(this.buffer, this.written - offset, offset
+					+ size - this.written);
+			this.output.flush();
+			this.written = offset + size;
+		}
+		return true;
+	}
+
+	/**
+	 * reads the given number of bytes of a part from the input
+	 * 
+	 * @param index
+	 *            the index of the part
+	 * @param input
+	 *            the input where to read the part from
+	 * @param bytes
+	 *            the array where to store the bytes
+	 * @param size
+	 *            the number of bytes to read
+	 * @throws IOException
+	 *             thrown if the part could not be read
+	 */
+	private void readPart(int index, InputStream input, byte[] bytes,
+			int size) throws IOException {
+		int read = 0;
+		while (read < size) {
+			int count = input.read(bytes, read, size - read);
+			if (count < 0) {
+				throw new IOException("end of stream in part " + index);
+			}
+			read += count;
+		}
+	}
+
+	/**
+	 * returns whether the part with the given index was received
+	 * 
+	 * @param index
+	 *            the index of the part
+	 * @return whether the part was received
+	 */
+	public boolean isReceived(int index) {
+		return index < this.numberOfParts
+				&& Math.min((index + 1) * this.partSize, this.fileSize) <= this.written;
+	}
+
+	/**
+	 * returns whether all parts of the file were received
+	 * 
+	 * @return whether the file is complete
+	 */
+	public boolean isComplete() {
+		return this.numberOfParts > 0 && this.written == this.fileSize;
+	}
+
+	/**
+	 * gets a bitmap of the received parts: the bit i % 8 of the byte i / 8 is
+	 * set if the part i was received
+	 * 
+	 * @return the bitmap of the received parts
+	 */
+	public byte[] getReceivedParts() {
+		byte[] bitmap = new byte[(this.numberOfParts + 7) / 8];
+		for (int i = 0; i < this.numberOfParts; i++) {
+			if (this.isReceived(i)) {
+				bitmap[i / 8] |= 1 << (i % 8);
+			}
+		}
+		return bitmap;
+	}
+
+	/**
+	 * suspends the assembling of the file (e.g. if the connection is lost):
+	 * the file is closed, but the received parts are kept. The file is opened
+	 * again when the next part is written.
+	 * 
+	 * @throws IOException
+	 *             thrown if the file could not be closed
+	 */
+	public void suspend() throws IOException {
+		this.buffer = null;
+		this.compressed = null;
+		if (this.output != null) {
+			try {
+				this.output.close();
+			}
+			finally {
+				this.output = null;
+			}
+		}
+	}
+
+	/**
+	 * cancels the assembling of the file: the file is deleted
+	 * 
+	 * @throws IOException
+	 *             thrown if the file could not be closed
+	 */
+	public void cancel() throws IOException {
+		try {
+			this.suspend();
+		}
+		finally {
+			new File(this.fileName).delete();
+		}
+	}
+
+	/**
+	 * finishes the file after all parts were received
+	 * 
+	 * @throws IOException
+	 *             thrown if the file could not be closed
+	 */
+	public void finish() throws IOException {
+		this.suspend();
+	}
+}
@@ -21,8 +21,8 @@
  */
 package communication;
 
+import java.io.EOFException;
 import java.io.File;
-import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
 import java.io.IOException;
@@ -34,6 +34,7 @@ import sensorwrappers.compass.AbstractCompassSensorWrapper;
 import sensorwrappers.exceptions.SensorException;
 
 import common.FileLocalizer;
+import common.LzCodec;
 import common.exceptions.QueueBlockedException;
 import communication.exceptions.ConnectionClosedException;
 import communication.exceptions.UnexpectedResponseException;
@@ -72,12 +73,18 @@ class MessageReader implements Runnable {
 	// the file that was read from the remote device
 	private String remoteFileName = null;
 
-	// number of parts of a file
-	private int numberOfParts = 0;
-	// counter for counting how many parts of a file have to be read further on
-	private int partOfFileLeft = 0;
+	// the file whose parts are being received at the moment
+	private FileAssembler receivingFile = null;
+	// the file that is received as FILE_PART and how many of its parts are
+	// left (such a file cannot be resumed, see BTComm#FILE_RESUMABLE_PART)
+	private FileAssembler partedFile = null;
+	private int partsLeft = 0;
 
 	private boolean onlyOneTime = false;
+	// whether the remote device writes its files only as fast as this
+	// device grants credits (see BTComm#FILE_CREDIT_OFFER)
+	private boolean filesPaced = false;
+
 	private boolean closeAcknowledged = false;
 	private boolean closeRequested = false;
 	private boolean closed = false;
@@ -270,13 +277,9 @@ class MessageReader implements Runnable {
 		finally {
 
 			try {
-				// concatenate any parts of files that are not concatenated
-				// already
-				if (this.closed && this.partOfFileLeft != 0) {
-					this.numberOfParts -= this.partOfFileLeft;
-					this.concatenateFiles();
-					this.owner.notifyAllObserversForEvent(BTEvent.FILE,
-							this.remoteFileName);
+				// suspend any file whose parts are not all received
+				if (this.closed) {
+					this.suspendFiles();
 				}
 			}
 			// to avoid the weird beep
@@ -300,21 +303,31 @@ class MessageReader implements Runnable {
 	 */
 	private void readSend(byte code) throws UnexpectedResponseException,
 			IOException {
-		code = (byte) (code & BTComm.LOWER_BITS);
+		boolean compact = (code & BTComm.COMPACT) != 0;
+		code = (byte) (code & BTComm.LOWER_BITS & ~BTComm.COMPACT);
 
 		if (code == BTComm.LIGHT) {
-			this.lightValue = this.readLightValue();
+			this.lightValue = this.readLightValue(compact);
 			this.owner.notifyAllObserversForEvent(BTEvent.LIGHT,
 					this.lightValue);
 		}
 		else if (code == BTComm.DEGREE) {
-			this.remoteDegree = this.readDegree();
+			this.remoteDegree = this.readDegree(compact);
 			this.owner.notifyAllObserversForEvent(BTEvent.DEGREE,
 					this.remoteDegree);
 		}
 		else if (code == BTComm.FILE_EMPTY || code == BTComm.FILE_PART
+				|| code == BTComm.FILE_RESUMABLE_PART
 				|| code == BTComm.FILE_WHOLE) {
-			this.readFile(code);
+			this.readFile(code, compact, false);
+		}
+		else if (code == BTComm.FILE_COMPRESSED) {
+			// the code of the compressed file frame follows
+			int fileCode = this.dis.read();
+			if (fileCode < 0) {
+				throw new EOFException("end of stream in compressed file");
+			}
+			this.readFile((byte) fileCode, compact, true);
 		}
 		else {
 			throw new UnexpectedResponseException(
@@ -333,13 +346,26 @@ class MessageReader implements Runnable {
 	 * @param code
 	 *            the code that was send (it says whether no file is send, parts
 	 *            are send or the file as a whole is send)
+	 * @param compact
+	 *            whether the content is encoded compactly (see
+	 *            {@link BTComm#COMPACT})
+	 * @param compressed
+	 *            whether the content of the file is compressed (see
+	 *            {@link BTComm#FILE_COMPRESSED})
 	 * @throws IOException
 	 *             if anything could not be read from inputstream
 	 * @throws UnexpectedResponseException
-	 *             if file size was negative
+	 *             if file size was negative or the compressed file was corrupt
 	 */
-	private void readFile(byte code) throws IOException,
-			UnexpectedResponseException {
+	private void readFile(byte code, boolean compact, boolean compressed)
+			throws IOException, UnexpectedResponseException {
+		if (compressed && code != BTComm.FILE_WHOLE
+				&& code != BTComm.FILE_PART
+				&& code != BTComm.FILE_RESUMABLE_PART) {
+			throw new UnexpectedResponseException(
+					"Code was neither FILE_WHOLE nor FILE_PART nor FILE_RESUMABLE_PART in compressed file, but "
+							+ Byte.toString(code));
+		}
 
 		switch (code) {
 		case BTComm.FILE_EMPTY:
@@ -349,48 +375,35 @@ class MessageReader implements Runnable {
 			break;
 
 		case BTComm.FILE_WHOLE:
-			this.readFileWithoutHeader();
+			try {
+				this.readFileWithoutHeader(compact, compressed);
+			}
+			finally {
+				// the remote device may write the next frame of a file
+				this.grantFileCredit();
+			}
 			this.owner.notifyAllObserversForEvent(BTEvent.FILE,
 					this.remoteFileName);
 			break;
 		case BTComm.FILE_PART:
-			// read number of parts
-			int currentNumberOfParts = this.dis.readInt();
-
-			// a new file is send
-			if (this.partOfFileLeft == 0) {
-				this.numberOfParts = currentNumberOfParts;
-				this.partOfFileLeft = currentNumberOfParts;
+			try {
+				this.readFilePart(compact, compressed);
 			}
-			// a part of a file is send
-			else {
-				// the number of parts changed during sending the parts
-				if (this.numberOfParts != currentNumberOfParts) {
-					int diff = this.numberOfParts - currentNumberOfParts;
-					this.numberOfParts = currentNumberOfParts;
-					this.partOfFileLeft -= diff;
-				}
-				// else: everything is ok, read next part of file
+			finally {
+				this.grantFileCredit();
 			}
-
-			// read file
-			this.readFileWithoutHeader();
-
-			this.partOfFileLeft--;
-
-			// if no more files are being send, concatenate parts
-			if (this.partOfFileLeft == 0) {
-				this.concatenateFiles();
-
-				this.partOfFileLeft = 0;
-				this.numberOfParts = 0;
-				this.owner.notifyAllObserversForEvent(BTEvent.FILE,
-						this.remoteFileName);
+			break;
+		case BTComm.FILE_RESUMABLE_PART:
+			try {
+				this.readResumablePart(compact, compressed);
+			}
+			finally {
+				this.grantFileCredit();
 			}
 			break;
 		default:
 			throw new UnexpectedResponseException(
-					"Code was neither EMPTY_FILE nor FILE_WHOLE nor FILE_PART, but "
+					"Code was neither EMPTY_FILE nor FILE_WHOLE nor FILE_PART nor FILE_RESUMABLE_PART, but "
 							+ Byte.toString(code));
 		}
 
@@ -405,17 +418,26 @@ class MessageReader implements Runnable {
 	 * reads a file from the bluetooth input stream without reading the file
 	 * header (SEND-FILE). It starts with reading the file name, file size and
 	 * then reading the file 128 bytes per step. It also writes it to a file
-	 * with the read filename.
+	 * with the read filename. A compressed file is read as a whole and
+	 * decompressed before it is written.
 	 * 
+	 * @param compact
+	 *            whether the content is encoded compactly (see
+	 *            {@link BTComm#COMPACT})
+	 * @param compressed
+	 *            whether the content of the file is compressed (see
+	 *            {@link BTComm#FILE_COMPRESSED})
 	 * @throws IOException
 	 *             if something could not be read from input stream
 	 * @throws UnexpectedResponseException
-	 *             if the file size is negative
+	 *             if the file size is negative or the compressed file is
+	 *             corrupt
 	 */
-	private void readFileWithoutHeader() throws IOException,
-			UnexpectedResponseException {
+	private void readFileWithoutHeader(boolean compact, boolean compressed)
+			throws IOException, UnexpectedResponseException {
 		// read file name
-		this.remoteFileName = this.dis.readString();
+		this.remoteFileName = compact ? this.dis.readCompactString()
+				: this.dis.readString();
 
 		if (this.remoteFileName != null && this.remoteFileName.length() != 0) {
 
@@ -423,58 +445,267 @@ class MessageReader implements Runnable {
 			this.remoteFileName = this.ownFileLocalizer
 					.getPathToFile(this.remoteFileName);
 
-			FileOutputStream fileOutput = this
-					.openFileOutputStream(this.remoteFileName);
-
 			// read file size
-			int fileSize = this.dis.readInt();
+			int fileSize = compact ? this.dis.readVarInt() : this.dis
+					.readInt();
 			if (fileSize < 0) {
 				throw new UnexpectedResponseException(
 						"Send fileSize was negative");
 			}
-			this.getFileFromInputToOutput(fileSize, this.dis, fileOutput);
 
-			this.closeFileOutputStream(this.remoteFileName, fileOutput);
+			if (compressed) {
+				byte[] file = this.readCompressed(fileSize);
+
+				FileOutputStream fileOutput = this
+						.openFileOutputStream(this.remoteFileName);
+				fileOutput.write(file);
+				this.closeFileOutputStream(this.remoteFileName, fileOutput);
+			}
+			else {
+				FileOutputStream fileOutput = this
+						.openFileOutputStream(this.remoteFileName);
+				this.getFileFromInputToOutput(fileSize, this.dis, fileOutput);
+				this.closeFileOutputStream(this.remoteFileName, fileOutput);
+			}
+		}
+	}
+
+	/**
+	 * reads the size of the compressed content of a file and the compressed
+	 * content from the input stream and decompresses it (see
+	 * {@link BTComm#FILE_COMPRESSED})
+	 * 
+	 * @param size
+	 *            the size of the uncompressed content
+	 * @return the uncompressed content
+	 * @throws IOException
+	 *             if something could not be read from input stream
+	 * @throws UnexpectedResponseException
+	 *             if the compressed content is corrupt
+	 */
+	private byte[] readCompressed(int size) throws IOException,
+			UnexpectedResponseException {
+		int compressedSize = this.dis.readInt();
+		if (compressedSize < 0
+				|| compressedSize > LzCodec.getMaxCompressedLength(size)) {
+			throw new UnexpectedResponseException("Send compressed size was "
+					+ compressedSize);
+		}
+
+		byte[] compressed = new byte[compressedSize];
+		this.dis.readFully(compressed);
+		byte[] bytes = new byte[size];
+		if (LzCodec.decompress(compressed, 0, compressedSize, bytes, 0, size) != size) {
+			throw new UnexpectedResponseException("Compressed file "
+					+ this.remoteFileName + " was corrupt");
 		}
+		return bytes;
 	}
 
 	/**
-	 * concatenates several files that are named like the private variable
-	 * remoteFileName with a trailing number. It concatenates until
-	 * numberOfParts files.
+	 * reads a part of a file from the input stream (see
+	 * {@link BTComm#FILE_PART}) and appends it to the file. The parts are sent
+	 * one after the other: the name of the first part (the name of the file
+	 * with the index 0) starts a new file. If all parts of the file are
+	 * received, the file is finished and the observers are notified. Such a
+	 * file cannot be resumed, so it is cancelled if a part is missing.
+	 * 
+	 * @param compact
+	 *            whether the content is encoded compactly (see
+	 *            {@link BTComm#COMPACT})
+	 * @param compressed
+	 *            whether the content of the part is compressed (see
+	 *            {@link BTComm#FILE_COMPRESSED})
+	 * @throws IOException
+	 *             if something could not be read from input stream or the part
+	 *             could not be written
+	 * @throws UnexpectedResponseException
+	 *             if the size of the part is negative
 	 */
-	private void concatenateFiles() {
+	private void readFilePart(boolean compact, boolean compressed)
+			throws IOException, UnexpectedResponseException {
+		// read number of parts, name and size of this part
+		int numberOfParts = compact ? this.dis.readVarInt() : this.dis
+				.readInt();
+		String partName = compact ? this.dis.readCompactString() : this.dis
+				.readString();
+		int partSize = compact ? this.dis.readVarInt() : this.dis.readInt();
+		int compressedSize = compressed ? this.dis.readInt() : -1;
+		if (partSize < 0) {
+			throw new UnexpectedResponseException("Send fileSize was negative");
+		}
 
-		this.remoteFileName = this.remoteFileName.substring(0,
-				this.remoteFileName.lastIndexOf(Integer
-						.toString(this.numberOfParts - 1)));
+		// a new file is send: the name of the first part ends with its index
+		if (this.partedFile == null) {
+			this.partedFile = new FileAssembler(0, this.ownFileLocalizer
+					.getPathToFile(partName.substring(0,
+							partName.length() - 1)),
+					MessageWriter.FILE_PART_SIZE);
+			this.partsLeft = numberOfParts;
+		}
+		FileAssembler assembler = this.partedFile;
+		this.receivingFile = assembler;
+
+		// only the last part may be smaller
+		int index = numberOfParts - this.partsLeft;
+		int offset = index * MessageWriter.FILE_PART_SIZE;
+		assembler.setSize(numberOfParts, this.partsLeft == 1 ? offset
+				+ partSize : numberOfParts * MessageWriter.FILE_PART_SIZE);
+		if (!assembler.writePart(index, this.dis, partSize, compressedSize)
+				&& this.logging) {
+			logger.error(this.btcommName + "skipped part " + partName);
+		}
 
-		FileOutputStream fileOutput = this
-				.openFileOutputStream(this.remoteFileName);
+		// if no more parts are being send, finish the file
+		this.partsLeft--;
+		if (this.partsLeft <= 0) {
+			this.receivingFile = null;
+			this.partedFile = null;
+			this.remoteFileName = assembler.getFileName();
+			if (assembler.isComplete()) {
+				assembler.finish();
+				this.owner.notifyAllObserversForEvent(BTEvent.FILE,
+						this.remoteFileName);
+			}
+			else {
+				this.cancelFile(assembler);
+				if (this.logging) {
+					logger.error(this.btcommName + "file "
+							+ this.remoteFileName + " incomplete");
+				}
+			}
+		}
+	}
 
-		// read each file part
-		for (int j = 0; j < this.numberOfParts; j++) {
-			try {
-				// read file
-				File file = new File(this.remoteFileName + j);
+	/**
+	 * reads a resumable part of a file from the input stream (see
+	 * {@link BTComm#FILE_RESUMABLE_PART}) and writes it into the file the part
+	 * belongs to. The file is identified by the id of its transfer, so that
+	 * parts that are sent again after the connection was lost are written into
+	 * the same file. If all parts of the file are received, the file is
+	 * finished and the observers are notified.
+	 * 
+	 * @param compact
+	 *            whether the content is encoded compactly (see
+	 *            {@link BTComm#COMPACT})
+	 * @param compressed
+	 *            whether the content of the part is compressed (see
+	 *            {@link BTComm#FILE_COMPRESSED})
+	 * @throws IOException
+	 *             if something could not be read from input stream or the part
+	 *             could not be written
+	 * @throws UnexpectedResponseException
+	 *             if the file size or the size of the part is negative
+	 */
+	private void readResumablePart(boolean compact, boolean compressed)
+			throws IOException, UnexpectedResponseException {
+		// read transfer id, number of parts, file size and index of the part
+		int transferId = this.dis.readInt();
+		int numberOfParts = compact ? this.dis.readVarInt() : this.dis
+				.readInt();
+		int fileSize = compact ? this.dis.readVarInt() : this.dis.readInt();
+		int index = compact ? this.dis.readVarInt() : this.dis.readInt();
+
+		// read name, size and checksum of this part
+		String fileName = compact ? this.dis.readCompactString() : this.dis
+				.readString();
+		int partSize = compact ? this.dis.readVarInt() : this.dis.readInt();
+		int checksum = this.dis.readInt();
+		int compressedSize = compressed ? this.dis.readInt() : -1;
+		if (fileSize < 0 || partSize < 0) {
+			throw new UnexpectedResponseException("Send fileSize was negative");
+		}
 
-				FileInputStream input = new FileInputStream(file);
-				int fileSize = input.available();
+		// get the file the part belongs to or start a new one
+		String remoteName = this.owner.getRemoteName();
+		FileAssembler assembler = FileTransfers.getReceivedFile(remoteName,
+				transferId);
+		if (assembler == null) {
+			assembler = new FileAssembler(transferId, this.ownFileLocalizer
+					.getPathToFile(fileName), MessageWriter.FILE_PART_SIZE);
+			FileAssembler replaced = FileTransfers.addReceivedFile(remoteName,
+					assembler);
+			if (replaced != null) {
+				this.cancelFile(replaced);
+			}
+		}
+
+		// append the part to the file (a skipped part is requested again
+		// after the next connection is established)
+		assembler.setSize(numberOfParts, fileSize);
+		this.receivingFile = assembler;
+		if (!assembler.writePart(index, this.dis, partSize, compressedSize,
+				checksum)) {
+			this.receivingFile = null;
+			if (this.logging) {
+				logger.error(this.btcommName + "skipped part " + index
+						+ " of " + assembler.getFileName());
+			}
+		}
+
+		// if all parts are received, finish the file
+		if (assembler.isComplete()) {
+			this.receivingFile = null;
+			FileTransfers.removeReceivedFile(assembler);
+			assembler.finish();
+
+			this.remoteFileName = assembler.getFileName();
+			this.owner.notifyAllObserversForEvent(BTEvent.FILE,
+					this.remoteFileName);
+		}
+	}
+
+	/**
+	 * cancels a file that is received in parts and removes it from the files
+	 * that are received
+	 * 
+	 * @param assembler
+	 *            the assembler of the file
+	 */
+	private void cancelFile(FileAssembler assembler) {
+		FileTransfers.removeReceivedFile(assembler);
+		try {
+			assembler.cancel();
+		}
+		catch (IOException e) {
+			System.out.println("Could not delete file "
+					+ assembler.getFileName());
+			if (this.logging) {
+				logger.error(this.btcommName + "could not delete file "
+						+ assembler.getFileName());
+			}
+		}
+	}
 
-				this.getFileFromInputToOutput(fileSize, input, fileOutput);
-				input.close();
+	/**
+	 * suspends the files from the remote device whose parts are not all
+	 * received yet (e.g. if the connection is closed while a file is send).
+	 * The missing parts can be requested after the next connection is
+	 * established (see {@link BTComm#resumeFileTransfers()}). A file that is
+	 * received as {@link BTComm#FILE_PART} cannot be resumed and is cancelled.
+	 */
+	private void suspendFiles() {
+		if (this.partedFile != null) {
+			this.cancelFile(this.partedFile);
+			this.partedFile = null;
+		}
 
-				file.delete();
+		FileAssembler[] assemblers = FileTransfers.getReceivedFiles(this.owner
+				.getRemoteName());
+		for (FileAssembler assembler : assemblers) {
+			try {
+				assembler.suspend();
 			}
 			catch (IOException e) {
+				System.out.println("Could not close file "
+						+ assembler.getFileName());
 				if (this.logging) {
-					logger.error(this.btcommName
-							+ "IOException while filepart "
-							+ this.remoteFileName + j);
+					logger.error(this.btcommName + "could not close file "
+							+ assembler.getFileName());
 				}
 			}
 		}
-		this.closeFileOutputStream(this.remoteFileName, fileOutput);
+		this.receivingFile = null;
 	}
 
 	/**
@@ -587,14 +818,19 @@ class MessageReader implements Runnable {
 	/**
 	 * reads the degree from the input stream
 	 * 
+	 * @param compact
+	 *            whether the content is encoded compactly (see
+	 *            {@link BTComm#COMPACT})
 	 * @return the read degree
 	 * @throws IOException
 	 *             if the degree couldn't be read from the input stream
 	 * @throws UnexpectedResponseException
 	 *             if the received degree was negative or bigger than 360
 	 */
-	private float readDegree() throws IOException, UnexpectedResponseException {
-		float degree = this.dis.readFloat();
+	private float readDegree(boolean compact) throws IOException,
+			UnexpectedResponseException {
+		float degree = compact ? this.dis.readFixedPoint() : this.dis
+				.readFloat();
 
 		if (degree < 0) {
 			this.owner.notifyAllObserversForEvent(BTEvent.DEGREE);
@@ -615,15 +851,19 @@ class MessageReader implements Runnable {
 	/**
 	 * reads the light value from the input stream
 	 * 
+	 * @param compact
+	 *            whether the content is encoded compactly (see
+	 *            {@link BTComm#COMPACT})
 	 * @return the read light value
 	 * @throws IOException
 	 *             if the light value couldn't be read from the input stream
 	 * @throws UnexpectedResponseException
 	 *             if the received light value was negative or bigger than 100
 	 */
-	private float readLightValue() throws IOException,
+	private float readLightValue(boolean compact) throws IOException,
 			UnexpectedResponseException {
-		float lightValue = this.dis.readFloat();
+		float lightValue = compact ? this.dis.readFixedPoint() : this.dis
+				.readFloat();
 
 		if (lightValue < 0) {
 			this.owner.notifyAllObserversForEvent(BTEvent.LIGHT);
@@ -661,7 +901,7 @@ class MessageReader implements Runnable {
 		code = (byte) (code & BTComm.LOWER_BITS);
 
 		if (code == BTComm.CLOSE_VIRTUAL && !this.closed) {
-			if (this.partOfFileLeft != 0) {
+			if (this.receivingFile != null) {
 				try {
 					this.owner.writeCommand(BTComm.CLOSE_VIRTUAL_DECLINE);
 					if (this.logging) {
@@ -720,7 +960,7 @@ class MessageReader implements Runnable {
 			}
 		}
 		else if (code == BTComm.CLOSE_VIRTUAL_ACK) {
-			if (this.partOfFileLeft != 0) {
+			if (this.receivingFile != null) {
 				this
 						.closeConnection("close ACK received while waiting for files. close however...");
 			}
@@ -740,12 +980,45 @@ class MessageReader implements Runnable {
 			throw new UnexpectedResponseException(
 					"Close request was not acknowledged");
 		}
+		else if (code == BTComm.CODEC_OFFER || code == BTComm.CODEC_ACK) {
+			// the remote device understands the compact codec
+			this.owner.useCompactCodec(code == BTComm.CODEC_OFFER);
+		}
+		else if (code == BTComm.COMPRESSION_OFFER
+				|| code == BTComm.COMPRESSION_ACK) {
+			// the remote device understands the compression of files
+			this.owner.useCompression(code == BTComm.COMPRESSION_OFFER);
+		}
+		else if (code == BTComm.RESUME_OFFER || code == BTComm.RESUME_ACK) {
+			// the remote device understands the resumable parts of files
+			this.owner.useResumableFiles(code == BTComm.RESUME_OFFER);
+		}
+		else if (code == BTComm.FILE_CREDIT_OFFER) {
+			// the remote device waits for credits before it writes its files
+			this.filesPaced = true;
+			this.owner.grantFileCredits(BTComm.FILE_WINDOW);
+		}
+		else if (code == BTComm.DATA_CREDIT_OFFER) {
+			// the remote device waits for credits before it writes its data
+			this.owner.acceptDataCredits();
+		}
 		else {
 			throw new UnexpectedResponseException("Command was not expected: "
 					+ Byte.toString(code));
 		}
 	}
 
+	/**
+	 * grants the remote device to write the next frame of a file after a
+	 * frame of a file was read (only if the remote device offered to wait for
+	 * credits, see {@link BTComm#FILE_CREDIT_OFFER})
+	 */
+	private void grantFileCredit() {
+		if (this.filesPaced) {
+			this.owner.grantFileCredits(1);
+		}
+	}
+
 	/**
 	 * closes this connection completely (input stream and connection itself)
 	 * and notifies all observers. The given message will be logged.
@@ -792,7 +1065,8 @@ class MessageReader implements Runnable {
 	 */
 	private void readRequest(byte code) throws UnexpectedResponseException,
 			IOException {
-		code = (byte) (code & BTComm.LOWER_BITS);
+		boolean compact = (code & BTComm.COMPACT) != 0;
+		code = (byte) (code & BTComm.LOWER_BITS & ~BTComm.COMPACT);
 
 		if (code == BTComm.LIGHT) {
 			this.writeLightValue();
@@ -801,28 +1075,46 @@ class MessageReader implements Runnable {
 			this.writeDegree();
 		}
 		else if (code == BTComm.FILE) {
-			String requestedFileName = this.dis.readString();
+			String requestedFileName = compact ? this.dis
+					.readCompactString() : this.dis.readString();
 			this.writeFile(requestedFileName);
 		}
+		else if (code == BTComm.FILE_CREDIT) {
+			int credits = compact ? this.dis.readVarInt() : this.dis.readInt();
+			this.owner.addFileCredits(credits);
+		}
+		else if (code == BTComm.FILE_RESUME) {
+			int transferId = this.dis.readInt();
+			int fileSize = compact ? this.dis.readVarInt() : this.dis
+					.readInt();
+			int length = compact ? this.dis.readVarInt() : this.dis.readInt();
+			if (length < 0) {
+				throw new UnexpectedResponseException(
+						"Send length of received parts was negative");
+			}
+			byte[] receivedParts = new byte[length];
+			this.dis.readFully(receivedParts);
+			this.resendFile(transferId, fileSize, receivedParts);
+		}
 		else {
 			throw new UnexpectedResponseException(
-					"Code was not FILE or DEGREE or LIGHT_VALUE, but "
+					"Code was not FILE or FILE_CREDIT or FILE_RESUME or DEGREE or LIGHT_VALUE, but "
 							+ Byte.toString(code));
 		}
 	}
 
 	/**
-	 * writes the requested file to the owner
+	 * writes the requested file to the owner. The file is written in its own
+	 * thread, so that this reader can read the credits of the remote device
+	 * for the file in the meantime (see {@link BTComm#FILE_CREDIT}).
 	 * 
 	 * @param requestedFileName
 	 *            the file to write
 	 * @throws FileNotFoundException
 	 *             thrown if the file cannot be found
-	 * @throws IOException
-	 *             thrown if the file could not be read
 	 */
 	private void writeFile(String requestedFileName)
-			throws FileNotFoundException, IOException {
+			throws FileNotFoundException {
 		String fileName;
 
 		if (this.ownFileLocalizer == null) {
@@ -840,11 +1132,33 @@ class MessageReader implements Runnable {
 			logger.debug(this.btcommName + "file " + fileName + " req rcv");
 		}
 
+		final String file = fileName;
+		new Thread(new Runnable() {
+			@Override
+			public void run() {
+				MessageReader.this.sendFile(file);
+			}
+		}, "BTFileThread").start();
+	}
+
+	/**
+	 * writes the file with the given name to the owner
+	 * 
+	 * @param fileName
+	 *            the file to write
+	 */
+	private void sendFile(String fileName) {
 		try {
 			this.owner.writeFile(fileName);
 		}
+		catch (IOException e) {
+			if (this.logging) {
+				logger.error(this.btcommName + "in writeFile: "
+						+ e.getMessage());
+			}
+		}
 		catch (ConnectionClosedException e) {
-			// should not happen as reader controls closing
+			// the connection was closed while the file was written
 			if (this.logging) {
 				logger.error(this.btcommName + "in writeFile after close req: "
 						+ e.getMessage());
@@ -859,6 +1173,74 @@ class MessageReader implements Runnable {
 		}
 	}
 
+	/**
+	 * writes the parts of a file that the remote device did not receive to
+	 * the owner (see {@link BTComm#FILE_RESUME}). The parts are written in
+	 * their own thread like a requested file (see {@link #writeFile(String)}).
+	 * 
+	 * @param transferId
+	 *            the id of the transfer of the file
+	 * @param fileSize
+	 *            the size of the file the remote device knows
+	 * @param receivedParts
+	 *            the bitmap of the parts the remote device received
+	 */
+	private void resendFile(final int transferId, final int fileSize,
+			final byte[] receivedParts) {
+		if (this.logging) {
+			logger.debug(this.btcommName + "resume of file " + transferId
+					+ " req rcv");
+		}
+
+		new Thread(new Runnable() {
+			@Override
+			public void run() {
+				MessageReader.this.sendMissingParts(transferId, fileSize,
+						receivedParts);
+			}
+		}, "BTFileThread").start();
+	}
+
+	/**
+	 * writes the parts of a file that the remote device did not receive to
+	 * the owner
+	 * 
+	 * @param transferId
+	 *            the id of the transfer of the file
+	 * @param fileSize
+	 *            the size of the file the remote device knows
+	 * @param receivedParts
+	 *            the bitmap of the parts the remote device received
+	 */
+	private void sendMissingParts(int transferId, int fileSize,
+			byte[] receivedParts) {
+		try {
+			this.owner.resendFile(transferId, fileSize, receivedParts);
+		}
+		catch (IOException e) {
+			// the file is not known any more: the remote device keeps the
+			// parts it received
+			if (this.logging) {
+				logger.error(this.btcommName + "in resendFile: "
+						+ e.getMessage());
+			}
+		}
+		catch (ConnectionClosedException e) {
+			// the connection was closed while the parts were written
+			if (this.logging) {
+				logger.error(this.btcommName + "in resendFile after close req: "
+						+ e.getMessage());
+			}
+		}
+		catch (QueueBlockedException e) {
+			// should not happen
+			if (this.logging) {
+				logger.error(this.btcommName + "in resendFile after close req: "
+						+ e.getMessage());
+			}
+		}
+	}
+
 	/**
 	 * writes the current compass data to the owner
 	 */
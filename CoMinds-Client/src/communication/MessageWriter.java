@@ -27,19 +27,80 @@ import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.OutputStream;
 
+import common.Crc32;
+import common.FrameBuilder;
+import common.FramePool;
+import common.LzCodec;
+import common.PriorityMessageQueue;
 import common.Writer;
 import common.exceptions.QueueBlockedException;
+import communication.transport.BluetoothTransport;
 
 /**
  * This class writes anything that was given to the bluetooth output stream.
  * Don't use any private methods! The public methods will send the message
- * header first and then the message.
+ * header first and then the message. The messages are built in a
+ * {@link FrameBuilder}, so that no intermediate arrays are allocated.
  * 
  * @author Annabelle Klarl
  */
 class MessageWriter {
 
+	// how many frames are kept for reuse (see FramePool)
+	static final int FRAME_POOL_SIZE = 8;
+	// the size of the parts of a file that is sent in parts (see
+	// BTComm#FILE_PART)
+	static final int FILE_PART_SIZE = 4095;
+	// how long to wait at most for a credit of the remote device before the
+	// file is given up (in ms, see BTComm#FILE_CREDIT) and for the answer to
+	// the offer of credits before the files are written without credits (in
+	// ms, see BTComm#FILE_CREDIT_OFFER)
+	private static final long FILE_CREDIT_TIMEOUT = 10000;
+	private static final long FILE_CREDIT_OFFER_TIMEOUT = 2000;
+	// whether the files are written only as fast as the remote device grants
+	// credits: not known until the first file is written
+	private static final int PACING_UNKNOWN = 0;
+	private static final int PACING_ON = 1;
+	private static final int PACING_OFF = 2;
+	// files (or parts) that are smaller are not compressed
+	private static final int MIN_COMPRESSION_SIZE = 64;
+	// the bytes a compressed file (or part) needs additionally: the code of
+	// the file frame and the size of the compressed content
+	private static final int COMPRESSION_OVERHEAD = 5;
+
 	protected Writer writer;
+	// builds the messages (must be synchronized on)
+	protected final FrameBuilder builder;
+
+	// keys for degrees and light values: a new degree (light value) replaces
+	// the one that is not written to the output yet
+	private final Object degreeKey = new Object();
+	private final Object lightValueKey = new Object();
+
+	// whether the files are paced by credits, how many frames of files the
+	// remote device lets this device write (see BTComm#FILE_CREDIT) and
+	// whether the writer is stopped (must be synchronized on creditSync)
+	private final Object creditSync = new Object();
+	private int filePacing = PACING_UNKNOWN;
+	private int fileCredits = 0;
+	private boolean stopped = false;
+
+	// whether the content of the messages is encoded compactly (see
+	// BTComm#COMPACT)
+	private volatile boolean compact = false;
+	// whether the content of the files is compressed (see
+	// BTComm#FILE_COMPRESSED)
+	private volatile boolean compression = false;
+	// whether the parts of the files are sent so that they can be resumed
+	// (see BTComm#FILE_RESUMABLE_PART)
+	private volatile boolean resumable = false;
+
+	// the codec and the buffers for compressing the parts of a file (only
+	// while a file is written: the files are written one after the other, see
+	// BTComm)
+	private LzCodec codec;
+	private byte[] rawPart;
+	private byte[] compressedPart;
 
 	/**
 	 * Constructor
@@ -50,7 +111,14 @@ class MessageWriter {
 	 *            an int for the size of the message buffer
 	 */
 	public MessageWriter(OutputStream output, int queueSize) {
-		this.writer = new Writer(output, queueSize, true);
+		this.writer = new Writer(output, new PriorityMessageQueue<byte[]>(
+				queueSize), true);
+		// the messages that are queued are sent in as few packets as possible
+		this.writer.setGathering(BluetoothTransport.MAX_PACKET_SIZE);
+		// the messages are reused after they were written
+		this.writer.setFramePool(new FramePool(FRAME_POOL_SIZE,
+				BluetoothTransport.MAX_PACKET_SIZE));
+		this.builder = new FrameBuilder(this.writer.getFramePool(), 32);
 	}
 
 	/**
@@ -62,6 +130,7 @@ class MessageWriter {
 	 */
 	public MessageWriter(Writer writer) {
 		this.writer = writer;
+		this.builder = new FrameBuilder(writer.getFramePool(), 32);
 	}
 
 	/**
@@ -73,19 +142,92 @@ class MessageWriter {
 		writerThread.start();
 	}
 
+	/**
+	 * sets whether the content of the messages shall be encoded compactly:
+	 * lengths and numbers as varints and degrees and light values as 16 bit
+	 * fixed point values (see {@link BTComm#COMPACT}). This may only be set if
+	 * the remote device understands the compact codec.
+	 * 
+	 * @param compact
+	 *            whether to encode the messages compactly
+	 */
+	public void setCompact(boolean compact) {
+		this.compact = compact;
+	}
+
+	/**
+	 * returns whether the content of the messages is encoded compactly
+	 * 
+	 * @return whether the messages are encoded compactly
+	 */
+	public boolean isCompact() {
+		return this.compact;
+	}
+
+	/**
+	 * sets whether the content of the files shall be compressed (see
+	 * {@link BTComm#FILE_COMPRESSED}). A file (or a part of it) is only sent
+	 * compressed if it gets smaller. This may only be set if the remote device
+	 * understands the compression.
+	 * 
+	 * @param compression
+	 *            whether to compress the files
+	 */
+	public void setCompression(boolean compression) {
+		this.compression = compression;
+	}
+
+	/**
+	 * returns whether the content of the files is compressed
+	 * 
+	 * @return whether the files are compressed
+	 */
+	public boolean isCompression() {
+		return this.compression;
+	}
+
+	/**
+	 * sets whether the parts of the files shall be sent so that they can be
+	 * resumed (see {@link BTComm#FILE_RESUMABLE_PART}). Otherwise they are sent
+	 * as {@link BTComm#FILE_PART}. This may only be set if the remote device
+	 * understands the resumable parts.
+	 * 
+	 * @param resumable
+	 *            whether to send resumable parts
+	 */
+	public void setResumable(boolean resumable) {
+		this.resumable = resumable;
+	}
+
+	/**
+	 * returns whether the parts of the files are sent so that they can be
+	 * resumed
+	 * 
+	 * @return whether the parts are resumable
+	 */
+	public boolean isResumable() {
+		return this.resumable;
+	}
+
 	/**
 	 * writes a file with the given fileName to the message queue (with message
 	 * header, file name and file length). This method will split the file in
-	 * parts with 4095 bytes each. If the fileName is null nothing except the
-	 * file name as an empty String (and the message header) will be written to
-	 * the output.
+	 * parts with 4095 bytes each. If the remote device understands resumable
+	 * parts, every part carries the id of the transfer, the size of the whole
+	 * file, its index and its checksum, so that the receiver can ask for
+	 * missing parts later on (see {@link #resendFile(int, int, byte[])}).
+	 * Otherwise the parts are sent as {@link BTComm#FILE_PART}. If the
+	 * fileName is null nothing
+	 * except the file name as an empty String (and the message header) will
+	 * be written to the output.
 	 * 
 	 * @param fileName
 	 *            a String for the name of the file to be send
 	 * @throws FileNotFoundException
 	 *             if the file with this name was not found on the hard disc
 	 * @throws IOException
-	 *             if the file could not be read from hard disc
+	 *             if the file could not be read from hard disc or the remote
+	 *             device granted no credit for it in time
 	 * @throws QueueBlockedException
 	 *             thrown if something shall be written to the message queue but
 	 *             the queue is blocked
@@ -93,115 +235,363 @@ class MessageWriter {
 	public void writeFile(String fileName) throws FileNotFoundException,
 			IOException, QueueBlockedException {
 
-		// message header
-		byte sendCommandByte;
-
-		// content (filename, filelength and file)
-		byte[] messageBytes;
-
 		if (fileName == null) {
 			// write send command
-			sendCommandByte = this.getSendCommand(BTComm.FILE_EMPTY);
+			byte sendCommandByte = this.getSendCommand(BTComm.FILE_EMPTY);
 
-			// concat messages
-			messageBytes = common.WriterUtils.concatArrays(sendCommandByte);
+			// message without content
+			byte[] messageBytes;
+			synchronized (this.builder) {
+				messageBytes = this.builder.reset().putByte(sendCommandByte)
+						.toFrame();
+			}
+			this.write(messageBytes);
+			return;
 		}
-		else {
-			// read file
-			FileInputStream input = new FileInputStream(new File(fileName));
+
+		this.negotiateFileCredits();
+
+		// read file
+		FileInputStream input = new FileInputStream(new File(fileName));
+		try {
 			int availableBytes = input.available();
 
 			// send file in one part
-			int partSize = 4095;
-			if (availableBytes <= partSize) {
+			if (availableBytes <= FILE_PART_SIZE) {
 
-				// wait until there is enough space to store the byte array of
-				// this file
-				this.waitForFreeHeap(availableBytes);
+				// wait until the remote device may receive the file
+				this.awaitFileCredit(fileName);
 
 				// write send command: whole
-				sendCommandByte = this.getSendCommand(BTComm.FILE_WHOLE);
+				byte sendCommandByte = this.getSendCommand(BTComm.FILE_WHOLE);
 
 				// get file
-				messageBytes = this.getFilePart(sendCommandByte, fileName,
-						availableBytes, input);
+				this.write(this.getFilePart(sendCommandByte, 0, 0, 0, 0,
+						fileName, availableBytes, input));
+			}
+			// send the file in resumable parts
+			else if (this.resumable) {
+				this.writeFileParts(true, FileTransfers.addSentFile(fileName),
+						fileName, input, -1, null);
 			}
 			// send the file in parts
 			else {
-				// write send command: parts
-				sendCommandByte = this.getSendCommand(BTComm.FILE_PART);
-				int numberOfParts = availableBytes / partSize + 1;
-
-				// read and write: 4095 bytes each
-				int i = partSize;
-				int j = 0;
-				for (; i < availableBytes; i = i + partSize, j++) {
-					// wait until there is enough space to store the byte array
-					// of this file
-					this.waitForFreeHeap(partSize);
-
-					messageBytes = this.getFilePart(sendCommandByte,
-							numberOfParts, fileName + j, partSize, input);
-					this.write(messageBytes);
-				}
+				this.writeFileParts(false, 0, fileName, input, -1, null);
+			}
+		}
+		finally {
+			this.releaseCompression();
+			input.close();
+		}
+	}
 
-				int lengthLastPart = availableBytes - i + partSize;
+	/**
+	 * writes the parts of a file that was sent before again, but only the
+	 * parts that were not received by the remote device (see
+	 * {@link BTComm#FILE_RESUME})
+	 * 
+	 * @param transferId
+	 *            the id of the transfer of the file
+	 * @param fileSize
+	 *            the size of the file the remote device knows
+	 * @param receivedParts
+	 *            the bitmap of the parts the remote device received
+	 * @throws FileNotFoundException
+	 *             if the file is not known any more or was not found on the
+	 *             hard disc
+	 * @throws IOException
+	 *             if the file could not be read from hard disc or the remote
+	 *             device granted no credit for it in time
+	 * @throws QueueBlockedException
+	 *             thrown if something shall be written to the message queue but
+	 *             the queue is blocked
+	 */
+	public void resendFile(int transferId, int fileSize, byte[] receivedParts)
+			throws FileNotFoundException, IOException, QueueBlockedException {
+		String fileName = FileTransfers.getSentFile(transferId);
+		if (fileName == null) {
+			throw new FileNotFoundException("No file was sent with id "
+					+ transferId);
+		}
 
-				// wait until there is enough space to store the byte array of
-				// this file
-				this.waitForFreeHeap(lengthLastPart);
+		this.negotiateFileCredits();
+		FileInputStream input = new FileInputStream(new File(fileName));
+		try {
+			this.writeFileParts(true, transferId, fileName, input, fileSize,
+					receivedParts);
+		}
+		finally {
+			this.releaseCompression();
+			input.close();
+		}
+	}
+
+	/**
+	 * writes a request for the parts of a file that were not received yet to
+	 * the message queue (see {@link BTComm#FILE_RESUME}). The request contains
+	 * the id of the transfer, the size of the file as far as it is known and
+	 * the bitmap of the received parts.
+	 * 
+	 * @param transferId
+	 *            the id the sender gave the transfer of the file
+	 * @param fileSize
+	 *            the size of the file as far as it is known
+	 * @param receivedParts
+	 *            the bitmap of the received parts
+	 * @throws QueueBlockedException
+	 *             thrown if something shall be written to the message queue but
+	 *             the queue is blocked
+	 */
+	public void writeResumeRequest(int transferId, int fileSize,
+			byte[] receivedParts) throws QueueBlockedException {
+		byte requestCommandByte = this.getRequestCommand(BTComm.FILE_RESUME);
 
-				messageBytes = this.getFilePart(sendCommandByte, numberOfParts,
-						fileName + j, lengthLastPart, input);
+		byte[] messageBytes;
+		synchronized (this.builder) {
+			this.builder.reset().putByte(requestCommandByte).putInt(transferId);
+			if ((requestCommandByte & BTComm.COMPACT) != 0) {
+				this.builder.putVarInt(fileSize).putVarInt(
+						receivedParts.length);
 			}
+			else {
+				this.builder.putInt(fileSize).putInt(receivedParts.length);
+			}
+			messageBytes = this.builder.putBytes(receivedParts).toFrame();
 		}
+		this.write(messageBytes);
+	}
 
-		// write message to bt queue
+	/**
+	 * writes the parts of a file that the remote device did not receive yet.
+	 * The parts are read one after the other from the input stream.
+	 * 
+	 * @param resumable
+	 *            whether the parts are sent as
+	 *            {@link BTComm#FILE_RESUMABLE_PART} or as
+	 *            {@link BTComm#FILE_PART}
+	 * @param transferId
+	 *            the id of the transfer of the file (only for resumable parts)
+	 * @param fileName
+	 *            the name of the file
+	 * @param input
+	 *            the input stream of the file (at its beginning)
+	 * @param knownFileSize
+	 *            the size of the file the remote device knows (-1 if it does
+	 *            not know the file yet): if the file grew, the last part of
+	 *            the smaller file is written again
+	 * @param receivedParts
+	 *            the bitmap of the parts the remote device received (null if
+	 *            all parts shall be written)
+	 * @throws IOException
+	 *             if the file could not be read or the remote device granted
+	 *             no credit for a part in time
+	 * @throws QueueBlockedException
+	 *             thrown if something shall be written to the message queue but
+	 *             the queue is blocked
+	 */
+	private void writeFileParts(boolean resumable, int transferId,
+			String fileName, FileInputStream input, int knownFileSize,
+			byte[] receivedParts) throws IOException, QueueBlockedException {
+		// write send command: parts
+		byte sendCommandByte = this
+				.getSendCommand(resumable ? BTComm.FILE_RESUMABLE_PART
+						: BTComm.FILE_PART);
+
+		int partSize = FILE_PART_SIZE;
+		int fileSize = input.available();
+		int numberOfParts = (fileSize + partSize - 1) / partSize;
+		int grownPart = knownFileSize != fileSize ? knownFileSize / partSize
+				: -1;
+
+		// read and write: 4095 bytes each
+		int position = 0;
+		for (int j = 0; j < numberOfParts; j++) {
+			if (j != grownPart && FileTransfers.isReceived(receivedParts, j)) {
+				continue;
+			}
+
+			// skip the parts that were received
+			while (position < j * partSize) {
+				int skipped = (int) input.skip(j * partSize - position);
+				if (skipped <= 0) {
+					throw new IOException("end of file " + fileName);
+				}
+				position += skipped;
+			}
+
+			int size = Math.min(partSize, fileSize - position);
+
+			// wait until the remote device may receive the part
+			this.awaitFileCredit(fileName);
+
+			this.write(this.getFilePart(sendCommandByte, transferId,
+					numberOfParts, fileSize, j, fileName, size, input));
+			position += size;
+		}
+	}
+
+	/**
+	 * writes a credit for the remote device to write the given number of
+	 * further frames of files (see {@link BTComm#FILE_CREDIT}) to the message
+	 * queue
+	 * 
+	 * @param credits
+	 *            how many frames of files the remote device may write
+	 * @throws QueueBlockedException
+	 *             thrown if something shall be written to the message queue but
+	 *             the queue is blocked
+	 */
+	public void writeFileCredits(int credits) throws QueueBlockedException {
+		byte requestCommandByte = this.getRequestCommand(BTComm.FILE_CREDIT);
+
+		byte[] messageBytes;
+		synchronized (this.builder) {
+			this.builder.reset().putByte(requestCommandByte);
+			if ((requestCommandByte & BTComm.COMPACT) != 0) {
+				this.builder.putVarInt(credits);
+			}
+			else {
+				this.builder.putInt(credits);
+			}
+			messageBytes = this.builder.toFrame();
+		}
 		this.write(messageBytes);
+	}
 
+	/**
+	 * adds the credits the remote device granted for writing further frames
+	 * of files (see {@link BTComm#FILE_CREDIT}). From now on the files are
+	 * paced by the credits and a file that waits for a credit is continued.
+	 * 
+	 * @param credits
+	 *            how many frames of files may be written
+	 */
+	public void addFileCredits(int credits) {
+		synchronized (this.creditSync) {
+			this.filePacing = PACING_ON;
+			this.fileCredits += credits;
+			this.creditSync.notifyAll();
+		}
 	}
 
 	/**
-	 * this methods only returns if there are at least size+50 bytes free space
-	 * of memory on the heap. It will also return if the messageQueue is empty.
-	 * Then there is not enough space on the heap at all!
+	 * waits until the remote device granted a credit for writing the next
+	 * frame of a file and takes it (see {@link BTComm#FILE_CREDIT}), so that a
+	 * file is written only as fast as the remote device receives it. If the
+	 * remote device does not grant credits, the frame may be written at once.
+	 * If no credit is granted within {@link #FILE_CREDIT_TIMEOUT} (e.g. because
+	 * the remote device is stuck), the frame must not be written and the file
+	 * shall be given up.
 	 * 
-	 * @param size
-	 *            how many bytes are needed (will be increased by 50)
+	 * @return whether the frame may be written
 	 */
-	private void waitForFreeHeap(int size) {
+	private boolean takeFileCredit() {
+		synchronized (this.creditSync) {
+			if (this.filePacing != PACING_ON) {
+				return true;
+			}
+
+			long end = System.currentTimeMillis() + FILE_CREDIT_TIMEOUT;
+			long timeout = FILE_CREDIT_TIMEOUT;
+			while (this.fileCredits <= 0 && !this.stopped && timeout > 0) {
+				try {
+					this.creditSync.wait(timeout);
+				}
+				catch (InterruptedException e) {
+					break;
+				}
+				timeout = end - System.currentTimeMillis();
+			}
+
+			if (this.fileCredits <= 0) {
+				return false;
+			}
+			this.fileCredits--;
+			return true;
+		}
+	}
 
-		long now = System.currentTimeMillis();
-		while ((size + 50 > Runtime.getRuntime().freeMemory() || !this.writer
-				.isWaitingForMessages())
-				// if there is not enough space left (or the garbage collector
-				// does not work
-				&& (System.currentTimeMillis() - now < 3000)) {
-			Thread.yield();
+	/**
+	 * negotiates before the first file whether the files are paced by credits
+	 * of the remote device: the remote device is offered the credits (see
+	 * {@link BTComm#FILE_CREDIT_OFFER}) and a remote device that understands
+	 * them answers with the first credit. If there is no answer within
+	 * {@link #FILE_CREDIT_OFFER_TIMEOUT}, the remote device does not grant
+	 * credits and all files are written without them.
+	 * 
+	 * @throws QueueBlockedException
+	 *             thrown if something shall be written to the message queue but
+	 *             the queue is blocked
+	 */
+	private void negotiateFileCredits() throws QueueBlockedException {
+		synchronized (this.creditSync) {
+			if (this.filePacing != PACING_UNKNOWN) {
+				return;
+			}
 		}
 
+		this.writeCommand(BTComm.FILE_CREDIT_OFFER);
+
+		synchronized (this.creditSync) {
+			long end = System.currentTimeMillis() + FILE_CREDIT_OFFER_TIMEOUT;
+			long timeout = FILE_CREDIT_OFFER_TIMEOUT;
+			while (this.filePacing == PACING_UNKNOWN && !this.stopped
+					&& timeout > 0) {
+				try {
+					this.creditSync.wait(timeout);
+				}
+				catch (InterruptedException e) {
+					break;
+				}
+				timeout = end - System.currentTimeMillis();
+			}
+
+			if (this.filePacing == PACING_UNKNOWN) {
+				this.filePacing = PACING_OFF;
+			}
+		}
 	}
 
 	/**
-	 * see documenation
-	 * {@link #getFilePart(byte, int, String, int, FileInputStream)}. Here just
-	 * one part of file is send. That means the file is send as a whole.
+	 * waits for a credit for the next frame of the given file (see
+	 * {@link #takeFileCredit()})
+	 * 
+	 * @param fileName
+	 *            the name of the file
+	 * @throws IOException
+	 *             thrown if no credit was granted in time, so the file is given
+	 *             up (the parts that were not written can be requested again,
+	 *             see {@link BTComm#FILE_RESUME})
 	 */
-	private byte[] getFilePart(byte command, String fileName, int partSize,
-			FileInputStream input) throws IOException {
-		return this.getFilePart(command, 0, fileName, partSize, input);
+	private void awaitFileCredit(String fileName) throws IOException {
+		if (!this.takeFileCredit()) {
+			throw new IOException("No credit for file " + fileName
+					+ " within " + FILE_CREDIT_TIMEOUT + " ms");
+		}
 	}
 
 	/**
 	 * gets the bytes for a part of a file given by filename. This method return
-	 * the command concantenated with the number of file parts to send, the name
-	 * for this part of file (that is send), the size of this part and the part
-	 * of the file itself.
+	 * the command concantenated with the fields of the part (see
+	 * {@link #putFilePartFields(byte, int, int, int, int, String, int)}), the
+	 * CRC32 checksum of a resumable part and the part of the file itself. If
+	 * the command has the flag
+	 * {@link BTComm#COMPACT} the numbers and the length of the name are
+	 * encoded as varints. If the files are compressed and the part gets
+	 * smaller, the part is sent compressed (see {@link BTComm#FILE_COMPRESSED}
+	 * ).
 	 * 
 	 * @param command
 	 *            the send command
+	 * @param transferId
+	 *            the id of the transfer of the file
 	 * @param numberOfParts
-	 *            how many parts of the file are send
+	 *            how many parts of the file are send (0 if the file is send as
+	 *            a whole)
+	 * @param fileSize
+	 *            the size of the whole file
+	 * @param index
+	 *            the index of this part
 	 * @param fileName
 	 *            the name of the whole file
 	 * @param partSize
@@ -212,35 +602,228 @@ class MessageWriter {
 	 * @throws IOException
 	 *             if something could not be read from this file
 	 */
-	private byte[] getFilePart(byte command, int numberOfParts,
-			String fileName, int partSize, FileInputStream input)
-			throws IOException {
+	private byte[] getFilePart(byte command, int transferId,
+			int numberOfParts, int fileSize, int index, String fileName,
+			int partSize, FileInputStream input) throws IOException {
+		if (this.compression && partSize >= MIN_COMPRESSION_SIZE) {
+			return this.getCompressedFilePart(command, transferId,
+					numberOfParts, fileSize, index, fileName, partSize, input);
+		}
 
-		// number of parts to array
-		byte[] numberOfPartsBytes;
-		if (numberOfParts == 0) {
-			numberOfPartsBytes = new byte[0];
+		byte[] messageBytes;
+		int checksumIndex = -1;
+		synchronized (this.builder) {
+			this.builder.reset().putByte(command);
+			this.putFilePartFields(command, transferId, numberOfParts,
+					fileSize, index, fileName, partSize);
+
+			// checksum (set when the part is read)
+			if (isResumablePart(command)) {
+				checksumIndex = this.builder.length();
+				this.builder.putInt(0);
+			}
+
+			// the file is read directly into the message
+			messageBytes = this.builder.toFrame(partSize);
 		}
-		else {
-			numberOfPartsBytes = CommunicationUtils.convertIntToByteArray(numberOfParts);
+
+		int partStart = messageBytes.length - partSize;
+		this.readFilePart(fileName, input, messageBytes, partStart, partSize);
+
+		if (checksumIndex != -1) {
+			CommunicationUtils.convertIntToByteArray(Crc32.getChecksum(
+					messageBytes, partStart, partSize), messageBytes,
+					checksumIndex);
 		}
+		return messageBytes;
+	}
 
-		// file name to array
-		byte[] fileNameBytes = CommunicationUtils.convertStringToByteArray(fileName);
+	/**
+	 * gets the bytes for a part of a file like
+	 * {@link #getFilePart(byte, int, int, int, int, String, int, FileInputStream)}
+	 * , but compresses the part (see {@link BTComm#FILE_COMPRESSED}). If the
+	 * part does not get smaller by compressing it, it is sent uncompressed.
+	 * 
+	 * @param command
+	 *            the send command
+	 * @param transferId
+	 *            the id of the transfer of the file
+	 * @param numberOfParts
+	 *            how many parts of the file are send (0 if the file is send as
+	 *            a whole)
+	 * @param fileSize
+	 *            the size of the whole file
+	 * @param index
+	 *            the index of this part
+	 * @param fileName
+	 *            the name of the whole file
+	 * @param partSize
+	 *            the size of this part of file
+	 * @param input
+	 *            the input stream where to read the file from
+	 * @return all the information about this part of file as a byte array
+	 * @throws IOException
+	 *             if something could not be read from this file
+	 */
+	private byte[] getCompressedFilePart(byte command, int transferId,
+			int numberOfParts, int fileSize, int index, String fileName,
+			int partSize, FileInputStream input) throws IOException {
+		if (this.codec == null) {
+			this.codec = new LzCodec();
+			this.rawPart = new byte[FILE_PART_SIZE];
+			this.compressedPart = new byte[LzCodec
+					.getMaxCompressedLength(FILE_PART_SIZE)];
+		}
 
-		// file length as array
-		byte[] fileLengthBytes = CommunicationUtils.convertIntToByteArray(partSize);
+		this.readFilePart(fileName, input, this.rawPart, 0, partSize);
+		int compressedSize = this.codec.compress(this.rawPart, 0, partSize,
+				this.compressedPart, 0);
+		boolean compressed = compressedSize + COMPRESSION_OVERHEAD < partSize;
+		int contentSize = compressed ? compressedSize : partSize;
 
-		int length = 1 + numberOfPartsBytes.length + fileNameBytes.length
-				+ fileLengthBytes.length + partSize;
-		byte[] messageBytes = common.WriterUtils.concatArraysIntoArrayWithLength(
-				length, command, numberOfPartsBytes, fileNameBytes,
-				fileLengthBytes);
+		byte[] messageBytes;
+		synchronized (this.builder) {
+			this.builder.reset();
+			if (compressed) {
+				// the code of the file frame follows the compressed code
+				byte code = (byte) (command & BTComm.LOWER_BITS & ~BTComm.COMPACT);
+				this.builder.putByte(
+						(byte) ((command & ~code) | BTComm.FILE_COMPRESSED))
+						.putByte(code);
+			}
+			else {
+				this.builder.putByte(command);
+			}
+			this.putFilePartFields(command, transferId, numberOfParts,
+					fileSize, index, fileName, partSize);
 
-		input.read(messageBytes, length - partSize, partSize);
+			if (isResumablePart(command)) {
+				this.builder.putInt(Crc32
+						.getChecksum(this.rawPart, 0, partSize));
+			}
+			if (compressed) {
+				this.builder.putInt(compressedSize);
+			}
+			messageBytes = this.builder.toFrame(contentSize);
+		}
+
+		System.arraycopy(compressed ? this.compressedPart : this.rawPart, 0,
+				messageBytes, messageBytes.length - contentSize, contentSize);
 		return messageBytes;
 	}
 
+	/**
+	 * puts the fields of a part of a file in front of its checksum into the
+	 * builder (the builder is synchronized on): the id of the transfer, the
+	 * number of parts, the size of the file and the index of the part (if the
+	 * part is resumable, see {@link BTComm#FILE_RESUMABLE_PART}) or the
+	 * number of parts (if the part is a {@link BTComm#FILE_PART}, its name
+	 * ends with its index), the name of the file and the size of the part
+	 * 
+	 * @param command
+	 *            the send command
+	 * @param transferId
+	 *            the id of the transfer of the file
+	 * @param numberOfParts
+	 *            how many parts of the file are send (0 if the file is send as
+	 *            a whole)
+	 * @param fileSize
+	 *            the size of the whole file
+	 * @param index
+	 *            the index of this part
+	 * @param fileName
+	 *            the name of the whole file
+	 * @param partSize
+	 *            the size of this part of file
+	 */
+	private void putFilePartFields(byte command, int transferId,
+			int numberOfParts, int fileSize, int index, String fileName,
+			int partSize) {
+		boolean compact = (command & BTComm.COMPACT) != 0;
+
+		// transfer id, number of parts, file size and index of the part
+		if (isResumablePart(command)) {
+			this.builder.putInt(transferId);
+			if (compact) {
+				this.builder.putVarInt(numberOfParts).putVarInt(fileSize)
+						.putVarInt(index);
+			}
+			else {
+				this.builder.putInt(numberOfParts).putInt(fileSize).putInt(
+						index);
+			}
+		}
+		// number of parts and the index of the part in its name
+		else if (numberOfParts != 0) {
+			if (compact) {
+				this.builder.putVarInt(numberOfParts);
+			}
+			else {
+				this.builder.putInt(numberOfParts);
+			}
+			fileName = fileName + index;
+		}
+
+		// file name and file length
+		if (compact) {
+			this.builder.putCompactString(fileName).putVarInt(partSize);
+		}
+		else {
+			this.builder.putString(fileName).putInt(partSize);
+		}
+	}
+
+	/**
+	 * returns whether the given send command is the one of a resumable part of
+	 * a file (see {@link BTComm#FILE_RESUMABLE_PART})
+	 * 
+	 * @param command
+	 *            the send command
+	 * @return whether the part carries a transfer id and a checksum
+	 */
+	private static boolean isResumablePart(byte command) {
+		byte code = (byte) (command & BTComm.LOWER_BITS & ~BTComm.COMPACT);
+		return code == BTComm.FILE_RESUMABLE_PART;
+	}
+
+	/**
+	 * reads a part of a file from the input stream into the given array
+	 * 
+	 * @param fileName
+	 *            the name of the file
+	 * @param input
+	 *            the input stream where to read the file from
+	 * @param bytes
+	 *            the array where to store the part
+	 * @param offset
+	 *            where to store the part in the array
+	 * @param partSize
+	 *            the size of the part
+	 * @throws IOException
+	 *             if the part could not be read
+	 */
+	private void readFilePart(String fileName, FileInputStream input,
+			byte[] bytes, int offset, int partSize) throws IOException {
+		int read = 0;
+		while (read < partSize) {
+			int count = input.read(bytes, offset + read, partSize - read);
+			if (count < 0) {
+				throw new IOException("end of file " + fileName);
+			}
+			read += count;
+		}
+	}
+
+	/**
+	 * releases the codec and the buffers for compressing a file, so that they
+	 * do not take space on the heap while no file is written
+	 */
+	private void releaseCompression() {
+		this.codec = null;
+		this.rawPart = null;
+		this.compressedPart = null;
+	}
+
 	/**
 	 * writes the given degree to the message queue (with message header)
 	 * 
@@ -251,14 +834,9 @@ class MessageWriter {
 	 *             the queue is blocked
 	 */
 	public void writeDegree(float degrees) throws QueueBlockedException {
-		// message header
-		byte sendCommandByte = this.getSendCommand(BTComm.DEGREE);
-
-		// degree as byte array
-		byte[] degreeBytes = CommunicationUtils.convertFloatToByteArray(degrees);
-
-		// write message to bt queue
-		this.write(common.WriterUtils.concatArrays(sendCommandByte, degreeBytes));
+		// write message to bt queue (replaces an older degree)
+		this.writeLatest(this.getFloatMessage(BTComm.DEGREE, degrees),
+				this.degreeKey);
 	}
 
 	/**
@@ -271,37 +849,80 @@ class MessageWriter {
 	 *             the queue is blocked
 	 */
 	public void writeLightValue(float lightValue) throws QueueBlockedException {
-		// message header
-		byte sendCommandByte = this.getSendCommand(BTComm.LIGHT);
+		// write message to bt queue (replaces an older light value)
+		this.writeLatest(this.getFloatMessage(BTComm.LIGHT, lightValue),
+				this.lightValueKey);
+	}
 
-		// degree as byte array
-		byte[] lightBytes = CommunicationUtils.convertFloatToByteArray(lightValue);
+	/**
+	 * gets the message for a float (degree or light value) with the SEND
+	 * header. The float is encoded as a fixed point value if the messages are
+	 * encoded compactly (see {@link BTComm#COMPACT}) and as a float otherwise.
+	 * 
+	 * @param command
+	 *            the command (DEGREE or LIGHT)
+	 * @param value
+	 *            the float
+	 * @return the message as a byte array
+	 */
+	private byte[] getFloatMessage(byte command, float value) {
+		synchronized (this.builder) {
+			byte sendCommandByte = this.getSendCommand(command);
+			this.builder.reset().putByte(sendCommandByte);
+			if ((sendCommandByte & BTComm.COMPACT) != 0) {
+				this.builder.putShort(CommunicationUtils
+						.convertFloatToFixedPoint(value));
+			}
+			else {
+				this.builder.putFloat(value);
+			}
+			return this.builder.toFrame();
+		}
+	}
 
-		// write message to bt queue
-		this.write(common.WriterUtils.concatArrays(sendCommandByte, lightBytes));
+	/**
+	 * gives a message that is not used any more back to the frame pool of the
+	 * writer (if there is one)
+	 * 
+	 * @param message
+	 *            the message that is not used any more
+	 */
+	protected void releaseMessage(byte[] message) {
+		FramePool pool = this.writer.getFramePool();
+		if (pool != null) {
+			pool.release(message);
+		}
 	}
 
 	/**
 	 * writes a SEND-command to the output. This method will take a command and
-	 * will return it as a SEND command.
+	 * will return it as a SEND command (with the flag {@link BTComm#COMPACT}
+	 * if the messages are encoded compactly).
 	 * 
 	 * @param command
 	 *            a byte for the command to send
 	 * @return the given command with the header for send as a byte
 	 */
 	private byte getSendCommand(byte command) {
+		if (this.compact) {
+			return (byte) (BTComm.SEND | command | BTComm.COMPACT);
+		}
 		return (byte) (BTComm.SEND | command);
 	}
 
 	/**
 	 * writes REQUEST-command to the ouput. This method will take a command and
-	 * will return it as a REQUEST command.
+	 * will return it as a REQUEST command (with the flag
+	 * {@link BTComm#COMPACT} if the messages are encoded compactly).
 	 * 
 	 * @param command
 	 *            a byte for the command to send
 	 * @return the command with the header for request as a byte
 	 */
 	private byte getRequestCommand(byte command) {
+		if (this.compact) {
+			return (byte) (BTComm.REQUEST | command | BTComm.COMPACT);
+		}
 		return (byte) (BTComm.REQUEST | command);
 	}
 
@@ -353,7 +974,82 @@ class MessageWriter {
 	 */
 	protected boolean write(byte[] message, boolean blocked)
 			throws QueueBlockedException {
-		return this.writer.write(message, blocked);
+		return this.write(message, getPriority(message[0], blocked), blocked);
+	}
+
+	/**
+	 * writes a message with the given priority to the writer. This method asks
+	 * whether to block the message buffer afterwards.
+	 * 
+	 * @param message
+	 *            the message itself as a byte array
+	 * @param priority
+	 *            the priority of the message (see {@link Writer#PRIORITY_HIGH}
+	 *            and the following)
+	 * @param blocked
+	 *            whether to block the writer after writing this message or not
+	 * @return returns whether the message was put into the writing queue or not
+	 *         (if not than the output is full and nothing can be written to it
+	 *         any more)
+	 * @throws QueueBlockedException
+	 *             thrown if something shall be pushed but the queue is blocked
+	 */
+	protected boolean write(byte[] message, int priority, boolean blocked)
+			throws QueueBlockedException {
+		return this.writer.write(message, priority, blocked);
+	}
+
+	/**
+	 * writes a message that replaces the message with the same key that was
+	 * not written to the output yet (see
+	 * {@link Writer#writeLatest(byte[], int, Object)})
+	 * 
+	 * @param message
+	 *            the message itself as a byte array
+	 * @param key
+	 *            the key of the message
+	 * @return returns whether the message was put into the writing queue or not
+	 *         (if not than the output is full and nothing can be written to it
+	 *         any more)
+	 * @throws QueueBlockedException
+	 *             thrown if something shall be pushed but the queue is blocked
+	 */
+	protected boolean writeLatest(byte[] message, Object key)
+			throws QueueBlockedException {
+		return this.writer.writeLatest(message, getPriority(message[0], false),
+				key);
+	}
+
+	/**
+	 * gets the priority of a message by its code: commands have high priority,
+	 * degrees, light values and requests have normal priority and files have
+	 * low priority. A message that blocks the queue (e.g. a close request or
+	 * close ACK) has low priority as well so it is not written before the
+	 * parts of a file that were written before.
+	 * 
+	 * @param code
+	 *            the code of the message (first byte)
+	 * @param blocked
+	 *            whether the message blocks the queue
+	 * @return the priority of the message
+	 */
+	static int getPriority(byte code, boolean blocked) {
+		byte upperCode = (byte) (code & BTComm.UPPER_BITS);
+		byte lowerCode = (byte) (code & BTComm.LOWER_BITS & ~BTComm.COMPACT);
+
+		if (blocked) {
+			return Writer.PRIORITY_LOW;
+		}
+		else if (upperCode == BTComm.COMMAND) {
+			return Writer.PRIORITY_HIGH;
+		}
+		else if (upperCode == BTComm.REQUEST
+				|| (upperCode == BTComm.SEND && (lowerCode == BTComm.DEGREE || lowerCode == BTComm.LIGHT))) {
+			return Writer.PRIORITY_NORMAL;
+		}
+		else {
+			return Writer.PRIORITY_LOW;
+		}
 	}
 
 	/**
@@ -387,7 +1083,11 @@ class MessageWriter {
 	 */
 	protected boolean write(byte message, boolean blocked)
 			throws QueueBlockedException {
-		return this.write(new byte[] { message }, blocked);
+		byte[] frame;
+		synchronized (this.builder) {
+			frame = this.builder.reset().putByte(message).toFrame();
+		}
+		return this.write(frame, blocked);
 	}
 
 	/**
@@ -416,16 +1116,24 @@ class MessageWriter {
 	 *             the queue is blocked
 	 */
 	public void requestFile(String fileName) throws QueueBlockedException {
-		// message header (request for file)
-		byte requestCommandByte = this.getRequestCommand(BTComm.FILE);
+		byte[] message;
+		synchronized (this.builder) {
+			// message header (request for file)
+			byte requestCommandByte = this.getRequestCommand(BTComm.FILE);
+			this.builder.reset().putByte(requestCommandByte);
 
-		// file name as array
-		byte[] fileNameBytes = CommunicationUtils.convertStringToByteArray(fileName);
+			// file name
+			if ((requestCommandByte & BTComm.COMPACT) != 0) {
+				this.builder.putCompactString(fileName);
+			}
+			else {
+				this.builder.putString(fileName);
+			}
+			message = this.builder.toFrame();
+		}
 
 		// write message to bt queue
-		this
-				.write(common.WriterUtils.concatArrays(requestCommandByte,
-						fileNameBytes));
+		this.write(message);
 	}
 
 	/**
@@ -476,6 +1184,23 @@ class MessageWriter {
 	 */
 	public void stop() {
 		this.writer.stop();
+
+		// a file that waits for a credit will not get one any more
+		synchronized (this.creditSync) {
+			this.stopped = true;
+			this.creditSync.notifyAll();
+		}
+	}
+
+	/**
+	 * sets how long the writer waits for more messages before it writes the
+	 * messages it has gathered so far (see {@link Writer#setLingerTime(int)})
+	 * 
+	 * @param lingerTime
+	 *            the time to wait for more messages (in ms)
+	 */
+	public void setLingerTime(int lingerTime) {
+		this.writer.setLingerTime(lingerTime);
 	}
 
 	/**
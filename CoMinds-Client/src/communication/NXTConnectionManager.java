@@ -21,7 +21,6 @@
  */
 package communication;
 
-import java.io.ByteArrayInputStream;
 import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.util.ArrayList;
@@ -29,12 +28,13 @@ import java.util.Iterator;
 
 import lejos.nxt.Button;
 import lejos.nxt.Settings;
-import lejos.nxt.comm.BTConnection;
-import lejos.nxt.comm.Bluetooth;
-import lejos.nxt.comm.NXTConnection;
 import logging.Logger;
 
+import common.FrameBuilder;
+import common.FramePool;
 import common.Map;
+import common.PriorityMessageQueue;
+import common.RoutingTable;
 import common.Writer;
 import common.exceptions.QueueBlockedException;
 import communication.exceptions.ConnectionClosedException;
@@ -43,6 +43,9 @@ import communication.exceptions.ManagerException;
 import communication.exceptions.NoDirectConnectionsException;
 import communication.exceptions.NoManagedConnectionsException;
 import communication.extendedClasses.ExtendedDataInputStream;
+import communication.transport.BluetoothTransport;
+import communication.transport.Link;
+import communication.transport.Transport;
 
 /**
  * This class manages all connection of a nxt. It can manage direct connections
@@ -75,6 +78,15 @@ public class NXTConnectionManager extends BTCommObserver {
 	protected static final byte CONNECT_ACK = 0x01; // 0000 0001
 	protected static final byte CONNECT_DECLINE = 0x02; // 0000 0010
 	protected static final byte RECEIVER_NOT_KNOWN = 0x03; // 0000 0011
+	// credit of the receiving device of a virtual connection for further
+	// data frames (see DATA_WINDOW). It is only sent to a device that offered
+	// to wait for the credits (see BTComm#DATA_CREDIT_OFFER).
+	protected static final byte DATA_CREDIT = 0x04; // 0000 0100
+	// negotiation of the compact header (the nxt requests the ids, the pc
+	// sends them and the nxt acknowledges that it knows them)
+	protected static final byte NODE_ID_REQUEST = 0x08; // 0000 1000
+	protected static final byte NODE_IDS = 0x09; // 0000 1001
+	protected static final byte NODE_IDS_ACK = 0x0A; // 0000 1010
 
 	// negotiation of physical close
 	protected static final byte CLOSE_PHYSICAL = 0x05; // 0000 0101
@@ -84,11 +96,29 @@ public class NXTConnectionManager extends BTCommObserver {
 	protected static final byte UPPER_BITS = -0x10;
 	protected static final byte LOWER_BITS = 0x0F;
 
+	// the first byte of a frame with the compact header: the frame contains
+	// the one byte ids of the devices instead of their names (see NodeIds). A
+	// frame with names starts with the length of the first name, so it never
+	// starts with this byte.
+	protected static final byte COMPACT_HEADER = (byte) 0x80; // 1000 0000
+
+	// how many data frames a device may write to the other device of a
+	// virtual connection from its offer of the credits on and how many
+	// further frames each credit grants (so the pc never has to queue more
+	// than the window of frames per paced virtual connection)
+	protected static final int DATA_WINDOW = 16;
+	protected static final int DATA_CREDIT_BATCH = 4;
+
+	// how long the pc may take to answer the NODE_ID_REQUEST (in ms). A pc
+	// that does not know the compact header never answers, so all frames keep
+	// the names and ids that arrive later are ignored.
+	private static final long NODE_IDS_TIMEOUT = 5000;
+
 	private static NXTConnectionManager manager;
 
 	private ArrayList<BTCommUnmanaged> inboundConnection = new ArrayList<BTCommUnmanaged>();
 	private Map<String, BTCommUnmanaged> directConnections = new Map<String, BTCommUnmanaged>();
-	private Map<String, BTCommManaged> managedConnections = new Map<String, BTCommManaged>();
+	private RoutingTable<BTCommManaged> managedConnections = new RoutingTable<BTCommManaged>();
 	private Map<String, Byte> waitingManagedConnections = new Map<String, Byte>();
 
 	// the name of the nxt
@@ -99,14 +129,29 @@ public class NXTConnectionManager extends BTCommObserver {
 	// managed connection are possible)
 	private final boolean directManager;
 
+	// transport for all connections
+	private final Transport transport = new BluetoothTransport();
+
 	// connection to the pc server
-	private final BTConnection btc;
+	private final Link btc;
 	private final RoutingReader managedReader;
 	private final Writer managedWriter;
+	// the ids of all devices for the compact header, when they were
+	// requested from the pc and the id of this nxt and the compact header for
+	// frames to the pc as they were looked up when the ids arrived (the
+	// header is null as long as the frames contain the names)
+	private final NodeIds nodeIds = new NodeIds();
+	private long nodeIdsRequested = 0;
+	private volatile int myId = -1;
+	private volatile byte[] pcHeader = null;
 
 	// whether the connection manager is closed
 	private boolean closed = false;
 
+	// builds the frames with log records of this nxt (only used by the
+	// writer thread of the logger, see writeLog)
+	private FrameBuilder logBuilder = null;
+
 	/**
 	 * Constructor for a connection manager that manages only managed
 	 * connections. This constructor will establish a connection to the pc
@@ -124,7 +169,7 @@ public class NXTConnectionManager extends BTCommObserver {
 		System.out.println("wait for manager");
 		logger.info("wait for manager");
 
-		this.btc = Bluetooth.waitForConnection(0, NXTConnection.PACKET);
+		this.btc = this.transport.waitForConnection(0);
 		if (this.btc != null) {
 			this.managedReader = new RoutingReader(
 					this.myName,
@@ -133,9 +178,24 @@ public class NXTConnectionManager extends BTCommObserver {
 			new Thread(this.managedReader, "ServerReaderThread").start();
 
 			this.managedWriter = new Writer(this.btc.openDataOutputStream(),
-					queueSize, true);
+					new PriorityMessageQueue<byte[]>(queueSize), true);
+			this.managedWriter.setGathering(BluetoothTransport.MAX_PACKET_SIZE);
+			this.managedWriter.setFramePool(new FramePool(
+					MessageWriter.FRAME_POOL_SIZE,
+					BluetoothTransport.MAX_PACKET_SIZE));
 			new Thread(this.managedWriter, "ServerWriterThread").start();
 
+			// the frames contain the names until the pc sent the ids
+			try {
+				this.nodeIdsRequested = System.currentTimeMillis();
+				this.writeManagerCommand("PC", this
+						.getVirtualAdminCommand(NODE_ID_REQUEST));
+			}
+			catch (QueueBlockedException e) {
+				// should not happen
+				logger.error("Manager: " + e.getMessage());
+			}
+
 			logger.info("manager ready");
 			System.out.println("manager ready");
 		}
@@ -277,6 +337,95 @@ public class NXTConnectionManager extends BTCommObserver {
 		}
 	}
 
+	/**
+	 * returns whether log records of this nxt can be written to the pc without
+	 * delaying any other frame (see
+	 * {@link #writeLog(byte[], int, int, boolean)}): there must be a managed
+	 * connection to the pc and its writer must be idle.
+	 * 
+	 * @return whether log records can be written now
+	 */
+	public static boolean canWriteLog() {
+		NXTConnectionManager manager = NXTConnectionManager.manager;
+		return manager != null && manager.managedWriter != null
+				&& !manager.closed
+				&& manager.managedWriter.isWaitingForMessages();
+	}
+
+	/**
+	 * writes binary log records of this nxt to the pc over the managed
+	 * connection (see {@link BTComm#LOG}). The records are written with low
+	 * priority and take no data credit, so they shall only be written if
+	 * {@link #canWriteLog()} says so. Nothing is logged here as this is called
+	 * by the writer thread of the logger.
+	 * 
+	 * @param records
+	 *            the array that holds the log records
+	 * @param offset
+	 *            where the records start in the array
+	 * @param length
+	 *            the number of bytes of the records
+	 * @param segment
+	 *            whether the records are a segment of the ring log file that
+	 *            is decoded on its own (otherwise they continue the records
+	 *            that were written before)
+	 * @return whether the records were written (false if there is no managed
+	 *         connection to the pc)
+	 */
+	public static boolean writeLog(byte[] records, int offset, int length,
+			boolean segment) {
+		NXTConnectionManager manager = NXTConnectionManager.manager;
+		if (manager == null || manager.managedWriter == null || manager.closed) {
+			return false;
+		}
+
+		try {
+			return manager.managedWriter.write(manager.getLogFrame(records,
+					offset, length, segment), Writer.PRIORITY_LOW, false);
+		}
+		catch (QueueBlockedException e) {
+			// the manager is being closed
+			return false;
+		}
+	}
+
+	/**
+	 * gets a data frame with log records of this nxt for the pc (with the
+	 * compact header if the ids of both devices are known)
+	 * 
+	 * @param records
+	 *            the array that holds the log records
+	 * @param offset
+	 *            where the records start in the array
+	 * @param length
+	 *            the number of bytes of the records
+	 * @param segment
+	 *            whether the records are a segment of the ring log file
+	 * @return the frame with header
+	 */
+	private byte[] getLogFrame(byte[] records, int offset, int length,
+			boolean segment) {
+		if (this.logBuilder == null) {
+			this.logBuilder = new FrameBuilder(this.managedWriter
+					.getFramePool(), BluetoothTransport.MAX_PACKET_SIZE);
+		}
+
+		byte[] pcHeader = this.pcHeader;
+		this.logBuilder.reset();
+		if (pcHeader != null) {
+			this.logBuilder.putBytes(pcHeader);
+		}
+		else {
+			this.logBuilder.putBytes(this.myNameArray).putBytes(
+					communication.CommunicationUtils
+							.convertStringToByteArray("PC"));
+		}
+		return this.logBuilder.putByte(DATA).putInt(length + 6).putByte(
+				(byte) (BTComm.SEND | BTComm.LOG)).putByte(
+				segment ? BTComm.LOG_SEGMENT : BTComm.LOG_RECORDS).putInt(
+				length).putBytes(records, offset, length).toFrame();
+	}
+
 	/**
 	 * gets a logical bt connection to the nxt with name remoteName. According
 	 * to the parameter directConnection, the connection will be MANAGED by the
@@ -363,10 +512,13 @@ public class NXTConnectionManager extends BTCommObserver {
 			throw new NoDirectConnectionsException();
 		}
 
-		BTCommUnmanaged btcomm = new BTCommUnmanaged(this.myName, timeOut,
-				queueSize, logging);
+		BTCommUnmanaged btcomm = new BTCommUnmanaged(this.myName,
+				this.transport, timeOut, queueSize, logging);
 		btcomm.register(this, BTEvent.CLOSE);
 		this.inboundConnection.add(btcomm);
+		btcomm.offerCompactCodec();
+		btcomm.offerCompression();
+		btcomm.offerResumableFiles();
 		return btcomm;
 	}
 
@@ -440,9 +592,12 @@ public class NXTConnectionManager extends BTCommObserver {
 		}
 
 		BTCommUnmanaged btc = new BTCommUnmanaged(this.myName, remoteName,
-				queueSize, logging);
+				this.transport, queueSize, logging);
 		btc.register(this, BTEvent.CLOSE);
 		this.directConnections.put(remoteName, btc);
+		btc.offerCompactCodec();
+		btc.offerCompression();
+		btc.offerResumableFiles();
 
 		return btc;
 	}
@@ -516,9 +671,13 @@ public class NXTConnectionManager extends BTCommObserver {
 
 		if (this.waitForConnection(timeOut, remoteName)) {
 			BTCommManaged btc = new BTCommManaged(this.myName, remoteName,
-					this.managedWriter, logging);
+					this.managedWriter, this.nodeIds, logging);
 			btc.register(this, BTEvent.CLOSE);
 			this.managedConnections.put(remoteName, btc);
+			btc.offerDataCredits();
+			btc.offerCompactCodec();
+			btc.offerCompression();
+			btc.offerResumableFiles();
 			System.out.println("new managed conn");
 			logger.info("managed conn to " + remoteName);
 
@@ -596,9 +755,13 @@ public class NXTConnectionManager extends BTCommObserver {
 
 		if (this.connect(remoteName)) {
 			BTCommManaged btc = new BTCommManaged(this.myName, remoteName,
-					this.managedWriter, logging);
+					this.managedWriter, this.nodeIds, logging);
 			btc.register(this, BTEvent.CLOSE);
 			this.managedConnections.put(remoteName, btc);
+			btc.offerDataCredits();
+			btc.offerCompactCodec();
+			btc.offerCompression();
+			btc.offerResumableFiles();
 			System.out.println("new managed conn");
 			logger.info("managed conn to " + remoteName);
 			return btc;
@@ -826,29 +989,151 @@ public class NXTConnectionManager extends BTCommObserver {
 		logger.info("via manager: command " + command + " to " + remoteName
 				+ " sent");
 
-		this.managedWriter.write(common.WriterUtils.concatArrays(
-				this.myNameArray, communication.CommunicationUtils
-						.convertStringToByteArray(remoteName),
-				new byte[] { command }), blocked);
+		this.managedWriter.write(this.getManagerCommand(remoteName, command),
+				blocked);
+	}
+
+	/**
+	 * gets a command of the manager with the header for the device with the
+	 * name remoteName (the compact header if the ids of both devices are
+	 * known)
+	 * 
+	 * @param remoteName
+	 *            the remote device to which to write
+	 * @param command
+	 *            the command (shall only be a command of the manager)
+	 * @return the command with header
+	 */
+	private byte[] getManagerCommand(String remoteName, byte command) {
+		byte[] pcHeader = this.pcHeader;
+		if (pcHeader != null && remoteName.equals("PC")) {
+			return new byte[] { pcHeader[0], pcHeader[1], pcHeader[2],
+					command };
+		}
+
+		int myId = this.myId;
+		int remoteId = myId != -1 ? this.nodeIds.getId(remoteName) : -1;
+		if (remoteId != -1) {
+			return new byte[] { COMPACT_HEADER, (byte) myId, (byte) remoteId,
+					command };
+		}
+		else {
+			return common.WriterUtils.concatArrays(this.myNameArray,
+					communication.CommunicationUtils
+							.convertStringToByteArray(remoteName),
+					new byte[] { command });
+		}
+	}
+
+	/**
+	 * sets the ids of all devices for the compact header as they were sent by
+	 * the pc and acknowledges them to the pc (from now on the pc will use the
+	 * compact header as well). Ids that arrive after {@link #NODE_IDS_TIMEOUT}
+	 * are ignored and not acknowledged, so both devices keep the names.
+	 * 
+	 * @param ids
+	 *            the ids as byte array
+	 */
+	protected void setNodeIds(byte[] ids) {
+		long waited = System.currentTimeMillis() - this.nodeIdsRequested;
+		if (waited > NODE_IDS_TIMEOUT) {
+			logger.warn("via manager: node ids too late, keep names");
+			return;
+		}
+
+		try {
+			this.nodeIds.read(ids);
+			int myId = this.nodeIds.getId(this.myName);
+			int pcId = this.nodeIds.getId("PC");
+			this.myId = myId;
+			if (myId != -1 && pcId != -1) {
+				this.pcHeader = new byte[] { COMPACT_HEADER, (byte) myId,
+						(byte) pcId };
+			}
+			this.writeManagerCommand("PC", this
+					.getVirtualAdminCommand(NODE_IDS_ACK));
+			logger.info("via manager: node ids received");
+		}
+		catch (IOException e) {
+			logger.error("via manager: node ids not readable");
+		}
+		catch (QueueBlockedException e) {
+			logger.error("Manager: " + e.getMessage());
+		}
+	}
+
+	/**
+	 * gets the ids of all devices for the compact header
+	 * 
+	 * @return the ids of the devices
+	 */
+	NodeIds getNodeIds() {
+		return this.nodeIds;
 	}
 
 	/**
 	 * notifies the bluetooth connection that is waiting for data from the
 	 * remote device that new data is available and starts the reading of the
-	 * data for this bt comm
+	 * data for this bt comm (the data is read before this method returns)
 	 * 
 	 * @param remoteName
 	 *            the name of the device from which the data comes
 	 * @param data
-	 *            the data that was send
+	 *            the buffer that holds the data that was send
+	 * @param length
+	 *            the length of the data in the buffer
 	 */
-	protected void notifyManagedConnectionForData(String remoteName, byte[] data) {
+	protected void notifyManagedConnectionForData(String remoteName,
+			byte[] data, int length) {
 		BTCommManaged btcomm = this.managedConnections.get(remoteName);
 		if (btcomm != null && !btcomm.isClosed()) {
 			logger.debug("via manager: data from " + remoteName);
-			btcomm.setDataInput(new ExtendedDataInputStream(
-					new ByteArrayInputStream(data)));
+			byte code = length > 0 ? data[0] : -1;
+			btcomm.setDataInput(data, length);
 			btcomm.read();
+
+			// the remote device may write further frames as this frame is
+			// not queued any more
+			if (length > 0 && btcomm.countReceivedFrame(code)) {
+				this.grantDataCredit(btcomm);
+			}
+
+			// the frames of this device need not wait for a credit any more
+			// if the remote device does not grant any
+			btcomm.checkDataCredits();
+		}
+	}
+
+	/**
+	 * grants the remote device to write {@link #DATA_CREDIT_BATCH} further
+	 * data frames to this device. The credit is written before all other
+	 * frames that are queued (and not logged as it is written very often).
+	 * 
+	 * @param btcomm
+	 *            the managed connection to the remote device
+	 */
+	private void grantDataCredit(BTCommManaged btcomm) {
+		try {
+			this.managedWriter.write(btcomm.getManagerCommand(this
+					.getVirtualAdminCommand(DATA_CREDIT)), Writer.PRIORITY_HIGH,
+					false);
+		}
+		catch (QueueBlockedException e) {
+			logger.error("Manager: " + e.getMessage());
+		}
+	}
+
+	/**
+	 * lets the managed connection to the remote device write further data
+	 * frames as the remote device granted a credit for them
+	 * 
+	 * @param remoteName
+	 *            the name of the remote device
+	 */
+	protected void addDataCredits(String remoteName) {
+		BTCommManaged btcomm = this.managedConnections.get(remoteName);
+		if (btcomm != null) {
+			btcomm.addDataCredits(DATA_CREDIT_BATCH);
 		}
 	}
 
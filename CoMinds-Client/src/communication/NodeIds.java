@@ -0,0 +1,114 @@
+/*
+ *  CoMinds is a Java framework for collaborative robotic scenarios with
+ *  Lego Mindstorms based leJOS. A complete documentation can be found
+ *  in docs/thesis.pdf.
+ *
+ *  Copyright (C) 2010  Annabelle Klarl
+ *  All rights reserved.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ * 
+ */
+package communication;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+
+import communication.extendedClasses.ExtendedDataInputStream;
+
+/**
+ * This table maps the names of the devices of a managed network to one byte
+ * ids. The ids are used instead of the names in the compact header of routed
+ * frames (see {@link NXTConnectionManager#COMPACT_HEADER}). The ids are
+ * assigned by the pc and requested by the nxt when it connects to the pc. As
+ * long as the ids are not known all frames contain the names.
+ * 
+ * @author Annabelle Klarl
+ */
+class NodeIds {
+
+	// the names of the devices in the order of their ids
+	private String[] names = new String[0];
+	// how often the ids were read (so users can cache the ids they looked
+	// up and only look them up again when the ids changed)
+	private volatile int version = 0;
+
+	/**
+	 * reads the ids as they were sent by the pc (the number of ids followed by
+	 * the names in the order of their ids)
+	 * 
+	 * @param ids
+	 *            the ids as byte array
+	 * @throws IOException
+	 *             thrown if the ids could not be read
+	 */
+	public void read(byte[] ids) throws IOException {
+		ExtendedDataInputStream dis = new ExtendedDataInputStream(
+				new ByteArrayInputStream(ids));
+		int count = dis.readInt();
+		if (count < 0) {
+			throw new IOException("negative number of ids");
+		}
+
+		String[] names = new String[count];
+		for (int i = 0; i < count; i++) {
+			names[i] = dis.readString();
+		}
+		this.names = names;
+		this.version++;
+	}
+
+	/**
+	 * gets how often the ids were read. An id that was looked up stays valid
+	 * as long as the version does not change.
+	 * 
+	 * @return the version of the ids
+	 */
+	public int getVersion() {
+		return this.version;
+	}
+
+	/**
+	 * gets the id of the device with the given name (the names are searched,
+	 * so the id shall be looked up once per version, see
+	 * {@link #getVersion()})
+	 * 
+	 * @param name
+	 *            the name of the device
+	 * @return the id of the device or -1 if the device has no id
+	 */
+	public int getId(String name) {
+		String[] names = this.names;
+		for (int i = 0; i < names.length; i++) {
+			if (names[i].equals(name)) {
+				return i;
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * gets the name of the device with the given id
+	 * 
+	 * @param id
+	 *            the id of the device
+	 * @return the name of the device or null if no device has this id
+	 */
+	public String getName(int id) {
+		String[] names = this.names;
+		if (id < 0 || id >= names.length) {
+			return null;
+		}
+		return names[id];
+	}
+}
@@ -25,6 +25,7 @@ import java.io.IOException;
 
 import logging.Logger;
 
+import common.NameTable;
 import common.exceptions.QueueBlockedException;
 import communication.exceptions.UnexpectedResponseException;
 import communication.extendedClasses.ExtendedDataInputStream;
@@ -34,7 +35,8 @@ import communication.extendedClasses.ExtendedDataInputStream;
  * read the wrapper header around the original message with a second header that
  * contains the name of the nxt the message originates from, the name of the nxt
  * the message shall be send to, a code which message is send (see
- * {@link NXTConnectionManager}) and optional some content or data.
+ * {@link NXTConnectionManager}) and optional some content or data. The names
+ * may also be sent as one byte ids (compact header, see {@link NodeIds}).
  * 
  * @author Annabelle Klarl
  */
@@ -42,6 +44,9 @@ class RoutingReader implements Runnable {
 
 	private static final Logger logger = Logger.getLogger();
 
+	// the number of names that are interned by this reader
+	private static final int NAME_TABLE_SIZE = 8;
+
 	private String myName;
 	private boolean closed = false;
 
@@ -51,6 +56,11 @@ class RoutingReader implements Runnable {
 	// where to write to or where to forward the data
 	private NXTConnectionManager owner;
 
+	// the names and the data of the frames are read without creating new
+	// objects for every frame
+	private final NameTable names = new NameTable(NAME_TABLE_SIZE);
+	private byte[] data = new byte[64];
+
 	/**
 	 * Constructor
 	 * 
@@ -99,8 +109,20 @@ class RoutingReader implements Runnable {
 
 			while (!this.closed) {
 				try {
-					from = this.dis.readString();
-					to = this.dis.readString();
+					int first = this.dis.read();
+					if (first == -1) {
+						this
+								.closeConnection("end of stream while reading. close connection...");
+						continue;
+					}
+					else if ((byte) first == NXTConnectionManager.COMPACT_HEADER) {
+						from = this.getNodeName(this.dis.read());
+						to = this.getNodeName(this.dis.read());
+					}
+					else {
+						from = this.dis.readString(first, this.names);
+						to = this.dis.readString(this.names);
+					}
 					code = (byte) this.dis.read();
 
 					if (code == -1) {
@@ -156,7 +178,27 @@ class RoutingReader implements Runnable {
 	}
 
 	/**
-	 * forwards the sent data to the specified device
+	 * gets the name of the device with the given id of the compact header
+	 * 
+	 * @param id
+	 *            the id of the device
+	 * @return the name of the device
+	 * @throws IOException
+	 *             thrown if no device has this id (or the end of the stream
+	 *             was reached)
+	 */
+	private String getNodeName(int id) throws IOException {
+		String name = this.owner.getNodeIds().getName(id);
+		if (name == null) {
+			throw new IOException("Unknown node id " + id);
+		}
+		return name;
+	}
+
+	/**
+	 * forwards the sent data to the specified device. The data is read into a
+	 * buffer of this reader that is used again for the next frame, so it must
+	 * be read completely before this method returns.
 	 * 
 	 * @param from
 	 *            from which device the data was sent
@@ -167,18 +209,24 @@ class RoutingReader implements Runnable {
 	 */
 	private void readData(String from, String to) throws IOException {
 		int len = this.dis.readInt();
-		byte[] data = new byte[len];
-		this.dis.read(data);
+		if (len < 0) {
+			throw new IOException("Negative length of data");
+		}
+		if (this.data.length < len) {
+			this.data = new byte[len];
+		}
+		this.dis.readFully(this.data, 0, len);
 		if (this.myName.equals(to)) {
-			this.owner.notifyManagedConnectionForData(from, data);
+			this.owner.notifyManagedConnectionForData(from, this.data, len);
 		}
 	}
 
 	/**
 	 * reads a command concerning the administration of the virtual connection
-	 * (may be CONNECT_REQUEST, CONNECT_ACK, CONNECT_DECLINE, CLOSE_VIRTUAL or
-	 * RECEIVER_NOT_KNOWN) and either respondes to the connection init or closes
-	 * the connection
+	 * (may be CONNECT_REQUEST, CONNECT_ACK, CONNECT_DECLINE, CLOSE_VIRTUAL,
+	 * RECEIVER_NOT_KNOWN, DATA_CREDIT or NODE_IDS) and either respondes to the
+	 * connection init, closes the connection, lets the connection write
+	 * further data frames or sets the ids for the compact header
 	 * 
 	 * @param code
 	 *            the command
@@ -191,9 +239,12 @@ class RoutingReader implements Runnable {
 	 * @throws UnexpectedResponseException
 	 *             thrown if the sent command was not a command for virtual
 	 *             connection administration
+	 * @throws IOException
+	 *             thrown if the ids cannot be read from the input stream
 	 */
 	private void readVirtualAdmin(byte code, String from, String to)
-			throws QueueBlockedException, UnexpectedResponseException {
+			throws QueueBlockedException, UnexpectedResponseException,
+			IOException {
 		code = (byte) (code & NXTConnectionManager.LOWER_BITS);
 
 		if (code == NXTConnectionManager.CONNECT_REQUEST
@@ -213,6 +264,19 @@ class RoutingReader implements Runnable {
 				&& to.equals(this.myName)) {
 			this.owner.notifyManagerForUnknownReceiver(from);
 		}
+		else if (code == NXTConnectionManager.DATA_CREDIT
+				&& to.equals(this.myName)) {
+			this.owner.addDataCredits(from);
+		}
+		else if (code == NXTConnectionManager.NODE_IDS) {
+			// the ids must be read even if they are not for this nxt
+			int len = this.dis.readInt();
+			byte[] ids = new byte[len];
+			this.dis.readFully(ids);
+			if (to.equals(this.myName)) {
+				this.owner.setNodeIds(ids);
+			}
+		}
 		else {
 			throw new UnexpectedResponseException(
 					"UnexpectedResponse in virtual admin: received " + code);
@@ -21,6 +21,8 @@
  */
 package communication;
 
+import logging.Logger;
+
 import behaviourmodel.BehaviorUtils;
 import common.Writer;
 import common.exceptions.QueueBlockedException;
@@ -31,16 +33,67 @@ import common.exceptions.QueueBlockedException;
  * of the nxt from which the message originates and the name of the nxt to which
  * the message is directed. The messages will then be send to a writer that
  * writes the message to an output stream. This writer can be shared between
- * several logical connections.
+ * several logical connections. As soon as the pc sent the ids of the nxts the
+ * names are replaced by these ids (compact header).
+ * 
+ * If the remote device acknowledged the offer of data credits (see
+ * {@link BTComm#DATA_CREDIT_OFFER}), only as many data frames are written as
+ * the remote device granted credits for (see
+ * {@link NXTConnectionManager#DATA_CREDIT}). All further frames wait in this
+ * writer until the remote device grants more credits, so the pc never has to
+ * queue more frames for this connection than the window. As the waiting
+ * frames are limited, too, the thread that writes them has to wait for a
+ * credit, but no frame is ever dropped. Commands, requests and credits take no
+ * credit, so the reader never waits.
  * 
  * @author Annabelle Klarl
  */
 class RoutingWriter extends MessageWriter {
 
+	private static final Logger logger = Logger.getLogger();
+
+	// how long the frames wait at most for a credit of the remote device
+	// before they are written anyway (in ms)
+	private static final long DATA_CREDIT_TIMEOUT = 10000;
+
+	// how many frames may wait for a credit at most. If there are already as
+	// many frames waiting, the writing thread waits until there is room.
+	private static final int MAX_WAITING_FRAMES = 4 * NXTConnectionManager
+			.DATA_WINDOW;
+
 	private byte[] remoteName;
 	private byte[] myName;
+	private String remoteNameString;
+	private String myNameString;
+	private NodeIds nodeIds;
 	private boolean blocked;
 
+	// the ids of both nxts for the compact header as they were looked up for
+	// the version of the node ids (must be synchronized on builder)
+	private int idsVersion = 0;
+	private int myId = -1;
+	private int remoteId = -1;
+
+	// whether the remote device acknowledged the offer of data credits, how
+	// many data frames were written since the offer, how many data frames the
+	// remote device lets this device write and the frames that wait for a
+	// credit with their priorities (must be synchronized on creditSync)
+	private final Object creditSync = new Object();
+	private boolean dataPaced = false;
+	private int offeredFrames = 0;
+	private int dataCredits = 0;
+	private long lastCreditTime = 0;
+	private byte[][] waitingFrames = new byte[4][];
+	private int[] waitingPriorities = new int[4];
+	private int firstWaiting = 0;
+	private int waitingCount = 0;
+
+	// how many frames had to wait for a credit and how long frames were
+	// waiting altogether (in ms)
+	private int throttledFrames = 0;
+	private long throttledTime = 0;
+	private long throttledSince = 0;
+
 	/**
 	 * Constructor
 	 * 
@@ -50,9 +103,15 @@ class RoutingWriter extends MessageWriter {
 	 *            the nxt to which to send the messages
 	 * @param writer
 	 *            the writer which writes the messages to the output
+	 * @param nodeIds
+	 *            the ids of all devices for the compact header
 	 */
-	public RoutingWriter(String myName, String remoteName, Writer writer) {
+	public RoutingWriter(String myName, String remoteName, Writer writer,
+			NodeIds nodeIds) {
 		super(writer);
+		this.remoteNameString = remoteName;
+		this.myNameString = myName;
+		this.nodeIds = nodeIds;
 		this.remoteName = communication.CommunicationUtils
 				.convertStringToByteArray(remoteName);
 		this.myName = communication.CommunicationUtils
@@ -60,11 +119,13 @@ class RoutingWriter extends MessageWriter {
 	}
 
 	/**
-	 * writes a message to the message buffer/queue. This method asks whether to
-	 * block the message buffer afterwards.
+	 * writes a message with the given priority to the message buffer/queue.
+	 * This method asks whether to block the message buffer afterwards.
 	 * 
 	 * @param message
 	 *            the message itself as a byte array
+	 * @param priority
+	 *            the priority of the message
 	 * @param blocked
 	 *            whether to block the message queue after writing this message
 	 *            or not
@@ -75,7 +136,7 @@ class RoutingWriter extends MessageWriter {
 	 *             thrown if something shall be pushed but the queue is blocked
 	 */
 	@Override
-	public boolean write(byte[] message, boolean blocked)
+	public boolean write(byte[] message, int priority, boolean blocked)
 			throws QueueBlockedException {
 		if (this.blocked) {
 			throw new QueueBlockedException(
@@ -84,12 +145,349 @@ class RoutingWriter extends MessageWriter {
 
 		this.blocked = blocked;
 
-		message = common.WriterUtils.concatArrays(this.myName, this.remoteName,
-				new byte[] { NXTConnectionManager.DATA },
-				communication.CommunicationUtils
-						.convertIntToByteArray(message.length), message);
+		byte code = message[0];
+		return this.writeData(this.addHeader(message), priority, code);
+	}
+
+	/**
+	 * writes a data frame to the writer if it takes no credit (see
+	 * {@link #takesDataCredit(byte)}), if the remote device does not grant
+	 * credits or if it granted a credit for it. Otherwise the frame waits in
+	 * this writer until the remote device grants further credits (see
+	 * {@link #addDataCredits(int)}). The frames are written in the order they
+	 * were given. If already {@link #MAX_WAITING_FRAMES} frames are waiting,
+	 * this method waits until there is room for the frame (at the latest the
+	 * credit timeout makes room, see {@link #checkCreditTimeout()}).
+	 * 
+	 * @param frame
+	 *            the frame with header
+	 * @param priority
+	 *            the priority of the frame
+	 * @param code
+	 *            the code of the message in the frame
+	 * @return returns whether the message was put into the queue or not (if not
+	 *         than the output is full and nothing can be written to it any
+	 *         more)
+	 * @throws QueueBlockedException
+	 *             thrown if something shall be pushed but the queue is blocked
+	 */
+	private boolean writeData(byte[] frame, int priority, byte code)
+			throws QueueBlockedException {
+		if (!takesDataCredit(code)) {
+			return this.writer.write(frame, priority, false);
+		}
+
+		synchronized (this.creditSync) {
+			if (!this.dataPaced) {
+				this.offeredFrames++;
+				return this.writer.write(frame, priority, false);
+			}
+
+			this.checkCreditTimeout();
+
+			if (this.waitingCount == 0 && this.dataCredits > 0) {
+				this.dataCredits--;
+				return this.writer.write(frame, priority, false);
+			}
+
+			// the writing thread has to wait until there is room for the frame
+			while (this.dataPaced
+					&& this.waitingCount >= MAX_WAITING_FRAMES) {
+				long timeout = this.lastCreditTime + DATA_CREDIT_TIMEOUT
+						- System.currentTimeMillis();
+				try {
+					this.creditSync.wait(Math.max(timeout, 1));
+				}
+				catch (InterruptedException e) {
+				}
+				this.checkCreditTimeout();
+			}
+
+			if (!this.dataPaced) {
+				// the credits were offered again meanwhile
+				this.offeredFrames++;
+				return this.writer.write(frame, priority, false);
+			}
+
+			long now = System.currentTimeMillis();
+			if (this.waitingCount == 0) {
+				this.throttledSince = now;
+				this.lastCreditTime = now;
+			}
+			this.addWaitingFrame(frame, priority);
+			this.throttledFrames++;
+			return true;
+		}
+	}
+
+	/**
+	 * adds a frame at the end of the frames that wait for a credit
+	 * 
+	 * @param frame
+	 *            the frame with header
+	 * @param priority
+	 *            the priority of the frame
+	 */
+	private void addWaitingFrame(byte[] frame, int priority) {
+		if (this.waitingCount == this.waitingFrames.length) {
+			byte[][] frames = new byte[this.waitingCount * 2][];
+			int[] priorities = new int[this.waitingCount * 2];
+			for (int i = 0; i < this.waitingCount; i++) {
+				int index = (this.firstWaiting + i) % this.waitingCount;
+				frames[i] = this.waitingFrames[index];
+				priorities[i] = this.waitingPriorities[index];
+			}
+			this.waitingFrames = frames;
+			this.waitingPriorities = priorities;
+			this.firstWaiting = 0;
+		}
+
+		int index = (this.firstWaiting + this.waitingCount)
+				% this.waitingFrames.length;
+		this.waitingFrames[index] = frame;
+		this.waitingPriorities[index] = priority;
+		this.waitingCount++;
+	}
+
+	/**
+	 * writes the frames that wait for a credit as long as there are credits
+	 * 
+	 * @throws QueueBlockedException
+	 *             thrown if something shall be pushed but the queue is blocked
+	 */
+	private void writeWaitingFrames() throws QueueBlockedException {
+		while (this.waitingCount > 0 && this.dataCredits > 0) {
+			byte[] frame = this.waitingFrames[this.firstWaiting];
+			int priority = this.waitingPriorities[this.firstWaiting];
+			this.waitingFrames[this.firstWaiting] = null;
+			this.firstWaiting = (this.firstWaiting + 1)
+					% this.waitingFrames.length;
+			this.waitingCount--;
+			this.dataCredits--;
+
+			if (this.waitingCount == 0) {
+				this.throttledTime += System.currentTimeMillis()
+						- this.throttledSince;
+			}
+			this.writer.write(frame, priority, false);
+		}
+
+		// there may be room for the frames of waiting threads
+		this.creditSync.notifyAll();
+	}
+
+	/**
+	 * writes the frames that wait for a credit anyway if the remote device did
+	 * not grant any credit within {@link #DATA_CREDIT_TIMEOUT} (e.g. because
+	 * it does not know the credits). This is checked whenever a frame is
+	 * written and whenever a frame of the remote device was received, so the
+	 * waiting frames need not wait for the next frame that is written.
+	 * 
+	 * @throws QueueBlockedException
+	 *             thrown if something shall be pushed but the queue is blocked
+	 */
+	public void checkCreditTimeout() throws QueueBlockedException {
+		synchronized (this.creditSync) {
+			long now = System.currentTimeMillis();
+			if (this.waitingCount > 0
+					&& now - this.lastCreditTime >= DATA_CREDIT_TIMEOUT) {
+				logger.warn("no credit from " + this.remoteNameString);
+				this.lastCreditTime = now;
+				this.dataCredits += NXTConnectionManager.DATA_CREDIT_BATCH;
+				this.writeWaitingFrames();
+			}
+		}
+	}
+
+	/**
+	 * offers the remote device to write the data frames only as fast as it
+	 * grants credits (see {@link BTComm#DATA_CREDIT_OFFER}). Until the remote
+	 * device acknowledges the offer, the frames are written without credits
+	 * (a device that does not know the credits never acknowledges). The
+	 * frames that still wait for a credit of an earlier offer are written at
+	 * once.
+	 * 
+	 * @throws QueueBlockedException
+	 *             thrown if something shall be pushed but the queue is blocked
+	 */
+	public void offerDataCredits() throws QueueBlockedException {
+		synchronized (this.creditSync) {
+			this.dataPaced = false;
+			this.dataCredits = this.waitingCount;
+			this.writeWaitingFrames();
+			this.dataCredits = 0;
+			this.offeredFrames = 0;
+			this.writeCommand(BTComm.DATA_CREDIT_OFFER);
+		}
+	}
+
+	/**
+	 * adds the credits the remote device granted for writing further data
+	 * frames (see {@link NXTConnectionManager#DATA_CREDIT}). The first credit
+	 * acknowledges the offer of the credits: from then on the data frames are
+	 * paced and the window of {@link NXTConnectionManager#DATA_WINDOW} frames
+	 * is counted from the offer. The frames that wait for a credit are
+	 * written.
+	 * 
+	 * @param credits
+	 *            how many data frames may be written
+	 * @throws QueueBlockedException
+	 *             thrown if something shall be pushed but the queue is blocked
+	 */
+	public void addDataCredits(int credits) throws QueueBlockedException {
+		synchronized (this.creditSync) {
+			if (this.dataPaced) {
+				this.dataCredits += credits;
+			}
+			else {
+				this.dataPaced = true;
+				this.dataCredits = NXTConnectionManager.DATA_WINDOW
+						- this.offeredFrames;
+			}
+			this.lastCreditTime = System.currentTimeMillis();
+			this.writeWaitingFrames();
+		}
+	}
+
+	/**
+	 * gets how many frames had to wait for a credit of the remote device
+	 * 
+	 * @return the number of frames that were throttled
+	 */
+	public int getThrottledFrames() {
+		synchronized (this.creditSync) {
+			return this.throttledFrames;
+		}
+	}
+
+	/**
+	 * gets how long frames were waiting for a credit of the remote device
+	 * altogether
+	 * 
+	 * @return the time the connection was throttled (in ms)
+	 */
+	public long getThrottledTime() {
+		synchronized (this.creditSync) {
+			if (this.waitingCount > 0) {
+				return this.throttledTime + System.currentTimeMillis()
+						- this.throttledSince;
+			}
+			return this.throttledTime;
+		}
+	}
+
+	/**
+	 * returns whether a message with the given code takes a credit of the
+	 * remote device (see {@link NXTConnectionManager#DATA_CREDIT}). Only the
+	 * data that is sent takes a credit: commands, requests and credits of
+	 * files are written at once (so the reader, which writes the answers and
+	 * receives the credits, never waits for a credit). Degrees and light
+	 * values take no credit as only the latest one is queued anyway (see
+	 * {@link #writeLatest(byte[], Object)}). Log records of a nxt take no
+	 * credit as they are only written if the connection is idle (see
+	 * {@link BTComm#LOG}).
+	 * 
+	 * @param code
+	 *            the code of the message
+	 * @return whether the message takes a credit
+	 */
+	static boolean takesDataCredit(byte code) {
+		byte upperCode = (byte) (code & BTComm.UPPER_BITS);
+		byte lowerCode = (byte) (code & BTComm.LOWER_BITS & ~BTComm.COMPACT);
+		return upperCode == BTComm.SEND && lowerCode != BTComm.DEGREE
+				&& lowerCode != BTComm.LIGHT && lowerCode != BTComm.LOG;
+	}
 
-		return this.writer.write(message, false);
+	/**
+	 * writes a message that replaces the message with the same key that was
+	 * not written to the output yet
+	 * 
+	 * @param message
+	 *            the message itself as a byte array
+	 * @param key
+	 *            the key of the message
+	 * @return returns whether the message was put into the queue or not (if not
+	 *         than the output is full and nothing can be written to it any
+	 *         more)
+	 * @throws QueueBlockedException
+	 *             thrown if something shall be pushed but the queue is blocked
+	 */
+	@Override
+	protected boolean writeLatest(byte[] message, Object key)
+			throws QueueBlockedException {
+		if (this.blocked) {
+			throw new QueueBlockedException(
+					"Cannot push into queue because queue is blocked");
+		}
+
+		// the message is given back to the pool by adding the header
+		int priority = getPriority(message[0], false);
+		return this.writer.writeLatest(this.addHeader(message), priority, key);
+	}
+
+	/**
+	 * adds the header with from which and to which nxt the message is sent
+	 * (the compact header if the ids of both nxts are known). The message is
+	 * copied behind the header and given back to the frame pool afterwards,
+	 * so it must not be used any more.
+	 * 
+	 * @param message
+	 *            the message itself as a byte array
+	 * @return the message with header
+	 */
+	private byte[] addHeader(byte[] message) {
+		byte[] frame;
+		synchronized (this.builder) {
+			this.putHeader();
+			this.builder.putByte(NXTConnectionManager.DATA).putInt(
+					message.length);
+			frame = this.builder.toFrame(message.length);
+		}
+
+		System.arraycopy(message, 0, frame, frame.length - message.length,
+				message.length);
+		this.releaseMessage(message);
+		return frame;
+	}
+
+	/**
+	 * gets a command of the connection manager to the remote nxt with the
+	 * same header as the frames of this writer (e.g. a credit for data
+	 * frames, see {@link NXTConnectionManager#DATA_CREDIT})
+	 * 
+	 * @param command
+	 *            the command of the connection manager
+	 * @return the command with header
+	 */
+	byte[] getManagerCommand(byte command) {
+		synchronized (this.builder) {
+			this.putHeader();
+			return this.builder.putByte(command).toFrame();
+		}
+	}
+
+	/**
+	 * resets the frame builder and puts the header with from which and to
+	 * which nxt a frame is sent into it. The ids for the compact header are
+	 * only looked up again if the pc sent new ids (must be synchronized on
+	 * builder).
+	 */
+	private void putHeader() {
+		int version = this.nodeIds.getVersion();
+		if (version != this.idsVersion) {
+			this.myId = this.nodeIds.getId(this.myNameString);
+			this.remoteId = this.nodeIds.getId(this.remoteNameString);
+			this.idsVersion = version;
+		}
+
+		this.builder.reset();
+		if (this.myId != -1 && this.remoteId != -1) {
+			this.builder.putByte(NXTConnectionManager.COMPACT_HEADER).putByte(
+					(byte) this.myId).putByte((byte) this.remoteId);
+		}
+		else {
+			this.builder.putBytes(this.myName).putBytes(this.remoteName);
+		}
 	}
 
 	/**
@@ -98,7 +496,7 @@ class RoutingWriter extends MessageWriter {
 	@Override
 	public void deblockQueue() {
 		this.blocked = false;
-		// caution: if you don't override write(byte[],boolean), then here
+		// caution: if you don't override write(byte[],int,boolean), then here
 		// this.writer.deblockQueue() must be called!
 	}
 }
@@ -25,14 +25,20 @@ import java.io.DataInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 
+import common.NameTable;
+
 /**
- * This class extends the DataInputStream by a method for reading a String from
- * the stream
+ * This class extends the DataInputStream by methods for reading a String from
+ * the stream and for reading the compact encodings of ints, floats and Strings
+ * (see {@link communication.CommunicationUtils})
  * 
  * @author Annabelle Klarl
  */
 public class ExtendedDataInputStream extends DataInputStream {
 
+	// the buffer for Strings that are looked up in a table of names
+	private byte[] nameBuffer = new byte[16];
+
 	/**
 	 * Constructor
 	 * 
@@ -63,4 +69,155 @@ public class ExtendedDataInputStream extends DataInputStream {
 		return new String(messageBytes);
 	}
 
+	/**
+	 * reads a String from the input stream whose first byte of the length was
+	 * already read. It will read first the rest of the length of the string and
+	 * then the String itself
+	 * 
+	 * @param firstByte
+	 *            the first byte of the length that was already read
+	 * @return the String that was read
+	 * @throws IOException
+	 *             thrown if it couldn't be read from the input stream
+	 */
+	public String readString(int firstByte) throws IOException {
+		byte[] messageBytes = new byte[this.readLength(firstByte)];
+		this.read(messageBytes);
+		return new String(messageBytes);
+	}
+
+	/**
+	 * reads a String from the input stream (see {@link #readString()}) and
+	 * looks it up in the given table of names. The bytes are read into a
+	 * buffer of this stream, so no String is created for a name that is
+	 * already in the table.
+	 * 
+	 * @param names
+	 *            the table of names
+	 * @return the String that was read
+	 * @throws IOException
+	 *             thrown if it couldn't be read from the input stream
+	 */
+	public String readString(NameTable names) throws IOException {
+		int first = this.read();
+		if (first < 0) {
+			throw new IOException("End of stream while reading a String");
+		}
+		return this.readString(first, names);
+	}
+
+	/**
+	 * reads a String from the input stream whose first byte of the length was
+	 * already read (see {@link #readString(int)}) and looks it up in the given
+	 * table of names (see {@link #readString(NameTable)})
+	 * 
+	 * @param firstByte
+	 *            the first byte of the length that was already read
+	 * @param names
+	 *            the table of names
+	 * @return the String that was read
+	 * @throws IOException
+	 *             thrown if it couldn't be read from the input stream
+	 */
+	public String readString(int firstByte, NameTable names)
+			throws IOException {
+		int length = this.readLength(firstByte);
+		if (this.nameBuffer.length < length) {
+			this.nameBuffer = new byte[length];
+		}
+		this.readFully(this.nameBuffer, 0, length);
+		return names.getName(this.nameBuffer, 0, length);
+	}
+
+	/**
+	 * reads the length of a String whose first byte was already read
+	 * 
+	 * @param firstByte
+	 *            the first byte of the length that was already read
+	 * @return the length of the String
+	 * @throws IOException
+	 *             thrown if it couldn't be read from the input stream or the
+	 *             length is negative
+	 */
+	private int readLength(int firstByte) throws IOException {
+		int length = firstByte << 24;
+		for (int i = 2; i >= 0; i--) {
+			int b = this.read();
+			if (b < 0) {
+				throw new IOException("End of stream while reading a String");
+			}
+			length |= b << (8 * i);
+		}
+		if (firstByte < 0 || length < 0) {
+			throw new IOException(
+					"Negative length of String. Might be end of stream...");
+		}
+		return length;
+	}
+
+	/**
+	 * reads a non-negative int from the input stream that was written as an
+	 * unsigned varint (see
+	 * {@link communication.CommunicationUtils#convertIntToVarIntByteArray(int)})
+	 * 
+	 * @return the int that was read
+	 * @throws IOException
+	 *             thrown if it couldn't be read from the input stream or the
+	 *             varint is longer than five bytes
+	 */
+	public int readVarInt() throws IOException {
+		int value = 0;
+		for (int shift = 0; shift < 35; shift += 7) {
+			int b = this.read();
+			if (b < 0) {
+				throw new IOException("End of stream while reading a varint");
+			}
+			value |= (b & 0x7F) << shift;
+			if ((b & 0x80) == 0) {
+				return value;
+			}
+		}
+		throw new IOException("Varint is too long");
+	}
+
+	/**
+	 * reads a float from the input stream that was written as a 16 bit fixed
+	 * point value (see
+	 * {@link communication.CommunicationUtils#convertFloatToFixedPointByteArray(float)}
+	 * ). An invalid value is returned as -1.
+	 * 
+	 * @return the float that was read
+	 * @throws IOException
+	 *             thrown if it couldn't be read from the input stream
+	 */
+	public float readFixedPoint() throws IOException {
+		int fixedPoint = this.readUnsignedShort();
+		if (fixedPoint == communication.CommunicationUtils.FIXED_POINT_INVALID) {
+			return -1;
+		}
+		return (float) fixedPoint
+				/ communication.CommunicationUtils.FIXED_POINT_SCALE;
+	}
+
+	/**
+	 * reads a String from the input stream whose length was written as an
+	 * unsigned varint (see
+	 * {@link communication.CommunicationUtils#convertStringToCompactByteArray(String)}
+	 * )
+	 * 
+	 * @return the String that was read
+	 * @throws IOException
+	 *             thrown if it couldn't be read from the input stream
+	 */
+	public String readCompactString() throws IOException {
+		int length = this.readVarInt();
+		if (length < 0) {
+			throw new IOException("Negative length of String");
+		}
+
+		byte[] messageBytes = new byte[length];
+		this.readFully(messageBytes);
+		return new String(messageBytes);
+	}
+
 }
@@ -0,0 +1,89 @@
+/*
+ *  CoMinds is a Java framework for collaborative robotic scenarios with
+ *  Lego Mindstorms based leJOS. A complete documentation can be found
+ *  in docs/thesis.pdf.
+ *
+ *  Copyright (C) 2010  Annabelle Klarl
+ *  All rights reserved.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ * 
+ */
+package communication.extendedClasses;
+
+import java.io.InputStream;
+
+/**
+ * An input stream that reads from a part of a byte array like a
+ * ByteArrayInputStream. The array can be exchanged, so one stream can be used
+ * to read all frames of a connection one after the other.
+ * 
+ * @author Annabelle Klarl
+ */
+public class FrameInputStream extends InputStream {
+
+	private byte[] frame = new byte[0];
+	private int position = 0;
+	private int end = 0;
+
+	/**
+	 * sets the frame to read from. Anything that was not read from the last
+	 * frame is dropped.
+	 * 
+	 * @param frame
+	 *            the array that holds the frame
+	 * @param offset
+	 *            where to start reading in the array
+	 * @param length
+	 *            the number of bytes to read
+	 */
+	public void setFrame(byte[] frame, int offset, int length) {
+		this.frame = frame;
+		this.position = offset;
+		this.end = offset + length;
+	}
+
+	@Override
+	public int read() {
+		if (this.position >= this.end) {
+			return -1;
+		}
+		return this.frame[this.position++] & 0xFF;
+	}
+
+	@Override
+	public int read(byte[] b, int off, int len) {
+		if (this.position >= this.end) {
+			return -1;
+		}
+		int count = Math.min(len, this.end - this.position);
+		System.arraycopy(this.frame, this.position, b, off, count);
+		this.position += count;
+		return count;
+	}
+
+	@Override
+	public long skip(long n) {
+		long count = Math.min(n, this.end - this.position);
+		if (count < 0) {
+			return 0;
+		}
+		this.position += (int) count;
+		return count;
+	}
+
+	@Override
+	public int available() {
+		return this.end - this.position;
+	}
+}
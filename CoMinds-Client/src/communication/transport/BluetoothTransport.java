@@ -0,0 +1,89 @@
+/*
+ *  CoMinds is a Java framework for collaborative robotic scenarios with
+ *  Lego Mindstorms based leJOS. A complete documentation can be found
+ *  in docs/thesis.pdf.
+ *
+ *  Copyright (C) 2010  Annabelle Klarl
+ *  All rights reserved.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ * 
+ */
+package communication.transport;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+
+import lejos.nxt.comm.BTConnection;
+import lejos.nxt.comm.Bluetooth;
+import lejos.nxt.comm.NXTConnection;
+
+/**
+ * A transport that opens bluetooth connections (in packet mode).
+ * 
+ * @author Annabelle Klarl
+ */
+public class BluetoothTransport implements Transport {
+
+	// the maximum number of bytes that fit into one bluetooth packet of the
+	// leJOS bluetooth stack (256 bytes including the 2 byte packet header)
+	public static final int MAX_PACKET_SIZE = 254;
+
+	@Override
+	public Link connect(String remoteName) {
+		BTConnection btc = Bluetooth.connect(remoteName, NXTConnection.PACKET);
+		return btc == null ? null : new BluetoothLink(btc);
+	}
+
+	@Override
+	public Link waitForConnection(int timeout) {
+		BTConnection btc = Bluetooth.waitForConnection(timeout,
+				NXTConnection.PACKET);
+		return btc == null ? null : new BluetoothLink(btc);
+	}
+
+	/**
+	 * A link over a bluetooth connection
+	 * 
+	 * @author Annabelle Klarl
+	 */
+	private static class BluetoothLink implements Link {
+
+		private final BTConnection btc;
+
+		/**
+		 * Constructor
+		 * 
+		 * @param btc
+		 *            the bluetooth connection
+		 */
+		public BluetoothLink(BTConnection btc) {
+			this.btc = btc;
+		}
+
+		@Override
+		public DataInputStream openDataInputStream() {
+			return this.btc.openDataInputStream();
+		}
+
+		@Override
+		public DataOutputStream openDataOutputStream() {
+			return this.btc.openDataOutputStream();
+		}
+
+		@Override
+		public void close() {
+			this.btc.close();
+		}
+	}
+}
@@ -0,0 +1,53 @@
+/*
+ *  CoMinds is a Java framework for collaborative robotic scenarios with
+ *  Lego Mindstorms based leJOS. A complete documentation can be found
+ *  in docs/thesis.pdf.
+ *
+ *  Copyright (C) 2010  Annabelle Klarl
+ *  All rights reserved.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ * 
+ */
+package communication.transport;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+
+/**
+ * A link to one remote device with a stream to read from and a stream to
+ * write to.
+ * 
+ * @author Annabelle Klarl
+ */
+public interface Link {
+
+	/**
+	 * opens the stream to read from the remote device
+	 * 
+	 * @return the input stream of the link
+	 */
+	public DataInputStream openDataInputStream();
+
+	/**
+	 * opens the stream to write to the remote device
+	 * 
+	 * @return the output stream of the link
+	 */
+	public DataOutputStream openDataOutputStream();
+
+	/**
+	 * closes the link
+	 */
+	public void close();
+}
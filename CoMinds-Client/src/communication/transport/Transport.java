@@ -0,0 +1,50 @@
+/*
+ *  CoMinds is a Java framework for collaborative robotic scenarios with
+ *  Lego Mindstorms based leJOS. A complete documentation can be found
+ *  in docs/thesis.pdf.
+ *
+ *  Copyright (C) 2010  Annabelle Klarl
+ *  All rights reserved.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ * 
+ */
+package communication.transport;
+
+/**
+ * A transport that opens links to remote devices. A connection (see
+ * {@link communication.BTComm}) or the connection manager reads from and
+ * writes to such a link without knowing how the link is established.
+ * 
+ * @author Annabelle Klarl
+ */
+public interface Transport {
+
+	/**
+	 * opens a link to the remote device with the given name
+	 * 
+	 * @param remoteName
+	 *            the name of the device to connect to
+	 * @return the link to the remote device or null if no link could be opened
+	 */
+	public Link connect(String remoteName);
+
+	/**
+	 * waits for any remote device to open a link to this device
+	 * 
+	 * @param timeout
+	 *            how long to wait (0 means forever)
+	 * @return the link to the remote device or null if no link was opened
+	 */
+	public Link waitForConnection(int timeout);
+}
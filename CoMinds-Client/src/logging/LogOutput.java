@@ -0,0 +1,56 @@
+/*
+ *  CoMinds is a Java framework for collaborative robotic scenarios with
+ *  Lego Mindstorms based leJOS. A complete documentation can be found
+ *  in docs/thesis.pdf.
+ *
+ *  Copyright (C) 2010  Annabelle Klarl
+ *  All rights reserved.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ * 
+ */
+package logging;
+
+import java.io.OutputStream;
+
+/**
+ * This is where the {@link LogWriter} writes the binary log records to. The
+ * output is divided into segments: a log record never crosses the border of
+ * a segment and every segment starts a new binary log (see {@link LogQueue}),
+ * so that every segment can be decoded on its own.
+ * 
+ * @author Annabelle Klarl
+ */
+abstract class LogOutput extends OutputStream {
+
+	/**
+	 * returns how many bytes can be written to the current segment
+	 * 
+	 * @return the number of bytes (0 if the next log record shall start a new
+	 *         segment)
+	 */
+	public abstract int remaining();
+
+	/**
+	 * ends the current segment and continues with the next one
+	 */
+	public abstract void nextSegment();
+
+	/**
+	 * is called by the writer thread if there are no log records to write at
+	 * the moment. By default nothing is done.
+	 */
+	public void idle() {
+		// nothing to do
+	}
+}
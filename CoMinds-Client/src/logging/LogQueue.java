@@ -0,0 +1,579 @@
+/*
+ *  CoMinds is a Java framework for collaborative robotic scenarios with
+ *  Lego Mindstorms based leJOS. A complete documentation can be found
+ *  in docs/thesis.pdf.
+ *
+ *  Copyright (C) 2010  Annabelle Klarl
+ *  All rights reserved.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ * 
+ */
+package logging;
+
+import java.util.EmptyQueueException;
+
+import logging.Logger.LogLevel;
+import logging.Logger.OverflowPolicy;
+
+import common.FrameBuilder;
+import common.FramePool;
+import common.MessageQueue;
+import common.exceptions.QueueBlockedException;
+
+/**
+ * This is the queue of the {@link LogWriter}. It keeps the log messages with
+ * their arguments in preallocated arrays (so logging a message allocates
+ * nothing) and encodes a message into its binary record (see
+ * {@link LogWriter}) only when the writer thread takes it from the queue. So
+ * the records in the log file always refer to the records before them, no
+ * matter which messages are dropped.
+ * <p>
+ * If the queue is full, its {@link OverflowPolicy} decides which message is
+ * dropped. The dropped messages are counted per log level. As soon as the
+ * queue is half empty again, a warning "level messages dropped: N" is written
+ * for every log level with dropped messages.
+ * 
+ * @author Annabelle Klarl
+ */
+class LogQueue implements MessageQueue<byte[]> {
+
+	// the number and the maximum length of log records that are recycled
+	private static final int FRAME_POOL_SIZE = 4;
+	private static final int MAX_POOLED_LINE = 64;
+
+	// the level of an entry that is a frame (and no log message)
+	private static final byte FRAME = -1;
+
+	private static final String DROPPED = "{} messages dropped: {}";
+	private static final String TOO_LONG = "message too long";
+
+	private final Object sync = new Object();
+
+	// the log messages (the time in milliseconds since the queue was created)
+	private final int size;
+	private final byte[] levels;
+	private final int[] times;
+	private final String[] formats;
+	private final String[] texts;
+	private final float[] values1;
+	private final float[] values2;
+	private final byte[] valueCounts;
+	private final byte[][] frames;
+	private final long startTime;
+	private int pointerPush = 0;
+	private int pointerPop = 0;
+	private int count = 0;
+	private boolean blocked = false;
+
+	private OverflowPolicy policy = OverflowPolicy.DROP_OLDEST;
+	private LogLevel keepLevel = LogLevel.WARNING;
+	private int blockTimeout = 0;
+
+	// the dropped messages per log level since the start and since the last
+	// warning about them
+	private final int[] dropped = new int[LogLevel.values().length];
+	private final int[] unreported = new int[LogLevel.values().length];
+	private int unreportedCount = 0;
+
+	// only used by the writer thread
+	private final LogOutput output;
+	private final FramePool framePool;
+	private final FrameBuilder builder;
+	private final String[] strings = new String[LogWriter.MAX_STRINGS];
+	private int stringCount = 0;
+	private int nextString = 0;
+	private long lastTime = -1;
+
+	/**
+	 * Constructor
+	 * 
+	 * @param size
+	 *            the number of log messages the queue can hold
+	 * @param output
+	 *            the output the records are written to (the records are fit
+	 *            into its segments) or null
+	 */
+	public LogQueue(int size, LogOutput output) {
+		this.size = size;
+		this.output = output;
+		this.levels = new byte[size];
+		this.times = new int[size];
+		this.formats = new String[size];
+		this.texts = new String[size];
+		this.values1 = new float[size];
+		this.values2 = new float[size];
+		this.valueCounts = new byte[size];
+		this.frames = new byte[size][];
+		this.startTime = System.currentTimeMillis();
+
+		this.framePool = new FramePool(FRAME_POOL_SIZE, MAX_POOLED_LINE);
+		this.builder = new FrameBuilder(this.framePool, MAX_POOLED_LINE);
+	}
+
+	/**
+	 * gets the pool of the records that are returned by {@link #pop()}
+	 * 
+	 * @return the pool
+	 */
+	public FramePool getFramePool() {
+		return this.framePool;
+	}
+
+	/**
+	 * sets what is done if the queue is full
+	 * 
+	 * @param policy
+	 *            the policy
+	 * @param keepLevel
+	 *            the lowest log level that is kept if the queue is filled to
+	 *            three quarters (for {@link OverflowPolicy#DROP_BELOW_LEVEL})
+	 * @param blockTimeout
+	 *            how long to wait for space in milliseconds (for
+	 *            {@link OverflowPolicy#BLOCK})
+	 */
+	public void setOverflowPolicy(OverflowPolicy policy, LogLevel keepLevel,
+			int blockTimeout) {
+		synchronized (this.sync) {
+			this.policy = policy;
+			this.keepLevel = keepLevel;
+			this.blockTimeout = blockTimeout;
+		}
+	}
+
+	/**
+	 * gets the number of messages of the given log level that were dropped
+	 * because the queue was full
+	 * 
+	 * @param level
+	 *            the log level
+	 * @return the number of dropped messages
+	 */
+	public int getDroppedMessages(LogLevel level) {
+		synchronized (this.sync) {
+			return this.dropped[level.ordinal()];
+		}
+	}
+
+	/**
+	 * pushes a log message with its arguments onto the queue (see
+	 * {@link LogWriter#write(LogLevel, long, String, String, float, float, int)}
+	 * ). If the queue is full, the overflow policy decides whether this or
+	 * another message is dropped.
+	 * 
+	 * @param level
+	 *            the log-level of this message
+	 * @param time
+	 *            the timestamp of this message
+	 * @param format
+	 *            the message with "{}" for the arguments
+	 * @param text
+	 *            the first argument (may be null)
+	 * @param value1
+	 *            the first float argument
+	 * @param value2
+	 *            the second float argument
+	 * @param values
+	 *            how many float arguments are given (0, 1 or 2)
+	 * @param blocked
+	 *            whether the queue shall be blocked after this message
+	 * @return whether the message was put into the queue
+	 * @throws QueueBlockedException
+	 *             thrown if something shall be pushed but the queue is blocked
+	 */
+	public boolean push(LogLevel level, long time, String format,
+			String text, float value1, float value2, int values,
+			boolean blocked) throws QueueBlockedException {
+		synchronized (this.sync) {
+			if (!this.makeRoom(level)) {
+				this.drop(level.ordinal());
+				return false;
+			}
+
+			int index = this.pointerPush;
+			this.levels[index] = (byte) level.ordinal();
+			this.times[index] = (int) (time - this.startTime);
+			this.formats[index] = format;
+			this.texts[index] = text;
+			this.values1[index] = value1;
+			this.values2[index] = value2;
+			this.valueCounts[index] = (byte) values;
+			this.add(blocked);
+			return true;
+		}
+	}
+
+	/**
+	 * pushes a frame that is written as it is (after the log messages before
+	 * it). Frames are never dropped for log messages of a low level.
+	 * 
+	 * @param frame
+	 *            the frame to add
+	 * @param blocked
+	 *            whether the queue shall be blocked after this frame
+	 * @throws QueueBlockedException
+	 *             thrown if something shall be pushed but the queue is blocked
+	 */
+	@Override
+	public void push(byte[] frame, boolean blocked)
+			throws QueueBlockedException {
+		synchronized (this.sync) {
+			if (!this.makeRoom(null)) {
+				return;
+			}
+
+			this.levels[this.pointerPush] = FRAME;
+			this.frames[this.pointerPush] = frame;
+			this.add(blocked);
+		}
+	}
+
+	@Override
+	public void push(byte[] frame) throws QueueBlockedException {
+		this.push(frame, false);
+	}
+
+	@Override
+	public void push(byte[] frame, int priority, boolean blocked)
+			throws QueueBlockedException {
+		this.push(frame, blocked);
+	}
+
+	@Override
+	public void pushLatest(byte[] frame, int priority, Object key)
+			throws QueueBlockedException {
+		this.push(frame, false);
+	}
+
+	/**
+	 * makes room for a new entry according to the overflow policy. The caller
+	 * must hold the lock of the queue.
+	 * 
+	 * @param level
+	 *            the log level of the new entry (null for a frame)
+	 * @return whether the new entry may be added
+	 * @throws QueueBlockedException
+	 *             thrown if the queue is blocked
+	 */
+	private boolean makeRoom(LogLevel level) throws QueueBlockedException {
+		if (this.blocked) {
+			throw new QueueBlockedException(
+					"Cannot push into queue because queue is blocked");
+		}
+
+		if (this.policy == OverflowPolicy.DROP_BELOW_LEVEL && level != null
+				&& level.compareTo(this.keepLevel) < 0
+				&& this.count >= this.size - this.size / 4) {
+			// keep the last quarter for the important messages
+			return false;
+		}
+		if (this.count < this.size) {
+			return true;
+		}
+
+		switch (this.policy) {
+		case DROP_OLDEST:
+			this.drop(this.levels[this.pointerPop]);
+			this.remove(this.pointerPop);
+			return true;
+		case BLOCK:
+			long end = System.currentTimeMillis() + this.blockTimeout;
+			long timeout = this.blockTimeout;
+			while (this.count >= this.size && timeout > 0) {
+				try {
+					this.sync.wait(timeout);
+				}
+				catch (InterruptedException e) {
+				}
+				timeout = end - System.currentTimeMillis();
+			}
+			return this.count < this.size && !this.blocked;
+		default:
+			return false;
+		}
+	}
+
+	/**
+	 * adds the entry at the push pointer. The caller must hold the lock of the
+	 * queue.
+	 * 
+	 * @param blocked
+	 *            whether the queue shall be blocked after this entry
+	 */
+	private void add(boolean blocked) {
+		this.pointerPush = (this.pointerPush + 1) % this.size;
+		this.count++;
+		this.blocked = blocked;
+	}
+
+	/**
+	 * removes the entry at the given index (which must be the pop pointer).
+	 * The caller must hold the lock of the queue.
+	 * 
+	 * @param index
+	 *            the index of the entry
+	 */
+	private void remove(int index) {
+		this.formats[index] = null;
+		this.texts[index] = null;
+		this.frames[index] = null;
+		this.pointerPop = (index + 1) % this.size;
+		this.count--;
+	}
+
+	/**
+	 * counts a dropped entry. The caller must hold the lock of the queue.
+	 * 
+	 * @param level
+	 *            the ordinal of the log level of the entry (or
+	 *            {@link #FRAME})
+	 */
+	private void drop(int level) {
+		if (level != FRAME) {
+			this.dropped[level]++;
+			this.unreported[level]++;
+			this.unreportedCount++;
+		}
+	}
+
+	/**
+	 * pops the oldest log message from the queue and encodes it. If messages
+	 * were dropped and the queue is half empty again, a warning about the
+	 * dropped messages is returned first. If the queue is empty, the output is
+	 * told that the writer thread is idle (see {@link LogOutput#idle()}).
+	 * 
+	 * @return the record of the log message
+	 * @throws EmptyQueueException
+	 *             if there is no log message in the queue
+	 */
+	@Override
+	public byte[] pop() throws EmptyQueueException {
+		LogLevel level;
+		long time;
+		String format;
+		String text;
+		float value1;
+		float value2;
+		int values;
+
+		if (this.output != null && this.isEmpty()) {
+			this.output.idle();
+		}
+
+		synchronized (this.sync) {
+			if (this.unreportedCount > 0 && this.count <= this.size / 2) {
+				int dropLevel = 0;
+				while (this.unreported[dropLevel] == 0) {
+					dropLevel++;
+				}
+				level = LogLevel.WARNING;
+				time = System.currentTimeMillis();
+				format = DROPPED;
+				text = LogLevel.values()[dropLevel].toString();
+				value1 = this.unreported[dropLevel];
+				value2 = 0;
+				values = 1;
+				this.unreportedCount -= this.unreported[dropLevel];
+				this.unreported[dropLevel] = 0;
+			}
+			else {
+				if (this.count == 0) {
+					throw new EmptyQueueException();
+				}
+
+				int index = this.pointerPop;
+				byte[] frame = this.frames[index];
+				level = frame == null ? LogLevel.values()[this.levels[index]]
+						: null;
+				time = this.startTime + this.times[index];
+				format = this.formats[index];
+				text = this.texts[index];
+				value1 = this.values1[index];
+				value2 = this.values2[index];
+				values = this.valueCounts[index];
+				this.remove(index);
+				if (this.policy == OverflowPolicy.BLOCK) {
+					this.sync.notifyAll();
+				}
+
+				if (frame != null) {
+					return frame;
+				}
+			}
+		}
+
+		byte[] record = this.encode(level, time, format, text, value1, value2,
+				values);
+		if (this.output != null && record.length > this.output.remaining()) {
+			// the record must not cross the border of a segment and the next
+			// segment must be decodable on its own
+			this.framePool.release(record);
+			this.output.nextSegment();
+			this.startLog();
+
+			record = this.encode(level, time, format, text, value1, value2,
+					values);
+			if (record.length > this.output.remaining()) {
+				// the record did not fit into the whole segment, so the
+				// segment is started again with a shorter record instead
+				this.framePool.release(record);
+				this.startLog();
+				record = this.encode(level, time, TOO_LONG, null, 0, 0, 0);
+			}
+		}
+		return record;
+	}
+
+	/**
+	 * lets the next record start a new binary log: it starts with
+	 * {@link LogWriter#MAGIC} and its time, and the table of Strings is empty
+	 */
+	private void startLog() {
+		this.stringCount = 0;
+		this.nextString = 0;
+		this.lastTime = -1;
+	}
+
+	/**
+	 * encodes a log message as a binary record (see {@link LogWriter}). Only
+	 * the writer thread encodes messages.
+	 * 
+	 * @param level
+	 *            the log-level of this message
+	 * @param time
+	 *            the timestamp of this message
+	 * @param format
+	 *            the message with "{}" for the arguments
+	 * @param text
+	 *            the first argument (may be null)
+	 * @param value1
+	 *            the first float argument
+	 * @param value2
+	 *            the second float argument
+	 * @param values
+	 *            how many float arguments are given (0, 1 or 2)
+	 * @return the record
+	 */
+	private byte[] encode(LogLevel level, long time, String format,
+			String text, float value1, float value2, int values) {
+		this.builder.reset();
+		if (this.lastTime < 0) {
+			this.builder.putBytes(LogWriter.MAGIC);
+		}
+		if (this.lastTime < 0 || time < this.lastTime
+				|| time - this.lastTime > Integer.MAX_VALUE) {
+			this.builder.putByte(LogWriter.RECORD_TIME).putVarLong(time);
+			this.lastTime = time;
+		}
+
+		int arguments = text != null ? values + 1 : values;
+		this.builder.putByte((byte) ((arguments << 4) | level.ordinal()))
+				.putVarInt((int) (time - this.lastTime));
+		this.lastTime = time;
+
+		this.putReference(format);
+		if (text != null) {
+			this.builder.putByte(LogWriter.ARGUMENT_TEXT);
+			this.putReference(text);
+		}
+		if (values > 0) {
+			this.putNumber(value1);
+		}
+		if (values > 1) {
+			this.putNumber(value2);
+		}
+		return this.builder.toFrame();
+	}
+
+	/**
+	 * appends a reference to a String to the record. If the String is not in
+	 * the table yet, it is added and written.
+	 * 
+	 * @param value
+	 *            the String
+	 */
+	private void putReference(String value) {
+		for (int i = 0; i < this.stringCount; i++) {
+			if (this.strings[i] == value || this.strings[i].equals(value)) {
+				this.builder.putVarInt(i + 1);
+				return;
+			}
+		}
+
+		this.strings[this.nextString] = value;
+		this.nextString = (this.nextString + 1) % LogWriter.MAX_STRINGS;
+		if (this.stringCount < LogWriter.MAX_STRINGS) {
+			this.stringCount++;
+		}
+		this.builder.putVarInt(0).putCompactString(value);
+	}
+
+	/**
+	 * appends a float argument to the record. A whole number is written as a
+	 * varint.
+	 * 
+	 * @param value
+	 *            the float
+	 */
+	private void putNumber(float value) {
+		int whole = (int) value;
+		if (whole == value) {
+			this.builder.putByte(LogWriter.ARGUMENT_INT).putVarInt(
+					(whole << 1) ^ (whole >> 31));
+		}
+		else {
+			this.builder.putByte(LogWriter.ARGUMENT_FLOAT).putFloat(value);
+		}
+	}
+
+	/**
+	 * returns whether there is nothing to take from the queue
+	 * 
+	 * @return true if there are neither log messages nor unreported dropped
+	 *         messages, false otherwise
+	 */
+	@Override
+	public boolean isEmpty() {
+		synchronized (this.sync) {
+			return this.count == 0 && this.unreportedCount == 0;
+		}
+	}
+
+	/**
+	 * returns whether the queue is blocked (nothing can be pushed any more,
+	 * but the messages in the queue can still be taken)
+	 * 
+	 * @return true if the queue is blocked, false otherwise
+	 */
+	@Override
+	public boolean isBlocked() {
+		return this.blocked;
+	}
+
+	@Override
+	public void deblock() {
+		synchronized (this.sync) {
+			this.blocked = false;
+		}
+	}
+
+	@Override
+	public void clearQueue() {
+		synchronized (this.sync) {
+			while (this.count > 0) {
+				this.remove(this.pointerPop);
+			}
+			this.sync.notifyAll();
+		}
+	}
+}
@@ -0,0 +1,407 @@
+/*
+ *  CoMinds is a Java framework for collaborative robotic scenarios with
+ *  Lego Mindstorms based leJOS. A complete documentation can be found
+ *  in docs/thesis.pdf.
+ *
+ *  Copyright (C) 2010  Annabelle Klarl
+ *  All rights reserved.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ * 
+ */
+package logging;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+import lejos.nxt.Flash;
+
+/**
+ * This is a log file of a fixed size on the flash of the nxt that is written
+ * as a ring: if it is full, the oldest log records are overwritten, so the
+ * most recent log records are kept however long the nxt runs. The file is
+ * allocated once and then written page by page directly to the flash (without
+ * the file system updating the length of the file all the time).
+ * <p>
+ * The first page of the file is a header with {@link #MAGIC}, the size of a
+ * page, the number of pages per segment, the number of segments, how often
+ * the ring was wrapped and the segment that is written at the moment (the wrap
+ * point: the segments after it are older). The header is written when the file is opened, whenever the ring
+ * wraps and when the file is closed. The other pages are divided into
+ * segments of {@link #SEGMENT_PAGES} pages. Every page starts with the number
+ * of its segment (counting all segments ever written, starting at 1), so that
+ * the oldest segment and the pages that were not written yet can be found
+ * even if the nxt was switched off without closing the file. The log records
+ * never cross the border of a segment (see {@link #remaining()} and
+ * {@link #nextSegment()}) and every segment starts a new binary log (see
+ * {@link LogWriter}), so every segment can be decoded on its own. The rest of
+ * a segment is filled with {@link LogWriter#RECORD_END}.
+ * 
+ * @author Annabelle Klarl
+ */
+class LogRingFile extends LogOutput {
+
+	/** the first bytes of a ring log file (the last one is the version) */
+	public static final byte[] MAGIC = { 'C', 'M', 'R', 1 };
+
+	/** the number of pages of a segment */
+	public static final int SEGMENT_PAGES = 4;
+
+	// the bytes at the start of every page for the number of its segment
+	private static final int PAGE_HEADER = 4;
+
+	/** the number of bytes of log records a segment holds */
+	public static final int SEGMENT_SIZE = SEGMENT_PAGES
+			* (Flash.BYTES_PER_PAGE - PAGE_HEADER);
+
+	// the least number of segments of a ring
+	private static final int MIN_SEGMENTS = 2;
+
+	private final int firstPage;
+	private final int segments;
+	private final byte[] page = new byte[Flash.BYTES_PER_PAGE];
+
+	private int segment;
+	private int pageInSegment = 0;
+	private int position = PAGE_HEADER;
+	private int sequence;
+	private int wraps = 0;
+
+	// the page that is read by readSegment (allocated when it is needed)
+	private byte[] readPage = null;
+
+	/**
+	 * Constructor
+	 * 
+	 * @param firstPage
+	 *            the page of the flash where the file starts
+	 * @param segments
+	 *            the number of segments of the ring
+	 * @param segment
+	 *            the first segment to write
+	 * @param sequence
+	 *            the number of the first segment to write
+	 */
+	private LogRingFile(int firstPage, int segments, int segment, int sequence) {
+		this.firstPage = firstPage;
+		this.segments = segments;
+		this.segment = segment;
+		this.sequence = sequence;
+		this.startPage();
+	}
+
+	/**
+	 * opens the ring log file with the given name. A ring log file of the same
+	 * size that is already there is continued after its newest segment, any
+	 * other file with that name is replaced.
+	 * 
+	 * @param fileName
+	 *            the name of the log file
+	 * @param size
+	 *            the size of the log file in bytes (it is smaller if there is
+	 *            not enough flash)
+	 * @return the log file or null if there is not enough flash for the
+	 *         smallest ring or the file cannot be created
+	 */
+	public static LogRingFile open(String fileName, int size) {
+		int segmentSize = SEGMENT_PAGES * Flash.BYTES_PER_PAGE;
+		int segments = Math.max(MIN_SEGMENTS, (size - Flash.BYTES_PER_PAGE)
+				/ segmentSize);
+		int length = Flash.BYTES_PER_PAGE + segments * segmentSize;
+
+		File file = new File(fileName);
+		if (file.exists() && file.length() == length) {
+			LogRingFile ring = continueRing(file.getPage(), segments);
+			if (ring != null) {
+				return ring;
+			}
+		}
+
+		if (file.exists()) {
+			file.delete();
+		}
+
+		int freeMemory = File.freeMemory();
+		if (length > freeMemory) {
+			segments = (freeMemory - Flash.BYTES_PER_PAGE) / segmentSize;
+			if (segments < MIN_SEGMENTS) {
+				System.out.println("No logger!");
+				return null;
+			}
+			length = Flash.BYTES_PER_PAGE + segments * segmentSize;
+		}
+
+		try {
+			// allocate the whole file once
+			file.createNewFile();
+			FileOutputStream output = new FileOutputStream(file);
+			byte[] empty = new byte[Flash.BYTES_PER_PAGE];
+			for (int i = 0; i < length; i += empty.length) {
+				output.write(empty);
+			}
+			output.close();
+		}
+		catch (IOException e) {
+			System.out.println("No logger!");
+			file.delete();
+			return null;
+		}
+
+		LogRingFile ring = new LogRingFile(file.getPage(), segments, 0, 1);
+		ring.writeHeader();
+		return ring;
+	}
+
+	/**
+	 * continues a ring log file after its newest segment
+	 * 
+	 * @param firstPage
+	 *            the page of the flash where the file starts
+	 * @param segments
+	 *            the number of segments of the ring
+	 * @return the log file or null if the file is no ring log file with that
+	 *         number of segments
+	 */
+	private static LogRingFile continueRing(int firstPage, int segments) {
+		byte[] buffer = new byte[Flash.BYTES_PER_PAGE];
+		Flash.readPage(buffer, firstPage);
+		for (int i = 0; i < MAGIC.length; i++) {
+			if (buffer[i] != MAGIC[i]) {
+				return null;
+			}
+		}
+		if (readInt(buffer, 4) != Flash.BYTES_PER_PAGE
+				|| readInt(buffer, 8) != SEGMENT_PAGES
+				|| readInt(buffer, 12) != segments) {
+			return null;
+		}
+		int wraps = readInt(buffer, 16);
+
+		int newest = -1;
+		int newestSequence = 0;
+		for (int i = 0; i < segments; i++) {
+			Flash.readPage(buffer, firstPage + 1 + i * SEGMENT_PAGES);
+			int sequence = readInt(buffer, 0);
+			if (sequence > newestSequence) {
+				newest = i;
+				newestSequence = sequence;
+			}
+		}
+
+		LogRingFile ring = new LogRingFile(firstPage, segments,
+				(newest + 1) % segments, newestSequence + 1);
+		ring.wraps = wraps;
+		return ring;
+	}
+
+	@Override
+	public int remaining() {
+		return (SEGMENT_PAGES - this.pageInSegment - 1)
+				* (Flash.BYTES_PER_PAGE - PAGE_HEADER)
+				+ Flash.BYTES_PER_PAGE - this.position;
+	}
+
+	/**
+	 * fills the rest of the current segment with
+	 * {@link LogWriter#RECORD_END} and continues with the next segment (which
+	 * is the oldest one)
+	 */
+	@Override
+	public void nextSegment() {
+		// the pages after the current one still belong to an older segment,
+		// so they do not need to be written
+		if (this.position > PAGE_HEADER) {
+			this.writePage();
+		}
+
+		this.pageInSegment = 0;
+		this.segment++;
+		this.sequence++;
+		if (this.segment == this.segments) {
+			this.segment = 0;
+			this.wraps++;
+			this.writeHeader();
+		}
+		this.startPage();
+	}
+
+	/**
+	 * gets the number of the current segment (counting all segments ever
+	 * written, starting at 1)
+	 * 
+	 * @return the number of the segment
+	 */
+	public int getSequence() {
+		return this.sequence;
+	}
+
+	/**
+	 * reads the log records of a segment that was written before back from
+	 * the flash (including the {@link LogWriter#RECORD_END} at its end)
+	 * 
+	 * @param sequence
+	 *            the number of the segment (smaller than the number of the
+	 *            current segment)
+	 * @param buffer
+	 *            where to read the records to (at least {@link #SEGMENT_SIZE}
+	 *            bytes)
+	 * @return the number of bytes read or -1 if the segment was overwritten
+	 *         already
+	 */
+	public int readSegment(int sequence, byte[] buffer) {
+		int age = this.sequence - sequence;
+		if (sequence < 1 || age <= 0 || age >= this.segments) {
+			return -1;
+		}
+		if (this.readPage == null) {
+			this.readPage = new byte[Flash.BYTES_PER_PAGE];
+		}
+
+		int segment = (this.segment - age + this.segments) % this.segments;
+		int length = 0;
+		for (int i = 0; i < SEGMENT_PAGES; i++) {
+			Flash.readPage(this.readPage, this.firstPage + 1 + segment
+					* SEGMENT_PAGES + i);
+			// the pages that were not written still belong to an older segment
+			if (readInt(this.readPage, 0) != sequence) {
+				break;
+			}
+			System.arraycopy(this.readPage, PAGE_HEADER, buffer, length,
+					Flash.BYTES_PER_PAGE - PAGE_HEADER);
+			length += Flash.BYTES_PER_PAGE - PAGE_HEADER;
+		}
+		return length == 0 ? -1 : length;
+	}
+
+	@Override
+	public void write(int b) {
+		if (this.position == Flash.BYTES_PER_PAGE) {
+			this.nextPage();
+		}
+		this.page[this.position++] = (byte) b;
+	}
+
+	@Override
+	public void write(byte[] b, int off, int len) {
+		while (len > 0) {
+			if (this.position == Flash.BYTES_PER_PAGE) {
+				this.nextPage();
+			}
+			int count = Math.min(len, Flash.BYTES_PER_PAGE - this.position);
+			System.arraycopy(b, off, this.page, this.position, count);
+			this.position += count;
+			off += count;
+			len -= count;
+		}
+	}
+
+	/**
+	 * writes the current page to the flash (it is written again if more is
+	 * written to it)
+	 */
+	@Override
+	public void flush() {
+		if (this.position > PAGE_HEADER) {
+			this.writePage();
+		}
+	}
+
+	/**
+	 * writes the current page and the header to the flash
+	 */
+	@Override
+	public void close() {
+		this.flush();
+		this.writeHeader();
+	}
+
+	/**
+	 * writes the full current page to the flash and continues with the next
+	 * page (of the next segment if the segment is full)
+	 */
+	private void nextPage() {
+		if (this.pageInSegment == SEGMENT_PAGES - 1) {
+			this.nextSegment();
+			return;
+		}
+		this.writePage();
+		this.pageInSegment++;
+		this.startPage();
+	}
+
+	/**
+	 * starts an empty page of the current segment
+	 */
+	private void startPage() {
+		writeInt(this.page, 0, this.sequence);
+		for (int i = PAGE_HEADER; i < this.page.length; i++) {
+			this.page[i] = LogWriter.RECORD_END;
+		}
+		this.position = PAGE_HEADER;
+	}
+
+	/**
+	 * writes the current page to its place on the flash
+	 */
+	private void writePage() {
+		Flash.writePage(this.page, this.firstPage + 1 + this.segment
+				* SEGMENT_PAGES + this.pageInSegment);
+	}
+
+	/**
+	 * writes the header page of the file
+	 */
+	private void writeHeader() {
+		byte[] header = new byte[Flash.BYTES_PER_PAGE];
+		System.arraycopy(MAGIC, 0, header, 0, MAGIC.length);
+		writeInt(header, 4, Flash.BYTES_PER_PAGE);
+		writeInt(header, 8, SEGMENT_PAGES);
+		writeInt(header, 12, this.segments);
+		writeInt(header, 16, this.wraps);
+		writeInt(header, 20, this.segment);
+		Flash.writePage(header, this.firstPage);
+	}
+
+	/**
+	 * writes an int into a page (big endian)
+	 * 
+	 * @param buffer
+	 *            the page
+	 * @param index
+	 *            where to write the int
+	 * @param value
+	 *            the int
+	 */
+	private static void writeInt(byte[] buffer, int index, int value) {
+		buffer[index] = (byte) (value >>> 24);
+		buffer[index + 1] = (byte) (value >>> 16);
+		buffer[index + 2] = (byte) (value >>> 8);
+		buffer[index + 3] = (byte) value;
+	}
+
+	/**
+	 * reads an int from a page (big endian)
+	 * 
+	 * @param buffer
+	 *            the page
+	 * @param index
+	 *            where to read the int
+	 * @return the int
+	 */
+	private static int readInt(byte[] buffer, int index) {
+		return ((buffer[index] & 0xFF) << 24)
+				| ((buffer[index + 1] & 0xFF) << 16)
+				| ((buffer[index + 2] & 0xFF) << 8) | (buffer[index + 3] & 0xFF);
+	}
+}
@@ -0,0 +1,318 @@
+/*
+ *  CoMinds is a Java framework for collaborative robotic scenarios with
+ *  Lego Mindstorms based leJOS. A complete documentation can be found
+ *  in docs/thesis.pdf.
+ *
+ *  Copyright (C) 2010  Annabelle Klarl
+ *  All rights reserved.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ * 
+ */
+package logging;
+
+import communication.NXTConnectionManager;
+
+/**
+ * This streams the binary log records to the pc over the managed connection
+ * of the {@link NXTConnectionManager} while they are written, so that the log
+ * of every nxt is on the pc at once. The records are collected into batches
+ * of {@link #BATCH_SIZE} bytes which are written as frames with low priority.
+ * The batches continue each other, so the table of Strings is kept from one
+ * batch to the next (see {@link LogWriter}). A batch is written as soon as it
+ * is full or the writer thread of the logger is idle.
+ * <p>
+ * The records are only written to the pc while the managed connection is
+ * idle. Otherwise (or if there is no managed connection to the pc) they are
+ * kept in the {@link LogRingFile} until the connection is idle again. The segments of the
+ * ring log file that were kept are then written to the pc one after the other
+ * (or they can be transfered with the file if the ring log file wrapped
+ * before). Whenever the records switch between the pc and the ring log file,
+ * a new segment and so a new binary log is started.
+ * 
+ * @author Annabelle Klarl
+ */
+class LogStream extends LogOutput {
+
+	// the number of bytes of log records that are written at once (so that a
+	// frame with a batch fits into one bluetooth packet)
+	private static final int BATCH_SIZE = 200;
+
+	// how long the records are kept in the ring log file at least before
+	// they are written to the pc again (in ms), so that a segment is not
+	// started for every record if the connection is busy now and then
+	private static final long MIN_BUFFERING_TIME = 1000;
+
+	// how long to wait for the connection to be idle when the kept segments
+	// are written on closing (in ms)
+	private static final long CLOSE_WAIT_TIME = 20;
+	private static final long CLOSE_TIMEOUT = 5000;
+
+	private final LogRingFile ringFile;
+	private final byte[] batch = new byte[BATCH_SIZE];
+	private int length = 0;
+
+	// whether the records are kept in the ring log file at the moment and
+	// whether the next record shall start a new segment (as the records
+	// switch between the pc and the ring log file)
+	private boolean buffering = true;
+	private boolean switching = false;
+	private long bufferingSince;
+
+	// the segments of the ring log file that were kept but not written to
+	// the pc yet (from firstBuffered up to endBuffered without endBuffered)
+	private int firstBuffered;
+	private int endBuffered;
+	private byte[] segment = null;
+
+	/**
+	 * Constructor. The records are kept in the ring log file until the
+	 * managed connection to the pc is idle for the first time.
+	 * 
+	 * @param ringFile
+	 *            the ring log file where to keep the records while the
+	 *            connection is busy
+	 */
+	public LogStream(LogRingFile ringFile) {
+		this.ringFile = ringFile;
+		this.firstBuffered = ringFile.getSequence();
+		this.endBuffered = this.firstBuffered;
+		this.bufferingSince = 0;
+	}
+
+	/**
+	 * returns how many bytes can be written to the current segment. The
+	 * records that are written to the pc have no segments, but every record
+	 * must fit into a segment of the ring log file all the same.
+	 * 
+	 * @return the number of bytes (0 if the next record switches between the
+	 *         pc and the ring log file)
+	 */
+	@Override
+	public int remaining() {
+		if (this.switching) {
+			return 0;
+		}
+		return this.buffering ? this.ringFile.remaining()
+				: LogRingFile.SEGMENT_SIZE;
+	}
+
+	/**
+	 * ends the current segment (the last batch is written to the pc or the
+	 * segment of the ring log file is finished) and decides whether the next
+	 * segment is written to the pc or kept in the ring log file
+	 */
+	@Override
+	public void nextSegment() {
+		if (this.buffering) {
+			this.endBuffering();
+		}
+		else {
+			this.writeBatch();
+		}
+		this.switching = false;
+
+		// the ring log file is still at the end of the kept segments, so the
+		// segments kept from now on follow them
+		boolean buffering = !NXTConnectionManager.canWriteLog();
+		if (buffering && !this.buffering) {
+			this.bufferingSince = System.currentTimeMillis();
+		}
+		this.buffering = buffering;
+	}
+
+	/**
+	 * writes the batch that is not full yet to the pc or switches from the ring
+	 * log file to the pc (if the records were kept long enough) or writes a
+	 * kept segment of the ring log file to the pc (one of these if the managed
+	 * connection is idle)
+	 */
+	@Override
+	public void idle() {
+		if (!NXTConnectionManager.canWriteLog()) {
+			return;
+		}
+
+		if (this.buffering) {
+			if (System.currentTimeMillis() - this.bufferingSince
+					< MIN_BUFFERING_TIME) {
+				return;
+			}
+			this.endBuffering();
+			this.buffering = false;
+			this.switching = true;
+		}
+		else if (this.length > 0) {
+			this.writeBatch();
+		}
+		else {
+			this.writeBufferedSegment();
+		}
+	}
+
+	@Override
+	public void write(int b) {
+		this.write(new byte[] { (byte) b }, 0, 1);
+	}
+
+	/**
+	 * writes a log record (the writer thread writes every record at once)
+	 * 
+	 * @param b
+	 *            the array that holds the record
+	 * @param off
+	 *            where the record starts in the array
+	 * @param len
+	 *            the length of the record
+	 */
+	@Override
+	public void write(byte[] b, int off, int len) {
+		if (this.buffering) {
+			this.ringFile.write(b, off, len);
+			return;
+		}
+
+		if (this.length + len > BATCH_SIZE) {
+			this.writeBatch();
+		}
+		if (len > BATCH_SIZE) {
+			this.writeRecords(b, off, len);
+		}
+		else {
+			System.arraycopy(b, off, this.batch, this.length, len);
+			this.length += len;
+		}
+	}
+
+	/**
+	 * writes the records that are not written yet (to the pc or to the flash)
+	 */
+	@Override
+	public void flush() {
+		if (this.buffering) {
+			this.ringFile.flush();
+		}
+		else {
+			this.writeBatch();
+		}
+	}
+
+	/**
+	 * writes the last records and the kept segments of the ring log file to
+	 * the pc (as long as the managed connection becomes idle within
+	 * {@link #CLOSE_TIMEOUT}) and closes the ring log file
+	 */
+	@Override
+	public void close() {
+		if (this.buffering) {
+			this.endBuffering();
+		}
+		else {
+			this.writeBatch();
+		}
+
+		long end = System.currentTimeMillis() + CLOSE_TIMEOUT;
+		while (this.hasBufferedSegments()
+				&& System.currentTimeMillis() < end) {
+			if (!NXTConnectionManager.canWriteLog()
+					|| !this.writeBufferedSegment()) {
+				synchronized (this) {
+					try {
+						this.wait(CLOSE_WAIT_TIME);
+					}
+					catch (InterruptedException e) {
+					}
+				}
+			}
+		}
+		this.ringFile.close();
+	}
+
+	/**
+	 * returns whether there are segments of the ring log file that were kept
+	 * but not written to the pc
+	 * 
+	 * @return whether there are kept segments
+	 */
+	public boolean hasBufferedSegments() {
+		return this.firstBuffered < this.endBuffered;
+	}
+
+	/**
+	 * writes the batch to the pc. If the managed connection was busy, the next
+	 * records are kept in the ring log file.
+	 */
+	private void writeBatch() {
+		if (this.length > 0) {
+			this.writeRecords(this.batch, 0, this.length);
+			this.length = 0;
+		}
+	}
+
+	/**
+	 * writes log records to the pc (they are lost if there is no managed
+	 * connection to the pc any more). If the managed connection was busy, the
+	 * next records are kept in the ring log file.
+	 * 
+	 * @param records
+	 *            the array that holds the records
+	 * @param offset
+	 *            where the records start in the array
+	 * @param length
+	 *            the number of bytes of the records
+	 */
+	private void writeRecords(byte[] records, int offset, int length) {
+		if (!NXTConnectionManager.canWriteLog()) {
+			this.switching = true;
+		}
+		NXTConnectionManager.writeLog(records, offset, length, false);
+	}
+
+	/**
+	 * finishes the segment of the ring log file that is written at the moment
+	 * (if anything was written to it), so that it can be written to the pc
+	 */
+	private void endBuffering() {
+		if (this.ringFile.remaining() < LogRingFile.SEGMENT_SIZE) {
+			this.ringFile.nextSegment();
+		}
+		this.endBuffered = this.ringFile.getSequence();
+	}
+
+	/**
+	 * writes the oldest kept segment of the ring log file to the pc (the
+	 * segments that were overwritten in the meantime are skipped)
+	 * 
+	 * @return whether the segment was written
+	 */
+	private boolean writeBufferedSegment() {
+		if (this.segment == null) {
+			this.segment = new byte[LogRingFile.SEGMENT_SIZE];
+		}
+
+		while (this.firstBuffered < this.endBuffered) {
+			int length = this.ringFile.readSegment(this.firstBuffered,
+					this.segment);
+			if (length >= 0
+					&& !NXTConnectionManager.writeLog(this.segment, 0, length,
+							true)) {
+				return false;
+			}
+			this.firstBuffered++;
+			if (length >= 0) {
+				return true;
+			}
+		}
+		return false;
+	}
+}
@@ -21,13 +21,12 @@
  */
 package logging;
 
-import java.io.File;
-import java.io.FileOutputStream;
-import java.io.IOException;
+import java.io.OutputStream;
 
 import behaviourmodel.BehaviorUtils;
 
 import logging.Logger.LogLevel;
+import logging.Logger.OverflowPolicy;
 
 import common.Writer;
 import common.exceptions.QueueBlockedException;
@@ -35,14 +34,66 @@ import communication.NXTConnectionManager;
 
 /**
  * private class that holds a message queue with all log message to be written
- * to file and which writes the log messages to file in a new thread
+ * to file and which writes the log messages to file in a new thread.
+ * <p>
+ * The log file is binary to save flash and transfer time. It starts with
+ * {@link #MAGIC} and then holds one record per log message:
+ * <ul>
+ * <li>a byte with the number of arguments in the high nibble and the ordinal
+ * of the log level in the low nibble (a low nibble of {@link #RECORD_TIME}
+ * instead sets the absolute time as a varlong, this is written before the
+ * first message and whenever the time jumps back)</li>
+ * <li>the milliseconds since the last message as a varint</li>
+ * <li>a reference to the message (see below)</li>
+ * <li>the arguments, each a byte {@link #ARGUMENT_TEXT} with a reference to
+ * the text, {@link #ARGUMENT_INT} with a zigzag encoded varint or
+ * {@link #ARGUMENT_FLOAT} with the four bytes of a float</li>
+ * </ul>
+ * A byte {@link #RECORD_END} ends the log (it fills the rest of a segment of
+ * the {@link LogRingFile} that holds the records). A log may be followed by a
+ * new log that starts with {@link #MAGIC} again (no record starts with its
+ * first byte as a record has at most three arguments).
+ * A reference to a String is a varint: 0 is followed by the String with its
+ * length as varint and stores it in the next slot of a table of
+ * {@link #MAX_STRINGS} Strings (replacing the oldest one if the table is
+ * full), any other value n refers to the String in slot n - 1. The server
+ * turns these files back into text with logging.LogDecoder.
+ * <p>
+ * The messages are encoded by the {@link LogQueue} when the writer thread
+ * takes them from the queue. They are written to a {@link LogRingFile} or
+ * streamed to the pc while they are written (see {@link LogStream}).
  * 
  * @author Annabelle Klarl
  */
 class LogWriter extends Writer {
 
+	/** the first bytes of a binary log file (the last one is the version) */
+	public static final byte[] MAGIC = { 'C', 'M', 'L', 1 };
+
+	/** a record that sets the absolute time */
+	public static final byte RECORD_TIME = 0x0F;
+
+	/** a record that ends the log */
+	public static final byte RECORD_END = 0x0E;
+
+	/** the types of arguments */
+	public static final byte ARGUMENT_TEXT = 0x00;
+	public static final byte ARGUMENT_INT = 0x01;
+	public static final byte ARGUMENT_FLOAT = 0x02;
+
+	/** the number of Strings that are referenced instead of written again */
+	public static final int MAX_STRINGS = 64;
+
+	// the size of the ring log file in bytes
+	private static final int RING_SIZE = 32 * 1024;
+
 	private boolean transfer;
 	private String fileName;
+	private final LogQueue queue;
+	// the stream to the pc (null if the log is only written to the file)
+	private final LogStream stream;
+	// whether there is a ring log file (otherwise nothing is logged)
+	private final boolean logging;
 
 	/**
 	 * Constructor
@@ -55,39 +106,91 @@ class LogWriter extends Writer {
 	 *            whether the logFile should be transfered to the PC
 	 */
 	public LogWriter(String fileName, int queueSize, boolean transfer) {
-		super(initFileOutput(fileName), queueSize);
+		this(fileName, queueSize, transfer, false);
+	}
+
+	/**
+	 * Constructor
+	 * 
+	 * @param fileName
+	 *            the name of the logfile
+	 * @param queueSize
+	 *            the size of the buffer for log messages
+	 * @param transfer
+	 *            whether the logFile should be transfered to the PC (if it
+	 *            is streamed, only if it holds records that were not streamed)
+	 * @param stream
+	 *            whether the log should be streamed to the PC over the
+	 *            managed connection (the logFile only keeps the records while
+	 *            the connection is busy)
+	 */
+	public LogWriter(String fileName, int queueSize, boolean transfer,
+			boolean stream) {
+		this(openOutput(fileName, stream), fileName, queueSize, transfer);
+	}
+
+	/**
+	 * Constructor
+	 * 
+	 * @param output
+	 *            the ring log file or the stream to write to (null if there
+	 *            is no ring log file, then nothing is logged)
+	 * @param fileName
+	 *            the name of the logfile
+	 * @param queueSize
+	 *            the size of the buffer for log messages
+	 * @param transfer
+	 *            whether the logFile should be transfered to the PC
+	 */
+	private LogWriter(LogOutput output, String fileName, int queueSize,
+			boolean transfer) {
+		super(output != null ? output : noOutput(), new LogQueue(queueSize,
+				output), false);
 		this.fileName = fileName;
-		this.transfer = transfer;
+		this.logging = output != null;
+		this.transfer = transfer && this.logging;
+		this.queue = (LogQueue) this.messageQueue;
+		this.stream = output instanceof LogStream ? (LogStream) output : null;
+		this.setFramePool(this.queue.getFramePool());
 	}
 
 	/**
-	 * initializes the file handler
+	 * opens the ring log file and the stream to the pc if the log shall be
+	 * streamed
 	 * 
 	 * @param fileName
-	 *            the name of the file to write
-	 * @return a handler for the file
+	 *            the name of the logfile
+	 * @param stream
+	 *            whether the log should be streamed to the PC
+	 * @return the ring log file or the stream or null if the ring log file
+	 *         cannot be opened
 	 */
-	private static FileOutputStream initFileOutput(String fileName) {
-		File file = new File(fileName);
-		if (file.exists()) {
-			file.delete();
-		}
-		try {
-			file.createNewFile();
-		}
-		catch (IOException e) {
-			System.out.println("No logger!");
+	private static LogOutput openOutput(String fileName, boolean stream) {
+		LogRingFile ringFile = LogRingFile.open(fileName, RING_SIZE);
+		if (ringFile == null || !stream) {
+			return ringFile;
 		}
+		return new LogStream(ringFile);
+	}
 
-		// for freeing the resources if a big file was deleted
-		File.freeMemory();
-
-		return new FileOutputStream(file);
+	/**
+	 * returns an output that drops everything for a writer without ring log
+	 * file (the writer thread runs all the same, but is never given a record)
+	 * 
+	 * @return the output
+	 */
+	private static OutputStream noOutput() {
+		return new OutputStream() {
+			@Override
+			public void write(int b) {
+				// nothing is logged
+			}
+		};
 	}
 
 	/**
 	 * see documentation
-	 * {@link LogWriter#write(LogLevel, Long, String, boolean)}. This method
+	 * {@link LogWriter#write(LogLevel, long, String, boolean)}. This method
 	 * will not block the writing queue afterwards.
 	 * 
 	 * @param level
@@ -97,7 +200,7 @@ class LogWriter extends Writer {
 	 * @param message
 	 *            the message itself
 	 */
-	public void write(LogLevel level, Long time, String message) {
+	public void write(LogLevel level, long time, String message) {
 		this.write(level, time, message, false);
 	}
 
@@ -113,23 +216,110 @@ class LogWriter extends Writer {
 	 * @param blocked
 	 *            whether to block the message queue after logging this message
 	 */
-	public void write(LogLevel level, Long time, String message, boolean blocked) {
-		byte[] levelBytes = (level.toString() + " ").getBytes(null);
-		byte[] timeBytes = (time.toString() + " ").getBytes(null);
-		byte[] messageBytes = (message + "\n").getBytes(null);
+	public void write(LogLevel level, long time, String message, boolean blocked) {
+		this.writeRecord(level, time, message, null, 0, 0, 0, blocked);
+	}
 
-		byte[] byteMessage = common.WriterUtils.concatArrays(levelBytes, timeBytes,
-				messageBytes);
+	/**
+	 * writes a log message with arguments to the log message buffer/queue.
+	 * Every "{}" in the format is replaced by the next argument (first the text
+	 * if not null, then the given number of float values) when the log file is
+	 * decoded. An argument without a "{}" left is appended to the message. The
+	 * arguments are queued as they are and encoded into the log record without
+	 * building a String.
+	 * 
+	 * @param level
+	 *            the log-level of this message
+	 * @param time
+	 *            the timestamp of this message
+	 * @param format
+	 *            the message with "{}" for the arguments
+	 * @param text
+	 *            the first argument (may be null)
+	 * @param value1
+	 *            the first float argument
+	 * @param value2
+	 *            the second float argument
+	 * @param values
+	 *            how many float arguments are given (0, 1 or 2)
+	 */
+	public void write(LogLevel level, long time, String format, String text,
+			float value1, float value2, int values) {
+		this.writeRecord(level, time, format, text, value1, value2, values,
+				false);
+	}
 
+	/**
+	 * writes a log message to the log message buffer/queue. If the queue is
+	 * full, the overflow policy of the queue decides which message is dropped
+	 * (see {@link LogQueue}).
+	 * 
+	 * @param level
+	 *            the log-level of this message
+	 * @param time
+	 *            the timestamp of this message
+	 * @param format
+	 *            the message with "{}" for the arguments
+	 * @param text
+	 *            the first argument (may be null)
+	 * @param value1
+	 *            the first float argument
+	 * @param value2
+	 *            the second float argument
+	 * @param values
+	 *            how many float arguments are given (0, 1 or 2)
+	 * @param blocked
+	 *            whether to block the message queue after logging this message
+	 */
+	private void writeRecord(LogLevel level, long time, String format,
+			String text, float value1, float value2, int values,
+			boolean blocked) {
+		if (!this.logging) {
+			return;
+		}
 		try {
-			this.write(byteMessage, blocked);
+			if (this.queue.push(level, time, format, text, value1, value2,
+					values, blocked)) {
+				synchronized (this) {
+					// notify the writer thread that there is a new message
+					this.notify();
+				}
+			}
 		}
 		catch (QueueBlockedException e) {
-			System.out
-					.println("Log after logging stopped! Message: " + message);
+			System.out.println("Log after logging stopped! Message: " + format);
 		}
 	}
 
+	/**
+	 * sets what is done if the message queue is full
+	 * 
+	 * @param policy
+	 *            the policy
+	 * @param keepLevel
+	 *            the lowest log level that is kept for
+	 *            {@link OverflowPolicy#DROP_BELOW_LEVEL}
+	 * @param blockTimeout
+	 *            how long to wait for space in milliseconds for
+	 *            {@link OverflowPolicy#BLOCK}
+	 */
+	public void setOverflowPolicy(OverflowPolicy policy, LogLevel keepLevel,
+			int blockTimeout) {
+		this.queue.setOverflowPolicy(policy, keepLevel, blockTimeout);
+	}
+
+	/**
+	 * gets the number of messages of the given log level that were dropped
+	 * because the message queue was full
+	 * 
+	 * @param level
+	 *            the log level
+	 * @return the number of dropped messages
+	 */
+	public int getDroppedMessages(LogLevel level) {
+		return this.queue.getDroppedMessages(level);
+	}
+
 	@Override
 	public void run() {
 		super.run();
@@ -145,13 +335,11 @@ class LogWriter extends Writer {
 			}
 		}
 
-		if (this.transfer) {
+		// a streamed log only needs to be transfered if records are left in
+		// the file that could not be streamed
+		if (this.transfer
+				&& (this.stream == null || this.stream.hasBufferedSegments())) {
 			NXTConnectionManager.transferFileToPC(this.fileName);
 		}
 	}
-
-	@Override
-	public boolean tooFewSpaceInOutput(byte[] message) {
-		return message.length > File.freeMemory();
-	}
 }
@@ -24,7 +24,11 @@ package logging;
 /**
  * With this singleton logging is possible. There are four log-levels (DEBUG,
  * WARNING, INFO and ERROR). The messages will be written to a Buffer where a
- * new Thread will fetch the messages and write them to a logfile.
+ * new Thread will fetch the messages and write them to a logfile. The logfile
+ * is binary (see {@link LogWriter}) and is turned into text on the PC by
+ * logging.LogDecoder. The log can also be streamed to the PC over the managed
+ * connection while it is written (see {@link LogStream}), then the PC writes
+ * it into a text file per nxt at once.
  * 
  * @author Annabelle Klarl
  */
@@ -51,6 +55,34 @@ public class Logger {
 		}
 	}
 
+	/**
+	 * What is done with a log message if the message buffer is full
+	 * 
+	 * @author Annabelle Klarl
+	 */
+	public enum OverflowPolicy {
+		/** the new message is dropped */
+		DROP_NEWEST,
+		/** the oldest message in the buffer is dropped */
+		DROP_OLDEST,
+		/**
+		 * messages below a given log level are dropped as soon as the buffer
+		 * is filled to three quarters (so there is room left for the more
+		 * important messages), other new messages are dropped if the buffer is
+		 * full
+		 */
+		DROP_BELOW_LEVEL,
+		/**
+		 * the logging thread waits for space in the buffer up to a given time
+		 * and then the new message is dropped
+		 */
+		BLOCK
+	}
+
+	// the defaults for the overflow policies
+	private static final LogLevel DEFAULT_KEEP_LEVEL = LogLevel.WARNING;
+	private static final int DEFAULT_BLOCK_TIMEOUT = 20;
+
 	private LogLevel level;
 	private final LogWriter worker;
 	private static Logger singleton;
@@ -67,11 +99,13 @@ public class Logger {
 	 *            the size of the Buffer for the log messages
 	 * @param transfer
 	 *            whether the logFile should be transfered to the PC
+	 * @param stream
+	 *            whether the log should be streamed to the PC
 	 */
 	private Logger(String fileName, LogLevel level, int queueSize,
-			boolean transfer) {
+			boolean transfer, boolean stream) {
 		this.level = level;
-		this.worker = new LogWriter(fileName, queueSize, transfer);
+		this.worker = new LogWriter(fileName, queueSize, transfer, stream);
 		new Thread(this.worker, "LoggerWriterThread").start();
 	}
 
@@ -94,8 +128,36 @@ public class Logger {
 	 */
 	public static Logger getLogger(String fileName, LogLevel level,
 			int queueSize, boolean transfer) {
+		return getLogger(fileName, level, queueSize, transfer, false);
+	}
+
+	/**
+	 * returns the single logger if the logger was already instantiated or
+	 * returns a new logger instance (see
+	 * {@link Logger#getLogger(String, LogLevel, int, boolean)}). The boolean
+	 * flag stream means whether the log messages should be streamed to the PC
+	 * over the managed connection of the NXTConnectionManager while they are
+	 * logged. The log-file then only keeps the messages while
+	 * the connection is busy or not established yet and is only transfered
+	 * afterwards if some of these messages could not be streamed.
+	 * 
+	 * @param fileName
+	 *            the name of the log file to write
+	 * @param level
+	 *            the level of the logger
+	 * @param queueSize
+	 *            the size of the message buffer for writing to the log file
+	 * @param transfer
+	 *            whether to transfer the file to the PC
+	 * @param stream
+	 *            whether to stream the log messages to the PC
+	 * @return the logger
+	 */
+	public static Logger getLogger(String fileName, LogLevel level,
+			int queueSize, boolean transfer, boolean stream) {
 		if (singleton == null) {
-			singleton = new Logger(fileName, level, queueSize, transfer);
+			singleton = new Logger(fileName, level, queueSize, transfer,
+					stream);
 		}
 		return singleton;
 	}
@@ -109,11 +171,58 @@ public class Logger {
 	 */
 	public static Logger getLogger() {
 		if (singleton == null) {
-			singleton = new Logger("log.txt", LogLevel.ERROR, 100, true);
+			singleton = new Logger("log.txt", LogLevel.ERROR, 100, true,
+					false);
 		}
 		return singleton;
 	}
 
+	/**
+	 * sets what is done with a log message if the message buffer is full. By
+	 * default the oldest message is dropped. Messages below WARNING are
+	 * dropped for {@link OverflowPolicy#DROP_BELOW_LEVEL} and the logging
+	 * thread waits 20 ms for {@link OverflowPolicy#BLOCK}. Dropped messages are
+	 * counted (see {@link Logger#getDroppedMessages(LogLevel)}) and reported in
+	 * the log file as soon as the buffer is half empty again.
+	 * 
+	 * @param policy
+	 *            the overflow policy
+	 */
+	public void setOverflowPolicy(OverflowPolicy policy) {
+		this.setOverflowPolicy(policy, DEFAULT_KEEP_LEVEL,
+				DEFAULT_BLOCK_TIMEOUT);
+	}
+
+	/**
+	 * sets what is done with a log message if the message buffer is full (see
+	 * {@link Logger#setOverflowPolicy(OverflowPolicy)})
+	 * 
+	 * @param policy
+	 *            the overflow policy
+	 * @param keepLevel
+	 *            the lowest log level that is kept for
+	 *            {@link OverflowPolicy#DROP_BELOW_LEVEL}
+	 * @param blockTimeout
+	 *            how long the logging thread waits for space in milliseconds
+	 *            for {@link OverflowPolicy#BLOCK}
+	 */
+	public void setOverflowPolicy(OverflowPolicy policy, LogLevel keepLevel,
+			int blockTimeout) {
+		this.worker.setOverflowPolicy(policy, keepLevel, blockTimeout);
+	}
+
+	/**
+	 * gets the number of messages of the given log level that were dropped
+	 * because the message buffer was full
+	 * 
+	 * @param level
+	 *            the log level
+	 * @return the number of dropped messages
+	 */
+	public int getDroppedMessages(LogLevel level) {
+		return this.worker.getDroppedMessages(level);
+	}
+
 	/**
 	 * writes the given message together with the system time to the message
 	 * queue
@@ -129,6 +238,158 @@ public class Logger {
 		}
 	}
 
+	/**
+	 * writes the given message with its arguments together with the system
+	 * time to the message queue (see
+	 * {@link LogWriter#write(LogLevel, long, String, String, float, float, int)})
+	 * 
+	 * @param level
+	 *            the log level of this message
+	 * @param format
+	 *            the message with "{}" for the arguments
+	 * @param text
+	 *            the first argument (may be null)
+	 * @param value1
+	 *            the first float argument
+	 * @param value2
+	 *            the second float argument
+	 * @param values
+	 *            how many float arguments are given
+	 */
+	private void writeMessage(LogLevel level, String format, String text,
+			float value1, float value2, int values) {
+		synchronized (this.sync) {
+			this.worker.write(level, System.currentTimeMillis(), format, text,
+					value1, value2, values);
+		}
+	}
+
+	/**
+	 * returns whether messages of the given log level are written. This can be
+	 * checked before building an expensive message.
+	 * 
+	 * @param level
+	 *            the log level
+	 * @return whether messages of this log level are written
+	 */
+	public boolean isEnabled(LogLevel level) {
+		return level.compareTo(this.level) >= 0;
+	}
+
+	/**
+	 * returns whether debug messages are written
+	 * 
+	 * @return whether debug messages are written
+	 */
+	public boolean isDebugEnabled() {
+		return this.isEnabled(LogLevel.DEBUG);
+	}
+
+	/**
+	 * writes a message with a float argument if the log level of the logger is
+	 * smaller or equal than the given log level. The "{}" in the message is
+	 * replaced by the argument without building a String (so this can be used
+	 * in control loops).
+	 * 
+	 * @param level
+	 *            the log level of this message
+	 * @param format
+	 *            the message with "{}" for the argument
+	 * @param value
+	 *            the argument
+	 */
+	public void log(LogLevel level, String format, float value) {
+		if (this.isEnabled(level)) {
+			this.writeMessage(level, format, null, value, 0, 1);
+		}
+	}
+
+	/**
+	 * writes a message with a text and a float argument (see
+	 * {@link Logger#log(LogLevel, String, float)})
+	 * 
+	 * @param level
+	 *            the log level of this message
+	 * @param format
+	 *            the message with "{}" for the arguments
+	 * @param text
+	 *            the first argument
+	 * @param value
+	 *            the second argument
+	 */
+	public void log(LogLevel level, String format, String text, float value) {
+		if (this.isEnabled(level)) {
+			this.writeMessage(level, format, text, value, 0, 1);
+		}
+	}
+
+	/**
+	 * writes a message with a text and two float arguments (see
+	 * {@link Logger#log(LogLevel, String, float)})
+	 * 
+	 * @param level
+	 *            the log level of this message
+	 * @param format
+	 *            the message with "{}" for the arguments
+	 * @param text
+	 *            the first argument
+	 * @param value1
+	 *            the second argument
+	 * @param value2
+	 *            the third argument
+	 */
+	public void log(LogLevel level, String format, String text, float value1,
+			float value2) {
+		if (this.isEnabled(level)) {
+			this.writeMessage(level, format, text, value1, value2, 2);
+		}
+	}
+
+	/**
+	 * writes a debug message with a float argument (see
+	 * {@link Logger#log(LogLevel, String, float)})
+	 * 
+	 * @param format
+	 *            the message with "{}" for the argument
+	 * @param value
+	 *            the argument
+	 */
+	public void debug(String format, float value) {
+		this.log(LogLevel.DEBUG, format, value);
+	}
+
+	/**
+	 * writes a debug message with a text and a float argument (see
+	 * {@link Logger#log(LogLevel, String, String, float)})
+	 * 
+	 * @param format
+	 *            the message with "{}" for the arguments
+	 * @param text
+	 *            the first argument
+	 * @param value
+	 *            the second argument
+	 */
+	public void debug(String format, String text, float value) {
+		this.log(LogLevel.DEBUG, format, text, value);
+	}
+
+	/**
+	 * writes a debug message with a text and two float arguments (see
+	 * {@link Logger#log(LogLevel, String, String, float, float)})
+	 * 
+	 * @param format
+	 *            the message with "{}" for the arguments
+	 * @param text
+	 *            the first argument
+	 * @param value1
+	 *            the second argument
+	 * @param value2
+	 *            the third argument
+	 */
+	public void debug(String format, String text, float value1, float value2) {
+		this.log(LogLevel.DEBUG, format, text, value1, value2);
+	}
+
 	/**
 	 * writes debug message if the log level of the logger is smaller or equal
 	 * than DEBUG log level
@@ -137,7 +398,7 @@ public class Logger {
 	 *            the message to write
 	 */
 	public void debug(String message) {
-		if (LogLevel.DEBUG.compareTo(this.level) >= 0) {
+		if (this.isEnabled(LogLevel.DEBUG)) {
 			this.writeMessage(LogLevel.DEBUG, message);
 		}
 	}
@@ -150,7 +411,7 @@ public class Logger {
 	 *            the message to write
 	 */
 	public void warn(String message) {
-		if (LogLevel.WARNING.compareTo(this.level) >= 0) {
+		if (this.isEnabled(LogLevel.WARNING)) {
 
 			this.writeMessage(LogLevel.WARNING, message);
 		}
@@ -164,7 +425,7 @@ public class Logger {
 	 *            the message to write
 	 */
 	public void info(String message) {
-		if (LogLevel.INFO.compareTo(this.level) >= 0) {
+		if (this.isEnabled(LogLevel.INFO)) {
 			this.writeMessage(LogLevel.INFO, message);
 		}
 	}
@@ -177,7 +438,7 @@ public class Logger {
 	 *            the message to write
 	 */
 	public void error(String message) {
-		if (LogLevel.ERROR.compareTo(this.level) >= 0) {
+		if (this.isEnabled(LogLevel.ERROR)) {
 			this.writeMessage(LogLevel.ERROR, message);
 		}
 	}
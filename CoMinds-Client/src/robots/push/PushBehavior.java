@@ -95,8 +95,8 @@ public class PushBehavior extends StoppableBehavior {
 		this.ki = ki;
 		this.kd = kd;
 
-		logger.debug("push ref degree: " + this.referenceDegree);
-		logger.debug("push speed: " + this.pilot.getTravelSpeed());
+		logger.debug("push ref degree: {}", this.referenceDegree);
+		logger.debug("push speed: {}", (float) this.pilot.getTravelSpeed());
 	}
 
 	/**
@@ -132,7 +132,7 @@ public class PushBehavior extends StoppableBehavior {
 		catch (SensorException e) {
 			logger.debug("push: No data from own compass");
 		}
-		logger.debug("push: steer angle " + this.currentOwnError);
+		logger.debug("push: steer angle {}", this.currentOwnError);
 		this.pilot.steer(this.currentOwnError);
 
 		try {
@@ -194,15 +194,15 @@ public class PushBehavior extends StoppableBehavior {
 			}
 
 			if (travelSpeed < 0) {
-				logger.debug("speed < 0: " + travelSpeed);
+				logger.debug("speed < 0: {}", travelSpeed);
 				travelSpeed = this.lastTravelSpeed;
 			}
 			else if (travelSpeed > 200) {
-				logger.debug("speed > 200: " + travelSpeed);
+				logger.debug("speed > 200: {}", travelSpeed);
 				travelSpeed = this.lastTravelSpeed;
 			}
 			else {
-				logger.debug("speed: " + travelSpeed);
+				logger.debug("speed: {}", travelSpeed);
 			}
 
 			this.pilot.setTravelSpeed(travelSpeed);
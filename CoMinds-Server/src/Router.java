@@ -28,6 +28,7 @@ import logging.Logger;
 import logging.Logger.LogLevel;
 
 import communication.PCConnectionManager;
+import communication.transport.TcpTransport;
 
 public class Router {
 
@@ -54,8 +55,18 @@ public class Router {
 				names.add("Jamy");
 			}
 
-			PCConnectionManager.getManager(500, true, names
-					.toArray(new String[names.size()]));
+			String[] nxtNames = names.toArray(new String[names.size()]);
+			if (args.length >= 3 && args[0].equals("-tcp")) {
+				// connect to simulated nxts listening on host:port, port+1, ...
+				int ioThreads = args.length >= 4 ? Integer.parseInt(args[3])
+						: 1;
+				PCConnectionManager.getManager(500, true, new TcpTransport(
+						args[1], Integer.parseInt(args[2]), nxtNames),
+						ioThreads, nxtNames);
+			}
+			else {
+				PCConnectionManager.getManager(500, true, nxtNames);
+			}
 
 			in.read();
 		}
@@ -0,0 +1,304 @@
+/*
+ *  CoMinds is a Java framework for collaborative robotic scenarios with
+ *  Lego Mindstorms based leJOS. A complete documentation can be found
+ *  in docs/thesis.pdf.
+ *
+ *  Copyright (C) 2010  Annabelle Klarl
+ *  All rights reserved.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ * 
+ */
+package common;
+
+/**
+ * A lightweight LZ77 codec for compressing blocks of bytes (e.g. the parts of
+ * a file that are sent via bluetooth). The compressed block consists of
+ * sequences of literals and a match that repeats bytes that were already
+ * decoded: a token (the upper four bits for the number of literals, the lower
+ * four bits for the length of the match minus four; 15 means that further
+ * bytes of the length follow, each of them is added until one is not 255),
+ * the literals, the offset of the match (two bytes, low byte first) and the
+ * further bytes of the match length. The last sequence consists of literals
+ * only. Matches are found with a small hash table of the last positions of
+ * four bytes, so the compression is fast and needs little memory (enough for
+ * the nxt), but it is not as strong as zip. The codec is not thread safe.
+ * 
+ * @author Annabelle Klarl
+ */
+public class LzCodec {
+
+	// the minimal length of a match
+	private static final int MIN_MATCH = 4;
+	// the maximal offset of a match
+	private static final int MAX_OFFSET = 0xFFFF;
+	// the number of bits of the hash of four bytes
+	private static final int HASH_BITS = 10;
+
+	/**
+	 * the maximal length of a block that can be compressed
+	 */
+	public static final int MAX_BLOCK_LENGTH = 0xFFFE;
+
+	// the last position (+1) of each hash in the block (0 if none)
+	private final short[] table = new short[1 << HASH_BITS];
+
+	/**
+	 * gets the maximal length of a compressed block (if the bytes cannot be
+	 * compressed at all)
+	 * 
+	 * @param length
+	 *            the length of the block to compress
+	 * @return the maximal length of the compressed block
+	 */
+	public static int getMaxCompressedLength(int length) {
+		return length + length / 255 + 16;
+	}
+
+	/**
+	 * compresses the given block of bytes
+	 * 
+	 * @param bytes
+	 *            the array that holds the block to compress
+	 * @param offset
+	 *            where the block starts in the array
+	 * @param length
+	 *            the length of the block (at most {@link #MAX_BLOCK_LENGTH})
+	 * @param compressed
+	 *            the array where to write the compressed block to (must have
+	 *            space for {@link #getMaxCompressedLength(int)} bytes)
+	 * @param compressedOffset
+	 *            where to start writing the compressed block
+	 * @return the length of the compressed block
+	 */
+	public int compress(byte[] bytes, int offset, int length,
+			byte[] compressed, int compressedOffset) {
+		if (length > MAX_BLOCK_LENGTH) {
+			throw new IllegalArgumentException("block is too large: " + length);
+		}
+		for (int i = 0; i < this.table.length; i++) {
+			this.table[i] = 0;
+		}
+
+		int end = offset + length;
+		int literalStart = offset;
+		int position = offset;
+		int out = compressedOffset;
+
+		while (position <= end - MIN_MATCH) {
+			int sequence = readInt(bytes, position);
+			int hash = (sequence * -1640531535) >>> (32 - HASH_BITS);
+			int candidate = (this.table[hash] & 0xFFFF) - 1 + offset;
+			this.table[hash] = (short) (position - offset + 1);
+
+			if (candidate >= offset && position - candidate <= MAX_OFFSET
+					&& readInt(bytes, candidate) == sequence) {
+				int matchLength = MIN_MATCH;
+				while (position + matchLength < end
+						&& bytes[candidate + matchLength] == bytes[position
+								+ matchLength]) {
+					matchLength++;
+				}
+
+				out = writeSequence(bytes, literalStart, position
+						- literalStart, position - candidate, matchLength,
+						compressed, out);
+				position += matchLength;
+				literalStart = position;
+			}
+			else {
+				position++;
+			}
+		}
+
+		// the last literals
+		out = writeSequence(bytes, literalStart, end - literalStart, 0, 0,
+				compressed, out);
+		return out - compressedOffset;
+	}
+
+	/**
+	 * decompresses the given compressed block
+	 * 
+	 * @param compressed
+	 *            the array that holds the compressed block
+	 * @param offset
+	 *            where the compressed block starts in the array
+	 * @param length
+	 *            the length of the compressed block
+	 * @param bytes
+	 *            the array where to write the decompressed block to
+	 * @param bytesOffset
+	 *            where to start writing the decompressed block
+	 * @param maxLength
+	 *            how many bytes may be written at most
+	 * @return the length of the decompressed block or -1 if the compressed
+	 *         block is corrupt
+	 */
+	public static int decompress(byte[] compressed, int offset, int length,
+			byte[] bytes, int bytesOffset, int maxLength) {
+		int in = offset;
+		int end = offset + length;
+		int out = bytesOffset;
+		int outEnd = bytesOffset + maxLength;
+
+		while (in < end) {
+			int token = compressed[in++] & 0xFF;
+
+			// literals
+			int literalLength = token >>> 4;
+			if (literalLength == 15) {
+				int next;
+				do {
+					if (in >= end) {
+						return -1;
+					}
+					next = compressed[in++] & 0xFF;
+					literalLength += next;
+				}
+				while (next == 255);
+			}
+			if (in + literalLength > end || out + literalLength > outEnd) {
+				return -1;
+			}
+			System.arraycopy(compressed, in, bytes, out, literalLength);
+			in += literalLength;
+			out += literalLength;
+
+			// the last sequence has no match
+			if (in >= end) {
+				break;
+			}
+
+			// match
+			if (in + 2 > end) {
+				return -1;
+			}
+			int matchOffset = (compressed[in] & 0xFF)
+					| ((compressed[in + 1] & 0xFF) << 8);
+			in += 2;
+			int matchLength = token & 0x0F;
+			if (matchLength == 15) {
+				int next;
+				do {
+					if (in >= end) {
+						return -1;
+					}
+					next = compressed[in++] & 0xFF;
+					matchLength += next;
+				}
+				while (next == 255);
+			}
+			matchLength += MIN_MATCH;
+			if (matchOffset == 0 || out - matchOffset < bytesOffset
+					|| out + matchLength > outEnd) {
+				return -1;
+			}
+
+			// byte per byte as the match may overlap the bytes it writes
+			for (int i = 0; i < matchLength; i++) {
+				bytes[out + i] = bytes[out - matchOffset + i];
+			}
+			out += matchLength;
+		}
+		return out - bytesOffset;
+	}
+
+	/**
+	 * writes a sequence of literals and a match
+	 * 
+	 * @param bytes
+	 *            the array that holds the literals
+	 * @param literalStart
+	 *            where the literals start
+	 * @param literalLength
+	 *            the number of literals
+	 * @param matchOffset
+	 *            how many bytes back the match starts
+	 * @param matchLength
+	 *            the length of the match (0 if the sequence has no match)
+	 * @param compressed
+	 *            the array where to write the sequence to
+	 * @param out
+	 *            where to write the sequence
+	 * @return the position behind the sequence
+	 */
+	private static int writeSequence(byte[] bytes, int literalStart,
+			int literalLength, int matchOffset, int matchLength,
+			byte[] compressed, int out) {
+		int tokenIndex = out++;
+		int token;
+		if (literalLength >= 15) {
+			token = 15 << 4;
+			out = writeLength(literalLength - 15, compressed, out);
+		}
+		else {
+			token = literalLength << 4;
+		}
+
+		System.arraycopy(bytes, literalStart, compressed, out, literalLength);
+		out += literalLength;
+
+		if (matchLength != 0) {
+			compressed[out++] = (byte) matchOffset;
+			compressed[out++] = (byte) (matchOffset >>> 8);
+
+			int rest = matchLength - MIN_MATCH;
+			if (rest >= 15) {
+				token |= 15;
+				out = writeLength(rest - 15, compressed, out);
+			}
+			else {
+				token |= rest;
+			}
+		}
+
+		compressed[tokenIndex] = (byte) token;
+		return out;
+	}
+
+	/**
+	 * writes the further bytes of a length (255 as long as the rest is larger)
+	 * 
+	 * @param length
+	 *            the rest of the length
+	 * @param compressed
+	 *            the array where to write the length to
+	 * @param out
+	 *            where to write the length
+	 * @return the position behind the length
+	 */
+	private static int writeLength(int length, byte[] compressed, int out) {
+		while (length >= 255) {
+			compressed[out++] = (byte) 255;
+			length -= 255;
+		}
+		compressed[out++] = (byte) length;
+		return out;
+	}
+
+	/**
+	 * reads four bytes as an int
+	 * 
+	 * @param bytes
+	 *            the array to read from
+	 * @param offset
+	 *            where the int starts
+	 * @return the int
+	 */
+	private static int readInt(byte[] bytes, int offset) {
+		return ((bytes[offset] & 0xFF) << 24)
+				| ((bytes[offset + 1] & 0xFF) << 16)
+				| ((bytes[offset + 2] & 0xFF) << 8) | (bytes[offset + 3] & 0xFF);
+	}
+}
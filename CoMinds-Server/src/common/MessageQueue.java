@@ -0,0 +1,135 @@
+/*
+ *  CoMinds is a Java framework for collaborative robotic scenarios with
+ *  Lego Mindstorms based leJOS. A complete documentation can be found
+ *  in docs/thesis.pdf.
+ *
+ *  Copyright (C) 2010  Annabelle Klarl
+ *  All rights reserved.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ * 
+ */
+package common;
+
+import common.exceptions.EmptyQueueException;
+import common.exceptions.QueueBlockedException;
+
+/**
+ * A thread safe queue for the messages of a {@link Writer}. The queue can be
+ * blocked after a certain message: then nothing can be pushed into the queue
+ * and only the messages that were pushed before can be popped until the queue
+ * is deblocked. Which message is popped next is up to the implementation (e.g.
+ * FIFO for the {@link GenericBoundedQueue}).
+ * 
+ * @author Annabelle Klarl
+ * @param <T>
+ *            the elements the queue holds
+ */
+public interface MessageQueue<T> {
+
+	/**
+	 * pushes an object onto the queue
+	 * 
+	 * @param object
+	 *            the object to add
+	 * @throws QueueBlockedException
+	 *             thrown if something shall be pushed but the queue is blocked
+	 */
+	public void push(T object) throws QueueBlockedException;
+
+	/**
+	 * pushes an object onto the queue and blocks the queue afterwards if
+	 * blocked is true
+	 * 
+	 * @param object
+	 *            the object to add
+	 * @param blocked
+	 *            whether the queue shall be blocked or not
+	 * @throws QueueBlockedException
+	 *             thrown if something shall be pushed but the queue is blocked
+	 */
+	public void push(T object, boolean blocked) throws QueueBlockedException;
+
+	/**
+	 * pushes an object with the given priority onto the queue and blocks the
+	 * queue afterwards if blocked is true. The priority is only a hint:
+	 * queues that do not know priorities treat all objects the same.
+	 * 
+	 * @param object
+	 *            the object to add
+	 * @param priority
+	 *            the priority of the object (see {@link Writer#PRIORITY_HIGH}
+	 *            and the following)
+	 * @param blocked
+	 *            whether the queue shall be blocked or not
+	 * @throws QueueBlockedException
+	 *             thrown if something shall be pushed but the queue is blocked
+	 */
+	public void push(T object, int priority, boolean blocked)
+			throws QueueBlockedException;
+
+	/**
+	 * pushes an object that only matters as long as there is no newer object
+	 * of the same kind (e.g. a degree). If an object with the same key is still
+	 * in the queue, it will be replaced by the new object at its position in
+	 * the queue, so the queue never holds obsolete objects.
+	 * 
+	 * @param object
+	 *            the object to add
+	 * @param priority
+	 *            the priority of the object
+	 * @param key
+	 *            the key of the object (objects with equal keys replace each
+	 *            other)
+	 * @throws QueueBlockedException
+	 *             thrown if something shall be pushed but the queue is blocked
+	 */
+	public void pushLatest(T object, int priority, Object key)
+			throws QueueBlockedException;
+
+	/**
+	 * pops the next object from the queue
+	 * 
+	 * @return the next object
+	 * @throws EmptyQueueException
+	 *             if there is no element to get from the queue
+	 * @throws QueueBlockedException
+	 *             thrown if no more elements can be got from the queue until
+	 *             the queue is deblocked
+	 */
+	public T pop() throws EmptyQueueException, QueueBlockedException;
+
+	/**
+	 * returns wether the queue is empty
+	 * 
+	 * @return true if the queue is emtpy, false otherwise
+	 */
+	public boolean isEmpty();
+
+	/**
+	 * returns whether this queue is currently blocked
+	 * 
+	 * @return whether the queue is blocked
+	 */
+	public boolean isBlocked();
+
+	/**
+	 * deblocks the queue
+	 */
+	public void deblock();
+
+	/**
+	 * clears this queue
+	 */
+	public void clearQueue();
+}
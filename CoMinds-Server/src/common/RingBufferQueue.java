@@ -0,0 +1,321 @@
+/*
+ *  CoMinds is a Java framework for collaborative robotic scenarios with
+ *  Lego Mindstorms based leJOS. A complete documentation can be found
+ *  in docs/thesis.pdf.
+ *
+ *  Copyright (C) 2010  Annabelle Klarl
+ *  All rights reserved.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ * 
+ */
+package common;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import common.exceptions.EmptyQueueException;
+import common.exceptions.QueueBlockedException;
+
+/**
+ * A lock free generic queue that can only hold a fixed number of elements. The
+ * elements are popped in the order they were pushed. As the
+ * {@link GenericBoundedQueue} this queue overwrites the oldest element if the
+ * queue size is reached and can be blocked at an element.
+ * 
+ * The queue exists in two variants: with a single producer (only one thread
+ * pushes at a time, e.g. because the producers are synchronized anyway) or
+ * with multiple producers that push concurrently. In both variants there must
+ * only be one consumer (the thread that pops).
+ * 
+ * Every element gets a sequence number. The producers claim a sequence number
+ * (multiple producers by an atomic increment), write the element to the slot
+ * of the sequence number and publish it afterwards. The consumer only pops
+ * published elements.
+ * 
+ * @author Annabelle Klarl
+ * @param <T>
+ *            the elements the queue holds
+ */
+public class RingBufferQueue<T> implements MessageQueue<T> {
+
+	private final int size;
+	private final boolean multipleProducers;
+
+	private final AtomicReferenceArray<T> elements;
+	// the sequence number (+ 1) of the element that was published last in a
+	// slot (0 if nothing was published in the slot yet)
+	private final AtomicLongArray published;
+
+	// the sequence number of the next element to pop
+	private final AtomicLong head;
+	// the sequence number of the next element to push
+	private final AtomicLong tail;
+
+	// the sequence number of the first element that cannot be popped because
+	// the queue is blocked (-1 if the queue is not blocked)
+	private volatile long blockedAt;
+
+	/**
+	 * Constructor
+	 * 
+	 * @param size
+	 *            the number of elements the queue can hold
+	 * @param multipleProducers
+	 *            whether multiple threads push into the queue concurrently
+	 */
+	public RingBufferQueue(int size, boolean multipleProducers) {
+		this.size = size;
+		this.multipleProducers = multipleProducers;
+		this.elements = new AtomicReferenceArray<T>(this.size);
+		this.published = new AtomicLongArray(this.size);
+		this.head = new AtomicLong(0);
+		this.tail = new AtomicLong(0);
+		this.blockedAt = -1;
+	}
+
+	/**
+	 * pushes an object onto the queue (at the last position) => FIFO principal
+	 * holds). If the queue size is reached the oldest object will be
+	 * overwritten.
+	 * 
+	 * @param object
+	 *            the object to add
+	 * @throws QueueBlockedException
+	 *             thrown if something shall be pushed but the queue is blocked
+	 */
+	@Override
+	public void push(T object) throws QueueBlockedException {
+		this.push(object, false);
+	}
+
+	/**
+	 * see documentation {@link RingBufferQueue#push(Object)}. The parameter
+	 * blocked is for blocking the queue (see
+	 * {@link GenericBoundedQueue#push(Object, boolean)}). With multiple
+	 * producers an element that is pushed concurrently to the blocking element
+	 * may still be accepted, but it cannot be popped until the method
+	 * {@link RingBufferQueue#deblock()} is called.
+	 * 
+	 * @param object
+	 *            the object to add
+	 * @param blocked
+	 *            whether the queue shall be blocked or not
+	 * @throws QueueBlockedException
+	 *             thrown if something shall be pushed but the queue is blocked
+	 */
+	@Override
+	public void push(T object, boolean blocked) throws QueueBlockedException {
+		if (this.blockedAt != -1) {
+			throw new QueueBlockedException(
+					"Cannot push into queue because queue is blocked");
+		}
+
+		long sequence;
+		if (this.multipleProducers) {
+			sequence = this.tail.getAndIncrement();
+		}
+		else {
+			sequence = this.tail.get();
+		}
+		this.makeRoomFor(sequence);
+
+		int slot = this.getSlot(sequence);
+		this.elements.set(slot, object);
+		if (blocked) {
+			// must be set before the element is published so that no later
+			// element can be popped in the meantime
+			this.blockedAt = sequence + 1;
+		}
+		this.published.set(slot, sequence + 1);
+
+		if (!this.multipleProducers) {
+			this.tail.set(sequence + 1);
+		}
+	}
+
+	/**
+	 * see documentation {@link RingBufferQueue#push(Object, boolean)}. The
+	 * priority is ignored: all objects are popped in the order they were
+	 * pushed.
+	 * 
+	 * @param object
+	 *            the object to add
+	 * @param priority
+	 *            the priority of the object (ignored)
+	 * @param blocked
+	 *            whether the queue shall be blocked or not
+	 * @throws QueueBlockedException
+	 *             thrown if something shall be pushed but the queue is blocked
+	 */
+	@Override
+	public void push(T object, int priority, boolean blocked)
+			throws QueueBlockedException {
+		this.push(object, blocked);
+	}
+
+	/**
+	 * pushes an object onto the queue at the last position. An object that is
+	 * already in the queue cannot be replaced without a lock, so the key is
+	 * ignored and the queue keeps every object (as well as the priority).
+	 * 
+	 * @param object
+	 *            the object to add
+	 * @param priority
+	 *            the priority of the object (ignored)
+	 * @param key
+	 *            the key of the object (ignored)
+	 * @throws QueueBlockedException
+	 *             thrown if something shall be pushed but the queue is blocked
+	 */
+	@Override
+	public void pushLatest(T object, int priority, Object key)
+			throws QueueBlockedException {
+		this.push(object, false);
+	}
+
+	/**
+	 * pops an object from the queue (at the first position) => FIFO principal
+	 * holds). If the queue is blocked, no element can be retrieved from the
+	 * queue and an exception is thrown. This method must only be called by one
+	 * thread at a time.
+	 * 
+	 * @return the oldest object in the queue
+	 * @throws EmptyQueueException
+	 *             if there is no element to get from the queue (or the next
+	 *             element is not published yet)
+	 * @throws QueueBlockedException
+	 *             thrown if the queue is blocked at the current point for
+	 *             getting an element so that no more elements can be got from
+	 *             the queue until the queue is deblocked
+	 */
+	@Override
+	public T pop() throws EmptyQueueException, QueueBlockedException {
+		while (true) {
+			long sequence = this.head.get();
+			if (sequence >= this.tail.get()) {
+				throw new EmptyQueueException();
+			}
+
+			long blocked = this.blockedAt;
+			if (blocked != -1 && sequence >= blocked) {
+				throw new QueueBlockedException(
+						"Cannot pop from queue because queue is blocked");
+			}
+
+			int slot = this.getSlot(sequence);
+			if (this.published.get(slot) != sequence + 1) {
+				// a producer claimed the element but did not publish it yet
+				throw new EmptyQueueException();
+			}
+
+			T result = this.elements.get(slot);
+			// fails if a producer has overwritten the element in the meantime
+			// (the slot is not cleared because a producer may already use it
+			// again)
+			if (this.head.compareAndSet(sequence, sequence + 1)) {
+				return result;
+			}
+		}
+	}
+
+	/**
+	 * returns wether the queue is empty
+	 * 
+	 * @return true if the queue is emtpy, false otherwise
+	 */
+	@Override
+	public boolean isEmpty() {
+		return this.head.get() >= this.tail.get();
+	}
+
+	/**
+	 * returns whether this queue is currently blocked
+	 * 
+	 * @return whether the queue is blocked
+	 */
+	@Override
+	public boolean isBlocked() {
+		return this.blockedAt != -1;
+	}
+
+	/**
+	 * deblocks the queue. That means if the queue was blocked at a specific
+	 * element this method will cancel the blocking.
+	 */
+	@Override
+	public void deblock() {
+		this.blockedAt = -1;
+	}
+
+	/**
+	 * clears this queue. This method must only be called by the consumer.
+	 */
+	@Override
+	public void clearQueue() {
+		this.blockedAt = -1;
+		while (true) {
+			long sequence = this.head.get();
+			if (sequence >= this.tail.get()) {
+				break;
+			}
+			this.dropIfPublished(sequence);
+		}
+	}
+
+	/**
+	 * makes sure that the element with the given sequence number fits into
+	 * the queue. If the queue is full, the oldest elements will be dropped.
+	 * 
+	 * @param sequence
+	 *            the sequence number of the element to push
+	 */
+	private void makeRoomFor(long sequence) {
+		while (true) {
+			long oldest = this.head.get();
+			if (sequence - oldest < this.size) {
+				return;
+			}
+			this.dropIfPublished(oldest);
+		}
+	}
+
+	/**
+	 * drops the element with the given sequence number if it is the oldest
+	 * element. If the element is not published yet, its producer is given the
+	 * chance to publish it first.
+	 * 
+	 * @param sequence
+	 *            the sequence number of the oldest element
+	 */
+	private void dropIfPublished(long sequence) {
+		if (this.published.get(this.getSlot(sequence)) != sequence + 1) {
+			Thread.yield();
+		}
+		else {
+			this.head.compareAndSet(sequence, sequence + 1);
+		}
+	}
+
+	/**
+	 * returns the slot of the element with the given sequence number
+	 * 
+	 * @param sequence
+	 *            the sequence number
+	 * @return the index of the slot
+	 */
+	private int getSlot(long sequence) {
+		return (int) (sequence % this.size);
+	}
+}
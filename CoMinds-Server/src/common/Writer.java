@@ -23,6 +23,9 @@ package common;
 
 import java.io.IOException;
 import java.io.OutputStream;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.LockSupport;
 
 import common.exceptions.EmptyQueueException;
 import common.exceptions.QueueBlockedException;
@@ -32,16 +35,53 @@ import common.exceptions.TooFewSpaceException;
  * This class holds a message queue with messages to be written to an output
  * stream and writes the messages to the output stream in a new thread.
  * 
+ * If the message queue is a {@link RingBufferQueue} the writer does not lock
+ * at all: messages are pushed without synchronization and the writer thread
+ * is parked while there is nothing to write. For all other queues the writer
+ * synchronizes on itself and waits to be notified.
+ * 
  * @author Annabelle Klarl
  */
 public class Writer implements Runnable {
 
+	// the priorities of messages (only used if the message queue knows
+	// priorities, see PriorityMessageQueue)
+	public static final int PRIORITY_HIGH = 0;
+	public static final int PRIORITY_NORMAL = 1;
+	public static final int PRIORITY_LOW = 2;
+
 	private OutputStream output;
-	protected GenericBoundedQueue<byte[]> messageQueue;
+	protected MessageQueue<byte[]> messageQueue;
 
 	private final boolean flushAfterWrite;
-	protected boolean stopped;
-	private boolean finishedWriting;
+
+	// the buffer in which messages are gathered to be written to the output
+	// at once (null if every message is written on its own)
+	private byte[] gatheringBuffer;
+	private int gathered;
+	// the time when the first message was gathered in the buffer
+	private long gatheringStart;
+	// how long to wait for more messages before the gathered messages are
+	// written (in ms)
+	private volatile int lingerTime;
+	// the pool to which the messages are given back after they were written
+	// (null if the messages are not pooled)
+	private FramePool framePool;
+	protected volatile boolean stopped;
+	private volatile boolean finishedWriting;
+
+	// whether the message queue can be used without locking (see
+	// RingBufferQueue)
+	private final boolean lockFree;
+	// the writer thread if it is parked because there is nothing to write
+	private final AtomicReference<Thread> parkedThread;
+
+	// the number of bytes of the messages that were pushed but not written
+	// yet. It is only an estimate as the queue may drop or replace messages,
+	// so it is reset whenever the queue runs empty.
+	private final AtomicInteger queuedBytes;
+	private final Object queuedBytesSync;
+	private volatile int queuedBytesWaiters;
 
 	/**
 	 * Constructor (output will NOT be flushed after each write)
@@ -52,17 +92,12 @@ public class Writer implements Runnable {
 	 *            the size of the buffer for log messages
 	 */
 	public Writer(OutputStream output, int queueSize) {
-		this.flushAfterWrite = false;
-		this.stopped = false;
-		this.finishedWriting = false;
-
-		this.output = output;
-		this.messageQueue = new GenericBoundedQueue<byte[]>(queueSize);
+		this(output, queueSize, false);
 	}
 
 	/**
 	 * Constructor (output will be flushed after each write according to the
-	 * parameter flush)
+	 * parameter flush). Any thread may write to this writer.
 	 * 
 	 * @param output
 	 *            the stream to write to
@@ -72,17 +107,39 @@ public class Writer implements Runnable {
 	 *            whether the output should be flushed after each write
 	 */
 	public Writer(OutputStream output, int queueSize, boolean flushAfterWrite) {
+		this(output, new RingBufferQueue<byte[]>(queueSize, true),
+				flushAfterWrite);
+	}
+
+	/**
+	 * Constructor for a writer with its own message queue (e.g. a queue that
+	 * decides in which order the messages are written)
+	 * 
+	 * @param output
+	 *            the stream to write to
+	 * @param messageQueue
+	 *            the queue for the messages
+	 * @param flushAfterWrite
+	 *            whether the output should be flushed after each write
+	 */
+	public Writer(OutputStream output, MessageQueue<byte[]> messageQueue,
+			boolean flushAfterWrite) {
 		this.flushAfterWrite = flushAfterWrite;
 		this.stopped = false;
 		this.finishedWriting = false;
 
 		this.output = output;
-		this.messageQueue = new GenericBoundedQueue<byte[]>(queueSize);
+		this.messageQueue = messageQueue;
+		this.lockFree = messageQueue instanceof RingBufferQueue<?>;
+		this.parkedThread = new AtomicReference<Thread>();
+		this.queuedBytes = new AtomicInteger();
+		this.queuedBytesSync = new Object();
+		this.queuedBytesWaiters = 0;
 	}
 
 	/**
-	 * writes a message to the message buffer/queue. This method asks whether to
-	 * block the message buffer afterwards.
+	 * writes a message to the message buffer/queue (with low priority). This
+	 * method asks whether to block the message buffer afterwards.
 	 * 
 	 * @param message
 	 *            the message itself as a byte array
@@ -97,11 +154,78 @@ public class Writer implements Runnable {
 	 */
 	public boolean write(byte[] message, boolean blocked)
 			throws QueueBlockedException {
+		return this.write(message, PRIORITY_LOW, blocked);
+	}
+
+	/**
+	 * writes a message with the given priority to the message buffer/queue.
+	 * This method asks whether to block the message buffer afterwards.
+	 * 
+	 * @param message
+	 *            the message itself as a byte array
+	 * @param priority
+	 *            the priority of the message (see {@link #PRIORITY_HIGH},
+	 *            {@link #PRIORITY_NORMAL} and {@link #PRIORITY_LOW})
+	 * @param blocked
+	 *            whether to block the message queue after writing this message
+	 *            or not
+	 * @return returns whether the message was put into the queue or not (if not
+	 *         than the output is full and nothing can be written to it any
+	 *         more)
+	 * @throws QueueBlockedException
+	 *             thrown if something shall be pushed but the queue is blocked
+	 */
+	public boolean write(byte[] message, int priority, boolean blocked)
+			throws QueueBlockedException {
 		if (this.finishedWriting) {
 			return false;
 		}
+		this.queuedBytes.addAndGet(message.length);
+		if (this.lockFree) {
+			this.messageQueue.push(message, priority, blocked);
+			this.unparkWriterThread();
+			return true;
+		}
 		synchronized (this) {
-			this.messageQueue.push(message, blocked);
+			this.messageQueue.push(message, priority, blocked);
+
+			// notify anybody that there are new elements in the queue
+			this.notify();
+			return true;
+		}
+	}
+
+	/**
+	 * writes a message that only matters as long as there is no newer message
+	 * of the same kind (e.g. a degree). If a message with the same key was not
+	 * written to the output yet, it will be replaced by this message (see
+	 * {@link MessageQueue#pushLatest(Object, int, Object)}).
+	 * 
+	 * @param message
+	 *            the message itself as a byte array
+	 * @param priority
+	 *            the priority of the message
+	 * @param key
+	 *            the key of the message
+	 * @return returns whether the message was put into the queue or not (if not
+	 *         than the output is full and nothing can be written to it any
+	 *         more)
+	 * @throws QueueBlockedException
+	 *             thrown if something shall be pushed but the queue is blocked
+	 */
+	public boolean writeLatest(byte[] message, int priority, Object key)
+			throws QueueBlockedException {
+		if (this.finishedWriting) {
+			return false;
+		}
+		this.queuedBytes.addAndGet(message.length);
+		if (this.lockFree) {
+			this.messageQueue.pushLatest(message, priority, key);
+			this.unparkWriterThread();
+			return true;
+		}
+		synchronized (this) {
+			this.messageQueue.pushLatest(message, priority, key);
 
 			// notify anybody that there are new elements in the queue
 			this.notify();
@@ -141,11 +265,21 @@ public class Writer implements Runnable {
 	 */
 	public boolean write(byte message, boolean blocked)
 			throws QueueBlockedException {
+		if (this.lockFree) {
+			if (this.finishedWriting) {
+				return false;
+			}
+			this.queuedBytes.incrementAndGet();
+			this.messageQueue.push(new byte[] { message }, blocked);
+			this.unparkWriterThread();
+			return true;
+		}
 		synchronized (this) {
 			if (this.finishedWriting) {
 				return false;
 			}
 			else {
+				this.queuedBytes.incrementAndGet();
 				this.messageQueue.push(new byte[] { message }, blocked);
 
 				// notify anybody that there are new elements in the queue
@@ -174,6 +308,11 @@ public class Writer implements Runnable {
 	 * deblocks a former blocked message queue
 	 */
 	public void deblockQueue() {
+		if (this.lockFree) {
+			this.messageQueue.deblock();
+			this.unparkWriterThread();
+			return;
+		}
 		synchronized (this) {
 			this.messageQueue.deblock();
 
@@ -188,12 +327,73 @@ public class Writer implements Runnable {
 	 * buffer before stopping)
 	 */
 	public void stop() {
+		if (this.lockFree) {
+			this.stopped = true;
+			this.unparkWriterThread();
+			this.notifyQueuedBytesWaiters();
+			return;
+		}
 		synchronized (this) {
 			this.stopped = true;
 
 			// notify anybody that writing should be stopped
 			this.notify();
 		}
+		this.notifyQueuedBytesWaiters();
+	}
+
+	/**
+	 * lets the writer gather all messages that are available in the queue and
+	 * write them to the output at once (followed by only one flush) instead of
+	 * writing and flushing each message on its own. This is useful if each
+	 * flush is sent as a separate packet (e.g. via bluetooth). Messages that
+	 * are larger than the given size are still written on their own. This
+	 * method must be called before the writer thread is started.
+	 * 
+	 * @param maxWriteSize
+	 *            the maximum number of bytes to write at once (e.g. the
+	 *            maximum packet size of the connection)
+	 */
+	public void setGathering(int maxWriteSize) {
+		this.gatheringBuffer = new byte[maxWriteSize];
+		this.gathered = 0;
+	}
+
+	/**
+	 * sets how long the writer waits for more messages if there are gathered
+	 * messages that would not fill a whole write (only used if gathering is
+	 * enabled, see {@link #setGathering(int)}). The default is 0, so that the
+	 * gathered messages are written as soon as the queue is empty.
+	 * 
+	 * @param lingerTime
+	 *            the time to wait for more messages (in ms)
+	 */
+	public void setLingerTime(int lingerTime) {
+		this.lingerTime = lingerTime;
+	}
+
+	/**
+	 * lets the writer give every message back to the given pool as soon as it
+	 * is written to the output, so that the frame can be reused for another
+	 * message (see {@link FramePool} and {@link FrameBuilder}). A message that
+	 * was given to this writer must not be used by the caller any more. This
+	 * method must be called before the writer thread is started.
+	 * 
+	 * @param framePool
+	 *            the pool for the messages
+	 */
+	public void setFramePool(FramePool framePool) {
+		this.framePool = framePool;
+	}
+
+	/**
+	 * gets the pool to which the messages are given back after they were
+	 * written (see {@link #setFramePool(FramePool)})
+	 * 
+	 * @return the pool for the messages or null if they are not pooled
+	 */
+	public FramePool getFramePool() {
+		return this.framePool;
 	}
 
 	/**
@@ -206,6 +406,52 @@ public class Writer implements Runnable {
 		return this.finishedWriting;
 	}
 
+	/**
+	 * gets how many bytes were pushed to the queue but not written to the
+	 * output yet (an estimate, see {@link #awaitQueuedBytes(int, long)})
+	 * 
+	 * @return the number of queued bytes
+	 */
+	public int getQueuedBytes() {
+		return this.queuedBytes.get();
+	}
+
+	/**
+	 * waits until at most the given number of bytes are queued but not written
+	 * to the output yet (or until the writer is stopped or the timeout is
+	 * over). A producer of many large messages (e.g. the parts of a file) can
+	 * so wait for the output instead of overflowing the queue. The number of
+	 * queued bytes is an estimate as the queue may drop or replace messages:
+	 * it is reset whenever the queue runs empty.
+	 * 
+	 * @param maxBytes
+	 *            how many bytes may be queued at most
+	 * @param timeout
+	 *            the maximum time to wait (in ms)
+	 * @return whether at most maxBytes are queued
+	 */
+	public boolean awaitQueuedBytes(int maxBytes, long timeout) {
+		long end = System.currentTimeMillis() + timeout;
+		synchronized (this.queuedBytesSync) {
+			this.queuedBytesWaiters++;
+			try {
+				while (this.queuedBytes.get() > maxBytes && !this.stopped) {
+					long remaining = end - System.currentTimeMillis();
+					if (remaining <= 0) {
+						break;
+					}
+					this.queuedBytesSync.wait(remaining);
+				}
+			}
+			catch (InterruptedException e) {
+			}
+			finally {
+				this.queuedBytesWaiters--;
+			}
+			return this.queuedBytes.get() <= maxBytes;
+		}
+	}
+
 	/**
 	 * returns whether the writer has no more messages to write to the output
 	 * and is therefore idle
@@ -230,31 +476,26 @@ public class Writer implements Runnable {
 				try {
 					currentMessage = this.messageQueue.pop();
 					if (!this.tooFewSpaceInOutput(currentMessage)) {
-						this.output.write(currentMessage);
-						if (this.flushAfterWrite) {
-							this.output.flush();
-						}
+						this.writeMessage(currentMessage);
 					}
 					else {
 						throw new TooFewSpaceException();
 					}
 				}
 				catch (QueueBlockedException e) {
-					try {
-						synchronized (this) {
-							this.wait();
-						}
-					}
-					catch (InterruptedException e1) {
-					}
+					// everything before the blocking message must be written
+					this.writeGathered();
+					this.awaitQueue(true, 0);
 				}
 				catch (EmptyQueueException e) {
-					try {
-						synchronized (this) {
-							this.wait();
-						}
+					this.queueRanEmpty();
+					long linger = this.getRemainingLingerTime();
+					if (linger > 0) {
+						this.awaitQueue(false, linger);
 					}
-					catch (InterruptedException e1) {
+					else {
+						this.writeGathered();
+						this.awaitQueue(false, 0);
 					}
 				}
 				catch (IOException e) {
@@ -266,10 +507,7 @@ public class Writer implements Runnable {
 				try {
 					currentMessage = this.messageQueue.pop();
 					if (!this.tooFewSpaceInOutput(currentMessage)) {
-						this.output.write(currentMessage);
-						if (this.flushAfterWrite) {
-							this.output.flush();
-						}
+						this.writeMessage(currentMessage);
 					}
 					else {
 						throw new TooFewSpaceException();
@@ -287,6 +525,7 @@ public class Writer implements Runnable {
 					break;
 				}
 			}
+			this.writeGathered();
 		}
 
 		catch (TooFewSpaceException e) {
@@ -311,14 +550,238 @@ public class Writer implements Runnable {
 				e.printStackTrace();
 			}
 			finally {
+				this.finishWriting();
+			}
+		}
+	}
+
+	/**
+	 * writes a message to the output. If gathering is enabled, the message is
+	 * only put into the gathering buffer (which is written if it is full).
+	 * 
+	 * @param message
+	 *            the message to write
+	 * @throws IOException
+	 *             if the message could not be written to the output
+	 */
+	private void writeMessage(byte[] message) throws IOException {
+		try {
+			this.writeToOutput(message);
+		}
+		finally {
+			// the message was copied to the output or the gathering buffer
+			this.messageWritten(message);
+		}
+	}
+
+	/**
+	 * see documentation {@link #writeMessage(byte[])} (without giving the
+	 * message back to the pool)
+	 * 
+	 * @param message
+	 *            the message to write
+	 * @throws IOException
+	 *             if the message could not be written to the output
+	 */
+	private void writeToOutput(byte[] message) throws IOException {
+		if (this.gatheringBuffer == null) {
+			this.output.write(message);
+			if (this.flushAfterWrite) {
+				this.output.flush();
+			}
+			return;
+		}
+
+		if (this.gathered + message.length > this.gatheringBuffer.length) {
+			this.writeGathered();
+		}
+
+		if (message.length > this.gatheringBuffer.length) {
+			// too large to be gathered
+			this.output.write(message);
+			if (this.flushAfterWrite) {
+				this.output.flush();
+			}
+		}
+		else {
+			if (this.gathered == 0) {
+				this.gatheringStart = System.currentTimeMillis();
+			}
+			System.arraycopy(message, 0, this.gatheringBuffer, this.gathered,
+					message.length);
+			this.gathered += message.length;
+
+			if (this.gathered == this.gatheringBuffer.length) {
+				this.writeGathered();
+			}
+		}
+	}
+
+	/**
+	 * called after a message was written to the output (or copied into the
+	 * gathering buffer). The message is not queued any more and is given back
+	 * to the pool.
+	 * 
+	 * @param message
+	 *            the message that was written
+	 */
+	protected void messageWritten(byte[] message) {
+		this.queuedBytes.addAndGet(-message.length);
+		this.notifyQueuedBytesWaiters();
+		this.releaseMessage(message);
+	}
+
+	/**
+	 * called if the writer found the queue empty: no bytes are queued any more
+	 */
+	protected void queueRanEmpty() {
+		if (this.queuedBytes.get() != 0) {
+			this.queuedBytes.set(0);
+			this.notifyQueuedBytesWaiters();
+		}
+	}
+
+	/**
+	 * wakes up all threads that wait for the queued bytes to go down (see
+	 * {@link #awaitQueuedBytes(int, long)})
+	 */
+	private void notifyQueuedBytesWaiters() {
+		if (this.queuedBytesWaiters > 0) {
+			synchronized (this.queuedBytesSync) {
+				this.queuedBytesSync.notifyAll();
+			}
+		}
+	}
+
+	/**
+	 * gives a message that was written back to the pool (if there is one)
+	 * 
+	 * @param message
+	 *            the message that was written
+	 */
+	protected void releaseMessage(byte[] message) {
+		if (this.framePool != null) {
+			this.framePool.release(message);
+		}
+	}
 
-				// notify anybody who is waiting for the writer to stop working
-				synchronized (this) {
-					this.finishedWriting = true;
-					this.notify();
+	/**
+	 * writes all gathered messages to the output at once
+	 */
+	private void writeGathered() {
+		if (this.gathered == 0) {
+			return;
+		}
+		try {
+			this.output.write(this.gatheringBuffer, 0, this.gathered);
+			if (this.flushAfterWrite) {
+				this.output.flush();
+			}
+		}
+		// the gathered messages are lost as a single message would be
+		catch (IOException e) {
+		}
+		finally {
+			this.gathered = 0;
+		}
+	}
+
+	/**
+	 * returns how long the writer thread may still wait for more messages
+	 * before the gathered messages must be written
+	 * 
+	 * @return the remaining linger time (in ms) or 0 if nothing is gathered
+	 */
+	private long getRemainingLingerTime() {
+		if (this.gathered == 0) {
+			return 0;
+		}
+		return this.lingerTime
+				- (System.currentTimeMillis() - this.gatheringStart);
+	}
+
+	/**
+	 * lets the writer thread wait until the queue is deblocked or until a
+	 * message was written to the queue (or until the writer is stopped or the
+	 * timeout is over)
+	 * 
+	 * @param blocked
+	 *            whether to wait for the queue to be deblocked (otherwise for
+	 *            a new message)
+	 * @param timeout
+	 *            the maximum time to wait (in ms) or 0 to wait without timeout
+	 */
+	private void awaitQueue(boolean blocked, long timeout) {
+		if (this.lockFree) {
+			this.parkedThread.set(Thread.currentThread());
+			// the queue may have been deblocked or a message may have been
+			// written in the meantime
+			if (this.mustWait(blocked)) {
+				if (timeout > 0) {
+					LockSupport.parkNanos(this, timeout * 1000000L);
+				}
+				else {
+					LockSupport.park(this);
+				}
+			}
+			this.parkedThread.set(null);
+			return;
+		}
+		try {
+			synchronized (this) {
+				// the queue may have been deblocked or a message may have been
+				// written in the meantime
+				if (this.mustWait(blocked)) {
+					this.wait(timeout);
 				}
 			}
 		}
+		catch (InterruptedException e) {
+		}
+	}
+
+	/**
+	 * returns whether the writer thread still has to wait for the queue
+	 * 
+	 * @param blocked
+	 *            whether the writer thread waits for the queue to be deblocked
+	 *            (otherwise for a new message)
+	 * @return whether the writer thread has to wait
+	 */
+	private boolean mustWait(boolean blocked) {
+		if (this.stopped) {
+			return false;
+		}
+		else if (blocked) {
+			return this.messageQueue.isBlocked();
+		}
+		else {
+			return this.messageQueue.isEmpty();
+		}
+	}
+
+	/**
+	 * unparks the writer thread if it is waiting for the queue (only used if
+	 * the queue is lock free). Only the first caller unparks the thread.
+	 */
+	private void unparkWriterThread() {
+		if (this.parkedThread.get() != null) {
+			Thread thread = this.parkedThread.getAndSet(null);
+			if (thread != null) {
+				LockSupport.unpark(thread);
+			}
+		}
+	}
+
+	/**
+	 * marks this writer as finished and notifies anybody who is waiting for the
+	 * writer to stop working
+	 */
+	protected void finishWriting() {
+		synchronized (this) {
+			this.finishedWriting = true;
+			this.notify();
+		}
 	}
 
 	/**
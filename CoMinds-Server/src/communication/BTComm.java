@@ -31,17 +31,19 @@ import java.util.ArrayList;
 import sensorwrappers.color.AbstractColorSensorWrapper;
 import sensorwrappers.compass.AbstractCompassSensorWrapper;
 
-import lejos.pc.comm.NXTComm;
-import lejos.pc.comm.NXTCommFactory;
-import lejos.pc.comm.NXTConnector;
 import logging.Logger;
 
 import common.FileLocalizer;
+import common.FramePool;
 import common.MapOfLists;
 import common.Writer;
 import common.exceptions.QueueBlockedException;
 import communication.exceptions.ConnectionClosedException;
 import communication.extendedClasses.ExtendedDataInputStream;
+import communication.transport.ChannelLink;
+import communication.transport.ChannelTransport;
+import communication.transport.Link;
+import communication.transport.Transport;
 
 /**
  * This class should be used to handle all bluetooth communications. It should
@@ -90,10 +92,77 @@ public class BTComm {
 	protected static final byte FILE_PART = 0x03; // 0000 0011
 	protected static final byte FILE = 0x04; // 0000 0100
 	protected static final byte LIGHT = 0x05; // 0000 0101
+	protected static final byte FILE_RESUME = 0x06; // 0000 0110
+	// a REQUEST of the receiver of files: the sender may write the given
+	// number of further frames of files (FILE_WHOLE or a part). The
+	// receiver answers the FILE_CREDIT_OFFER of the sender with a credit for
+	// FILE_WINDOW frames, then it grants one frame for every frame it has
+	// received.
+	protected static final byte FILE_CREDIT = 0x03; // 0000 0011
+	protected static final byte CODEC_OFFER = 0x03; // 0000 0011
+	protected static final byte CODEC_ACK = 0x04; // 0000 0100
+	protected static final byte COMPRESSION_OFFER = 0x05; // 0000 0101
+	protected static final byte COMPRESSION_ACK = 0x06; // 0000 0110
+	// a COMMAND of the sender of files before its first file: it offers to
+	// write the files only as fast as the receiver grants credits (see
+	// FILE_CREDIT). A remote device that does not understand it ignores the
+	// offer and gets the files without waiting for credits.
+	protected static final byte FILE_CREDIT_OFFER = 0x07; // 0000 0111
+	// a COMMAND of a managed connection before its first data frame: it
+	// offers to write the data frames only as fast as the remote device
+	// grants credits (see PCConnectionManager#DATA_CREDIT). A remote device
+	// that understands the credits acknowledges the offer with its first
+	// credit (the pc offers its own credits back). A remote device that does
+	// not understand it ignores the offer and neither grants nor gets credits.
+	protected static final byte DATA_CREDIT_OFFER = 0x08; // 0000 1000
+	// COMMANDs that offer and acknowledge to send the parts of files as
+	// FILE_RESUMABLE_PART and to request missing parts with FILE_RESUME. A
+	// remote device that does not understand it ignores the offer and gets
+	// the parts as FILE_PART.
+	protected static final byte RESUME_OFFER = 0x09; // 0000 1001
+	protected static final byte RESUME_ACK = 0x0A; // 0000 1010
+
+	// a SEND of a part of a file that can be resumed (instead of a FILE_PART
+	// with the number of parts, the name of the file ending with the index of
+	// the part and its size): the id of the transfer, the number of parts,
+	// the size of the file, the index of the part, the name of the file, the
+	// size of the part and its CRC32 checksum. Missing parts are requested
+	// again with FILE_RESUME. It is only sent after the remote device offered
+	// or acknowledged it (see RESUME_OFFER), but it is always understood.
+	protected static final byte FILE_RESUMABLE_PART = 0x04; // 0000 0100
+
+	// a SEND of a FILE_WHOLE or a part whose content is compressed (see
+	// LzCodec): the next byte is the code of the file frame, then the fields
+	// of this frame follow (with the size of the uncompressed content and its
+	// checksum), then the size of the compressed content as an int and the
+	// compressed content. It is only sent after the remote device offered or
+	// acknowledged the compression, but it is always understood.
+	protected static final byte FILE_COMPRESSED = 0x06; // 0000 0110
+
+	// a SEND of binary log records of a nxt to the pc (see the LogWriter of
+	// the nxt): a byte LOG_RECORDS or LOG_SEGMENT, the length of the records
+	// as an int and the records. LOG_RECORDS continue the records that were
+	// sent before, a LOG_SEGMENT is a segment of the ring log file of the nxt
+	// that was kept while the connection was busy and is decoded on its own.
+	// It is written by the connection manager of the nxt with low priority
+	// and takes no data credit.
+	protected static final byte LOG = 0x07; // 0000 0111
+	protected static final byte LOG_RECORDS = 0x00;
+	protected static final byte LOG_SEGMENT = 0x01;
+
+	// flag in the lower four bits of a SEND or REQUEST: lengths and numbers
+	// are sent as varints and degrees and light values as 16 bit fixed point
+	// values (see CommunicationUtils). It is only set after the remote device
+	// offered or acknowledged this codec, but it is always understood.
+	protected static final byte COMPACT = 0x08; // 0000 1000
 
 	protected static final byte UPPER_BITS = -0x10;
 	protected static final byte LOWER_BITS = 0x0F;
 
+	// how many frames of files the receiver grants with the answer to the
+	// FILE_CREDIT_OFFER (see FILE_CREDIT)
+	protected static final int FILE_WINDOW = 2;
+
 	// number of users which use this bt connection
 	protected int users = 0;
 
@@ -118,13 +187,20 @@ public class BTComm {
 
 	// sync object for the communication
 	protected Object sync = new Object();
+	// sync object for the writing of files (a file is not written while
+	// holding sync as it waits for the credits of the remote device, which
+	// the reader may only add if it can write its own messages)
+	protected final Object fileSync = new Object();
 
 	// bt connection
-	private NXTConnector btc;
+	private Link link;
 	private ExtendedDataInputStream dis;
 	private DataOutputStream dos;
 	private PCConnectionManager manager;
 
+	// non-blocking link (only if this connection is driven by an event loop)
+	private ChannelLink channelLink;
+
 	/**
 	 * Constructor which connects to the nxt given by nxtName (all communication
 	 * will be logged). The queue size will be 1.
@@ -138,7 +214,7 @@ public class BTComm {
 	}
 
 	/**
-	 * Constructor
+	 * Constructor which connects to the nxt given by remoteName via bluetooth
 	 * 
 	 * @param myName
 	 *            the name of this nxt
@@ -153,6 +229,29 @@ public class BTComm {
 	 */
 	protected BTComm(String myName, String remoteName, int queueSize,
 			boolean logging, PCConnectionManager manager) {
+		this(myName, remoteName, PCConnectionManager.createBluetoothTransport(),
+				queueSize, logging, manager);
+	}
+
+	/**
+	 * Constructor which connects to the device given by remoteName via the
+	 * given transport
+	 * 
+	 * @param myName
+	 *            the name of this nxt
+	 * @param remoteName
+	 *            the name to which to send the data
+	 * @param transport
+	 *            the transport to open a link with
+	 * @param queueSize
+	 *            an int for the queue size for the writer thread
+	 * @param logging
+	 *            whether the communication shall be logged
+	 * @param manager
+	 *            owning connection manager
+	 */
+	protected BTComm(String myName, String remoteName, Transport transport,
+			int queueSize, boolean logging, PCConnectionManager manager) {
 		this.myName = myName;
 		this.remoteName = remoteName;
 		this.connName = "conn from " + myName + " to " + remoteName + ": ";
@@ -162,10 +261,8 @@ public class BTComm {
 
 		this.manager = manager;
 
-		this.btc = new NXTConnector();
-
 		while (true) {
-			if (this.connect()) {
+			if (this.connect(transport)) {
 				this.initReader(logging);
 				this.initWriter(queueSize);
 				break;
@@ -193,32 +290,116 @@ public class BTComm {
 	}
 
 	/**
-	 * connects to the a given nxt (via the private variable nxtName) and opens
-	 * input and output streams for the connection
+	 * Constructor for a connection that is driven by an event loop instead of
+	 * a reader and a writer thread. It will connect to the nxt given by
+	 * remoteName via the given transport.
+	 * 
+	 * @param myName
+	 *            the name of this nxt
+	 * @param remoteName
+	 *            the name to which to send the data
+	 * @param transport
+	 *            the transport to open a non-blocking link with
+	 * @param loop
+	 *            the event loop that reads from and writes to the link
+	 * @param queueSize
+	 *            an int for the queue size for the writer
+	 * @param logging
+	 *            whether the communication shall be logged
+	 * @param manager
+	 *            owning connection manager
+	 */
+	protected BTComm(String myName, String remoteName,
+			ChannelTransport transport, RouterEventLoop loop, int queueSize,
+			boolean logging, PCConnectionManager manager) {
+		this.myName = myName;
+		this.remoteName = remoteName;
+		this.connName = "conn from " + myName + " to " + remoteName + ": ";
+
+		this.logging = logging;
+		this.users++;
+
+		this.manager = manager;
+
+		if (this.connectChannel(transport)) {
+			this.reader = new RoutingReader(this.myName, this.remoteName, null,
+					this.manager, new MessageReader(this.connName, this,
+							logging));
+			ChannelWriter channelWriter = new ChannelWriter(queueSize,
+					this.channelLink, loop);
+			channelWriter.setFramePool(new FramePool(
+					MessageWriter.FRAME_POOL_SIZE,
+					Transport.MAX_PACKET_SIZE));
+			this.writer = new RoutingWriter(this.myName, this.remoteName,
+					channelWriter);
+			loop.register(this.channelLink, this.reader, channelWriter);
+		}
+		else {
+			this.closed = true;
+		}
+	}
+
+	/**
+	 * connects to the a given nxt (via the private variable nxtName) by
+	 * opening a link with the given transport and opens input and output
+	 * streams for the connection
 	 * 
+	 * @param transport
+	 *            the transport to open the link with
 	 * @return returns whether a connection could be found or not
 	 */
-	private boolean connect() {
+	private boolean connect(Transport transport) {
 		if (this.logging) {
 			logger.debug("trying to connect to " + this.remoteName);
 		}
 
-		boolean connected = this.btc.connectTo(this.remoteName, null,
-				NXTCommFactory.BLUETOOTH, NXTComm.PACKET);
-		if (!connected) {
+		try {
+			this.link = transport.connect(this.remoteName);
+		}
+		catch (IOException e) {
 			if (this.logging) {
-				logger.info("not connected to " + this.remoteName);
+				logger.info("not connected to " + this.remoteName + ": "
+						+ e.getMessage());
 			}
+			return false;
 		}
-		else {
-			this.dis = new ExtendedDataInputStream(this.btc.getDataIn());
-			this.dos = this.btc.getDataOut();
+
+		this.dis = new ExtendedDataInputStream(this.link.getInputStream());
+		this.dos = new DataOutputStream(this.link.getOutputStream());
+		if (this.logging) {
+			logger.info("connected to " + this.remoteName);
+		}
+		return true;
+	}
+
+	/**
+	 * connects to the given nxt (via the private variable nxtName) by opening
+	 * a non-blocking link with the given transport
+	 * 
+	 * @param transport
+	 *            the transport to open the link with
+	 * @return returns whether a connection could be found or not
+	 */
+	private boolean connectChannel(ChannelTransport transport) {
+		if (this.logging) {
+			logger.debug("trying to connect to " + this.remoteName);
+		}
+
+		try {
+			this.channelLink = transport.connectChannel(this.remoteName);
+		}
+		catch (IOException e) {
 			if (this.logging) {
-				logger.info("connected to " + this.remoteName);
+				logger.info("not connected to " + this.remoteName + ": "
+						+ e.getMessage());
 			}
+			return false;
 		}
 
-		return connected;
+		if (this.logging) {
+			logger.info("connected to " + this.remoteName);
+		}
+		return true;
 	}
 
 	/**
@@ -240,11 +421,164 @@ public class BTComm {
 	 *            an in for the size for the message buffer of the writer thread
 	 */
 	private void initWriter(int queueSize) {
-		this.writer = new RoutingWriter(this.myName, this.remoteName, new Writer(
-				this.dos, queueSize, true));
+		Writer frameWriter = new Writer(this.dos, RoutingWriter
+				.createFrameQueue(queueSize), true);
+		// the frames that are queued are sent in as few packets as possible
+		frameWriter.setGathering(Transport.MAX_PACKET_SIZE);
+		// the frames are built in recycled arrays of the pool
+		frameWriter.setFramePool(new FramePool(MessageWriter.FRAME_POOL_SIZE,
+				Transport.MAX_PACKET_SIZE));
+		this.writer = new RoutingWriter(this.myName, this.remoteName,
+				frameWriter);
 		this.writer.start();
 	}
 
+	/**
+	 * sets how long the writer of this connection waits for more messages
+	 * before it sends the messages it has gathered so far (see
+	 * {@link Writer#setLingerTime(int)}). A longer time means less but fuller
+	 * packets but a higher delay of single messages.
+	 * 
+	 * @param lingerTime
+	 *            the time to wait for more messages (in ms)
+	 */
+	public void setLingerTime(int lingerTime) {
+		if (this.writer != null) {
+			this.writer.setLingerTime(lingerTime);
+		}
+	}
+
+	/**
+	 * offers the remote device to encode the content of the messages
+	 * compactly (see {@link #COMPACT}). If the remote device understands the
+	 * compact codec, it will acknowledge the offer and both devices will use
+	 * it from then on. A remote device that does not understand it will just
+	 * ignore the offer.
+	 */
+	protected void offerCompactCodec() {
+		try {
+			this.writeCommand(CODEC_OFFER);
+		}
+		catch (ConnectionClosedException e) {
+			// nothing to offer
+		}
+		catch (QueueBlockedException e) {
+			if (this.logging) {
+				logger.error(this.connName + "in offerCompactCodec: "
+						+ e.getMessage());
+			}
+		}
+	}
+
+	/**
+	 * encodes the content of all following messages compactly (see
+	 * {@link #COMPACT}) because the remote device offered or acknowledged the
+	 * compact codec
+	 * 
+	 * @param acknowledge
+	 *            whether the remote device offered the codec and the offer
+	 *            must be acknowledged
+	 */
+	protected void useCompactCodec(boolean acknowledge) {
+		this.writer.setCompact(true);
+		if (acknowledge) {
+			try {
+				this.writeCommand(CODEC_ACK);
+			}
+			catch (ConnectionClosedException e) {
+				// nothing to acknowledge
+			}
+			catch (QueueBlockedException e) {
+				if (this.logging) {
+					logger.error(this.connName + "in useCompactCodec: "
+							+ e.getMessage());
+				}
+			}
+		}
+	}
+
+	/**
+	 * offers the remote device to compress the content of the files that are
+	 * sent (see {@link #FILE_COMPRESSED}). If the remote device understands
+	 * the compression, it will acknowledge the offer and both devices will
+	 * compress the files from then on. A remote device that does not
+	 * understand it will just ignore the offer.
+	 */
+	protected void offerCompression() {
+		try {
+			this.writeCommand(COMPRESSION_OFFER);
+		}
+		catch (ConnectionClosedException e) {
+			// nothing to offer
+		}
+		catch (QueueBlockedException e) {
+			if (this.logging) {
+				logger.error(this.connName + "in offerCompression: "
+						+ e.getMessage());
+			}
+		}
+	}
+
+	/**
+	 * compresses the content of all following files (see
+	 * {@link #FILE_COMPRESSED}) because the remote device offered or
+	 * acknowledged the compression
+	 * 
+	 * @param acknowledge
+	 *            whether the remote device offered the compression and the
+	 *            offer must be acknowledged
+	 */
+	protected void useCompression(boolean acknowledge) {
+		this.writer.setCompression(true);
+		if (acknowledge) {
+			try {
+				this.writeCommand(COMPRESSION_ACK);
+			}
+			catch (ConnectionClosedException e) {
+				// nothing to acknowledge
+			}
+			catch (QueueBlockedException e) {
+				if (this.logging) {
+					logger.error(this.connName + "in useCompression: "
+							+ e.getMessage());
+				}
+			}
+		}
+	}
+
+	/**
+	 * sends the parts of all following files so that they can be resumed (see
+	 * {@link #FILE_RESUMABLE_PART}) because the remote device offered or
+	 * acknowledged the resumable parts. The first time, the parts of the files
+	 * that were not received completely are requested again (see
+	 * {@link #resumeFileTransfers()}).
+	 * 
+	 * @param acknowledge
+	 *            whether the remote device offered the resumable parts and the
+	 *            offer must be acknowledged
+	 */
+	protected void useResumableFiles(boolean acknowledge) {
+		boolean resumable = this.writer.isResumable();
+		this.writer.setResumable(true);
+		if (acknowledge) {
+			try {
+				this.writeCommand(RESUME_ACK);
+			}
+			catch (ConnectionClosedException e) {
+				// nothing to acknowledge
+			}
+			catch (QueueBlockedException e) {
+				if (this.logging) {
+					logger.error(this.connName + "in useResumableFiles: "
+							+ e.getMessage());
+				}
+			}
+		}
+		if (!resumable) {
+			this.resumeFileTransfers();
+		}
+	}
+
 	/**
 	 * adds a new user to this bt comm. That means the number of users will be
 	 * increased
@@ -478,16 +812,127 @@ public class BTComm {
 	 */
 	public void writeFile(String fileName) throws FileNotFoundException,
 			IOException, ConnectionClosedException, QueueBlockedException {
-		synchronized (this.sync) {
-			if (this.closed) {
-				throw new ConnectionClosedException(
-						"Call of write file after closing the connection.");
+		synchronized (this.fileSync) {
+			synchronized (this.sync) {
+				if (this.closed) {
+					throw new ConnectionClosedException(
+							"Call of write file after closing the connection.");
+				}
 			}
-			else {
-				this.writer.writeFile(fileName);
+
+			this.writer.writeFile(fileName);
+			if (this.logging) {
+				logger.debug(this.connName + "file " + fileName
+						+ " written to output");
+			}
+		}
+	}
+
+	/**
+	 * see documentation {@link MessageWriter#resendFile(int, int, byte[])}
+	 * 
+	 * @param transferId
+	 *            the id of the transfer of the file
+	 * @param fileSize
+	 *            the size of the file the remote device knows
+	 * @param receivedParts
+	 *            the bitmap of the parts the remote device received
+	 * @throws FileNotFoundException
+	 *             thrown if the file is not known any more or could not be
+	 *             found
+	 * @throws IOException
+	 *             thrown if something couldn't be written to output
+	 * @throws ConnectionClosedException
+	 *             thrown if this method was called when connection has already
+	 *             been closed
+	 * @throws QueueBlockedException
+	 *             thrown if the writer thread is blocked and nothing can be
+	 *             written to it at the moment
+	 */
+	protected void resendFile(int transferId, int fileSize,
+			byte[] receivedParts) throws FileNotFoundException, IOException,
+			ConnectionClosedException, QueueBlockedException {
+		synchronized (this.fileSync) {
+			synchronized (this.sync) {
+				if (this.closed) {
+					throw new ConnectionClosedException(
+							"Call of resend file after closing the connection.");
+				}
+			}
+
+			this.writer.resendFile(transferId, fileSize, receivedParts);
+			if (this.logging) {
+				logger.debug(this.connName + "missing parts of file "
+						+ transferId + " written to output");
+			}
+		}
+	}
+
+	/**
+	 * grants the remote device to write the given number of further frames of
+	 * files (see {@link #FILE_CREDIT}). The credit is written without waiting
+	 * for a file that is written at the same time.
+	 * 
+	 * @param credits
+	 *            how many frames of files the remote device may write
+	 */
+	protected void grantFileCredits(int credits) {
+		if (this.closed || this.writer == null) {
+			return;
+		}
+		try {
+			this.writer.writeFileCredits(credits);
+		}
+		catch (QueueBlockedException e) {
+			if (this.logging) {
+				logger.error(this.connName + "in grantFileCredits: "
+						+ e.getMessage());
+			}
+		}
+	}
+
+	/**
+	 * lets this device write further frames of files because the remote
+	 * device granted credits for them (see {@link #FILE_CREDIT})
+	 * 
+	 * @param credits
+	 *            how many frames of files may be written
+	 */
+	protected void addFileCredits(int credits) {
+		if (this.writer != null) {
+			this.writer.addFileCredits(credits);
+		}
+	}
+
+	/**
+	 * requests the parts of all files that were not received from the remote
+	 * device before the last connection to it was lost (see
+	 * {@link #FILE_RESUME}). Only the missing parts will be sent again. It is
+	 * only called after the remote device offered or acknowledged the
+	 * resumable parts (see {@link #useResumableFiles(boolean)}).
+	 */
+	public void resumeFileTransfers() {
+		FileAssembler[] assemblers = FileTransfers
+				.getReceivedFiles(this.remoteName);
+		for (FileAssembler assembler : assemblers) {
+			try {
+				synchronized (this.sync) {
+					if (this.closed) {
+						return;
+					}
+					this.writer.writeResumeRequest(assembler.getTransferId(),
+							assembler.getFileSize(), assembler
+									.getReceivedParts());
+				}
 				if (this.logging) {
-					logger.debug(this.connName + "file " + fileName
-							+ " written to output");
+					logger.info(this.connName + "resume of file "
+							+ assembler.getFileName() + " requested");
+				}
+			}
+			catch (QueueBlockedException e) {
+				if (this.logging) {
+					logger.error(this.connName + "in resumeFileTransfers: "
+							+ e.getMessage());
 				}
 			}
 		}
@@ -753,18 +1198,123 @@ public class BTComm {
 	}
 
 	/**
-	 * this forwards data from one nxt to another
+	 * this forwards a whole frame from one nxt to another (the frame already
+	 * contains the header for this connection, only the kind of header may be
+	 * converted)
 	 * 
 	 * @param from
-	 *            from which nxt the data originates from
-	 * @param data
-	 *            the data to be send
+	 *            from which nxt the frame originates from
+	 * @param frame
+	 *            the frame to be send
 	 * @throws QueueBlockedException
 	 *             thrown if the writer queue is blocked
 	 */
-	protected void forwardData(String from, byte[] data)
+	protected void forwardFrame(String from, byte[] frame)
 			throws QueueBlockedException {
-		this.writer.write(from, data);
+		this.writer.writeFrame(from, frame);
+	}
+
+	/**
+	 * lets this pc write further data frames because the nxt granted a credit
+	 * for them (see {@link PCConnectionManager#DATA_CREDIT})
+	 * 
+	 * @param credits
+	 *            how many data frames may be written
+	 */
+	protected void addDataCredits(int credits) {
+		try {
+			this.writer.addDataCredits(credits);
+		}
+		catch (QueueBlockedException e) {
+			if (this.logging) {
+				logger.error(this.connName + "in addDataCredits: "
+						+ e.getMessage());
+			}
+		}
+	}
+
+	/**
+	 * grants credits for data frames to the nxt because it offered to wait
+	 * for them (see {@link #DATA_CREDIT_OFFER}) and offers the credits of this
+	 * pc back, as the nxt only grants credits to a device that offered them
+	 */
+	protected void acceptDataCredits() {
+		if (this.reader == null || this.writer == null) {
+			return;
+		}
+		this.reader.acceptDataCredits();
+		try {
+			this.writer.offerDataCredits();
+		}
+		catch (QueueBlockedException e) {
+			if (this.logging) {
+				logger.error(this.connName + "in acceptDataCredits: "
+						+ e.getMessage());
+			}
+		}
+	}
+
+	/**
+	 * writes the frames that wait for a credit of the nxt anyway if the nxt
+	 * did not grant any credit for too long (see
+	 * {@link RoutingWriter#checkCreditTimeout()})
+	 */
+	protected void checkDataCredits() {
+		if (this.writer == null) {
+			return;
+		}
+		try {
+			this.writer.checkCreditTimeout();
+		}
+		catch (QueueBlockedException e) {
+			if (this.logging) {
+				logger.error(this.connName + "in checkDataCredits: "
+						+ e.getMessage());
+			}
+		}
+	}
+
+	/**
+	 * gets how many frames of this pc had to wait for a credit of the nxt
+	 * before they could be written
+	 * 
+	 * @return the number of frames that were throttled
+	 */
+	public int getThrottledFrames() {
+		return this.writer.getThrottledFrames();
+	}
+
+	/**
+	 * gets how long frames of this pc were waiting for a credit of the nxt
+	 * altogether
+	 * 
+	 * @return the time this connection was throttled (in ms)
+	 */
+	public long getThrottledTime() {
+		return this.writer.getThrottledTime();
+	}
+
+	/**
+	 * sends the ids of all devices for the compact header to the nxt
+	 * 
+	 * @param nodeIds
+	 *            the ids of all devices
+	 * @throws QueueBlockedException
+	 *             thrown if the writer queue is blocked
+	 */
+	protected void writeNodeIds(NodeIds nodeIds) throws QueueBlockedException {
+		this.writer.writeNodeIds(nodeIds);
+	}
+
+	/**
+	 * lets all frames that are written to the nxt from now on use the compact
+	 * header
+	 * 
+	 * @param nodeIds
+	 *            the ids of all devices
+	 */
+	protected void useCompactHeader(NodeIds nodeIds) {
+		this.writer.useCompactHeader(nodeIds);
 	}
 
 	/**
@@ -869,7 +1419,12 @@ public class BTComm {
 			}
 		}
 		try {
-			this.btc.close();
+			if (this.channelLink != null) {
+				this.channelLink.close();
+			}
+			else {
+				this.link.close();
+			}
 		}
 		catch (IOException e) {
 		}
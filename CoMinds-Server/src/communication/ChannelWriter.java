@@ -0,0 +1,174 @@
+/*
+ *  CoMinds is a Java framework for collaborative robotic scenarios with
+ *  Lego Mindstorms based leJOS. A complete documentation can be found
+ *  in docs/thesis.pdf.
+ *
+ *  Copyright (C) 2010  Annabelle Klarl
+ *  All rights reserved.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ * 
+ */
+package communication;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+import common.Writer;
+import common.exceptions.EmptyQueueException;
+import common.exceptions.QueueBlockedException;
+import communication.transport.ChannelLink;
+
+/**
+ * This is a writer that has no thread of its own. The message queue is drained
+ * by a {@link RouterEventLoop} whenever the link to the remote device can take
+ * more bytes. Each write to the queue wakes up the event loop.
+ * 
+ * @author Annabelle Klarl
+ */
+class ChannelWriter extends Writer {
+
+	private final RouterEventLoop loop;
+	private final ChannelLink link;
+
+	// the message that is currently written to the link
+	private ByteBuffer pending;
+
+	/**
+	 * Constructor
+	 * 
+	 * @param queueSize
+	 *            the size of the buffer for messages
+	 * @param link
+	 *            the link to which the messages shall be written
+	 * @param loop
+	 *            the event loop that drains this writer
+	 */
+	public ChannelWriter(int queueSize, ChannelLink link, RouterEventLoop loop) {
+		super(null, RoutingWriter.createFrameQueue(queueSize), true);
+		this.link = link;
+		this.loop = loop;
+	}
+
+	/**
+	 * gets the link to which the messages are written
+	 * 
+	 * @return the link to the remote device
+	 */
+	ChannelLink getLink() {
+		return this.link;
+	}
+
+	@Override
+	public boolean write(byte[] message, int priority, boolean blocked)
+			throws QueueBlockedException {
+		boolean written = super.write(message, priority, blocked);
+		this.loop.wakeup(this);
+		return written;
+	}
+
+	@Override
+	public boolean writeLatest(byte[] message, int priority, Object key)
+			throws QueueBlockedException {
+		boolean written = super.writeLatest(message, priority, key);
+		this.loop.wakeup(this);
+		return written;
+	}
+
+	@Override
+	public boolean write(byte message, boolean blocked)
+			throws QueueBlockedException {
+		boolean written = super.write(message, blocked);
+		this.loop.wakeup(this);
+		return written;
+	}
+
+	@Override
+	public void deblockQueue() {
+		super.deblockQueue();
+		this.loop.wakeup(this);
+	}
+
+	/**
+	 * stops the writer. The event loop will first empty the message buffer. If
+	 * the writer is stopped by the event loop itself (e.g. because the remote
+	 * device closed the connection) everything that can be written without
+	 * blocking is written immediately.
+	 */
+	@Override
+	public void stop() {
+		super.stop();
+		if (this.loop.inEventLoop()) {
+			this.drain();
+			this.finishWriting();
+		}
+		else {
+			this.loop.wakeup(this);
+		}
+	}
+
+	/**
+	 * writes as many messages to the link as possible without blocking. If the
+	 * writer is stopped and there is nothing more to write the writer is
+	 * finished.
+	 * 
+	 * @return whether all messages that can be written are written (if false,
+	 *         the link is full and draining has to be continued as soon as the
+	 *         link can take more bytes)
+	 */
+	boolean drain() {
+		if (this.isFinished()) {
+			return true;
+		}
+
+		boolean idle = true;
+		try {
+			while (true) {
+				if (this.pending == null) {
+					byte[] message;
+					synchronized (this) {
+						message = this.messageQueue.pop();
+					}
+					this.pending = ByteBuffer.wrap(message);
+				}
+
+				this.link.write(this.pending);
+				if (this.pending.hasRemaining()) {
+					idle = false;
+					break;
+				}
+				this.messageWritten(this.pending.array());
+				this.pending = null;
+			}
+		}
+		catch (EmptyQueueException e) {
+			// nothing more to write
+			this.queueRanEmpty();
+		}
+		catch (QueueBlockedException e) {
+			// queue is blocked so nothing can be written until it is deblocked
+		}
+		catch (IOException e) {
+			// the link is broken so nothing can be written any more
+			this.pending = null;
+			this.stopped = true;
+			idle = true;
+		}
+
+		if (this.stopped && idle) {
+			this.finishWriting();
+			return true;
+		}
+		return idle;
+	}
+}
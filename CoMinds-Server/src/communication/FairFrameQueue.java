@@ -0,0 +1,450 @@
+/*
+ *  CoMinds is a Java framework for collaborative robotic scenarios with
+ *  Lego Mindstorms based leJOS. A complete documentation can be found
+ *  in docs/thesis.pdf.
+ *
+ *  Copyright (C) 2010  Annabelle Klarl
+ *  All rights reserved.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ * 
+ */
+package communication;
+
+import java.util.ArrayList;
+import java.util.LinkedList;
+import java.util.ListIterator;
+
+import logging.Logger;
+
+import common.MessageQueue;
+import common.exceptions.EmptyQueueException;
+import common.exceptions.QueueBlockedException;
+
+/**
+ * This is the message queue for the frames the pc server writes to one nxt. In
+ * contrast to a FIFO queue the frames are sorted into flows and the flows are
+ * served by deficit round robin: in each round a flow may write up to a quantum
+ * of bytes (and saves what it did not use for the next round as long as it has
+ * frames left). So a file that is forwarded in many big parts cannot hold back
+ * the small frames of other flows for long.
+ * 
+ * A flow is made of all frames from one device. Degrees and light values (and
+ * requests for them) of a device form a flow of their own, so they do not even
+ * have to wait for a file of the same device. All other frames of a device stay
+ * in the order they were written (e.g. the parts of a file and a close command
+ * afterwards).
+ * 
+ * A degree or light value that is pushed by pushLatest replaces the frame of
+ * its flow with the same message code that is still queued, so a flow never
+ * holds obsolete values.
+ * 
+ * The number of frames in the queue is bounded: if the queue is full the oldest
+ * frame of the flow with the most bytes queued is dropped. As the devices that
+ * negotiated data credits only write as many data frames as they got credits
+ * for (see {@link PCConnectionManager#DATA_CREDIT}), this should not happen
+ * for them, so every dropped frame is logged and counted. If the queue is blocked after a frame,
+ * this frame will be popped after all other frames.
+ * 
+ * @author Annabelle Klarl
+ */
+class FairFrameQueue implements MessageQueue<byte[]> {
+
+	private static final Logger logger = Logger.getLogger();
+
+	// default number of bytes a flow may write per round
+	private static final int QUANTUM = 1024;
+
+	private final Object sync = new Object();
+
+	private final int size;
+	private final int quantum;
+
+	// all flows that were seen so far and the flows that have frames
+	private final ArrayList<Flow> flows = new ArrayList<Flow>();
+	private final ArrayList<Flow> activeFlows = new ArrayList<Flow>();
+	private int current = 0;
+	private int count = 0;
+	// how many frames were dropped because the queue was full
+	private int dropped = 0;
+
+	// the frame after which the queue is blocked (popped after all others)
+	private byte[] blockingFrame = null;
+	private boolean blocked = false;
+
+	/**
+	 * Constructor
+	 * 
+	 * @param size
+	 *            the number of frames the queue can hold
+	 */
+	public FairFrameQueue(int size) {
+		this(size, QUANTUM);
+	}
+
+	/**
+	 * Constructor
+	 * 
+	 * @param size
+	 *            the number of frames the queue can hold
+	 * @param quantum
+	 *            the number of bytes each flow may write per round
+	 */
+	public FairFrameQueue(int size, int quantum) {
+		this.size = size;
+		this.quantum = quantum;
+	}
+
+	@Override
+	public void push(byte[] frame) throws QueueBlockedException {
+		this.push(frame, false);
+	}
+
+	@Override
+	public void push(byte[] frame, boolean blocked)
+			throws QueueBlockedException {
+		synchronized (this.sync) {
+			if (this.blocked) {
+				throw new QueueBlockedException(
+						"Cannot push into queue because queue is blocked");
+			}
+
+			if (this.count >= this.size) {
+				this.dropFrame();
+			}
+
+			if (blocked) {
+				this.blocked = true;
+				this.blockingFrame = frame;
+			}
+			else {
+				this.enqueue(frame, this.getFlow(frame));
+			}
+		}
+	}
+
+	/**
+	 * pushes a frame that replaces the queued frame of its flow with the same
+	 * message code (the key is ignored as the frames are compared by their
+	 * message code, see {@link RoutingWriter#getMessageCode(byte[])})
+	 * 
+	 * @param frame
+	 *            the frame to add
+	 * @param priority
+	 *            the priority of the frame (ignored)
+	 * @param key
+	 *            the key of the frame (ignored)
+	 * @throws QueueBlockedException
+	 *             thrown if something shall be pushed but the queue is blocked
+	 */
+	@Override
+	public void pushLatest(byte[] frame, int priority, Object key)
+			throws QueueBlockedException {
+		synchronized (this.sync) {
+			if (this.blocked) {
+				throw new QueueBlockedException(
+						"Cannot push into queue because queue is blocked");
+			}
+
+			Flow flow = this.getFlow(frame);
+			int messageCode = RoutingWriter.getMessageCode(frame);
+			if (messageCode != -1) {
+				ListIterator<byte[]> frames = flow.frames.listIterator();
+				while (frames.hasNext()) {
+					byte[] queued = frames.next();
+					if (RoutingWriter.getMessageCode(queued) == messageCode) {
+						frames.set(frame);
+						flow.bytes += frame.length - queued.length;
+						return;
+					}
+				}
+			}
+
+			if (this.count >= this.size) {
+				this.dropFrame();
+			}
+			this.enqueue(frame, flow);
+		}
+	}
+
+	@Override
+	public void push(byte[] frame, int priority, boolean blocked)
+			throws QueueBlockedException {
+		this.push(frame, blocked);
+	}
+
+	@Override
+	public byte[] pop() throws EmptyQueueException {
+		synchronized (this.sync) {
+			if (this.activeFlows.isEmpty()) {
+				if (this.blockingFrame == null) {
+					throw new EmptyQueueException();
+				}
+				byte[] frame = this.blockingFrame;
+				this.blockingFrame = null;
+				return frame;
+			}
+
+			while (true) {
+				Flow flow = this.activeFlows.get(this.current);
+				if (!flow.served) {
+					flow.deficit += this.quantum;
+					flow.served = true;
+				}
+
+				byte[] frame = flow.frames.peek();
+				if (frame.length <= flow.deficit) {
+					flow.frames.poll();
+					flow.deficit -= frame.length;
+					flow.bytes -= frame.length;
+					this.count--;
+					if (flow.frames.isEmpty()) {
+						this.deactivate(flow);
+					}
+					return frame;
+				}
+
+				// the flow has used its quantum for this round
+				flow.served = false;
+				this.current = (this.current + 1) % this.activeFlows.size();
+			}
+		}
+	}
+
+	@Override
+	public boolean isEmpty() {
+		synchronized (this.sync) {
+			return this.count == 0 && this.blockingFrame == null;
+		}
+	}
+
+	@Override
+	public boolean isBlocked() {
+		return this.blocked;
+	}
+
+	@Override
+	public void deblock() {
+		synchronized (this.sync) {
+			this.blocked = false;
+			if (this.blockingFrame != null) {
+				this.enqueue(this.blockingFrame, this
+						.getFlow(this.blockingFrame));
+				this.blockingFrame = null;
+			}
+		}
+	}
+
+	@Override
+	public void clearQueue() {
+		synchronized (this.sync) {
+			for (Flow flow : this.activeFlows) {
+				flow.frames.clear();
+				flow.bytes = 0;
+				flow.deficit = 0;
+				flow.served = false;
+			}
+			this.activeFlows.clear();
+			this.current = 0;
+			this.count = 0;
+			this.blockingFrame = null;
+			this.blocked = false;
+		}
+	}
+
+	/**
+	 * gets how many frames were dropped because the queue was full
+	 * 
+	 * @return the number of dropped frames
+	 */
+	public int getDroppedFrames() {
+		synchronized (this.sync) {
+			return this.dropped;
+		}
+	}
+
+	/**
+	 * puts the frame at the end of its flow
+	 * 
+	 * @param frame
+	 *            the frame to add
+	 * @param flow
+	 *            the flow of the frame
+	 */
+	private void enqueue(byte[] frame, Flow flow) {
+		if (flow.frames.isEmpty()) {
+			this.activeFlows.add(flow);
+		}
+		flow.frames.add(frame);
+		flow.bytes += frame.length;
+		this.count++;
+	}
+
+	/**
+	 * drops the oldest frame of the flow that has the most bytes queued
+	 */
+	private void dropFrame() {
+		Flow largest = null;
+		for (Flow flow : this.activeFlows) {
+			if (largest == null || flow.bytes > largest.bytes) {
+				largest = flow;
+			}
+		}
+		if (largest != null) {
+			byte[] frame = largest.frames.poll();
+			largest.bytes -= frame.length;
+			this.count--;
+			this.dropped++;
+			logger.warn("queue full: frame dropped (" + this.dropped
+					+ " frames dropped so far)");
+			if (largest.frames.isEmpty()) {
+				this.deactivate(largest);
+			}
+		}
+	}
+
+	/**
+	 * removes a flow that has no more frames from the round robin
+	 * 
+	 * @param flow
+	 *            the flow without frames
+	 */
+	private void deactivate(Flow flow) {
+		int index = this.activeFlows.indexOf(flow);
+		this.activeFlows.remove(index);
+		if (index < this.current) {
+			this.current--;
+		}
+		if (this.current >= this.activeFlows.size()) {
+			this.current = 0;
+		}
+		flow.deficit = 0;
+		flow.served = false;
+	}
+
+	/**
+	 * gets the flow of the given frame (the flow will be created if there is
+	 * no such flow yet)
+	 * 
+	 * @param frame
+	 *            the frame (with header)
+	 * @return the flow of the frame
+	 */
+	private Flow getFlow(byte[] frame) {
+		// the source is the name of the device (or the compact header with
+		// the id of the device)
+		int fromIndex = 4;
+		int fromLength = 0;
+		boolean telemetry = false;
+
+		if (RoutingWriter.isCompact(frame)) {
+			fromIndex = 0;
+			fromLength = Math.min(2, frame.length);
+			telemetry = isTelemetry(frame);
+		}
+		else if (frame.length >= 4) {
+			fromLength = Math.max(0, Math.min(CommunicationUtils
+					.convertByteArrayToInt(frame, 0), frame.length - 4));
+			telemetry = isTelemetry(frame);
+		}
+
+		for (Flow flow : this.flows) {
+			if (flow.matches(frame, fromIndex, fromLength, telemetry)) {
+				return flow;
+			}
+		}
+
+		byte[] source = new byte[fromLength];
+		System.arraycopy(frame, fromIndex, source, 0, fromLength);
+		Flow flow = new Flow(source, telemetry);
+		this.flows.add(flow);
+		return flow;
+	}
+
+	/**
+	 * returns whether the frame is a data frame that contains a degree or a
+	 * light value or a request for one of them
+	 * 
+	 * @param frame
+	 *            the frame (with header)
+	 * @return whether the frame contains a degree or light value
+	 */
+	private static boolean isTelemetry(byte[] frame) {
+		int messageIndex = RoutingWriter.getMessageIndex(frame);
+		if (messageIndex == -1) {
+			return false;
+		}
+
+		byte upperCode = (byte) (frame[messageIndex] & BTComm.UPPER_BITS);
+		byte lowerCode = (byte) (frame[messageIndex] & BTComm.LOWER_BITS
+				& ~BTComm.COMPACT);
+		return (upperCode == BTComm.SEND || upperCode == BTComm.REQUEST)
+				&& (lowerCode == BTComm.DEGREE || lowerCode == BTComm.LIGHT);
+	}
+
+	/**
+	 * This is one flow of frames with its own FIFO queue and deficit counter.
+	 * 
+	 * @author Annabelle Klarl
+	 */
+	private static class Flow {
+
+		private final byte[] source;
+		private final boolean telemetry;
+
+		private final LinkedList<byte[]> frames = new LinkedList<byte[]>();
+		private int bytes = 0;
+		private int deficit = 0;
+		// whether the flow already got its quantum for the current round
+		private boolean served = false;
+
+		/**
+		 * Constructor
+		 * 
+		 * @param source
+		 *            the name of the device the frames originate from
+		 * @param telemetry
+		 *            whether the flow is for degrees and light values
+		 */
+		public Flow(byte[] source, boolean telemetry) {
+			this.source = source;
+			this.telemetry = telemetry;
+		}
+
+		/**
+		 * returns whether a frame belongs to this flow
+		 * 
+		 * @param frame
+		 *            the frame (with header)
+		 * @param fromIndex
+		 *            where the source of the frame starts
+		 * @param fromLength
+		 *            the length of the source of the frame
+		 * @param telemetry
+		 *            whether the frame contains a degree or light value
+		 * @return whether the frame belongs to this flow
+		 */
+		public boolean matches(byte[] frame, int fromIndex, int fromLength,
+				boolean telemetry) {
+			if (this.telemetry != telemetry || this.source.length != fromLength) {
+				return false;
+			}
+			for (int i = 0; i < fromLength; i++) {
+				if (this.source[i] != frame[fromIndex + i]) {
+					return false;
+				}
+			}
+			return true;
+		}
+	}
+}
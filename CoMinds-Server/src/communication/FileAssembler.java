@@ -0,0 +1,430 @@
+/*
+ *  CoMinds is a Java framework for collaborative robotic scenarios with
+ *  Lego Mindstorms based leJOS. A complete documentation can be found
+ *  in docs/thesis.pdf.
+ *
+ *  Copyright (C) 2010  Annabelle Klarl
+ *  All rights reserved.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ * 
+ */
+package communication;
+
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.zip.CRC32;
+
+import common.LzCodec;
+
+/**
+ * This assembles a file that is received in several parts (see
+ * {@link BTComm#FILE_RESUMABLE_PART} and {@link BTComm#FILE_PART}). Every part
+ * is written directly at its offset into a temporary file which is
+ * preallocated for all parts. A part is only written if its checksum (if it
+ * has one) is correct. The received parts are tracked in a bitmap, so that
+ * only the missing parts have to be requested again if the connection is lost
+ * (see {@link BTComm#FILE_RESUME}). In the meantime the assembler can be
+ * suspended: the temporary file is closed and opened again with the next part.
+ * When all parts are received, the temporary file is cut to the size of the
+ * file and renamed to the name of the file.
+ * 
+ * @author Annabelle Klarl
+ */
+class FileAssembler {
+
+	// the ending of the temporary file
+	private static final String PART_FILE_ENDING = ".part";
+
+	private final int transferId;
+	private final String fileName;
+	private final File file;
+	private final File partFile;
+	private RandomAccessFile output;
+	private FileChannel channel;
+	private final int partSize;
+
+	private int numberOfParts = 0;
+	private int fileSize = 0;
+	// one bit for each received part
+	private int[] received = new int[0];
+
+	// the buffer for copying the parts and the checksum of a part
+	private final byte[] buffer;
+	private final CRC32 crc = new CRC32();
+	// the buffer for compressed parts (only created if a part is compressed)
+	private byte[] compressed;
+
+	/**
+	 * Constructor
+	 * 
+	 * @param transferId
+	 *            the id the sender gave the transfer of the file
+	 * @param fileName
+	 *            the name of the file to assemble
+	 * @param partSize
+	 *            the size of all parts except the last one
+	 * @throws IOException
+	 *             thrown if the temporary file could not be created
+	 */
+	public FileAssembler(int transferId, String fileName, int partSize)
+			throws IOException {
+		this.transferId = transferId;
+		this.fileName = fileName;
+		this.file = new File(fileName);
+		this.partFile = new File(fileName + PART_FILE_ENDING);
+		if (this.partFile.exists()) {
+			this.partFile.delete();
+		}
+		this.partSize = partSize;
+		this.buffer = new byte[partSize];
+		this.open();
+	}
+
+	/**
+	 * returns the id the sender gave the transfer of the file
+	 * 
+	 * @return the transfer id
+	 */
+	public int getTransferId() {
+		return this.transferId;
+	}
+
+	/**
+	 * returns the name of the file that is assembled
+	 * 
+	 * @return the file name
+	 */
+	public String getFileName() {
+		return this.fileName;
+	}
+
+	/**
+	 * returns the size of the whole file
+	 * 
+	 * @return the file size
+	 */
+	public int getFileSize() {
+		return this.fileSize;
+	}
+
+	/**
+	 * sets the number of parts and the size of the file (may change while the
+	 * file is sent if the file grows). If the file grew, the part that was the
+	 * last part before is not complete any more and must be received again.
+	 * 
+	 * @param numberOfParts
+	 *            the number of parts
+	 * @param fileSize
+	 *            the size of the whole file
+	 * @throws IOException
+	 *             thrown if the temporary file could not be enlarged
+	 */
+	public void setSize(int numberOfParts, int fileSize) throws IOException {
+		if (numberOfParts == this.numberOfParts && fileSize == this.fileSize) {
+			return;
+		}
+
+		if (this.numberOfParts > 0 && fileSize > this.fileSize
+				&& this.fileSize % this.partSize != 0) {
+			int lastPart = this.numberOfParts - 1;
+			this.received[lastPart / 32] &= ~(1 << (lastPart % 32));
+		}
+
+		this.numberOfParts = numberOfParts;
+		this.fileSize = fileSize;
+		int words = (numberOfParts + 31) / 32;
+		if (this.received.length < words) {
+			int[] received = new int[words];
+			System.arraycopy(this.received, 0, received, 0,
+					this.received.length);
+			this.received = received;
+		}
+
+		// preallocate the file for all parts
+		this.open();
+		if (this.output.length() < fileSize) {
+			this.output.setLength(fileSize);
+		}
+	}
+
+	/**
+	 * reads a part from the input and writes it at its offset into the file if
+	 * the size of the part and its checksum are correct. Otherwise the part is
+	 * read, but skipped and has to be received again. If the part is
+	 * compressed (see {@link LzCodec}), it is decompressed before its checksum
+	 * is checked.
+	 * 
+	 * @param index
+	 *            the index of the part
+	 * @param input
+	 *            the input where to read the part from
+	 * @param size
+	 *            the size of the (uncompressed) part
+	 * @param compressedSize
+	 *            the size of the compressed part or -1 if the part is not
+	 *            compressed
+	 * @param checksum
+	 *            the CRC32 checksum of the (uncompressed) part
+	 * @return whether the part was written to the file
+	 * @throws IOException
+	 *             thrown if the part could not be read or written
+	 */
+	public boolean writePart(int index, InputStream input, int size,
+			int compressedSize, int checksum) throws IOException {
+		if (!this.readPart(index, input, size, compressedSize)) {
+			return false;
+		}
+		this.crc.reset();
+		this.crc.update(this.buffer, 0, size);
+		return (int) this.crc.getValue() == checksum
+				&& this.writePart(index, size);
+	}
+
+	/**
+	 * reads a part without a checksum from the input (see
+	 * {@link BTComm#FILE_PART}) and writes it at its offset into the file like
+	 * {@link #writePart(int, InputStream, int, int, int)}
+	 * 
+	 * @param index
+	 *            the index of the part
+	 * @param input
+	 *            the input where to read the part from
+	 * @param size
+	 *            the size of the (uncompressed) part
+	 * @param compressedSize
+	 *            the size of the compressed part or -1 if the part is not
+	 *            compressed
+	 * @return whether the part was written to the file
+	 * @throws IOException
+	 *             thrown if the part could not be read or written
+	 */
+	public boolean writePart(int index, InputStream input, int size,
+			int compressedSize) throws IOException {
+		return this.readPart(index, input, size, compressedSize)
+				&& this.writePart(index, size);
+	}
+
+	/**
+	 * reads a part from the input into the buffer and decompresses it if it
+	 * is compressed
+	 * 
+	 * @param index
+	 *            the index of the part
+	 * @param input
+	 *            the input where to read the part from
+	 * @param size
+	 *            the size of the (uncompressed) part
+	 * @param compressedSize
+	 *            the size of the compressed part or -1 if the part is not
+	 *            compressed
+	 * @return whether the part could be decompressed
+	 * @throws IOException
+	 *             thrown if the part could not be read
+	 */
+	private boolean readPart(int index, InputStream input, int size,
+			int compressedSize) throws IOException {
+		int maxCompressedSize = LzCodec.getMaxCompressedLength(this.partSize);
+		if (size > this.partSize || compressedSize > maxCompressedSize) {
+			throw new IOException("invalid part " + index + " of file "
+					+ this.file.getName());
+		}
+
+		if (compressedSize < 0) {
+			this.readPart(index, input, this.buffer, size);
+			return true;
+		}
+		if (this.compressed == null) {
+			this.compressed = new byte[maxCompressedSize];
+		}
+		this.readPart(index, input, this.compressed, compressedSize);
+		return LzCodec.decompress(this.compressed, 0, compressedSize,
+				this.buffer, 0, size) == size;
+	}
+
+	/**
+	 * writes the part in the buffer at its offset into the file if its size
+	 * is correct
+	 * 
+	 * @param index
+	 *            the index of the part
+	 * @param size
+	 *            the size of the part
+	 * @return whether the part was written to the file
+	 * @throws IOException
+	 *             thrown if the part could not be written
+	 */
+	private boolean writePart(int index, int size) throws IOException {
+		long offset = (long) index * this.partSize;
+		if (index < 0 || index >= this.numberOfParts
+				|| offset + size != Math.min(offset + this.partSize,
+						this.fileSize)) {
+			return false;
+		}
+
+		this.open();
+		ByteBuffer part = ByteBuffer.wrap(this.buffer, 0, size);
+		while (part.hasRemaining()) {
+			this.channel.write(part, offset + part.position());
+		}
+
+		this.received[index / 32] |= 1 << (index % 32);
+		return true;
+	}
+
+	/**
+	 * reads the given number of bytes of a part from the input
+	 * 
+	 * @param index
+	 *            the index of the part
+	 * @param input
+	 *            the input where to read the part from
+	 * @param bytes
+	 *            the array where to store the bytes
+	 * @param size
+	 *            the number of bytes to read
+	 * @throws IOException
+	 *             thrown if the part could not be read
+	 */
+	private void readPart(int index, InputStream input, byte[] bytes,
+			int size) throws IOException {
+		int read = 0;
+		while (read < size) {
+			int count = input.read(bytes, read, size - read);
+			if (count < 0) {
+				throw new EOFException("end of stream in part " + index
+						+ " of file " + this.file.getName());
+			}
+			read += count;
+		}
+	}
+
+	/**
+	 * returns whether the part with the given index was received
+	 * 
+	 * @param index
+	 *            the index of the part
+	 * @return whether the part was received
+	 */
+	public boolean isReceived(int index) {
+		return (this.received[index / 32] & (1 << (index % 32))) != 0;
+	}
+
+	/**
+	 * returns whether all parts of the file were received
+	 * 
+	 * @return whether the file is complete
+	 */
+	public boolean isComplete() {
+		for (int i = 0; i < this.numberOfParts; i++) {
+			if (!this.isReceived(i)) {
+				return false;
+			}
+		}
+		return this.numberOfParts > 0;
+	}
+
+	/**
+	 * gets a bitmap of the received parts: the bit i % 8 of the byte i / 8 is
+	 * set if the part i was received
+	 * 
+	 * @return the bitmap of the received parts
+	 */
+	public byte[] getReceivedParts() {
+		byte[] bitmap = new byte[(this.numberOfParts + 7) / 8];
+		for (int i = 0; i < this.numberOfParts; i++) {
+			if (this.isReceived(i)) {
+				bitmap[i / 8] |= 1 << (i % 8);
+			}
+		}
+		return bitmap;
+	}
+
+	/**
+	 * opens the temporary file if it is not open
+	 * 
+	 * @throws IOException
+	 *             thrown if the temporary file could not be opened
+	 */
+	private void open() throws IOException {
+		if (this.output == null) {
+			this.output = new RandomAccessFile(this.partFile, "rw");
+			this.channel = this.output.getChannel();
+		}
+	}
+
+	/**
+	 * suspends the assembling of the file (e.g. if the connection is lost):
+	 * the temporary file is closed, but the received parts are kept. The file
+	 * is opened again when the next part is written.
+	 * 
+	 * @throws IOException
+	 *             thrown if the temporary file could not be closed
+	 */
+	public void suspend() throws IOException {
+		if (this.output != null) {
+			try {
+				this.output.close();
+			}
+			finally {
+				this.output = null;
+				this.channel = null;
+			}
+		}
+	}
+
+	/**
+	 * cancels the assembling of the file: the temporary file is deleted
+	 * 
+	 * @throws IOException
+	 *             thrown if the temporary file could not be closed
+	 */
+	public void cancel() throws IOException {
+		try {
+			this.suspend();
+		}
+		finally {
+			this.partFile.delete();
+		}
+	}
+
+	/**
+	 * finishes the file after all parts were received: the temporary file is
+	 * cut to the size of the file and renamed to the name of the file
+	 * 
+	 * @throws IOException
+	 *             thrown if the file could not be finished
+	 */
+	public void finish() throws IOException {
+		this.open();
+		try {
+			this.channel.truncate(this.fileSize);
+		}
+		finally {
+			this.suspend();
+		}
+
+		if (this.file.exists()) {
+			this.file.delete();
+		}
+		if (!this.partFile.renameTo(this.file)) {
+			throw new IOException("could not rename " + this.partFile.getName()
+					+ " to " + this.file.getName());
+		}
+	}
+}
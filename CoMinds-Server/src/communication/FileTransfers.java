@@ -0,0 +1,221 @@
+/*
+ *  CoMinds is a Java framework for collaborative robotic scenarios with
+ *  Lego Mindstorms based leJOS. A complete documentation can be found
+ *  in docs/thesis.pdf.
+ *
+ *  Copyright (C) 2010  Annabelle Klarl
+ *  All rights reserved.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ * 
+ */
+package communication;
+
+import java.util.Random;
+
+/**
+ * This keeps track of the files that are sent or received in resumable parts
+ * (see {@link BTComm#FILE_RESUMABLE_PART}) beyond the lifetime of a single
+ * connection. Every file that is sent in such parts gets a transfer id, so
+ * that the receiver can ask for the parts that it is missing after a
+ * connection was lost (see {@link BTComm#FILE_RESUME}). Received files are
+ * kept as long as not all of their parts are received. Only a fixed number of
+ * files is remembered: if the table is full, the oldest file is replaced.
+ * 
+ * @author Annabelle Klarl
+ */
+class FileTransfers {
+
+	// how many sent files are remembered to send missing parts again
+	private static final int MAX_SENT_FILES = 8;
+	// how many files may be received at the same time
+	private static final int MAX_RECEIVED_FILES = 8;
+
+	private static final Object sync = new Object();
+
+	// the ids of the transfers (starting at a random id so that a restarted
+	// device does not reuse the ids of its last run)
+	private static int nextTransferId = new Random().nextInt();
+
+	private static final int[] sentIds = new int[MAX_SENT_FILES];
+	private static final String[] sentFiles = new String[MAX_SENT_FILES];
+	private static int nextSent = 0;
+
+	private static final String[] receivedFrom = new String[MAX_RECEIVED_FILES];
+	private static final FileAssembler[] receivedFiles = new FileAssembler[MAX_RECEIVED_FILES];
+	private static int nextReceived = 0;
+
+	/**
+	 * adds a file that is sent in parts
+	 * 
+	 * @param fileName
+	 *            the name of the file
+	 * @return the id of the transfer of the file
+	 */
+	static int addSentFile(String fileName) {
+		synchronized (sync) {
+			int transferId = nextTransferId++;
+			sentIds[nextSent] = transferId;
+			sentFiles[nextSent] = fileName;
+			nextSent = (nextSent + 1) % MAX_SENT_FILES;
+			return transferId;
+		}
+	}
+
+	/**
+	 * gets the name of a file that was sent in parts
+	 * 
+	 * @param transferId
+	 *            the id of the transfer of the file
+	 * @return the name of the file or null if the file is not known (any
+	 *         more)
+	 */
+	static String getSentFile(int transferId) {
+		synchronized (sync) {
+			for (int i = 0; i < MAX_SENT_FILES; i++) {
+				if (sentFiles[i] != null && sentIds[i] == transferId) {
+					return sentFiles[i];
+				}
+			}
+			return null;
+		}
+	}
+
+	/**
+	 * adds a file that is received in parts. If there are too many files
+	 * received at the same time, the oldest one is replaced and returned.
+	 * 
+	 * @param remoteName
+	 *            the name of the device that sends the file
+	 * @param assembler
+	 *            the assembler of the file
+	 * @return the assembler of the file that was replaced or null
+	 */
+	static FileAssembler addReceivedFile(String remoteName,
+			FileAssembler assembler) {
+		synchronized (sync) {
+			int index = -1;
+			for (int i = 0; i < MAX_RECEIVED_FILES && index == -1; i++) {
+				if (receivedFiles[i] == null) {
+					index = i;
+				}
+			}
+			if (index == -1) {
+				index = nextReceived;
+				nextReceived = (nextReceived + 1) % MAX_RECEIVED_FILES;
+			}
+
+			FileAssembler replaced = receivedFiles[index];
+			receivedFrom[index] = remoteName;
+			receivedFiles[index] = assembler;
+			return replaced;
+		}
+	}
+
+	/**
+	 * gets the assembler of a file that is received in parts
+	 * 
+	 * @param remoteName
+	 *            the name of the device that sends the file
+	 * @param transferId
+	 *            the id the sender gave the transfer of the file
+	 * @return the assembler of the file or null if no such file is received
+	 */
+	static FileAssembler getReceivedFile(String remoteName, int transferId) {
+		synchronized (sync) {
+			for (int i = 0; i < MAX_RECEIVED_FILES; i++) {
+				if (receivedFiles[i] != null
+						&& receivedFiles[i].getTransferId() == transferId
+						&& equals(receivedFrom[i], remoteName)) {
+					return receivedFiles[i];
+				}
+			}
+			return null;
+		}
+	}
+
+	/**
+	 * gets the assemblers of all files that are received in parts from the
+	 * given device
+	 * 
+	 * @param remoteName
+	 *            the name of the device that sends the files
+	 * @return the assemblers of the files
+	 */
+	static FileAssembler[] getReceivedFiles(String remoteName) {
+		synchronized (sync) {
+			int count = 0;
+			for (int i = 0; i < MAX_RECEIVED_FILES; i++) {
+				if (receivedFiles[i] != null
+						&& equals(receivedFrom[i], remoteName)) {
+					count++;
+				}
+			}
+
+			FileAssembler[] assemblers = new FileAssembler[count];
+			for (int i = 0; i < MAX_RECEIVED_FILES; i++) {
+				if (receivedFiles[i] != null
+						&& equals(receivedFrom[i], remoteName)) {
+					assemblers[--count] = receivedFiles[i];
+				}
+			}
+			return assemblers;
+		}
+	}
+
+	/**
+	 * removes a file that is received in parts (because it is complete or
+	 * cancelled)
+	 * 
+	 * @param assembler
+	 *            the assembler of the file
+	 */
+	static void removeReceivedFile(FileAssembler assembler) {
+		synchronized (sync) {
+			for (int i = 0; i < MAX_RECEIVED_FILES; i++) {
+				if (receivedFiles[i] == assembler) {
+					receivedFiles[i] = null;
+					receivedFrom[i] = null;
+				}
+			}
+		}
+	}
+
+	/**
+	 * returns whether the part with the given index is set in the bitmap of
+	 * received parts (see {@link FileAssembler#getReceivedParts()})
+	 * 
+	 * @param bitmap
+	 *            the bitmap of the received parts (may be null)
+	 * @param index
+	 *            the index of the part
+	 * @return whether the part was received
+	 */
+	static boolean isReceived(byte[] bitmap, int index) {
+		return bitmap != null && index / 8 < bitmap.length
+				&& (bitmap[index / 8] & (1 << (index % 8))) != 0;
+	}
+
+	/**
+	 * compares two names that may be null
+	 * 
+	 * @param name1
+	 *            the first name
+	 * @param name2
+	 *            the second name
+	 * @return whether the names are equal
+	 */
+	private static boolean equals(String name1, String name2) {
+		return name1 == null ? name2 == null : name1.equals(name2);
+	}
+}
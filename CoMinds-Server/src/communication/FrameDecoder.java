@@ -0,0 +1,372 @@
+/*
+ *  CoMinds is a Java framework for collaborative robotic scenarios with
+ *  Lego Mindstorms based leJOS. A complete documentation can be found
+ *  in docs/thesis.pdf.
+ *
+ *  Copyright (C) 2010  Annabelle Klarl
+ *  All rights reserved.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ * 
+ */
+package communication;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+import common.NameTable;
+
+/**
+ * This decodes the frames of a managed connection (see {@link RoutingReader})
+ * incrementally from a byte buffer. A frame may arrive in arbitrary chunks: the
+ * decoder remembers how far it got and continues with the next chunk. Frames
+ * with names and frames with the compact header (see {@link NodeIds}) are
+ * decoded. The names are read into a header buffer that is used for all frames
+ * and are interned in a {@link NameTable}. The data of frames for this pc is
+ * read into a data buffer that is used for all frames as well, so a frame must
+ * be handled before the next frame is decoded.
+ * 
+ * @author Annabelle Klarl
+ */
+class FrameDecoder {
+
+	// the parts of a frame in the order they are read
+	private static final int START = 0;
+	private static final int FROM_LENGTH = 1;
+	private static final int FROM = 2;
+	private static final int TO_LENGTH = 3;
+	private static final int TO = 4;
+	private static final int CODE = 5;
+	private static final int DATA_LENGTH = 6;
+	private static final int DATA = 7;
+	// the parts of the compact header
+	private static final int FROM_ID = 8;
+	private static final int TO_ID = 9;
+
+	// the number of names that are interned by this decoder
+	private static final int NAME_TABLE_SIZE = 16;
+
+	private final NodeIds nodeIds;
+	private final String myName;
+	private final NameTable names = new NameTable(NAME_TABLE_SIZE);
+
+	private int state = START;
+
+	// an int that is read byte by byte
+	private int intValue;
+	private int intBytes;
+
+	// a part of a byte array that is read chunk by chunk
+	private byte[] bytes;
+	private int filled;
+	private int end;
+
+	// the header of the current frame with names (empty for the compact
+	// header) and the buffer for data for this pc
+	private byte[] header = new byte[32];
+	private int headerLength;
+	private byte[] data = new byte[64];
+
+	// the current frame
+	private int fromId;
+	private int toId;
+	private String from;
+	private String to;
+	private byte code;
+	private byte[] frame;
+	private int dataOffset;
+	private int dataLength;
+
+	/**
+	 * Constructor
+	 * 
+	 * @param nodeIds
+	 *            the ids of all devices (for the compact header)
+	 * @param myName
+	 *            the name of this pc
+	 */
+	public FrameDecoder(NodeIds nodeIds, String myName) {
+		this.nodeIds = nodeIds;
+		this.myName = myName;
+	}
+
+	/**
+	 * decodes as many bytes from the buffer as are needed to complete the
+	 * current frame. If this method returns true the frame can be fetched by
+	 * the getters and the remaining bytes of the buffer belong to the next
+	 * frame. The data of a data frame that is forwarded is read directly into
+	 * an array that already holds the header of the frame, so the frame can be
+	 * forwarded as it is. The data of a data frame for this pc is read into the
+	 * data buffer of this decoder.
+	 * 
+	 * @param buffer
+	 *            the buffer to read from
+	 * @return whether a frame is complete
+	 * @throws IOException
+	 *             thrown if the stream contains no valid frame or a length
+	 *             above the maximum of the protocol
+	 */
+	public boolean decode(ByteBuffer buffer) throws IOException {
+		while (buffer.hasRemaining()) {
+			switch (this.state) {
+			case START:
+				byte first = buffer.get();
+				this.headerLength = 0;
+				if (first == PCConnectionManager.COMPACT_HEADER) {
+					this.state = FROM_ID;
+				}
+				else {
+					// the first byte of the length of the first name
+					this.intValue = first & 0xFF;
+					this.intBytes = 1;
+					this.state = FROM_LENGTH;
+				}
+				break;
+
+			case FROM_ID:
+				this.fromId = buffer.get() & 0xFF;
+				this.from = this.getName(this.fromId);
+				this.state = TO_ID;
+				break;
+
+			case TO_ID:
+				this.toId = buffer.get() & 0xFF;
+				this.to = this.getName(this.toId);
+				this.state = CODE;
+				break;
+
+			case FROM_LENGTH:
+			case TO_LENGTH:
+			case DATA_LENGTH:
+				if (this.readInt(buffer)) {
+					if (this.intValue < 0) {
+						throw new IOException("negative length " + this.intValue
+								+ " in frame");
+					}
+					int maxLength = PCConnectionManager.MAX_NAME_LENGTH;
+					if (this.state == DATA_LENGTH) {
+						maxLength = PCConnectionManager.MAX_DATA_LENGTH;
+					}
+					if (this.intValue > maxLength) {
+						throw new IOException("length " + this.intValue
+								+ " in frame exceeds " + maxLength);
+					}
+					if (this.state == DATA_LENGTH) {
+						this.startData(this.intValue);
+					}
+					else {
+						this.startName(this.intValue);
+					}
+					this.state++;
+				}
+				break;
+
+			case FROM:
+			case TO:
+			case DATA:
+				int count = Math.min(buffer.remaining(), this.end - this.filled);
+				buffer.get(this.bytes, this.filled, count);
+				this.filled += count;
+				break;
+
+			case CODE:
+				this.code = buffer.get();
+				this.frame = null;
+				this.dataOffset = 0;
+				this.dataLength = 0;
+
+				if (PCConnectionManager.hasData(this.code)) {
+					this.state = DATA_LENGTH;
+				}
+				else {
+					this.state = START;
+					return true;
+				}
+				break;
+			}
+
+			if (this.bytes != null && this.filled == this.end) {
+				if (this.state == FROM) {
+					this.from = this.names.getName(this.header,
+							this.headerLength, this.end - this.headerLength);
+					this.headerLength = this.end;
+					this.state = TO_LENGTH;
+				}
+				else if (this.state == TO) {
+					this.to = this.names.getName(this.header,
+							this.headerLength, this.end - this.headerLength);
+					this.headerLength = this.end;
+					this.state = CODE;
+				}
+				else if (this.state == DATA) {
+					this.frame = this.bytes;
+					this.dataOffset = this.end - this.intValue;
+					this.dataLength = this.intValue;
+					this.state = START;
+				}
+				this.bytes = null;
+
+				if (this.state == START) {
+					return true;
+				}
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * prepares reading a name of the given length into the header buffer. The
+	 * length is written in front of the name, so the header buffer holds the
+	 * header as it was sent.
+	 * 
+	 * @param length
+	 *            the length of the name
+	 */
+	private void startName(int length) {
+		if (this.header.length < this.headerLength + 4 + length) {
+			byte[] header = new byte[this.headerLength + 4 + length];
+			System.arraycopy(this.header, 0, header, 0, this.headerLength);
+			this.header = header;
+		}
+		CommunicationUtils.convertIntToByteArray(length, this.header,
+				this.headerLength);
+		this.headerLength += 4;
+		this.bytes = this.header;
+		this.filled = this.headerLength;
+		this.end = this.headerLength + length;
+	}
+
+	/**
+	 * prepares reading the data of the given length. Data for this pc is read
+	 * into the data buffer, all other data into a new frame that can be
+	 * forwarded.
+	 * 
+	 * @param length
+	 *            the length of the data
+	 */
+	private void startData(int length) {
+		if (this.myName.equals(this.to)) {
+			if (this.data.length < length) {
+				this.data = new byte[length];
+			}
+			this.bytes = this.data;
+			this.filled = 0;
+			this.end = length;
+		}
+		else {
+			if (this.headerLength == 0) {
+				this.bytes = RoutingReader.createDataFrame(this.fromId,
+						this.toId, this.code, length);
+			}
+			else {
+				this.bytes = RoutingReader.createDataFrame(this.header,
+						this.headerLength, this.code, length);
+			}
+			this.filled = this.bytes.length - length;
+			this.end = this.bytes.length;
+		}
+	}
+
+	/**
+	 * gets the name of the device with the given id from a compact header
+	 * 
+	 * @param id
+	 *            the id of the device
+	 * @return the name of the device
+	 * @throws IOException
+	 *             thrown if no device has this id
+	 */
+	private String getName(int id) throws IOException {
+		String name = this.nodeIds.getName(id);
+		if (name == null) {
+			throw new IOException("unknown id " + id + " in compact header");
+		}
+		return name;
+	}
+
+	/**
+	 * reads an int byte by byte (big endian as in a DataInputStream)
+	 * 
+	 * @param buffer
+	 *            the buffer to read from
+	 * @return whether all four bytes of the int are read
+	 */
+	private boolean readInt(ByteBuffer buffer) {
+		while (buffer.hasRemaining() && this.intBytes < 4) {
+			this.intValue = (this.intValue << 8) | (buffer.get() & 0xFF);
+			this.intBytes++;
+		}
+		if (this.intBytes == 4) {
+			this.intBytes = 0;
+			return true;
+		}
+		return false;
+	}
+
+	/**
+	 * gets from which device the last frame originates
+	 * 
+	 * @return the name of the device the frame originates from
+	 */
+	public String getFrom() {
+		return this.from;
+	}
+
+	/**
+	 * gets to which device the last frame is sent
+	 * 
+	 * @return the name of the device the frame is sent to
+	 */
+	public String getTo() {
+		return this.to;
+	}
+
+	/**
+	 * gets the code of the last frame
+	 * 
+	 * @return the code of the frame
+	 */
+	public byte getCode() {
+		return this.code;
+	}
+
+	/**
+	 * gets the whole last frame or only its data if the frame is for this pc
+	 * (only set if it was a data frame)
+	 * 
+	 * @return the frame or null
+	 */
+	public byte[] getFrame() {
+		return this.frame;
+	}
+
+	/**
+	 * gets where the data starts in the last frame (only set if it was a data
+	 * frame)
+	 * 
+	 * @return the offset of the data in the frame
+	 */
+	public int getDataOffset() {
+		return this.dataOffset;
+	}
+
+	/**
+	 * gets the length of the data in the last frame (only set if it was a data
+	 * frame)
+	 * 
+	 * @return the length of the data in the frame
+	 */
+	public int getDataLength() {
+		return this.dataLength;
+	}
+}
@@ -21,23 +21,27 @@
  */
 package communication;
 
+import java.io.ByteArrayInputStream;
+import java.io.EOFException;
 import java.io.File;
-import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 
+import logging.LogDecoder;
 import logging.Logger;
 import sensorwrappers.color.AbstractColorSensorWrapper;
 import sensorwrappers.compass.AbstractCompassSensorWrapper;
 import sensorwrappers.exceptions.SensorException;
 
 import common.FileLocalizer;
+import common.LzCodec;
 import common.exceptions.QueueBlockedException;
 import communication.exceptions.ConnectionClosedException;
 import communication.exceptions.UnexpectedResponseException;
 import communication.extendedClasses.ExtendedDataInputStream;
+import communication.extendedClasses.FrameInputStream;
 
 /**
  * This class will read anything that is received at the input stream of a bt
@@ -70,11 +74,23 @@ class MessageReader {
 	private float lightValue = -1;
 	// the file that was read from the remote device
 	private String remoteFileName = null;
-
-	// number of parts of a file
-	private int numberOfParts = 0;
-	// counter for counting how many parts of a file have to be read further on
-	private int partOfFilesLeft = 0;
+	// the file whose parts are being received at the moment
+	private FileAssembler receivingFile = null;
+	// the file that is received as FILE_PART and how many of its parts are
+	// left (such a file cannot be resumed, see BTComm#FILE_RESUMABLE_PART)
+	private FileAssembler partedFile = null;
+	private int partsLeft = 0;
+
+	// the log that is streamed from the remote nxt and the text file it is
+	// written to (the decoder keeps the table of Strings from one frame to
+	// the next, see BTComm#LOG)
+	private final FrameInputStream logInput = new FrameInputStream();
+	private LogDecoder logDecoder = null;
+	private FileOutputStream logOutput = null;
+
+	// whether the remote device writes its files only as fast as this
+	// device grants credits (see BTComm#FILE_CREDIT_OFFER)
+	private boolean filesPaced = false;
 
 	private boolean closeAcknowledged = false;
 	private boolean closeRequested = false;
@@ -241,13 +257,10 @@ class MessageReader {
 		finally {
 
 			try {
-				// concatenate any parts of files that are not concatenated
-				// already
-				if (this.closed && this.partOfFilesLeft != 0) {
-					this.numberOfParts -= this.partOfFilesLeft;
-					this.concatenateFiles();
-					this.owner.notifyAllObserversForEvent(BTEvent.FILE,
-							this.remoteFileName);
+				// suspend any file whose parts are not all received
+				if (this.closed) {
+					this.suspendFiles();
+					this.closeLogFile();
 				}
 			}
 			// to avoid the weird beep
@@ -272,29 +285,137 @@ class MessageReader {
 	 */
 	private void readSend(byte code, ExtendedDataInputStream dis)
 			throws UnexpectedResponseException, IOException {
-		code = (byte) (code & BTComm.LOWER_BITS);
+		boolean compact = (code & BTComm.COMPACT) != 0;
+		code = (byte) (code & BTComm.LOWER_BITS & ~BTComm.COMPACT);
 
 		if (code == BTComm.LIGHT) {
-			this.lightValue = this.readLightValue(dis);
+			this.lightValue = this.readLightValue(dis, compact);
 			this.owner.notifyAllObserversForEvent(BTEvent.LIGHT_VALUE,
 					this.lightValue);
 		}
 		else if (code == BTComm.DEGREE) {
-			this.remoteDegree = this.readDegree(dis);
+			this.remoteDegree = this.readDegree(dis, compact);
 			this.owner.notifyAllObserversForEvent(BTEvent.DEGREE,
 					this.remoteDegree);
 		}
-		if (code == BTComm.EMPTY_FILE || code == BTComm.FILE_PART
+		else if (code == BTComm.EMPTY_FILE || code == BTComm.FILE_PART
+				|| code == BTComm.FILE_RESUMABLE_PART
 				|| code == BTComm.FILE_WHOLE) {
-			this.readFile(code, dis);
+			this.readFile(code, dis, compact, false);
+		}
+		else if (code == BTComm.FILE_COMPRESSED) {
+			// the code of the compressed file frame follows
+			int fileCode = dis.read();
+			if (fileCode < 0) {
+				throw new EOFException("end of stream in compressed file");
+			}
+			this.readFile((byte) fileCode, dis, compact, true);
+		}
+		else if (code == BTComm.LOG) {
+			this.readLog(dis, compact);
 		}
 		else {
 			throw new UnexpectedResponseException(
-					"Code was not FILE or DEGREE or LIGHT VALUE, but "
+					"Code was not FILE or DEGREE or LIGHT VALUE or LOG, but "
 							+ Byte.toString(code));
 		}
 	}
 
+	/**
+	 * reads log records that are streamed from the remote nxt (see
+	 * {@link BTComm#LOG}) and appends them as text to the log file of the nxt
+	 * (see {@link #openLogFile()}). Records that cannot be decoded are dropped
+	 * (the records after them can be decoded again as soon as a new binary log
+	 * starts).
+	 * 
+	 * @param dis
+	 *            the input stream to read from
+	 * @param compact
+	 *            whether the content is encoded compactly (see
+	 *            {@link BTComm#COMPACT})
+	 * @throws IOException
+	 *             if the records could not be read from the input stream
+	 * @throws UnexpectedResponseException
+	 *             if the length of the records was negative or the kind of
+	 *             the records was not known
+	 */
+	private void readLog(ExtendedDataInputStream dis, boolean compact)
+			throws IOException, UnexpectedResponseException {
+		int kind = dis.read();
+		int length = compact ? dis.readVarInt() : dis.readInt();
+		if (length < 0) {
+			throw new UnexpectedResponseException(
+					"Send length of log was negative");
+		}
+		if (kind != BTComm.LOG_RECORDS && kind != BTComm.LOG_SEGMENT) {
+			throw new UnexpectedResponseException(
+					"Log was neither LOG_RECORDS nor LOG_SEGMENT, but " + kind);
+		}
+		byte[] records = new byte[length];
+		dis.readFully(records);
+
+		try {
+			if (this.logOutput == null) {
+				this.openLogFile();
+			}
+
+			if (kind == BTComm.LOG_SEGMENT) {
+				// a segment that was kept on the nxt is decoded on its own
+				LogDecoder.decode(new ByteArrayInputStream(records),
+						this.logOutput);
+			}
+			else {
+				this.logInput.setFrame(records, 0, length);
+				byte[] line;
+				while ((line = this.logDecoder.readLine()) != null) {
+					this.logOutput.write(line);
+				}
+			}
+			this.logOutput.flush();
+		}
+		catch (IOException e) {
+			if (this.logging) {
+				logger.error(this.btcommName + "log not written: "
+						+ e.getMessage());
+			}
+		}
+	}
+
+	/**
+	 * opens the text file the log of the remote nxt is appended to (the name
+	 * of the nxt with "_log.txt" localized by the file localizer if there is
+	 * one)
+	 * 
+	 * @throws FileNotFoundException
+	 *             thrown if the file could not be opened
+	 */
+	private void openLogFile() throws FileNotFoundException {
+		String fileName = this.owner.getRemoteName() + "_log.txt";
+		if (this.ownFileLocalizer != null) {
+			fileName = this.ownFileLocalizer.getPathToFile(fileName);
+		}
+		this.logOutput = new FileOutputStream(fileName, true);
+		if (this.logDecoder == null) {
+			this.logDecoder = new LogDecoder(this.logInput);
+		}
+
+		if (this.logging) {
+			logger.info(this.btcommName + "log of " + this.owner.getRemoteName()
+					+ " written to " + fileName);
+		}
+	}
+
+	/**
+	 * closes the text file the log of the remote nxt is appended to (it is
+	 * opened again if more log records are streamed)
+	 */
+	private void closeLogFile() {
+		if (this.logOutput != null) {
+			this.closeFileOutputStream("log", this.logOutput);
+			this.logOutput = null;
+		}
+	}
+
 	/**
 	 * reads a file from the input stream (reads file name first, then length
 	 * and the file 128 bytes per read) and stores it at the location of the
@@ -307,13 +428,27 @@ class MessageReader {
 	 *            are send or the file as a whole is send)
 	 * @param dis
 	 *            the input stream to read from
+	 * @param compact
+	 *            whether the content is encoded compactly (see
+	 *            {@link BTComm#COMPACT})
+	 * @param compressed
+	 *            whether the content of the file is compressed (see
+	 *            {@link BTComm#FILE_COMPRESSED})
 	 * @throws IOException
 	 *             if anything could not be read from inputstream
 	 * @throws UnexpectedResponseException
-	 *             if file size was negative
+	 *             if file size was negative or the compressed file was corrupt
 	 */
-	private void readFile(byte code, ExtendedDataInputStream dis)
-			throws IOException, UnexpectedResponseException {
+	private void readFile(byte code, ExtendedDataInputStream dis,
+			boolean compact, boolean compressed) throws IOException,
+			UnexpectedResponseException {
+		if (compressed && code != BTComm.FILE_WHOLE
+				&& code != BTComm.FILE_PART
+				&& code != BTComm.FILE_RESUMABLE_PART) {
+			throw new UnexpectedResponseException(
+					"Code was neither FILE_WHOLE nor FILE_PART nor FILE_RESUMABLE_PART in compressed file, but "
+							+ Byte.toString(code));
+		}
 
 		switch (code) {
 		case BTComm.EMPTY_FILE:
@@ -323,48 +458,35 @@ class MessageReader {
 			break;
 
 		case BTComm.FILE_WHOLE:
-			this.readFileWithoutHeader(dis);
+			try {
+				this.readFileWithoutHeader(dis, compact, compressed);
+			}
+			finally {
+				// the remote device may write the next frame of a file
+				this.grantFileCredit();
+			}
 			this.owner.notifyAllObserversForEvent(BTEvent.FILE,
 					this.remoteFileName);
 			break;
 		case BTComm.FILE_PART:
-			// read number of parts
-			int currentNumberOfParts = dis.readInt();
-
-			// a new file is send
-			if (this.partOfFilesLeft == 0) {
-				this.numberOfParts = currentNumberOfParts;
-				this.partOfFilesLeft = currentNumberOfParts;
+			try {
+				this.readFilePart(dis, compact, compressed);
 			}
-			// a part of a file is send
-			else {
-				// the number of parts changed during sending the parts
-				if (this.numberOfParts != currentNumberOfParts) {
-					int diff = this.numberOfParts - currentNumberOfParts;
-					this.numberOfParts = currentNumberOfParts;
-					this.partOfFilesLeft -= diff;
-				}
-				// else: everything is ok, read next part of file
+			finally {
+				this.grantFileCredit();
 			}
-
-			// read file
-			this.readFileWithoutHeader(dis);
-
-			this.partOfFilesLeft--;
-
-			// if no more files are being send, concatenate parts
-			if (this.partOfFilesLeft == 0) {
-				this.concatenateFiles();
-
-				this.partOfFilesLeft = 0;
-				this.numberOfParts = 0;
-				this.owner.notifyAllObserversForEvent(BTEvent.FILE,
-						this.remoteFileName);
+			break;
+		case BTComm.FILE_RESUMABLE_PART:
+			try {
+				this.readResumablePart(dis, compact, compressed);
+			}
+			finally {
+				this.grantFileCredit();
 			}
 			break;
 		default:
 			throw new UnexpectedResponseException(
-					"Code was neither EMPTY_FILE nor FILE_WHOLE nor FILE_PART, but "
+					"Code was neither EMPTY_FILE nor FILE_WHOLE nor FILE_PART nor FILE_RESUMABLE_PART, but "
 							+ Byte.toString(code));
 		}
 
@@ -379,19 +501,29 @@ class MessageReader {
 	 * reads a file from the bluetooth input stream without reading the file
 	 * header (SEND-FILE). It starts with reading the file name, file size and
 	 * then reading the file 128 bytes per step. It also writes it to a file
-	 * with the read filename.
+	 * with the read filename. A compressed file is read as a whole and
+	 * decompressed before it is written.
 	 * 
 	 * @param dis
 	 *            the input stream to read from
+	 * @param compact
+	 *            whether the content is encoded compactly (see
+	 *            {@link BTComm#COMPACT})
+	 * @param compressed
+	 *            whether the content of the file is compressed (see
+	 *            {@link BTComm#FILE_COMPRESSED})
 	 * @throws IOException
 	 *             if something could not be read from input stream
 	 * @throws UnexpectedResponseException
-	 *             if the file size is negative
+	 *             if the file size is negative or the compressed file is
+	 *             corrupt
 	 */
-	private void readFileWithoutHeader(ExtendedDataInputStream dis)
-			throws IOException, UnexpectedResponseException {
+	private void readFileWithoutHeader(ExtendedDataInputStream dis,
+			boolean compact, boolean compressed) throws IOException,
+			UnexpectedResponseException {
 		// read file name
-		this.remoteFileName = dis.readString();
+		this.remoteFileName = compact ? dis.readCompactString() : dis
+				.readString();
 
 		if (this.remoteFileName != null && this.remoteFileName.length() != 0) {
 
@@ -399,73 +531,274 @@ class MessageReader {
 			this.remoteFileName = this.ownFileLocalizer
 					.getPathToFile(this.remoteFileName);
 
-			FileOutputStream fileOutput = this
-					.openFileOutputStream(this.remoteFileName);
-
 			// read file size
-			int fileSize = dis.readInt();
+			int fileSize = compact ? dis.readVarInt() : dis.readInt();
 			if (fileSize < 0) {
 				throw new UnexpectedResponseException(
 						"Send fileSize was negative");
 			}
-			this.getFileFromInputToOutput(fileSize, dis, fileOutput);
 
-			this.closeFileOutputStream(this.remoteFileName, fileOutput);
+			if (compressed) {
+				byte[] file = this.readCompressed(dis, fileSize);
+
+				FileOutputStream fileOutput = this
+						.openFileOutputStream(this.remoteFileName);
+				fileOutput.write(file);
+				this.closeFileOutputStream(this.remoteFileName, fileOutput);
+			}
+			else {
+				FileOutputStream fileOutput = this
+						.openFileOutputStream(this.remoteFileName);
+				this.getFileFromInputToOutput(fileSize, dis, fileOutput);
+				this.closeFileOutputStream(this.remoteFileName, fileOutput);
+			}
 		}
 	}
 
 	/**
-	 * concatenates several files that are named like the private variable
-	 * remoteFileName with a trailing number. It concatenates until
-	 * numberOfParts files.
+	 * reads the size of the compressed content of a file and the compressed
+	 * content from the input stream and decompresses it (see
+	 * {@link BTComm#FILE_COMPRESSED})
 	 * 
-	 * @throws FileNotFoundException
-	 *             thrown if the output file could not be created (the file to
-	 *             store the concatenated files)
+	 * @param dis
+	 *            the input stream to read from
+	 * @param size
+	 *            the size of the uncompressed content
+	 * @return the uncompressed content
+	 * @throws IOException
+	 *             if something could not be read from input stream
+	 * @throws UnexpectedResponseException
+	 *             if the compressed content is corrupt
 	 */
-	private void concatenateFiles() throws FileNotFoundException {
-
-		this.remoteFileName = this.remoteFileName.substring(0,
-				this.remoteFileName.lastIndexOf(Integer
-						.toString(this.numberOfParts - 1)));
-
-		FileOutputStream fileOutput = this
-				.openFileOutputStream(this.remoteFileName);
+	private byte[] readCompressed(ExtendedDataInputStream dis, int size)
+			throws IOException, UnexpectedResponseException {
+		int compressedSize = dis.readInt();
+		if (compressedSize < 0
+				|| compressedSize > LzCodec.getMaxCompressedLength(size)) {
+			throw new UnexpectedResponseException(
+					"Send compressed size was invalid: " + compressedSize);
+		}
 
-		// read each file part
-		for (int j = 0; j < this.numberOfParts; j++) {
-			try {
-				// read file
-				File file = new File(this.remoteFileName + j);
+		byte[] compressed = new byte[compressedSize];
+		dis.readFully(compressed);
+		byte[] bytes = new byte[size];
+		if (LzCodec.decompress(compressed, 0, compressedSize, bytes, 0, size) != size) {
+			throw new UnexpectedResponseException("Compressed file "
+					+ this.remoteFileName + " was corrupt");
+		}
+		return bytes;
+	}
 
-				FileInputStream input = new FileInputStream(file);
-				int fileSize = input.available();
+	/**
+	 * reads a part of a file from the input stream (see
+	 * {@link BTComm#FILE_PART}) and writes it into the file. The parts are
+	 * sent one after the other: the name of the first part (the name of the
+	 * file with the index 0) starts a new file. If all parts of the file are
+	 * received, the file is finished and the observers are notified. Such a
+	 * file cannot be resumed, so it is cancelled if a part is missing.
+	 * 
+	 * @param dis
+	 *            the input stream to read from
+	 * @param compact
+	 *            whether the content is encoded compactly (see
+	 *            {@link BTComm#COMPACT})
+	 * @param compressed
+	 *            whether the content of the part is compressed (see
+	 *            {@link BTComm#FILE_COMPRESSED})
+	 * @throws IOException
+	 *             if something could not be read from input stream or the part
+	 *             could not be written
+	 * @throws UnexpectedResponseException
+	 *             if the size of the part is negative
+	 */
+	private void readFilePart(ExtendedDataInputStream dis, boolean compact,
+			boolean compressed) throws IOException,
+			UnexpectedResponseException {
+		// read number of parts, name and size of this part
+		int numberOfParts = compact ? dis.readVarInt() : dis.readInt();
+		String partName = compact ? dis.readCompactString() : dis.readString();
+		int partSize = compact ? dis.readVarInt() : dis.readInt();
+		int compressedSize = compressed ? dis.readInt() : -1;
+		if (partSize < 0) {
+			throw new UnexpectedResponseException("Send fileSize was negative");
+		}
 
-				this.getFileFromInputToOutput(fileSize, input, fileOutput);
-				input.close();
+		// a new file is send: the name of the first part ends with its index
+		if (this.partedFile == null) {
+			this.partedFile = new FileAssembler(0, this.ownFileLocalizer
+					.getPathToFile(partName.substring(0,
+							partName.length() - 1)),
+					MessageWriter.FILE_PART_SIZE);
+			this.partsLeft = numberOfParts;
+		}
+		FileAssembler assembler = this.partedFile;
+		this.receivingFile = assembler;
+
+		// only the last part may be smaller
+		int index = numberOfParts - this.partsLeft;
+		int offset = index * MessageWriter.FILE_PART_SIZE;
+		assembler.setSize(numberOfParts, this.partsLeft == 1 ? offset
+				+ partSize : numberOfParts * MessageWriter.FILE_PART_SIZE);
+		if (!assembler.writePart(index, dis, partSize, compressedSize)
+				&& this.logging) {
+			logger.error(this.btcommName + "part " + partName
+					+ " is corrupt");
+		}
 
-				file.delete();
+		// if no more parts are being send, finish the file
+		this.partsLeft--;
+		if (this.partsLeft <= 0) {
+			this.receivingFile = null;
+			this.partedFile = null;
+			this.remoteFileName = assembler.getFileName();
+			if (assembler.isComplete()) {
+				assembler.finish();
+				this.owner.notifyAllObserversForEvent(BTEvent.FILE,
+						this.remoteFileName);
 			}
-			catch (IOException e) {
+			else {
+				this.cancelFile(assembler);
 				if (this.logging) {
-					logger.error(this.btcommName
-							+ "IOException while reading file part "
-							+ this.remoteFileName + j);
+					logger.error(this.btcommName + "file "
+							+ this.remoteFileName + " is incomplete");
 				}
 			}
 		}
-		this.closeFileOutputStream(this.remoteFileName, fileOutput);
 	}
 
-	protected void concatenateLeftFiles() throws FileNotFoundException {
-		if (this.partOfFilesLeft != 0) {
-			this.numberOfParts -= this.partOfFilesLeft;
-			this.concatenateFiles();
+	/**
+	 * reads a resumable part of a file from the input stream (see
+	 * {@link BTComm#FILE_RESUMABLE_PART}) and writes it into the file the part
+	 * belongs to. The file is identified by the id of its transfer, so that
+	 * parts that are sent again after the connection was lost are written into
+	 * the same file. If all parts of the file are received, the file is
+	 * finished and the observers are notified.
+	 * 
+	 * @param dis
+	 *            the input stream to read from
+	 * @param compact
+	 *            whether the content is encoded compactly (see
+	 *            {@link BTComm#COMPACT})
+	 * @param compressed
+	 *            whether the content of the part is compressed (see
+	 *            {@link BTComm#FILE_COMPRESSED})
+	 * @throws IOException
+	 *             if something could not be read from input stream or the part
+	 *             could not be written
+	 * @throws UnexpectedResponseException
+	 *             if the file size or the size of the part is negative
+	 */
+	private void readResumablePart(ExtendedDataInputStream dis,
+			boolean compact, boolean compressed) throws IOException,
+			UnexpectedResponseException {
+		// read transfer id, number of parts, file size and index of the part
+		int transferId = dis.readInt();
+		int numberOfParts = compact ? dis.readVarInt() : dis.readInt();
+		int fileSize = compact ? dis.readVarInt() : dis.readInt();
+		int index = compact ? dis.readVarInt() : dis.readInt();
+
+		// read name, size and checksum of this part
+		String fileName = compact ? dis.readCompactString() : dis.readString();
+		int partSize = compact ? dis.readVarInt() : dis.readInt();
+		int checksum = dis.readInt();
+		int compressedSize = compressed ? dis.readInt() : -1;
+		if (fileSize < 0 || partSize < 0) {
+			throw new UnexpectedResponseException("Send fileSize was negative");
+		}
+
+		// get the file the part belongs to or start a new one
+		String remoteName = this.owner.getRemoteName();
+		FileAssembler assembler = FileTransfers.getReceivedFile(remoteName,
+				transferId);
+		if (assembler == null) {
+			assembler = new FileAssembler(transferId, this.ownFileLocalizer
+					.getPathToFile(fileName), MessageWriter.FILE_PART_SIZE);
+			FileAssembler replaced = FileTransfers.addReceivedFile(remoteName,
+					assembler);
+			if (replaced != null) {
+				this.cancelFile(replaced);
+			}
+		}
+
+		// write the part at its offset into the file (a corrupt part is
+		// requested again after the next connection is established)
+		assembler.setSize(numberOfParts, fileSize);
+		this.receivingFile = assembler;
+		if (!assembler.writePart(index, dis, partSize, compressedSize,
+				checksum)) {
+			this.receivingFile = null;
+			if (this.logging) {
+				logger.error(this.btcommName + "part " + index + " of file "
+						+ assembler.getFileName() + " is corrupt");
+			}
+		}
+
+		// if all parts are received, finish the file
+		if (assembler.isComplete()) {
+			this.receivingFile = null;
+			FileTransfers.removeReceivedFile(assembler);
+			assembler.finish();
+
+			this.remoteFileName = assembler.getFileName();
 			this.owner.notifyAllObserversForEvent(BTEvent.FILE,
 					this.remoteFileName);
 		}
 	}
 
+	/**
+	 * cancels a file that is received in parts and removes it from the files
+	 * that are received
+	 * 
+	 * @param assembler
+	 *            the assembler of the file
+	 */
+	private void cancelFile(FileAssembler assembler) {
+		FileTransfers.removeReceivedFile(assembler);
+		try {
+			assembler.cancel();
+		}
+		catch (IOException e) {
+			if (this.logging) {
+				logger.error(this.btcommName
+						+ "IOException while cancelling file "
+						+ assembler.getFileName());
+			}
+		}
+	}
+
+	/**
+	 * suspends the files from the remote device whose parts are not all
+	 * received yet (e.g. if the connection is closed while a file is send).
+	 * The missing parts can be requested after the next connection is
+	 * established (see {@link BTComm#resumeFileTransfers()}). A file that is
+	 * received as {@link BTComm#FILE_PART} cannot be resumed and is cancelled.
+	 */
+	protected void suspendFiles() {
+		if (this.partedFile != null) {
+			this.cancelFile(this.partedFile);
+			this.partedFile = null;
+		}
+
+		FileAssembler[] assemblers = FileTransfers.getReceivedFiles(this.owner
+				.getRemoteName());
+		for (FileAssembler assembler : assemblers) {
+			try {
+				assembler.suspend();
+			}
+			catch (IOException e) {
+				if (this.logging) {
+					logger.error(this.btcommName
+							+ "IOException while suspending file "
+							+ assembler.getFileName());
+				}
+			}
+			if (this.logging) {
+				logger.info(this.btcommName + "file "
+						+ assembler.getFileName() + " suspended");
+			}
+		}
+	}
+
 	/**
 	 * opens a file output stream for the given file name
 	 * 
@@ -579,15 +912,18 @@ class MessageReader {
 	 * 
 	 * @param dis
 	 *            the input stream to read from
+	 * @param compact
+	 *            whether the content is encoded compactly (see
+	 *            {@link BTComm#COMPACT})
 	 * @return the read degree
 	 * @throws IOException
 	 *             if the degree couldn't be read from the input stream
 	 * @throws UnexpectedResponseException
 	 *             if the received degree was negative or bigger than 360
 	 */
-	private float readDegree(ExtendedDataInputStream dis) throws IOException,
-			UnexpectedResponseException {
-		float degree = dis.readFloat();
+	private float readDegree(ExtendedDataInputStream dis, boolean compact)
+			throws IOException, UnexpectedResponseException {
+		float degree = compact ? dis.readFixedPoint() : dis.readFloat();
 
 		if (degree < 0) {
 			this.owner.notifyAllObserversForEvent(BTEvent.DEGREE);
@@ -612,15 +948,18 @@ class MessageReader {
 	 * 
 	 * @param dis
 	 *            the input stream to read from
+	 * @param compact
+	 *            whether the content is encoded compactly (see
+	 *            {@link BTComm#COMPACT})
 	 * @return the read light value
 	 * @throws IOException
 	 *             if the light value couldn't be read from the input stream
 	 * @throws UnexpectedResponseException
 	 *             if the received light value was negative or bigger than 100
 	 */
-	private float readLightValue(ExtendedDataInputStream dis)
-			throws IOException, UnexpectedResponseException {
-		float lightValue = dis.readFloat();
+	private float readLightValue(ExtendedDataInputStream dis,
+			boolean compact) throws IOException, UnexpectedResponseException {
+		float lightValue = compact ? dis.readFixedPoint() : dis.readFloat();
 
 		if (lightValue < 0) {
 			this.owner.notifyAllObserversForEvent(BTEvent.LIGHT_VALUE);
@@ -658,7 +997,7 @@ class MessageReader {
 		code = (byte) (code & BTComm.LOWER_BITS);
 
 		if (code == BTComm.CLOSE_VIRTUAL && !this.closed) {
-			if (this.partOfFilesLeft != 0) {
+			if (this.receivingFile != null) {
 				try {
 					this.owner.writeCommand(BTComm.CLOSE_VIRTUAL_DECLINE);
 					if (this.logging) {
@@ -721,7 +1060,7 @@ class MessageReader {
 			}
 		}
 		else if (code == BTComm.CLOSE_VIRTUAL_ACK) {
-			if (this.partOfFilesLeft != 0) {
+			if (this.receivingFile != null) {
 				this
 						.closeConnection("close ACK received while waiting for files. close however...");
 			}
@@ -741,12 +1080,45 @@ class MessageReader {
 			throw new UnexpectedResponseException(
 					"Close request was not acknowledged");
 		}
+		else if (code == BTComm.CODEC_OFFER || code == BTComm.CODEC_ACK) {
+			// the remote device understands the compact codec
+			this.owner.useCompactCodec(code == BTComm.CODEC_OFFER);
+		}
+		else if (code == BTComm.COMPRESSION_OFFER
+				|| code == BTComm.COMPRESSION_ACK) {
+			// the remote device understands the compression of files
+			this.owner.useCompression(code == BTComm.COMPRESSION_OFFER);
+		}
+		else if (code == BTComm.RESUME_OFFER || code == BTComm.RESUME_ACK) {
+			// the remote device understands the resumable parts of files
+			this.owner.useResumableFiles(code == BTComm.RESUME_OFFER);
+		}
+		else if (code == BTComm.FILE_CREDIT_OFFER) {
+			// the remote device waits for credits before it writes its files
+			this.filesPaced = true;
+			this.owner.grantFileCredits(BTComm.FILE_WINDOW);
+		}
+		else if (code == BTComm.DATA_CREDIT_OFFER) {
+			// the remote device waits for credits before it writes its data
+			this.owner.acceptDataCredits();
+		}
 		else {
 			throw new UnexpectedResponseException("Command was not expected: "
 					+ Byte.toString(code));
 		}
 	}
 
+	/**
+	 * grants the remote device to write the next frame of a file after a
+	 * frame of a file was read (only if the remote device offered to wait for
+	 * credits, see {@link BTComm#FILE_CREDIT_OFFER})
+	 */
+	private void grantFileCredit() {
+		if (this.filesPaced) {
+			this.owner.grantFileCredits(1);
+		}
+	}
+
 	/**
 	 * closes this connection completely (input stream and connection itself)
 	 * and notifies all observers. The given message will be logged.
@@ -785,7 +1157,8 @@ class MessageReader {
 	 */
 	private void readRequest(byte code, ExtendedDataInputStream dis)
 			throws UnexpectedResponseException, IOException {
-		code = (byte) (code & BTComm.LOWER_BITS);
+		boolean compact = (code & BTComm.COMPACT) != 0;
+		code = (byte) (code & BTComm.LOWER_BITS & ~BTComm.COMPACT);
 
 		if (code == BTComm.LIGHT) {
 			this.writeLightValue();
@@ -794,28 +1167,45 @@ class MessageReader {
 			this.writeDegree();
 		}
 		else if (code == BTComm.FILE) {
-			String requestedFileName = dis.readString();
+			String requestedFileName = compact ? dis.readCompactString()
+					: dis.readString();
 			this.writeFile(requestedFileName);
 		}
+		else if (code == BTComm.FILE_CREDIT) {
+			int credits = compact ? dis.readVarInt() : dis.readInt();
+			this.owner.addFileCredits(credits);
+		}
+		else if (code == BTComm.FILE_RESUME) {
+			int transferId = dis.readInt();
+			int fileSize = compact ? dis.readVarInt() : dis.readInt();
+			int length = compact ? dis.readVarInt() : dis.readInt();
+			if (length < 0) {
+				throw new UnexpectedResponseException(
+						"Send length of received parts was negative");
+			}
+			byte[] receivedParts = new byte[length];
+			dis.readFully(receivedParts);
+			this.resendFile(transferId, fileSize, receivedParts);
+		}
 		else {
 			throw new UnexpectedResponseException(
-					"Code was not FILE or DEGREE or LIGHT_VALUE, but "
+					"Code was not FILE or FILE_CREDIT or FILE_RESUME or DEGREE or LIGHT_VALUE, but "
 							+ Byte.toString(code));
 		}
 	}
 
 	/**
-	 * writes the requested file to the owner
+	 * writes the requested file to the owner. The file is written in its own
+	 * thread, so that this reader can read the credits of the remote device
+	 * for the file in the meantime (see {@link BTComm#FILE_CREDIT}).
 	 * 
 	 * @param requestedFileName
 	 *            the file to write
 	 * @throws FileNotFoundException
 	 *             thrown if the file cannot be found
-	 * @throws IOException
-	 *             thrown if the file could not be read
 	 */
 	private void writeFile(String requestedFileName)
-			throws FileNotFoundException, IOException {
+			throws FileNotFoundException {
 		String fileName;
 
 		if (this.ownFileLocalizer == null) {
@@ -833,11 +1223,33 @@ class MessageReader {
 			logger.debug(this.btcommName + "file " + fileName + " req rcv");
 		}
 
+		final String file = fileName;
+		new Thread(new Runnable() {
+			@Override
+			public void run() {
+				MessageReader.this.sendFile(file);
+			}
+		}, "BTFileThread").start();
+	}
+
+	/**
+	 * writes the file with the given name to the owner
+	 * 
+	 * @param fileName
+	 *            the file to write
+	 */
+	private void sendFile(String fileName) {
 		try {
 			this.owner.writeFile(fileName);
 		}
+		catch (IOException e) {
+			if (this.logging) {
+				logger.error(this.btcommName + "in writeFile: "
+						+ e.getMessage());
+			}
+		}
 		catch (ConnectionClosedException e) {
-			// should not happen as reader controls closing
+			// the connection was closed while the file was written
 			if (this.logging) {
 				logger.error(this.btcommName + "in writeFile after close req: "
 						+ e.getMessage());
@@ -852,6 +1264,74 @@ class MessageReader {
 		}
 	}
 
+	/**
+	 * writes the parts of a file that the remote device did not receive to
+	 * the owner (see {@link BTComm#FILE_RESUME}). The parts are written in
+	 * their own thread like a requested file (see {@link #writeFile(String)}).
+	 * 
+	 * @param transferId
+	 *            the id of the transfer of the file
+	 * @param fileSize
+	 *            the size of the file the remote device knows
+	 * @param receivedParts
+	 *            the bitmap of the parts the remote device received
+	 */
+	private void resendFile(final int transferId, final int fileSize,
+			final byte[] receivedParts) {
+		if (this.logging) {
+			logger.debug(this.btcommName + "resume of file " + transferId
+					+ " req rcv");
+		}
+
+		new Thread(new Runnable() {
+			@Override
+			public void run() {
+				MessageReader.this.sendMissingParts(transferId, fileSize,
+						receivedParts);
+			}
+		}, "BTFileThread").start();
+	}
+
+	/**
+	 * writes the parts of a file that the remote device did not receive to
+	 * the owner
+	 * 
+	 * @param transferId
+	 *            the id of the transfer of the file
+	 * @param fileSize
+	 *            the size of the file the remote device knows
+	 * @param receivedParts
+	 *            the bitmap of the parts the remote device received
+	 */
+	private void sendMissingParts(int transferId, int fileSize,
+			byte[] receivedParts) {
+		try {
+			this.owner.resendFile(transferId, fileSize, receivedParts);
+		}
+		catch (IOException e) {
+			// the file is not known any more: the remote device keeps the
+			// parts it received
+			if (this.logging) {
+				logger.error(this.btcommName + "in resendFile: "
+						+ e.getMessage());
+			}
+		}
+		catch (ConnectionClosedException e) {
+			// the connection was closed while the parts were written
+			if (this.logging) {
+				logger.error(this.btcommName + "in resendFile after close req: "
+						+ e.getMessage());
+			}
+		}
+		catch (QueueBlockedException e) {
+			// should not happen
+			if (this.logging) {
+				logger.error(this.btcommName + "in resendFile after close req: "
+						+ e.getMessage());
+			}
+		}
+	}
+
 	/**
 	 * writes the current compass data to the owner
 	 */
@@ -0,0 +1,105 @@
+/*
+ *  CoMinds is a Java framework for collaborative robotic scenarios with
+ *  Lego Mindstorms based leJOS. A complete documentation can be found
+ *  in docs/thesis.pdf.
+ *
+ *  Copyright (C) 2010  Annabelle Klarl
+ *  All rights reserved.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ * 
+ */
+package communication;
+
+import common.WriterUtils;
+
+/**
+ * This table maps the names of the devices of a managed network to one byte
+ * ids. The ids are used instead of the names in the compact header of routed
+ * frames (see {@link PCConnectionManager#COMPACT_HEADER}). The pc assigns the
+ * ids: the pc itself gets the id 0 and the nxts get the ids in the order they
+ * were given to the connection manager. A nxt requests the ids when it
+ * connects to the pc.
+ * 
+ * @author Annabelle Klarl
+ */
+class NodeIds {
+
+	// the maximum number of devices that can get an id (all further devices
+	// are always addressed by their names)
+	static final int MAX_IDS = 256;
+
+	private final String[] names;
+
+	/**
+	 * Constructor
+	 * 
+	 * @param myName
+	 *            the name of the pc (gets the id 0)
+	 * @param nxtNames
+	 *            the names of the nxts (get the ids 1, 2, ...)
+	 */
+	public NodeIds(String myName, String... nxtNames) {
+		this.names = new String[Math.min(MAX_IDS, nxtNames.length + 1)];
+		this.names[0] = myName;
+		for (int i = 1; i < this.names.length; i++) {
+			this.names[i] = nxtNames[i - 1];
+		}
+	}
+
+	/**
+	 * gets the id of the device with the given name
+	 * 
+	 * @param name
+	 *            the name of the device
+	 * @return the id of the device or -1 if the device has no id
+	 */
+	public int getId(String name) {
+		for (int i = 0; i < this.names.length; i++) {
+			if (this.names[i].equals(name)) {
+				return i;
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * gets the name of the device with the given id
+	 * 
+	 * @param id
+	 *            the id of the device
+	 * @return the name of the device or null if no device has this id
+	 */
+	public String getName(int id) {
+		if (id < 0 || id >= this.names.length) {
+			return null;
+		}
+		return this.names[id];
+	}
+
+	/**
+	 * converts this table to a byte array that is sent to the nxts (the
+	 * number of ids followed by the names in the order of their ids)
+	 * 
+	 * @return the table as byte array
+	 */
+	public byte[] toByteArray() {
+		byte[] bytes = CommunicationUtils
+				.convertIntToByteArray(this.names.length);
+		for (String name : this.names) {
+			bytes = WriterUtils.concatArrays(bytes, CommunicationUtils
+					.convertStringToByteArray(name));
+		}
+		return bytes;
+	}
+}
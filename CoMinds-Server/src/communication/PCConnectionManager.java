@@ -21,11 +21,16 @@
  */
 package communication;
 
+import java.io.IOException;
+
 import logging.Logger;
 
 import common.Map;
+import common.RoutingTable;
 import common.exceptions.QueueBlockedException;
 import communication.exceptions.ConnectionClosedException;
+import communication.transport.ChannelTransport;
+import communication.transport.Transport;
 
 /**
  * This class manages all connection of a nxt. It can manage direct connection
@@ -54,6 +59,15 @@ public class PCConnectionManager extends BTCommObserver {
 	protected static final byte CONNECT_ACK = 0x01; // 0000 0001
 	protected static final byte CONNECT_DECLINE = 0x02; // 0000 0010
 	protected static final byte RECEIVER_NOT_KNOWN = 0x03; // 0000 0011
+	// credit of the receiving device of a virtual connection for further
+	// data frames (see DATA_WINDOW). It is only sent to a device that offered
+	// to wait for the credits (see BTComm#DATA_CREDIT_OFFER).
+	protected static final byte DATA_CREDIT = 0x04; // 0000 0100
+	// negotiation of the compact header (the nxt requests the ids, the pc
+	// sends them and the nxt acknowledges that it knows them)
+	protected static final byte NODE_ID_REQUEST = 0x08; // 0000 1000
+	protected static final byte NODE_IDS = 0x09; // 0000 1001
+	protected static final byte NODE_IDS_ACK = 0x0A; // 0000 1010
 
 	// negotiation of physical close
 	protected static final byte CLOSE_PHYSICAL = 0x05; // 0000 0101
@@ -63,10 +77,29 @@ public class PCConnectionManager extends BTCommObserver {
 	protected static final byte UPPER_BITS = -0x10;
 	protected static final byte LOWER_BITS = 0x0F;
 
+	// the first byte of a frame with the compact header: the frame contains
+	// the one byte ids of the devices instead of their names (see NodeIds). A
+	// frame with names starts with the length of the first name, so it never
+	// starts with this byte.
+	protected static final byte COMPACT_HEADER = (byte) 0x80; // 1000 0000
+
+	// how many data frames a device may write to the other device of a
+	// virtual connection from its offer of the credits on and how many
+	// further frames each credit grants (so the pc never has to queue more
+	// than the window of frames per paced virtual connection)
+	protected static final int DATA_WINDOW = 16;
+	protected static final int DATA_CREDIT_BATCH = 4;
+
+	// the longest name and the most data a frame may carry (the largest
+	// message is a compressed file part). A longer length can only come from
+	// a corrupt stream, so it is rejected before anything is allocated.
+	protected static final int MAX_NAME_LENGTH = 255;
+	protected static final int MAX_DATA_LENGTH = 64 * 1024;
+
 	private static PCConnectionManager manager;
 
 	// for virtual connections (forwarding only)
-	private Map<String, BTComm> nxtConnections = new Map<String, BTComm>();
+	private RoutingTable<BTComm> nxtConnections = new RoutingTable<BTComm>();
 
 	// for direct connections (for communication between pc and nxt)
 	private Map<String, BTComm> directConnections = new Map<String, BTComm>();
@@ -75,8 +108,14 @@ public class PCConnectionManager extends BTCommObserver {
 	private boolean initFinished = false;
 	private String myName = "PC";
 
+	// the ids of all devices for the compact header
+	private NodeIds nodeIds;
+
 	private boolean closeRequested = false;
 
+	// event loops that drive all connections (only in event loop mode)
+	private RouterEventLoop[] loops;
+
 	/**
 	 * Constructor for a connection manager that manages direct and managed
 	 * connections. This constructor will establish a connection to the pc
@@ -87,9 +126,47 @@ public class PCConnectionManager extends BTCommObserver {
 	 */
 	private PCConnectionManager(int queueSize, boolean logging,
 			String... nxtNames) {
+		this(queueSize, logging, createBluetoothTransport(), nxtNames);
+	}
+
+	/**
+	 * creates the transport that connects to the nxts via bluetooth. The
+	 * transport is loaded by its name, so that only this transport needs the
+	 * leJOS pc library and the rest of the server can be compiled without it
+	 * (e.g. for the benchmarks).
+	 * 
+	 * @return the bluetooth transport
+	 */
+	static Transport createBluetoothTransport() {
+		try {
+			return (Transport) Class.forName(
+					"communication.transport.BluetoothTransport")
+					.getConstructor().newInstance();
+		}
+		catch (Exception e) {
+			throw new IllegalStateException("no bluetooth transport: " + e);
+		}
+	}
+
+	/**
+	 * Constructor for a connection manager that connects to the nxts via the
+	 * given transport (e.g. to simulated nxts instead of real ones)
+	 * 
+	 * @param queueSize
+	 *            the queuesize of the writer thread for the managed connections
+	 * @param logging
+	 *            whether the communications shall be logged
+	 * @param transport
+	 *            the transport to open links to the nxts with
+	 * @param nxtNames
+	 *            to which nxts to connect
+	 */
+	private PCConnectionManager(int queueSize, boolean logging,
+			Transport transport, String... nxtNames) {
+		this.nodeIds = new NodeIds(this.myName, nxtNames);
 		for (String nxtName : nxtNames) {
-			BTComm btcomm = new BTComm(this.myName, nxtName, queueSize,
-					logging, this);
+			BTComm btcomm = new BTComm(this.myName, nxtName, transport,
+					queueSize, logging, this);
 			this.nxtConnections.put(nxtName, btcomm);
 		}
 		synchronized (this) {
@@ -98,6 +175,46 @@ public class PCConnectionManager extends BTCommObserver {
 		}
 	}
 
+	/**
+	 * Constructor for a connection manager whose connections are not driven by
+	 * a reader and a writer thread each, but are multiplexed by a fixed number
+	 * of event loops. The connections are distributed round robin over the
+	 * event loops.
+	 * 
+	 * @param queueSize
+	 *            the queuesize of the writer for the managed connections
+	 * @param logging
+	 *            whether the communications shall be logged
+	 * @param transport
+	 *            the transport to open non-blocking links to the nxts with
+	 * @param ioThreads
+	 *            the number of event loop threads
+	 * @param nxtNames
+	 *            to which nxts to connect
+	 * @throws IOException
+	 *             thrown if an event loop cannot be opened
+	 */
+	private PCConnectionManager(int queueSize, boolean logging,
+			ChannelTransport transport, int ioThreads, String... nxtNames)
+			throws IOException {
+		this.nodeIds = new NodeIds(this.myName, nxtNames);
+		this.loops = new RouterEventLoop[Math.max(1, ioThreads)];
+		for (int i = 0; i < this.loops.length; i++) {
+			this.loops[i] = new RouterEventLoop();
+			this.loops[i].start("RouterIOThread" + i);
+		}
+
+		for (int i = 0; i < nxtNames.length; i++) {
+			BTComm btcomm = new BTComm(this.myName, nxtNames[i], transport,
+					this.loops[i % this.loops.length], queueSize, logging, this);
+			this.nxtConnections.put(nxtNames[i], btcomm);
+		}
+		synchronized (this) {
+			this.initFinished = true;
+			this.notify();
+		}
+	}
+
 	/**
 	 * gets a connection manager that manages all connections
 	 * 
@@ -129,6 +246,58 @@ public class PCConnectionManager extends BTCommObserver {
 		return manager;
 	}
 
+	/**
+	 * gets a connection manager that manages all connections. The connections
+	 * are opened via the given transport.
+	 * 
+	 * @param queueSize
+	 *            the queuesize of the writer thread for each managed
+	 *            connections
+	 * @param logging
+	 *            whether the communications shall be logged
+	 * @param transport
+	 *            the transport to open links to the nxts with
+	 * @param nxtNames
+	 *            to which nxts to connect
+	 * @return a connection manager
+	 */
+	public static PCConnectionManager getManager(int queueSize,
+			boolean logging, Transport transport, String... nxtNames) {
+		if (manager == null) {
+			manager = new PCConnectionManager(queueSize, logging, transport,
+					nxtNames);
+		}
+		return manager;
+	}
+
+	/**
+	 * gets a connection manager that manages all connections. All connections
+	 * are multiplexed by ioThreads event loop threads.
+	 * 
+	 * @param queueSize
+	 *            the queuesize of the writer for each managed connections
+	 * @param logging
+	 *            whether the communications shall be logged
+	 * @param transport
+	 *            the transport to open non-blocking links to the nxts with
+	 * @param ioThreads
+	 *            the number of event loop threads
+	 * @param nxtNames
+	 *            to which nxts to connect
+	 * @return a connection manager
+	 * @throws IOException
+	 *             thrown if an event loop cannot be opened
+	 */
+	public static PCConnectionManager getManager(int queueSize,
+			boolean logging, ChannelTransport transport, int ioThreads,
+			String... nxtNames) throws IOException {
+		if (manager == null) {
+			manager = new PCConnectionManager(queueSize, logging, transport,
+					ioThreads, nxtNames);
+		}
+		return manager;
+	}
+
 	/**
 	 * gets a connection to the given nxt. The return value may be null if no
 	 * connection to this nxt exists
@@ -297,9 +466,10 @@ public class PCConnectionManager extends BTCommObserver {
 	}
 
 	/**
-	 * forwards a connect command to a remote device if there is a remote device
-	 * (otherwise it will send receiver not known to the originator device).
-	 * While close is requested, no messages will be send.
+	 * forwards a connect command (or a credit for data frames) to a remote
+	 * device if there is a remote device (otherwise it will send receiver not
+	 * known to the originator device). While close is requested, no messages
+	 * will be send.
 	 * 
 	 * @param fromName
 	 *            from which device the command originates from
@@ -330,10 +500,13 @@ public class PCConnectionManager extends BTCommObserver {
 	 *            the nxt the data originates from
 	 * @param toName
 	 *            the nxt the data is directed to
+	 * @param frame
+	 *            the whole data frame as it was received (the header is the
+	 *            same for the nxt the data is directed to)
 	 * @throws QueueBlockedException
 	 *             thrown if the writer thread is blocked
 	 */
-	protected void forwardData(String fromName, String toName, byte[] data)
+	protected void forwardData(String fromName, String toName, byte[] frame)
 			throws QueueBlockedException {
 		if (this.closeRequested) {
 			logger
@@ -343,7 +516,7 @@ public class PCConnectionManager extends BTCommObserver {
 
 		BTComm btcomm = this.nxtConnections.get(toName);
 		if (btcomm != null) {
-			btcomm.forwardData(fromName, data);
+			btcomm.forwardFrame(fromName, frame);
 			logger.debug("data from " + fromName + " forwarded to " + toName);
 		}
 		else {
@@ -371,6 +544,53 @@ public class PCConnectionManager extends BTCommObserver {
 				getVirtualAdminCommand(CONNECT_ACK));
 	}
 
+	/**
+	 * grants the nxt with the given name to write
+	 * {@link #DATA_CREDIT_BATCH} further data frames to this pc
+	 * 
+	 * @param remoteName
+	 *            the name of the nxt
+	 * @throws QueueBlockedException
+	 *             thrown if the writer thread is blocked
+	 */
+	protected void grantDataCredit(String remoteName)
+			throws QueueBlockedException {
+		BTComm btcomm = this.nxtConnections.get(remoteName);
+		if (btcomm != null) {
+			btcomm.forwardCommand(this.myName,
+					getVirtualAdminCommand(DATA_CREDIT));
+		}
+	}
+
+	/**
+	 * lets the connection of this pc to the nxt with the given name write
+	 * further data frames as the nxt granted a credit for them
+	 * 
+	 * @param remoteName
+	 *            the name of the nxt
+	 */
+	protected void addDataCredits(String remoteName) {
+		BTComm btcomm = this.nxtConnections.get(remoteName);
+		if (btcomm != null) {
+			btcomm.addDataCredits(DATA_CREDIT_BATCH);
+		}
+	}
+
+	/**
+	 * lets the connection of this pc to the nxt with the given name write the
+	 * frames that wait for a credit if the nxt did not grant any credit for
+	 * too long
+	 * 
+	 * @param remoteName
+	 *            the name of the nxt
+	 */
+	protected void checkDataCredits(String remoteName) {
+		BTComm btcomm = this.nxtConnections.get(remoteName);
+		if (btcomm != null) {
+			btcomm.checkDataCredits();
+		}
+	}
+
 	/**
 	 * acknowledges a close request
 	 * 
@@ -498,31 +718,98 @@ public class PCConnectionManager extends BTCommObserver {
 
 		for (String nxtName : this.directConnections.keys()) {
 			BTComm btcomm = this.nxtConnections.get(nxtName);
-			this.directClose(btcomm);
+			// the connection may have been lost meanwhile
+			if (btcomm != null) {
+				this.directClose(btcomm);
+			}
 		}
 
 		logger.info("direct connections closed");
 
 		for (String nxtName : this.nxtConnections.keys()) {
 			BTComm btcomm = this.nxtConnections.get(nxtName);
-			this.managedClose(btcomm);
+			if (btcomm != null) {
+				this.managedClose(btcomm);
+			}
 		}
 
 		logger.info("nxt connections closed");
 
+		if (this.loops != null) {
+			for (RouterEventLoop loop : this.loops) {
+				loop.stop();
+			}
+		}
+
 		logger.info("manager closed");
 	}
 
 	/**
 	 * closes the nxt connection manager if a connection manager has been
-	 * established
+	 * established. Afterwards a new connection manager can be got (e.g. to
+	 * connect to the nxts again).
 	 */
 	public static void closeManager() {
 		if (manager != null) {
 			manager.close();
+			manager = null;
 		}
 	}
 
+	/**
+	 * gets the ids of all devices for the compact header
+	 * 
+	 * @return the ids of the devices
+	 */
+	NodeIds getNodeIds() {
+		return this.nodeIds;
+	}
+
+	/**
+	 * sends the ids of all devices to the nxt with the given name (as
+	 * requested by the nxt)
+	 * 
+	 * @param remoteName
+	 *            the name of the nxt
+	 * @throws QueueBlockedException
+	 *             thrown if nothing can be written to the nxt
+	 */
+	protected void sendNodeIds(String remoteName) throws QueueBlockedException {
+		BTComm btcomm = this.nxtConnections.get(remoteName);
+		if (btcomm != null) {
+			btcomm.writeNodeIds(this.nodeIds);
+			logger.debug("node ids sent to " + remoteName);
+		}
+	}
+
+	/**
+	 * lets the connection to the nxt with the given name use the compact
+	 * header from now on (as the nxt acknowledged that it knows the ids)
+	 * 
+	 * @param remoteName
+	 *            the name of the nxt
+	 */
+	protected void useCompactHeader(String remoteName) {
+		BTComm btcomm = this.nxtConnections.get(remoteName);
+		if (btcomm != null) {
+			btcomm.useCompactHeader(this.nodeIds);
+			logger.debug("compact header used for " + remoteName);
+		}
+	}
+
+	/**
+	 * returns whether a frame with the given code contains data (the length
+	 * of the data and the data follow the code)
+	 * 
+	 * @param code
+	 *            the code of the frame
+	 * @return whether the frame contains data
+	 */
+	protected static boolean hasData(byte code) {
+		return (byte) (code & UPPER_BITS) == DATA
+				|| code == (byte) (VIRTUAL_ADMIN | NODE_IDS);
+	}
+
 	/**
 	 * combines the given command with the command for virtual administration
 	 * 
@@ -0,0 +1,335 @@
+/*
+ *  CoMinds is a Java framework for collaborative robotic scenarios with
+ *  Lego Mindstorms based leJOS. A complete documentation can be found
+ *  in docs/thesis.pdf.
+ *
+ *  Copyright (C) 2010  Annabelle Klarl
+ *  All rights reserved.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ * 
+ */
+package communication;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.CancelledKeyException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.ArrayList;
+import java.util.Iterator;
+
+import logging.Logger;
+
+import communication.transport.ChannelLink;
+
+/**
+ * This is an event loop that multiplexes the links to several nxts in one
+ * thread. Instead of a reader thread and a writer thread per connection, the
+ * loop waits until any link can be read from or written to: incoming bytes are
+ * decoded incrementally into frames (see {@link FrameDecoder}) which are handed
+ * to the {@link RoutingReader} of the link, and the message queue of the
+ * {@link ChannelWriter} of a link is drained as soon as the link can take more
+ * bytes.
+ * 
+ * @author Annabelle Klarl
+ */
+class RouterEventLoop implements Runnable {
+
+	private static final Logger logger = Logger.getLogger();
+
+	private static final int READ_BUFFER_SIZE = 8192;
+
+	private final Selector selector;
+	private Thread thread;
+	private boolean stopped = false;
+
+	// links that shall be registered and writers that have something to write
+	// (both are filled by other threads)
+	private final ArrayList<LinkHandler> registrations = new ArrayList<LinkHandler>();
+	private final ArrayList<ChannelWriter> wakeups = new ArrayList<ChannelWriter>();
+
+	// the buffer for reading from any link (the decoder of each link keeps
+	// what it has read so far)
+	private final ByteBuffer readBuffer = ByteBuffer.allocate(READ_BUFFER_SIZE);
+
+	/**
+	 * Constructor
+	 * 
+	 * @throws IOException
+	 *             thrown if no selector could be opened
+	 */
+	public RouterEventLoop() throws IOException {
+		this.selector = Selector.open();
+	}
+
+	/**
+	 * starts the thread of this event loop
+	 * 
+	 * @param name
+	 *            the name of the thread
+	 */
+	public void start(String name) {
+		this.thread = new Thread(this, name);
+		this.thread.start();
+	}
+
+	/**
+	 * stops the event loop. All writers that are not finished will be finished
+	 * after writing what can be written without blocking.
+	 */
+	public void stop() {
+		this.stopped = true;
+		this.selector.wakeup();
+	}
+
+	/**
+	 * returns whether the current thread is the thread of this event loop
+	 * 
+	 * @return whether the caller runs in this event loop
+	 */
+	public boolean inEventLoop() {
+		return Thread.currentThread() == this.thread;
+	}
+
+	/**
+	 * registers a link to a remote device at this event loop
+	 * 
+	 * @param link
+	 *            the link to the remote device
+	 * @param reader
+	 *            the reader that reads the frames that are received from the
+	 *            link
+	 * @param writer
+	 *            the writer whose messages shall be written to the link
+	 */
+	public void register(ChannelLink link, RoutingReader reader,
+			ChannelWriter writer) {
+		synchronized (this.registrations) {
+			this.registrations.add(new LinkHandler(link, reader, writer));
+		}
+		this.selector.wakeup();
+	}
+
+	/**
+	 * notifies the event loop that the given writer has something to write
+	 * (or was deblocked or stopped)
+	 * 
+	 * @param writer
+	 *            the writer that has something to write
+	 */
+	public void wakeup(ChannelWriter writer) {
+		synchronized (this.wakeups) {
+			if (!this.wakeups.contains(writer)) {
+				this.wakeups.add(writer);
+			}
+		}
+		if (!this.inEventLoop()) {
+			this.selector.wakeup();
+		}
+	}
+
+	@Override
+	public void run() {
+		try {
+			while (!this.stopped) {
+				this.registerLinks();
+				this.drainWriters();
+
+				this.selector.select();
+
+				Iterator<SelectionKey> keys = this.selector.selectedKeys()
+						.iterator();
+				while (keys.hasNext()) {
+					SelectionKey key = keys.next();
+					keys.remove();
+
+					LinkHandler handler = (LinkHandler) key.attachment();
+					try {
+						if (key.isValid() && key.isReadable()) {
+							handler.read();
+						}
+						if (key.isValid() && key.isWritable()) {
+							handler.write(key);
+						}
+					}
+					catch (CancelledKeyException e) {
+						// link was closed while handling it
+					}
+				}
+			}
+		}
+		// to avoid the weird beep
+		catch (Throwable e) {
+			logger.error(e);
+		}
+		finally {
+			try {
+				this.registerLinks();
+				for (SelectionKey key : this.selector.keys()) {
+					((LinkHandler) key.attachment()).writer.stop();
+				}
+				this.selector.close();
+			}
+			catch (IOException e) {
+			}
+			// to avoid the weird beep
+			catch (Throwable e) {
+				logger.error(e);
+			}
+		}
+	}
+
+	/**
+	 * registers all links that were added since the last run of the loop
+	 * 
+	 * @throws IOException
+	 *             thrown if a link cannot be registered
+	 */
+	private void registerLinks() throws IOException {
+		synchronized (this.registrations) {
+			for (LinkHandler handler : this.registrations) {
+				ChannelLink link = handler.link;
+				if (link.getSource() == link.getSink()) {
+					link.getSource().register(this.selector,
+							SelectionKey.OP_READ, handler);
+				}
+				else {
+					link.getSource().register(this.selector,
+							SelectionKey.OP_READ, handler);
+					link.getSink().register(this.selector, 0, handler);
+				}
+			}
+			this.registrations.clear();
+		}
+	}
+
+	/**
+	 * drains all writers that have something to write. If a link cannot take
+	 * all messages the loop will wait until it can be written to again.
+	 */
+	private void drainWriters() {
+		ChannelWriter[] writers;
+		synchronized (this.wakeups) {
+			writers = this.wakeups.toArray(new ChannelWriter[this.wakeups
+					.size()]);
+			this.wakeups.clear();
+		}
+
+		for (ChannelWriter writer : writers) {
+			boolean idle = writer.drain();
+
+			SelectionKey key = writer.getLink().getSink().keyFor(this.selector);
+			if (key != null && key.isValid()) {
+				if (idle) {
+					key.interestOps(key.interestOps() & ~SelectionKey.OP_WRITE);
+				}
+				else {
+					key.interestOps(key.interestOps() | SelectionKey.OP_WRITE);
+				}
+			}
+		}
+	}
+
+	/**
+	 * This holds all that belongs to one link: the link itself, the reader and
+	 * writer for the link and the decoder for the frames that are received.
+	 * 
+	 * @author Annabelle Klarl
+	 */
+	private class LinkHandler {
+
+		private final ChannelLink link;
+		private final RoutingReader reader;
+		private final ChannelWriter writer;
+		private final FrameDecoder decoder;
+
+		/**
+		 * Constructor
+		 * 
+		 * @param link
+		 *            the link to the remote device
+		 * @param reader
+		 *            the reader for the frames of this link
+		 * @param writer
+		 *            the writer for this link
+		 */
+		public LinkHandler(ChannelLink link, RoutingReader reader,
+				ChannelWriter writer) {
+			this.link = link;
+			this.reader = reader;
+			this.writer = writer;
+			this.decoder = new FrameDecoder(reader.getNodeIds(), reader
+					.getMyName());
+		}
+
+		/**
+		 * reads what is available from the link and hands every complete
+		 * frame to the reader
+		 */
+		public void read() {
+			ByteBuffer buffer = RouterEventLoop.this.readBuffer;
+			buffer.clear();
+
+			try {
+				if (this.link.read(buffer) == -1) {
+					this.reader
+							.endOfInput("end of stream while reading. close connection...");
+				}
+				else {
+					buffer.flip();
+					while (!this.reader.isClosed() && this.decoder.decode(buffer)) {
+						this.reader.readDecodedFrame(this.decoder.getFrom(),
+								this.decoder.getTo(), this.decoder.getCode(),
+								this.decoder.getFrame(),
+								this.decoder.getDataOffset(),
+								this.decoder.getDataLength());
+					}
+				}
+			}
+			catch (IOException e) {
+				if (!this.reader.isClosed()) {
+					logger.error(e);
+					this.reader.endOfInput("IOException, will close connection.");
+				}
+			}
+
+			if (this.reader.isClosed()) {
+				this.close();
+			}
+		}
+
+		/**
+		 * writes as much as possible of the messages of the writer to the link
+		 * 
+		 * @param key
+		 *            the selection key of the sink of the link
+		 */
+		public void write(SelectionKey key) {
+			if (this.writer.drain()) {
+				key.interestOps(key.interestOps() & ~SelectionKey.OP_WRITE);
+			}
+		}
+
+		/**
+		 * closes the link (if it is not closed already by the connection)
+		 */
+		private void close() {
+			try {
+				this.link.close();
+			}
+			catch (IOException e) {
+			}
+		}
+	}
+}
@@ -21,7 +21,6 @@
  */
 package communication;
 
-import java.io.ByteArrayInputStream;
 import java.io.IOException;
 
 import logging.Logger;
@@ -29,16 +28,23 @@ import sensorwrappers.color.AbstractColorSensorWrapper;
 import sensorwrappers.compass.AbstractCompassSensorWrapper;
 
 import common.FileLocalizer;
+import common.NameTable;
 import common.exceptions.QueueBlockedException;
 import communication.exceptions.UnexpectedResponseException;
 import communication.extendedClasses.ExtendedDataInputStream;
+import communication.extendedClasses.FrameInputStream;
 
 /**
  * This is a reader for a bluetooth connection that is managed by a pc. It will
  * read the wrapper header around the original message with a second header that
  * contains the name of the nxt the message originates from, the name of the nxt
  * the message shall be send to, a code which message is send (see
- * {@link PCConnectionManager}) and optional some content or data.
+ * {@link PCConnectionManager}) and optional some content or data. Instead of
+ * the names the header may contain the ids of the nxts (the compact header,
+ * see {@link NodeIds}). The frames are decoded without creating new objects
+ * for every frame: the names are interned in a {@link NameTable} and the data
+ * for this pc is read into a buffer of this reader and handed to the
+ * {@link MessageReader} via one stream that is used for all frames.
  * 
  * @author Annabelle Klarl
  */
@@ -46,6 +52,9 @@ class RoutingReader implements Runnable {
 
 	private static final Logger logger = Logger.getLogger();
 
+	// the number of names that are interned by this reader
+	private static final int NAME_TABLE_SIZE = 16;
+
 	// bt connection
 	private String myName;
 	private String remoteName;
@@ -54,6 +63,22 @@ class RoutingReader implements Runnable {
 
 	private MessageReader messageReader;
 
+	// the names, the header of the current frame and the data for this pc
+	private final NameTable names = new NameTable(NAME_TABLE_SIZE);
+	private byte[] header = new byte[32];
+	private byte[] data = new byte[64];
+	private final FrameInputStream input = new FrameInputStream();
+	private final ExtendedDataInputStream frameStream = new ExtendedDataInputStream(
+			this.input);
+
+	// whether the nxt offered to wait for credits for its data frames to this
+	// pc, whether the offer still has to be acknowledged and how many data
+	// frames for this pc were received since the last credit was granted for
+	// them (see BTComm#DATA_CREDIT_OFFER and PCConnectionManager#DATA_CREDIT)
+	private boolean dataCreditsAccepted = false;
+	private boolean dataCreditAckPending = false;
+	private int receivedFrames = 0;
+
 	private boolean closeRequested = false;
 	private boolean closed = false;
 
@@ -201,34 +226,75 @@ class RoutingReader implements Runnable {
 
 			while (!this.closed) {
 				try {
-					from = this.dis.readString();
-					to = this.dis.readString();
-					code = (byte) this.dis.read();
+					int first = this.dis.read();
+					int headerLength = 0;
+					int fromId = -1;
+					int toId = -1;
+					if (first == -1) {
+						code = -1;
+					}
+					else if ((byte) first == PCConnectionManager.COMPACT_HEADER) {
+						fromId = this.dis.readUnsignedByte();
+						toId = this.dis.readUnsignedByte();
+						from = this.getNodeName(fromId);
+						to = this.getNodeName(toId);
+						code = (byte) this.dis.read();
+					}
+					else {
+						int fromLength = (first << 24)
+								| (this.dis.readUnsignedByte() << 16)
+								| this.dis.readUnsignedShort();
+						headerLength = this.readName(fromLength, 0);
+						from = this.names.getName(this.header, 4, fromLength);
+						int toLength = this.dis.readInt();
+						int toOffset = headerLength + 4;
+						headerLength = this.readName(toLength, headerLength);
+						to = this.names.getName(this.header, toOffset, toLength);
+						code = (byte) this.dis.read();
+					}
 
 					if (code == -1) {
 						this
 								.closeConnection(this.remoteName,
 										"end of stream while reading. close connection...");
 					}
-					else {
-						byte upperCode = (byte) (code & PCConnectionManager.UPPER_BITS);
-						byte lowerCode = (byte) (code & PCConnectionManager.LOWER_BITS);
-
-						if (PCConnectionManager.DATA == upperCode) {
-							this.readData(from, to);
+					else if (PCConnectionManager.hasData(code)) {
+						int len = this.dis.readInt();
+						if (len < 0) {
+							throw new IOException("negative length " + len
+									+ " of data");
 						}
-						else if (PCConnectionManager.VIRTUAL_ADMIN == upperCode) {
-							this.readVirtualAdmin(lowerCode, from, to);
+						if (len > PCConnectionManager.MAX_DATA_LENGTH) {
+							throw new IOException("length " + len
+									+ " of data exceeds "
+									+ PCConnectionManager.MAX_DATA_LENGTH);
 						}
-						else if (PCConnectionManager.COMMAND == upperCode) {
-							this.readCommand(lowerCode, from, to);
+						if (this.myName.equals(to)) {
+							// the data is handled by this pc and need not be
+							// kept as a whole frame
+							if (this.data.length < len) {
+								this.data = new byte[len];
+							}
+							this.dis.readFully(this.data, 0, len);
+							this.readFrame(from, to, code, this.data, 0, len);
 						}
 						else {
-							throw new UnexpectedResponseException(
-									"UnexpectedResponse: managed connection received command "
-											+ code);
+							byte[] frame;
+							if (headerLength == 0) {
+								frame = createDataFrame(fromId, toId, code, len);
+							}
+							else {
+								frame = createDataFrame(this.header,
+										headerLength, code, len);
+							}
+							this.dis.readFully(frame, frame.length - len, len);
+							this.readFrame(from, to, code, frame, frame.length
+									- len, len);
 						}
 					}
+					else {
+						this.readFrame(from, to, code, null, 0, 0);
+					}
 				}
 				catch (IOException e) {
 					if (!this.closed) {
@@ -248,22 +314,234 @@ class RoutingReader implements Runnable {
 			logger.error(e);
 		}
 		finally {
+			this.endOfInput("closing conn after Throwable");
+		}
+	}
 
-			try {
-				// concatenate any parts of files that are not concatenated
-				// already
-				this.messageReader.concatenateLeftFiles();
+	/**
+	 * reads a name of the header with the given length into the header buffer
+	 * of this reader. The length is written in front of the name, so the
+	 * header buffer holds the header as it was sent.
+	 * 
+	 * @param length
+	 *            the length of the name
+	 * @param offset
+	 *            where to write the length and the name in the header buffer
+	 * @return the offset behind the name in the header buffer
+	 * @throws IOException
+	 *             thrown if the name could not be read
+	 */
+	private int readName(int length, int offset) throws IOException {
+		if (length < 0) {
+			throw new IOException("negative length " + length + " of string");
+		}
+		if (length > PCConnectionManager.MAX_NAME_LENGTH) {
+			throw new IOException("length " + length + " of string exceeds "
+					+ PCConnectionManager.MAX_NAME_LENGTH);
+		}
+		if (this.header.length < offset + 4 + length) {
+			byte[] header = new byte[offset + 4 + length];
+			System.arraycopy(this.header, 0, header, 0, offset);
+			this.header = header;
+		}
+		CommunicationUtils.convertIntToByteArray(length, this.header, offset);
+		this.dis.readFully(this.header, offset + 4, length);
+		return offset + 4 + length;
+	}
 
-				if (!this.closed) {
-					this.closeConnection(this.remoteName,
-							"closing conn after Throwable");
-				}
-			}
-			// to avoid the weird beep
-			catch (Throwable e) {
-				logger.error(e);
+	/**
+	 * gets the name of the device with the given id from a compact header
+	 * 
+	 * @param id
+	 *            the id of the device
+	 * @return the name of the device
+	 * @throws IOException
+	 *             thrown if no device has this id
+	 */
+	private String getNodeName(int id) throws IOException {
+		String name = this.getNodeIds().getName(id);
+		if (name == null) {
+			throw new IOException("unknown id " + id + " in compact header");
+		}
+		return name;
+	}
+
+	/**
+	 * gets the ids of all devices for the compact header
+	 * 
+	 * @return the ids of the devices
+	 */
+	NodeIds getNodeIds() {
+		return this.owner.getNodeIds();
+	}
+
+	/**
+	 * gets the name of this pc
+	 * 
+	 * @return the name of this pc
+	 */
+	String getMyName() {
+		return this.myName;
+	}
+
+	/**
+	 * reads a frame that was already decoded by an event loop (see
+	 * {@link RouterEventLoop}) instead of reading it from the input stream
+	 * 
+	 * @param from
+	 *            from which device the frame originates
+	 * @param to
+	 *            to which device the frame is sent
+	 * @param code
+	 *            the code of the frame
+	 * @param frame
+	 *            the whole frame (only for data frames, otherwise null)
+	 * @param dataOffset
+	 *            where the data starts in the frame
+	 * @param dataLength
+	 *            the length of the data in the frame
+	 */
+	void readDecodedFrame(String from, String to, byte code, byte[] frame,
+			int dataOffset, int dataLength) {
+		try {
+			this.readFrame(from, to, code, frame, dataOffset, dataLength);
+		}
+		catch (QueueBlockedException e) {
+			logger.error("Writing from " + from + " to " + to
+					+ " while manager closes all connections");
+		}
+		// to avoid the weird beep
+		catch (Throwable e) {
+			logger.error(e);
+			this.endOfInput("closing conn after Throwable");
+		}
+	}
+
+	/**
+	 * finishes reading from the remote device. Any file whose parts are not
+	 * all received will be suspended and the connection will be closed if it
+	 * is not closed already.
+	 * 
+	 * @param message
+	 *            the message why the connection is closed
+	 */
+	void endOfInput(String message) {
+		try {
+			// suspend any file whose parts are not all received
+			this.messageReader.suspendFiles();
+
+			if (!this.closed) {
+				this.closeConnection(this.remoteName, message);
 			}
 		}
+		// to avoid the weird beep
+		catch (Throwable e) {
+			logger.error(e);
+		}
+	}
+
+	/**
+	 * reads a frame with the given header and either handles the frame itself
+	 * or forwards it to the specified device
+	 * 
+	 * @param from
+	 *            from which device the frame originates
+	 * @param to
+	 *            to which device the frame is sent
+	 * @param code
+	 *            the code of the frame
+	 * @param frame
+	 *            the whole frame or only the data if the frame is for this pc
+	 *            (only for data frames, otherwise null)
+	 * @param dataOffset
+	 *            where the data starts in the frame
+	 * @param dataLength
+	 *            the length of the data in the frame
+	 * @throws QueueBlockedException
+	 *             thrown if nothing can be written to the output stream
+	 * @throws UnexpectedResponseException
+	 *             thrown if the code is not known
+	 */
+	private void readFrame(String from, String to, byte code, byte[] frame,
+			int dataOffset, int dataLength) throws QueueBlockedException,
+			UnexpectedResponseException {
+		byte upperCode = (byte) (code & PCConnectionManager.UPPER_BITS);
+		byte lowerCode = (byte) (code & PCConnectionManager.LOWER_BITS);
+
+		if (PCConnectionManager.DATA == upperCode) {
+			this.forwardData(from, to, frame, dataOffset, dataLength);
+		}
+		else if (PCConnectionManager.VIRTUAL_ADMIN == upperCode) {
+			this.readVirtualAdmin(lowerCode, from, to);
+		}
+		else if (PCConnectionManager.COMMAND == upperCode) {
+			this.readCommand(lowerCode, from, to);
+		}
+		else {
+			throw new UnexpectedResponseException(
+					"UnexpectedResponse: managed connection received command "
+							+ code);
+		}
+	}
+
+	/**
+	 * creates the array for a data frame and writes the header of the frame
+	 * into it. The data has to be written to the end of the array. As the
+	 * header of a forwarded frame stays the same, the frame can be forwarded
+	 * as it is.
+	 * 
+	 * @param header
+	 *            the header with the names of the devices the frame
+	 *            originates from and is sent to (each with its length)
+	 * @param headerLength
+	 *            the length of the header
+	 * @param code
+	 *            the code of the frame
+	 * @param len
+	 *            the length of the data
+	 * @return the frame with the header already filled in
+	 */
+	static byte[] createDataFrame(byte[] header, int headerLength, byte code,
+			int len) {
+		if (len < 0) {
+			throw new NegativeArraySizeException("negative length " + len
+					+ " of data");
+		}
+
+		byte[] frame = new byte[headerLength + 1 + 4 + len];
+		System.arraycopy(header, 0, frame, 0, headerLength);
+		frame[headerLength] = code;
+		CommunicationUtils.convertIntToByteArray(len, frame, headerLength + 1);
+		return frame;
+	}
+
+	/**
+	 * creates the array for a data frame with the compact header (see
+	 * {@link #createDataFrame(byte[], int, byte, int)})
+	 * 
+	 * @param fromId
+	 *            the id of the device the frame originates from
+	 * @param toId
+	 *            the id of the device the frame is sent to
+	 * @param code
+	 *            the code of the frame
+	 * @param len
+	 *            the length of the data
+	 * @return the frame with the header already filled in
+	 */
+	static byte[] createDataFrame(int fromId, int toId, byte code, int len) {
+		if (len < 0) {
+			throw new NegativeArraySizeException("negative length " + len
+					+ " of data");
+		}
+
+		byte[] frame = new byte[4 + 4 + len];
+		frame[0] = PCConnectionManager.COMPACT_HEADER;
+		frame[1] = (byte) fromId;
+		frame[2] = (byte) toId;
+		frame[3] = code;
+		CommunicationUtils.convertIntToByteArray(len, frame, 4);
+		return frame;
 	}
 
 	/**
@@ -273,31 +551,89 @@ class RoutingReader implements Runnable {
 	 *            from which device the data was sent
 	 * @param to
 	 *            to which device the data is sent
-	 * @throws IOException
-	 *             thrown if nothing can be read from the input stream
+	 * @param frame
+	 *            the whole frame that was sent or only the data if the frame
+	 *            is for this pc
+	 * @param dataOffset
+	 *            where the data starts in the frame
+	 * @param dataLength
+	 *            the length of the data in the frame
 	 * @throws QueueBlockedException
 	 *             thrown if nothing can be written to the output stream
 	 */
-	private void readData(String from, String to) throws IOException,
-			QueueBlockedException {
-		int len = this.dis.readInt();
-		byte[] data = new byte[len];
-		this.dis.read(data);
+	private void forwardData(String from, String to, byte[] frame,
+			int dataOffset, int dataLength) throws QueueBlockedException {
 		if (this.myName.equals(to)) {
-			this.messageReader.read(new ExtendedDataInputStream(
-					new ByteArrayInputStream(data)));
+			// the message is read completely before the next frame is read
+			byte code = dataLength > 0 ? frame[dataOffset] : -1;
+			this.input.setFrame(frame, dataOffset, dataLength);
+			this.messageReader.read(this.frameStream);
+
+			// the nxt may write further frames as this frame is not queued
+			// any more
+			if (dataLength > 0 && this.countReceivedFrame(code)) {
+				this.owner.grantDataCredit(from);
+			}
+
+			// the frames of this pc need not wait for a credit any more if
+			// the nxt does not grant any
+			this.owner.checkDataCredits(from);
 		}
 		else {
-			this.owner.forwardData(from, to, data);
+			// the frame can be forwarded without copying it as the header is
+			// the same for the destination
+			this.owner.forwardData(from, to, frame);
 		}
 
 	}
 
+	/**
+	 * grants credits for data frames to the nxt from now on because it
+	 * offered to wait for them (see {@link BTComm#DATA_CREDIT_OFFER}). The
+	 * first credit acknowledges the offer, the frames are counted from the
+	 * offer on. This is called by the message reader, so it runs in the
+	 * thread of this reader.
+	 */
+	void acceptDataCredits() {
+		this.dataCreditsAccepted = true;
+		this.dataCreditAckPending = true;
+		this.receivedFrames = 0;
+	}
+
+	/**
+	 * counts a data frame that was received for this pc and returns whether
+	 * a credit has to be granted to the nxt (see
+	 * {@link PCConnectionManager#DATA_CREDIT}). Credits are only granted if
+	 * the nxt offered to wait for them.
+	 * 
+	 * @param code
+	 *            the code of the message in the frame
+	 * @return whether the nxt shall get a credit (either the acknowledgement
+	 *         of the offer or a credit for
+	 *         {@link PCConnectionManager#DATA_CREDIT_BATCH} further frames)
+	 */
+	private boolean countReceivedFrame(byte code) {
+		if (!this.dataCreditsAccepted) {
+			return false;
+		}
+		if (this.dataCreditAckPending) {
+			this.dataCreditAckPending = false;
+			return true;
+		}
+		if (RoutingWriter.takesDataCredit(code)
+				&& ++this.receivedFrames >= PCConnectionManager.DATA_CREDIT_BATCH) {
+			this.receivedFrames -= PCConnectionManager.DATA_CREDIT_BATCH;
+			return true;
+		}
+		return false;
+	}
+
 	/**
 	 * reads a command concerning the administration of the virtual connection
-	 * (may be CONNECT_REQUEST, CONNECT_ACK, CONNECT_DECLINE, CLOSE_VIRTUAL or
-	 * RECEIVER_NOT_KNOWN) and either respondes to the connection init or closes
-	 * the connection
+	 * (may be CONNECT_REQUEST, CONNECT_ACK, CONNECT_DECLINE, CLOSE_VIRTUAL,
+	 * RECEIVER_NOT_KNOWN, DATA_CREDIT, NODE_ID_REQUEST or NODE_IDS_ACK) and
+	 * either respondes to the connection init, closes the connection, forwards
+	 * a credit for data frames or negotiates the compact header
 	 * 
 	 * @param code
 	 *            the command
@@ -329,6 +665,22 @@ class RoutingReader implements Runnable {
 				&& to.equals(this.myName)) {
 			this.owner.notifyManagerForUnknownReceiver(from);
 		}
+		else if (code == PCConnectionManager.DATA_CREDIT) {
+			if (to.equals(this.myName)) {
+				this.owner.addDataCredits(from);
+			}
+			else {
+				this.owner.forwardConnectCommand(from, to, code);
+			}
+		}
+		else if (code == PCConnectionManager.NODE_ID_REQUEST
+				&& to.equals(this.myName)) {
+			this.owner.sendNodeIds(from);
+		}
+		else if (code == PCConnectionManager.NODE_IDS_ACK
+				&& to.equals(this.myName)) {
+			this.owner.useCompactHeader(from);
+		}
 		else {
 			throw new UnexpectedResponseException(
 					"UnexpectedResponse in virtual admin: received " + code);
@@ -21,6 +21,10 @@
  */
 package communication;
 
+import logging.Logger;
+
+import common.MessageQueue;
+import common.PriorityMessageQueue;
 import common.Writer;
 import common.WriterUtils;
 import common.exceptions.QueueBlockedException;
@@ -29,18 +33,69 @@ import common.exceptions.QueueBlockedException;
  * This class extends the normal message writer to a bluetooth writer. It will
  * add a second header to the message send via bluetooth that contains the name
  * of the nxt from which the message originates and the name of the nxt to which
- * the message is directed. The messages will then be send to a writer that
- * writes the message to an output stream. This writer can be shared between
- * several logical connections.
+ * the message is directed. If the remote nxt negotiated the compact header, the
+ * header contains the ids of the nxts instead of their names (see
+ * {@link NodeIds}). The messages will then be send to a writer that writes the
+ * message to an output stream. This writer can be shared between several
+ * logical connections.
+ * 
+ * If the remote nxt acknowledged the offer of data credits (see
+ * {@link BTComm#DATA_CREDIT_OFFER}), only as many data frames of this pc are
+ * written as the remote nxt granted credits for (see
+ * {@link PCConnectionManager#DATA_CREDIT}). All further frames wait in this
+ * writer until the remote nxt grants more credits. As the waiting frames are
+ * limited, the thread that writes them has to wait for a credit, but no frame
+ * is ever dropped. Commands, requests and credits take no credit, so the
+ * reader never waits. Frames that are forwarded from other nxts are written
+ * as they are (their credits are granted by the nxt they are sent to).
  * 
  * @author Annabelle Klarl
  */
 class RoutingWriter extends MessageWriter {
 
+	private static final Logger logger = Logger.getLogger();
+
+	// how long the frames wait at most for a credit of the remote nxt before
+	// they are written anyway (in ms)
+	private static final long DATA_CREDIT_TIMEOUT = 10000;
+
+	// how many frames may wait for a credit at most. If there are already as
+	// many frames waiting, the writing thread waits until there is room.
+	private static final int MAX_WAITING_FRAMES = 4 * PCConnectionManager
+			.DATA_WINDOW;
+
 	private byte[] remoteName;
 	private byte[] myName;
+	private String remoteNameString;
+	private String myNameString;
 	private boolean blocked;
 
+	// the ids for the compact header (the ids are only set if the remote nxt
+	// knows them, otherwise the header contains the names)
+	private volatile NodeIds nodeIds;
+	private byte remoteId;
+	private byte myId;
+
+	// whether the remote nxt acknowledged the offer of data credits, how many
+	// data frames were written since the offer, how many data frames the
+	// remote nxt lets this pc write and the frames that wait for a credit
+	// with their priorities (must be synchronized on creditSync)
+	private final Object creditSync = new Object();
+	private boolean dataPaced = false;
+	private int offeredFrames = 0;
+	private int dataCredits = 0;
+	private long lastCreditTime = 0;
+	private byte[][] waitingFrames = new byte[4][];
+	private int[] waitingPriorities = new int[4];
+	private int firstWaiting = 0;
+	private int waitingCount = 0;
+
+	// how many frames had to wait for a credit and how long frames were
+	// waiting altogether (in ms)
+	private int throttledFrames = 0;
+	private long throttledTime = 0;
+	private long throttledSince = 0;
+
 	/**
 	 * Constructor
 	 * 
@@ -57,14 +112,35 @@ class RoutingWriter extends MessageWriter {
 				.convertStringToByteArray(remoteName);
 		this.myName = communication.CommunicationUtils
 				.convertStringToByteArray(myName);
+		this.remoteNameString = remoteName;
+		this.myNameString = myName;
+	}
+
+	/**
+	 * lets all messages that are written from now on use the compact header
+	 * (if both devices of this connection have an id)
+	 * 
+	 * @param nodeIds
+	 *            the ids of all devices
+	 */
+	public void useCompactHeader(NodeIds nodeIds) {
+		int remoteId = nodeIds.getId(this.remoteNameString);
+		int myId = nodeIds.getId(this.myNameString);
+		if (remoteId != -1 && myId != -1) {
+			this.remoteId = (byte) remoteId;
+			this.myId = (byte) myId;
+			this.nodeIds = nodeIds;
+		}
 	}
 
 	/**
-	 * writes a message to the message buffer/queue. This method asks whether to
-	 * block the message buffer afterwards.
+	 * writes a message with the given priority to the message buffer/queue.
+	 * This method asks whether to block the message buffer afterwards.
 	 * 
 	 * @param message
 	 *            the message itself as a byte array
+	 * @param priority
+	 *            the priority of the message
 	 * @param blocked
 	 *            whether to block the message queue after writing this message
 	 *            or not
@@ -75,7 +151,7 @@ class RoutingWriter extends MessageWriter {
 	 *             thrown if something shall be pushed but the queue is blocked
 	 */
 	@Override
-	public boolean write(byte[] message, boolean blocked)
+	public boolean write(byte[] message, int priority, boolean blocked)
 			throws QueueBlockedException {
 		if (this.blocked) {
 			throw new QueueBlockedException(
@@ -84,37 +160,550 @@ class RoutingWriter extends MessageWriter {
 
 		this.blocked = blocked;
 
-		message = WriterUtils.concatArrays(this.myName, this.remoteName,
-				new byte[] { PCConnectionManager.DATA },
-				communication.CommunicationUtils
-						.convertIntToByteArray(message.length), message);
+		byte code = message[0];
+		return this.writeData(this.addHeader(message), priority, code);
+	}
 
-		return this.writer.write(message, false);
+	/**
+	 * writes a data frame to the writer if it takes no credit (see
+	 * {@link #takesDataCredit(byte)}), if the remote nxt does not grant
+	 * credits or if it granted a credit for it. Otherwise the frame waits in
+	 * this writer until the remote nxt grants further credits (see
+	 * {@link #addDataCredits(int)}). The frames are written in the order they
+	 * were given. If already {@link #MAX_WAITING_FRAMES} frames are waiting,
+	 * this method waits until there is room for the frame (at the latest the
+	 * credit timeout makes room, see {@link #checkCreditTimeout()}).
+	 * 
+	 * @param frame
+	 *            the frame with header
+	 * @param priority
+	 *            the priority of the frame
+	 * @param code
+	 *            the code of the message in the frame
+	 * @return returns whether the message was put into the queue or not (if not
+	 *         than the output is full and nothing can be written to it any
+	 *         more)
+	 * @throws QueueBlockedException
+	 *             thrown if something shall be pushed but the queue is blocked
+	 */
+	private boolean writeData(byte[] frame, int priority, byte code)
+			throws QueueBlockedException {
+		if (!takesDataCredit(code)) {
+			return this.writer.write(frame, priority, false);
+		}
+
+		synchronized (this.creditSync) {
+			if (!this.dataPaced) {
+				this.offeredFrames++;
+				return this.writer.write(frame, priority, false);
+			}
+
+			this.checkCreditTimeout();
+
+			if (this.waitingCount == 0 && this.dataCredits > 0) {
+				this.dataCredits--;
+				return this.writer.write(frame, priority, false);
+			}
+
+			// the writing thread has to wait until there is room for the frame
+			while (this.dataPaced
+					&& this.waitingCount >= MAX_WAITING_FRAMES) {
+				long timeout = this.lastCreditTime + DATA_CREDIT_TIMEOUT
+						- System.currentTimeMillis();
+				try {
+					this.creditSync.wait(Math.max(timeout, 1));
+				}
+				catch (InterruptedException e) {
+				}
+				this.checkCreditTimeout();
+			}
+
+			if (!this.dataPaced) {
+				// the credits were offered again meanwhile
+				this.offeredFrames++;
+				return this.writer.write(frame, priority, false);
+			}
+
+			long now = System.currentTimeMillis();
+			if (this.waitingCount == 0) {
+				this.throttledSince = now;
+				this.lastCreditTime = now;
+			}
+			this.addWaitingFrame(frame, priority);
+			this.throttledFrames++;
+			return true;
+		}
 	}
 
 	/**
-	 * writes a message to the message buffer/queue. It will add from which nxt
-	 * the message is derived from.
+	 * adds a frame at the end of the frames that wait for a credit
+	 * 
+	 * @param frame
+	 *            the frame with header
+	 * @param priority
+	 *            the priority of the frame
+	 */
+	private void addWaitingFrame(byte[] frame, int priority) {
+		if (this.waitingCount == this.waitingFrames.length) {
+			byte[][] frames = new byte[this.waitingCount * 2][];
+			int[] priorities = new int[this.waitingCount * 2];
+			for (int i = 0; i < this.waitingCount; i++) {
+				int index = (this.firstWaiting + i) % this.waitingCount;
+				frames[i] = this.waitingFrames[index];
+				priorities[i] = this.waitingPriorities[index];
+			}
+			this.waitingFrames = frames;
+			this.waitingPriorities = priorities;
+			this.firstWaiting = 0;
+		}
+
+		int index = (this.firstWaiting + this.waitingCount)
+				% this.waitingFrames.length;
+		this.waitingFrames[index] = frame;
+		this.waitingPriorities[index] = priority;
+		this.waitingCount++;
+	}
+
+	/**
+	 * writes the frames that wait for a credit as long as there are credits
+	 * 
+	 * @throws QueueBlockedException
+	 *             thrown if something shall be pushed but the queue is blocked
+	 */
+	private void writeWaitingFrames() throws QueueBlockedException {
+		while (this.waitingCount > 0 && this.dataCredits > 0) {
+			byte[] frame = this.waitingFrames[this.firstWaiting];
+			int priority = this.waitingPriorities[this.firstWaiting];
+			this.waitingFrames[this.firstWaiting] = null;
+			this.firstWaiting = (this.firstWaiting + 1)
+					% this.waitingFrames.length;
+			this.waitingCount--;
+			this.dataCredits--;
+
+			if (this.waitingCount == 0) {
+				this.throttledTime += System.currentTimeMillis()
+						- this.throttledSince;
+			}
+			this.writer.write(frame, priority, false);
+		}
+
+		// there may be room for the frames of waiting threads
+		this.creditSync.notifyAll();
+	}
+
+	/**
+	 * writes the frames that wait for a credit anyway if the remote nxt did
+	 * not grant any credit within {@link #DATA_CREDIT_TIMEOUT} (e.g. because
+	 * it does not know the credits). This is checked whenever a frame is
+	 * written and whenever a frame of the remote nxt was received, so the
+	 * waiting frames need not wait for the next frame that is written.
+	 * 
+	 * @throws QueueBlockedException
+	 *             thrown if something shall be pushed but the queue is blocked
+	 */
+	public void checkCreditTimeout() throws QueueBlockedException {
+		synchronized (this.creditSync) {
+			long now = System.currentTimeMillis();
+			if (this.waitingCount > 0
+					&& now - this.lastCreditTime >= DATA_CREDIT_TIMEOUT) {
+				logger.warn("no credit from " + this.remoteNameString);
+				this.lastCreditTime = now;
+				this.dataCredits += PCConnectionManager.DATA_CREDIT_BATCH;
+				this.writeWaitingFrames();
+			}
+		}
+	}
+
+	/**
+	 * offers the remote nxt to write the data frames only as fast as it
+	 * grants credits (see {@link BTComm#DATA_CREDIT_OFFER}). Until the remote
+	 * nxt acknowledges the offer, the frames are written without credits (a
+	 * nxt that does not know the credits never acknowledges). The frames that
+	 * still wait for a credit of an earlier offer are written at once.
+	 * 
+	 * @throws QueueBlockedException
+	 *             thrown if something shall be pushed but the queue is blocked
+	 */
+	public void offerDataCredits() throws QueueBlockedException {
+		synchronized (this.creditSync) {
+			this.dataPaced = false;
+			this.dataCredits = this.waitingCount;
+			this.writeWaitingFrames();
+			this.dataCredits = 0;
+			this.offeredFrames = 0;
+			this.writeCommand(BTComm.DATA_CREDIT_OFFER);
+		}
+	}
+
+	/**
+	 * adds the credits the remote nxt granted for writing further data
+	 * frames (see {@link PCConnectionManager#DATA_CREDIT}). The first credit
+	 * acknowledges the offer of the credits: from then on the data frames are
+	 * paced and the window of {@link PCConnectionManager#DATA_WINDOW} frames
+	 * is counted from the offer. The frames that wait for a credit are
+	 * written.
+	 * 
+	 * @param credits
+	 *            how many data frames may be written
+	 * @throws QueueBlockedException
+	 *             thrown if something shall be pushed but the queue is blocked
+	 */
+	public void addDataCredits(int credits) throws QueueBlockedException {
+		synchronized (this.creditSync) {
+			if (this.dataPaced) {
+				this.dataCredits += credits;
+			}
+			else {
+				this.dataPaced = true;
+				this.dataCredits = PCConnectionManager.DATA_WINDOW
+						- this.offeredFrames;
+			}
+			this.lastCreditTime = System.currentTimeMillis();
+			this.writeWaitingFrames();
+		}
+	}
+
+	/**
+	 * gets how many frames had to wait for a credit of the remote nxt
+	 * 
+	 * @return the number of frames that were throttled
+	 */
+	public int getThrottledFrames() {
+		synchronized (this.creditSync) {
+			return this.throttledFrames;
+		}
+	}
+
+	/**
+	 * gets how long frames were waiting for a credit of the remote nxt
+	 * altogether
+	 * 
+	 * @return the time the connection was throttled (in ms)
+	 */
+	public long getThrottledTime() {
+		synchronized (this.creditSync) {
+			if (this.waitingCount > 0) {
+				return this.throttledTime + System.currentTimeMillis()
+						- this.throttledSince;
+			}
+			return this.throttledTime;
+		}
+	}
+
+	/**
+	 * returns whether a message with the given code takes a credit of the
+	 * remote nxt (see {@link PCConnectionManager#DATA_CREDIT}). Only the
+	 * data that is sent takes a credit: commands, requests and credits of
+	 * files are written at once (so the reader, which writes the answers and
+	 * receives the credits, never waits for a credit). Degrees and light
+	 * values take no credit as only the latest one is queued anyway (see
+	 * {@link #writeLatest(byte[], Object)}). Log records of a nxt take no
+	 * credit as they are only written if the connection is idle (see
+	 * {@link BTComm#LOG}).
+	 * 
+	 * @param code
+	 *            the code of the message
+	 * @return whether the message takes a credit
+	 */
+	static boolean takesDataCredit(byte code) {
+		byte upperCode = (byte) (code & BTComm.UPPER_BITS);
+		byte lowerCode = (byte) (code & BTComm.LOWER_BITS & ~BTComm.COMPACT);
+		return upperCode == BTComm.SEND && lowerCode != BTComm.DEGREE
+				&& lowerCode != BTComm.LIGHT && lowerCode != BTComm.LOG;
+	}
+
+	/**
+	 * writes a message that replaces the message with the same key that was
+	 * not written to the output yet
 	 * 
-	 * @param fromName
-	 *            from which nxt the message is derived from
 	 * @param message
 	 *            the message itself as a byte array
+	 * @param key
+	 *            the key of the message
 	 * @return returns whether the message was put into the queue or not (if not
 	 *         than the output is full and nothing can be written to it any
 	 *         more)
 	 * @throws QueueBlockedException
 	 *             thrown if something shall be pushed but the queue is blocked
 	 */
-	public boolean write(String fromName, byte[] message)
+	@Override
+	protected boolean writeLatest(byte[] message, Object key)
 			throws QueueBlockedException {
-		message = WriterUtils.concatArrays(communication.CommunicationUtils
-				.convertStringToByteArray(fromName), this.remoteName,
-				new byte[] { PCConnectionManager.DATA },
-				communication.CommunicationUtils
-						.convertIntToByteArray(message.length), message);
+		if (this.blocked) {
+			throw new QueueBlockedException(
+					"Cannot push into queue because queue is blocked");
+		}
+
+		// the message is given back to the pool by adding the header
+		int priority = getPriority(message[0], false);
+		return this.writer.writeLatest(this.addHeader(message), priority, key);
+	}
+
+	/**
+	 * adds the header with from which and to which nxt the message is sent.
+	 * The message is copied behind the header and given back to the frame
+	 * pool afterwards, so it must not be used any more.
+	 * 
+	 * @param message
+	 *            the message itself as a byte array
+	 * @return the message with header
+	 */
+	private byte[] addHeader(byte[] message) {
+		byte[] frame;
+		synchronized (this.builder) {
+			this.builder.reset();
+			this.builder.setInt(this.putHeader(), message.length);
+			frame = this.builder.toFrame(message.length);
+		}
+
+		System.arraycopy(message, 0, frame, frame.length - message.length,
+				message.length);
+		this.releaseMessage(message);
+		return frame;
+	}
+
+	/**
+	 * puts the header with from which and to which nxt the message is sent
+	 * into the builder
+	 * 
+	 * @return the index of the length of the message in the header
+	 */
+	@Override
+	protected int putHeader() {
+		if (this.nodeIds != null) {
+			this.builder.putByte(PCConnectionManager.COMPACT_HEADER).putByte(
+					this.myId).putByte(this.remoteId);
+		}
+		else {
+			this.builder.putBytes(this.myName).putBytes(this.remoteName);
+		}
+		this.builder.putByte(PCConnectionManager.DATA);
+		int lengthIndex = this.builder.length();
+		this.builder.putInt(0);
+		return lengthIndex;
+	}
+
+	/**
+	 * writes a message that already contains the header with the given
+	 * priority to the message buffer/queue
+	 * 
+	 * @param frame
+	 *            the message with the header
+	 * @param priority
+	 *            the priority of the message
+	 * @return returns whether the message was put into the queue or not (if not
+	 *         than the output is full and nothing can be written to it any
+	 *         more)
+	 * @throws QueueBlockedException
+	 *             thrown if something shall be pushed but the queue is blocked
+	 */
+	@Override
+	protected boolean writeWithHeader(byte[] frame, int priority)
+			throws QueueBlockedException {
+		if (this.blocked) {
+			throw new QueueBlockedException(
+					"Cannot push into queue because queue is blocked");
+		}
+
+		return this.writeData(frame, priority, frame[getMessageIndex(frame)]);
+	}
+
+	/**
+	 * writes a whole frame that already contains the header to the message
+	 * buffer/queue (used for forwarding without copying the frame). The frame
+	 * is only copied if its header has to be converted (see
+	 * {@link #convertHeader(String, byte[])}). A degree or light value replaces
+	 * the one from the same nxt that was not written to the output yet.
+	 * 
+	 * @param fromName
+	 *            from which nxt the frame originates
+	 * @param frame
+	 *            the frame with header and data
+	 * @return returns whether the message was put into the queue or not (if not
+	 *         than the output is full and nothing can be written to it any
+	 *         more)
+	 * @throws QueueBlockedException
+	 *             thrown if something shall be pushed but the queue is blocked
+	 */
+	public boolean writeFrame(String fromName, byte[] frame)
+			throws QueueBlockedException {
+		frame = this.convertHeader(fromName, frame);
+
+		int messageCode = getMessageCode(frame);
+		if (messageCode == (BTComm.SEND | BTComm.DEGREE)
+				|| messageCode == (BTComm.SEND | BTComm.LIGHT)) {
+			// a compact degree replaces a degree that is not compact
+			return this.writer.writeLatest(frame, Writer.PRIORITY_NORMAL, Byte
+					.valueOf((byte) messageCode));
+		}
+		return this.writer.write(frame, getFramePriority(frame), false);
+	}
+
+	/**
+	 * converts the header of a forwarded frame to the header the remote nxt
+	 * understands: a frame with names gets the compact header if the remote
+	 * nxt knows the ids and a frame with the compact header gets the names if
+	 * the remote nxt does not know the ids. Otherwise the frame stays as it
+	 * is.
+	 * 
+	 * @param fromName
+	 *            from which nxt the frame originates
+	 * @param frame
+	 *            the frame with header and data
+	 * @return the frame with the header for the remote nxt
+	 */
+	private byte[] convertHeader(String fromName, byte[] frame) {
+		NodeIds nodeIds = this.nodeIds;
+		boolean compact = isCompact(frame);
+
+		byte[] header;
+		if (nodeIds != null && !compact) {
+			int fromId = nodeIds.getId(fromName);
+			if (fromId == -1) {
+				return frame;
+			}
+			header = new byte[] { PCConnectionManager.COMPACT_HEADER,
+					(byte) fromId, this.remoteId };
+		}
+		else if (nodeIds == null && compact) {
+			header = WriterUtils.concatArrays(communication.CommunicationUtils
+					.convertStringToByteArray(fromName), this.remoteName);
+		}
+		else {
+			return frame;
+		}
+
+		int codeIndex = getCodeIndex(frame);
+		if (codeIndex == -1) {
+			return frame;
+		}
+		byte[] converted = new byte[header.length + frame.length - codeIndex];
+		System.arraycopy(header, 0, converted, 0, header.length);
+		System.arraycopy(frame, codeIndex, converted, header.length,
+				frame.length - codeIndex);
+		return converted;
+	}
 
-		return this.writer.write(message);
+	/**
+	 * gets the priority of a forwarded frame by the code of the message it
+	 * contains: degrees, light values and requests have normal priority, all
+	 * other frames have low priority so they stay in the order they were
+	 * received (the router cannot know which of them block the queue of the
+	 * sending nxt, e.g. a close ACK after the parts of a file)
+	 * 
+	 * @param frame
+	 *            the frame with header and data
+	 * @return the priority of the frame
+	 */
+	static int getFramePriority(byte[] frame) {
+		int messageIndex = getMessageIndex(frame);
+		if (messageIndex == -1) {
+			return Writer.PRIORITY_LOW;
+		}
+
+		byte upperCode = (byte) (frame[messageIndex] & BTComm.UPPER_BITS);
+		byte lowerCode = (byte) (frame[messageIndex] & BTComm.LOWER_BITS
+				& ~BTComm.COMPACT);
+		if (upperCode == BTComm.REQUEST
+				|| (upperCode == BTComm.SEND && (lowerCode == BTComm.DEGREE || lowerCode == BTComm.LIGHT))) {
+			return Writer.PRIORITY_NORMAL;
+		}
+		return Writer.PRIORITY_LOW;
+	}
+
+	/**
+	 * gets where the message starts in a data frame
+	 * 
+	 * @param frame
+	 *            the frame with header and data
+	 * @return the index of the first byte of the message or -1 if the frame is
+	 *         no data frame (or has no message)
+	 */
+	static int getMessageIndex(byte[] frame) {
+		int codeIndex = getCodeIndex(frame);
+		int messageIndex = codeIndex + 5;
+		if (codeIndex == -1 || messageIndex >= frame.length
+				|| (frame[codeIndex] & PCConnectionManager.UPPER_BITS) != PCConnectionManager.DATA) {
+			return -1;
+		}
+		return messageIndex;
+	}
+
+	/**
+	 * gets the code of the message in a data frame without the flag
+	 * {@link BTComm#COMPACT}, so a message has the same code whether it was
+	 * encoded with the compact codec or not
+	 * 
+	 * @param frame
+	 *            the frame with header and data
+	 * @return the code of the message or -1 if the frame is no data frame (or
+	 *         has no message)
+	 */
+	static int getMessageCode(byte[] frame) {
+		int messageIndex = getMessageIndex(frame);
+		if (messageIndex == -1) {
+			return -1;
+		}
+		byte code = frame[messageIndex];
+		byte upperCode = (byte) (code & BTComm.UPPER_BITS);
+		if (upperCode == BTComm.SEND || upperCode == BTComm.REQUEST) {
+			code &= ~BTComm.COMPACT;
+		}
+		return code & 0xFF;
+	}
+
+	/**
+	 * gets where the code is in a frame (the code follows the header)
+	 * 
+	 * @param frame
+	 *            the frame with header
+	 * @return the index of the code or -1 if the frame has no valid header
+	 */
+	static int getCodeIndex(byte[] frame) {
+		if (isCompact(frame)) {
+			return frame.length > 3 ? 3 : -1;
+		}
+		if (frame.length < 4) {
+			return -1;
+		}
+		int toIndex = 4 + CommunicationUtils.convertByteArrayToInt(frame, 0);
+		if (toIndex < 4 || frame.length < toIndex + 4) {
+			return -1;
+		}
+		int codeIndex = toIndex + 4
+				+ CommunicationUtils.convertByteArrayToInt(frame, toIndex);
+		if (codeIndex < toIndex + 4 || codeIndex >= frame.length) {
+			return -1;
+		}
+		return codeIndex;
+	}
+
+	/**
+	 * returns whether a frame has the compact header (with the ids of the
+	 * devices instead of their names)
+	 * 
+	 * @param frame
+	 *            the frame with header
+	 * @return whether the frame has the compact header
+	 */
+	static boolean isCompact(byte[] frame) {
+		return frame.length > 0
+				&& frame[0] == PCConnectionManager.COMPACT_HEADER;
+	}
+
+	/**
+	 * creates the message queue for the frames that are written to one nxt:
+	 * each priority has its own lane in which the frames are served fairly
+	 * per device they originate from (see {@link FairFrameQueue})
+	 * 
+	 * @param queueSize
+	 *            the number of frames each lane can hold
+	 * @return the message queue
+	 */
+	static MessageQueue<byte[]> createFrameQueue(int queueSize) {
+		return new PriorityMessageQueue<byte[]>(
+				new FairFrameQueue(queueSize), new FairFrameQueue(queueSize),
+				new FairFrameQueue(queueSize));
 	}
 
 	/**
@@ -154,13 +743,52 @@ class RoutingWriter extends MessageWriter {
 	 */
 	public boolean write(String fromName, byte command, boolean blocked)
 			throws QueueBlockedException {
-		byte[] message = WriterUtils.concatArrays(communication.CommunicationUtils
-				.convertStringToByteArray(fromName), this.remoteName,
-				new byte[] { command });
+		byte[] message = null;
+		NodeIds nodeIds = this.nodeIds;
+		if (nodeIds != null) {
+			int fromId = nodeIds.getId(fromName);
+			if (fromId != -1) {
+				message = new byte[] { PCConnectionManager.COMPACT_HEADER,
+						(byte) fromId, this.remoteId, command };
+			}
+		}
+		if (message == null) {
+			message = WriterUtils.concatArrays(communication.CommunicationUtils
+					.convertStringToByteArray(fromName), this.remoteName,
+					new byte[] { command });
+		}
 
+		// a credit is written before all other frames, so the remote nxt can
+		// go on writing as soon as possible
+		if (command == (byte) (PCConnectionManager.VIRTUAL_ADMIN | PCConnectionManager.DATA_CREDIT)) {
+			return this.writer.write(message, Writer.PRIORITY_HIGH, blocked);
+		}
 		return this.writer.write(message, blocked);
 	}
 
+	/**
+	 * writes the ids of all devices to the remote nxt (always with names in
+	 * the header as the remote nxt does not know the ids yet)
+	 * 
+	 * @param nodeIds
+	 *            the ids of all devices
+	 * @return returns whether the message was put into the queue or not (if not
+	 *         than the output is full and nothing can be written to it any
+	 *         more)
+	 * @throws QueueBlockedException
+	 *             thrown if something shall be pushed but the queue is blocked
+	 */
+	public boolean writeNodeIds(NodeIds nodeIds) throws QueueBlockedException {
+		byte code = (byte) (PCConnectionManager.VIRTUAL_ADMIN | PCConnectionManager.NODE_IDS);
+		byte[] ids = nodeIds.toByteArray();
+		byte[] message = WriterUtils.concatArrays(this.myName,
+				this.remoteName, new byte[] { code },
+				communication.CommunicationUtils
+						.convertIntToByteArray(ids.length), ids);
+
+		return this.writer.write(message, false);
+	}
+
 	/**
 	 * requests to close the BT connection and blocks the writer thread after
 	 * writing the close message
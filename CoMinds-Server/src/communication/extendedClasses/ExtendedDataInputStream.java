@@ -26,8 +26,9 @@ import java.io.IOException;
 import java.io.InputStream;
 
 /**
- * This class extends the DataInputStream by a method for reading a String from
- * the stream
+ * This class extends the DataInputStream by methods for reading a String from
+ * the stream and for reading the compact encodings of ints, floats and Strings
+ * (see {@link communication.CommunicationUtils})
  * 
  * @author Annabelle Klarl
  */
@@ -52,6 +53,19 @@ public class ExtendedDataInputStream extends DataInputStream {
 	 *             thrown if it couldn't be read from the input stream
 	 */
 	public String readString() throws IOException {
+		return new String(this.readStringBytes());
+	}
+
+	/**
+	 * reads the bytes of a String from the input stream without converting
+	 * them to a String. It will read first the length of the string and then
+	 * the bytes of the String itself
+	 * 
+	 * @return the bytes of the String that was read
+	 * @throws IOException
+	 *             thrown if it couldn't be read from the input stream
+	 */
+	public byte[] readStringBytes() throws IOException {
 		int length = this.readInt();
 		if (length < 0) {
 			throw new IOException(
@@ -59,7 +73,72 @@ public class ExtendedDataInputStream extends DataInputStream {
 		}
 
 		byte[] messageBytes = new byte[length];
-		this.read(messageBytes);
+		this.readFully(messageBytes);
+		return messageBytes;
+	}
+
+	/**
+	 * reads a non-negative int from the input stream that was written as an
+	 * unsigned varint (see
+	 * {@link communication.CommunicationUtils#convertIntToVarIntByteArray(int)})
+	 * 
+	 * @return the int that was read
+	 * @throws IOException
+	 *             thrown if it couldn't be read from the input stream or the
+	 *             varint is longer than five bytes
+	 */
+	public int readVarInt() throws IOException {
+		int value = 0;
+		for (int shift = 0; shift < 35; shift += 7) {
+			int b = this.read();
+			if (b < 0) {
+				throw new IOException("End of stream while reading a varint");
+			}
+			value |= (b & 0x7F) << shift;
+			if ((b & 0x80) == 0) {
+				return value;
+			}
+		}
+		throw new IOException("Varint is too long");
+	}
+
+	/**
+	 * reads a float from the input stream that was written as a 16 bit fixed
+	 * point value (see
+	 * {@link communication.CommunicationUtils#convertFloatToFixedPointByteArray(float)}
+	 * ). An invalid value is returned as -1.
+	 * 
+	 * @return the float that was read
+	 * @throws IOException
+	 *             thrown if it couldn't be read from the input stream
+	 */
+	public float readFixedPoint() throws IOException {
+		int fixedPoint = this.readUnsignedShort();
+		if (fixedPoint == communication.CommunicationUtils.FIXED_POINT_INVALID) {
+			return -1;
+		}
+		return (float) fixedPoint
+				/ communication.CommunicationUtils.FIXED_POINT_SCALE;
+	}
+
+	/**
+	 * reads a String from the input stream whose length was written as an
+	 * unsigned varint (see
+	 * {@link communication.CommunicationUtils#convertStringToCompactByteArray(String)}
+	 * )
+	 * 
+	 * @return the String that was read
+	 * @throws IOException
+	 *             thrown if it couldn't be read from the input stream
+	 */
+	public String readCompactString() throws IOException {
+		int length = this.readVarInt();
+		if (length < 0) {
+			throw new IOException("Negative length of String");
+		}
+
+		byte[] messageBytes = new byte[length];
+		this.readFully(messageBytes);
 		return new String(messageBytes);
 	}
 
@@ -0,0 +1,85 @@
+/*
+ *  CoMinds is a Java framework for collaborative robotic scenarios with
+ *  Lego Mindstorms based leJOS. A complete documentation can be found
+ *  in docs/thesis.pdf.
+ *
+ *  Copyright (C) 2010  Annabelle Klarl
+ *  All rights reserved.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ * 
+ */
+package communication.transport;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+import lejos.pc.comm.NXTComm;
+import lejos.pc.comm.NXTCommFactory;
+import lejos.pc.comm.NXTConnector;
+
+/**
+ * A transport that connects to nxts via bluetooth (in packet mode). This is
+ * the only class of the pc server that needs the leJOS pc library.
+ * 
+ * @author Annabelle Klarl
+ */
+public class BluetoothTransport implements Transport {
+
+	@Override
+	public Link connect(String remoteName) throws IOException {
+		NXTConnector btc = new NXTConnector();
+		boolean connected = btc.connectTo(remoteName, null,
+				NXTCommFactory.BLUETOOTH, NXTComm.PACKET);
+		if (!connected) {
+			throw new IOException("not connected to " + remoteName);
+		}
+		return new BluetoothLink(btc);
+	}
+
+	/**
+	 * A link over a bluetooth connection
+	 * 
+	 * @author Annabelle Klarl
+	 */
+	private static class BluetoothLink implements Link {
+
+		private final NXTConnector btc;
+
+		/**
+		 * Constructor
+		 * 
+		 * @param btc
+		 *            the connected bluetooth connector
+		 */
+		public BluetoothLink(NXTConnector btc) {
+			this.btc = btc;
+		}
+
+		@Override
+		public InputStream getInputStream() {
+			return this.btc.getDataIn();
+		}
+
+		@Override
+		public OutputStream getOutputStream() {
+			return this.btc.getDataOut();
+		}
+
+		@Override
+		public void close() throws IOException {
+			this.btc.close();
+		}
+	}
+}
@@ -0,0 +1,155 @@
+/*
+ *  CoMinds is a Java framework for collaborative robotic scenarios with
+ *  Lego Mindstorms based leJOS. A complete documentation can be found
+ *  in docs/thesis.pdf.
+ *
+ *  Copyright (C) 2010  Annabelle Klarl
+ *  All rights reserved.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ * 
+ */
+package communication.transport;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.SelectableChannel;
+import java.nio.channels.WritableByteChannel;
+
+/**
+ * This is a non-blocking link to one remote device. The link consists of a
+ * channel to read from and a channel to write to (these may be the same
+ * channel, e.g. for a socket). Both channels are in non-blocking mode so that
+ * they can be registered at a selector.
+ * 
+ * @author Annabelle Klarl
+ */
+public class ChannelLink {
+
+	private final String remoteName;
+	private final SelectableChannel source;
+	private final SelectableChannel sink;
+
+	/**
+	 * Constructor for a link that reads from and writes to the same channel
+	 * 
+	 * @param remoteName
+	 *            the name of the remote device
+	 * @param channel
+	 *            the channel to read from and write to
+	 * @throws IOException
+	 *             thrown if the channel cannot be switched to non-blocking mode
+	 */
+	public <T extends SelectableChannel & ReadableByteChannel & WritableByteChannel> ChannelLink(
+			String remoteName, T channel) throws IOException {
+		this.remoteName = remoteName;
+		this.source = channel;
+		this.sink = channel;
+
+		channel.configureBlocking(false);
+	}
+
+	/**
+	 * Constructor for a link that reads from and writes to different channels
+	 * 
+	 * @param remoteName
+	 *            the name of the remote device
+	 * @param source
+	 *            the channel to read from
+	 * @param sink
+	 *            the channel to write to
+	 * @throws IOException
+	 *             thrown if one of the channels cannot be switched to
+	 *             non-blocking mode
+	 */
+	public <S extends SelectableChannel & ReadableByteChannel, T extends SelectableChannel & WritableByteChannel> ChannelLink(
+			String remoteName, S source, T sink) throws IOException {
+		this.remoteName = remoteName;
+		this.source = source;
+		this.sink = sink;
+
+		source.configureBlocking(false);
+		sink.configureBlocking(false);
+	}
+
+	/**
+	 * gets the name of the remote device of this link
+	 * 
+	 * @return the name of the remote device
+	 */
+	public String getRemoteName() {
+		return this.remoteName;
+	}
+
+	/**
+	 * gets the channel to read from
+	 * 
+	 * @return the channel to read from
+	 */
+	public SelectableChannel getSource() {
+		return this.source;
+	}
+
+	/**
+	 * gets the channel to write to
+	 * 
+	 * @return the channel to write to
+	 */
+	public SelectableChannel getSink() {
+		return this.sink;
+	}
+
+	/**
+	 * reads as many bytes as are available without blocking into the buffer
+	 * 
+	 * @param buffer
+	 *            the buffer to read into
+	 * @return the number of bytes read or -1 if the end of stream is reached
+	 * @throws IOException
+	 *             thrown if nothing can be read from the link
+	 */
+	public int read(ByteBuffer buffer) throws IOException {
+		return ((ReadableByteChannel) this.source).read(buffer);
+	}
+
+	/**
+	 * writes as many bytes of the buffer as possible without blocking
+	 * 
+	 * @param buffer
+	 *            the buffer to write
+	 * @return the number of bytes written
+	 * @throws IOException
+	 *             thrown if nothing can be written to the link
+	 */
+	public int write(ByteBuffer buffer) throws IOException {
+		return ((WritableByteChannel) this.sink).write(buffer);
+	}
+
+	/**
+	 * closes both channels of this link
+	 * 
+	 * @throws IOException
+	 *             thrown if one of the channels could not be closed
+	 */
+	public void close() throws IOException {
+		try {
+			this.source.close();
+		}
+		finally {
+			if (this.sink != this.source) {
+				this.sink.close();
+			}
+		}
+	}
+}
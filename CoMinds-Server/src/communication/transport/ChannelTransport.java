@@ -0,0 +1,44 @@
+/*
+ *  CoMinds is a Java framework for collaborative robotic scenarios with
+ *  Lego Mindstorms based leJOS. A complete documentation can be found
+ *  in docs/thesis.pdf.
+ *
+ *  Copyright (C) 2010  Annabelle Klarl
+ *  All rights reserved.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ * 
+ */
+package communication.transport;
+
+import java.io.IOException;
+
+/**
+ * A transport that opens non-blocking links to remote devices. All links of
+ * such a transport can be multiplexed by a single selector thread.
+ * 
+ * @author Annabelle Klarl
+ */
+public interface ChannelTransport {
+
+	/**
+	 * opens a non-blocking link to the remote device with the given name
+	 * 
+	 * @param remoteName
+	 *            the name of the device to connect to
+	 * @return the link to the remote device
+	 * @throws IOException
+	 *             thrown if no link could be opened
+	 */
+	public ChannelLink connectChannel(String remoteName) throws IOException;
+}
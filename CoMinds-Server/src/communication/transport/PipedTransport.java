@@ -0,0 +1,94 @@
+/*
+ *  CoMinds is a Java framework for collaborative robotic scenarios with
+ *  Lego Mindstorms based leJOS. A complete documentation can be found
+ *  in docs/thesis.pdf.
+ *
+ *  Copyright (C) 2010  Annabelle Klarl
+ *  All rights reserved.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ * 
+ */
+package communication.transport;
+
+import java.io.IOException;
+import java.nio.channels.Channels;
+import java.nio.channels.Pipe;
+
+import common.Map;
+
+/**
+ * A transport that connects to simulated devices in the same process via
+ * pipes. For each simulated device {@link #createPeer(String)} has to be called
+ * first: it returns the link the simulated device uses and keeps the other end
+ * of the pipes until a connection to the device is opened. The links can either
+ * be blocking streams or non-blocking channels for an event loop.
+ * 
+ * @author Annabelle Klarl
+ */
+public class PipedTransport implements Transport, ChannelTransport {
+
+	// pipes of the simulated devices that are not connected yet
+	private final Map<String, Pipe[]> peers = new Map<String, Pipe[]>();
+
+	/**
+	 * creates a simulated device with the given name. The returned link is the
+	 * end of the device: what is written to it will be read from the link that
+	 * is opened by {@link #connect(String)} or {@link #connectChannel(String)}
+	 * and vice versa.
+	 * 
+	 * @param remoteName
+	 *            the name of the simulated device
+	 * @return the (blocking) link for the simulated device
+	 * @throws IOException
+	 *             thrown if the pipes could not be opened
+	 */
+	public Link createPeer(String remoteName) throws IOException {
+		Pipe toPeer = Pipe.open();
+		Pipe fromPeer = Pipe.open();
+		this.peers.put(remoteName, new Pipe[] { toPeer, fromPeer });
+		return new StreamLink(Channels.newInputStream(toPeer.source()),
+				Channels.newOutputStream(fromPeer.sink()));
+	}
+
+	@Override
+	public Link connect(String remoteName) throws IOException {
+		Pipe[] pipes = this.takePeer(remoteName);
+		return new StreamLink(Channels.newInputStream(pipes[1].source()),
+				Channels.newOutputStream(pipes[0].sink()));
+	}
+
+	@Override
+	public ChannelLink connectChannel(String remoteName) throws IOException {
+		Pipe[] pipes = this.takePeer(remoteName);
+		return new ChannelLink(remoteName, pipes[1].source(), pipes[0].sink());
+	}
+
+	/**
+	 * removes the pipes of the given simulated device (a device can only be
+	 * connected once)
+	 * 
+	 * @param remoteName
+	 *            the name of the simulated device
+	 * @return the pipe to the device and the pipe from the device
+	 * @throws IOException
+	 *             thrown if there is no such device
+	 */
+	private Pipe[] takePeer(String remoteName) throws IOException {
+		Pipe[] pipes = this.peers.remove(remoteName);
+		if (pipes == null) {
+			throw new IOException("no simulated device " + remoteName);
+		}
+		return pipes;
+	}
+}
@@ -0,0 +1,71 @@
+/*
+ *  CoMinds is a Java framework for collaborative robotic scenarios with
+ *  Lego Mindstorms based leJOS. A complete documentation can be found
+ *  in docs/thesis.pdf.
+ *
+ *  Copyright (C) 2010  Annabelle Klarl
+ *  All rights reserved.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ * 
+ */
+package communication.transport;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * A link that consists of an input stream and an output stream. Closing the
+ * link closes both streams.
+ * 
+ * @author Annabelle Klarl
+ */
+public class StreamLink implements Link {
+
+	private final InputStream input;
+	private final OutputStream output;
+
+	/**
+	 * Constructor
+	 * 
+	 * @param input
+	 *            the stream to read from the remote device
+	 * @param output
+	 *            the stream to write to the remote device
+	 */
+	public StreamLink(InputStream input, OutputStream output) {
+		this.input = input;
+		this.output = output;
+	}
+
+	@Override
+	public InputStream getInputStream() {
+		return this.input;
+	}
+
+	@Override
+	public OutputStream getOutputStream() {
+		return this.output;
+	}
+
+	@Override
+	public void close() throws IOException {
+		try {
+			this.output.close();
+		}
+		finally {
+			this.input.close();
+		}
+	}
+}
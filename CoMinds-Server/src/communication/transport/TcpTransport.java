@@ -0,0 +1,93 @@
+/*
+ *  CoMinds is a Java framework for collaborative robotic scenarios with
+ *  Lego Mindstorms based leJOS. A complete documentation can be found
+ *  in docs/thesis.pdf.
+ *
+ *  Copyright (C) 2010  Annabelle Klarl
+ *  All rights reserved.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ * 
+ */
+package communication.transport;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.channels.SocketChannel;
+
+import common.Map;
+
+/**
+ * A transport that connects to remote devices via tcp sockets. Each remote
+ * device listens on its own port: the device that is registered first listens
+ * on the base port, the second one on base port + 1 and so on. This can be used
+ * to run simulated devices instead of real nxts. The links can either be
+ * blocking streams or non-blocking channels for an event loop.
+ * 
+ * @author Annabelle Klarl
+ */
+public class TcpTransport implements Transport, ChannelTransport {
+
+	private final String host;
+	private final Map<String, Integer> ports = new Map<String, Integer>();
+
+	/**
+	 * Constructor
+	 * 
+	 * @param host
+	 *            the host where the remote devices listen
+	 * @param basePort
+	 *            the port of the first remote device
+	 * @param remoteNames
+	 *            the names of the remote devices (in the order of their ports)
+	 */
+	public TcpTransport(String host, int basePort, String... remoteNames) {
+		this.host = host;
+		for (int i = 0; i < remoteNames.length; i++) {
+			this.ports.put(remoteNames[i], basePort + i);
+		}
+	}
+
+	@Override
+	public Link connect(String remoteName) throws IOException {
+		Socket socket = new Socket(this.host, this.getPort(remoteName));
+		socket.setTcpNoDelay(true);
+		return new StreamLink(socket.getInputStream(), socket.getOutputStream());
+	}
+
+	@Override
+	public ChannelLink connectChannel(String remoteName) throws IOException {
+		SocketChannel channel = SocketChannel.open(new InetSocketAddress(
+				this.host, this.getPort(remoteName)));
+		channel.socket().setTcpNoDelay(true);
+		return new ChannelLink(remoteName, channel);
+	}
+
+	/**
+	 * gets the port where the given remote device listens
+	 * 
+	 * @param remoteName
+	 *            the name of the remote device
+	 * @return the port of the remote device
+	 * @throws IOException
+	 *             thrown if no port is known for the remote device
+	 */
+	private int getPort(String remoteName) throws IOException {
+		Integer port = this.ports.get(remoteName);
+		if (port == null) {
+			throw new IOException("no port known for " + remoteName);
+		}
+		return port;
+	}
+}
@@ -0,0 +1,52 @@
+/*
+ *  CoMinds is a Java framework for collaborative robotic scenarios with
+ *  Lego Mindstorms based leJOS. A complete documentation can be found
+ *  in docs/thesis.pdf.
+ *
+ *  Copyright (C) 2010  Annabelle Klarl
+ *  All rights reserved.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ * 
+ */
+package communication.transport;
+
+import java.io.IOException;
+
+/**
+ * A transport that opens links to remote devices. A connection to a remote
+ * device (see {@link communication.BTComm}) reads from and writes to such a
+ * link without knowing whether the link is a bluetooth connection, a tcp
+ * connection or a pipe to a simulated device in the same process.
+ * 
+ * @author Annabelle Klarl
+ */
+public interface Transport {
+
+	// the maximum number of bytes that fit into one bluetooth packet of the
+	// leJOS bluetooth stack (256 bytes including the 2 byte packet header).
+	// The frames of all transports are built for this size as they may be
+	// forwarded to a nxt.
+	public static final int MAX_PACKET_SIZE = 254;
+
+	/**
+	 * opens a link to the remote device with the given name
+	 * 
+	 * @param remoteName
+	 *            the name of the device to connect to
+	 * @return the link to the remote device
+	 * @throws IOException
+	 *             thrown if no link could be opened
+	 */
+	public Link connect(String remoteName) throws IOException;
+}
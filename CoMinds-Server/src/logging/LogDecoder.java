@@ -0,0 +1,449 @@
+/*
+ *  CoMinds is a Java framework for collaborative robotic scenarios with
+ *  Lego Mindstorms based leJOS. A complete documentation can be found
+ *  in docs/thesis.pdf.
+ *
+ *  Copyright (C) 2010  Annabelle Klarl
+ *  All rights reserved.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ * 
+ */
+package logging;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+import logging.Logger.LogLevel;
+
+import common.FrameBuilder;
+import communication.extendedClasses.ExtendedDataInputStream;
+
+/**
+ * This turns the binary log files that are written by the logger of a nxt
+ * back into text with one line per log message ("level time message"). The
+ * format of the binary log file is documented in the LogWriter of the nxt: it
+ * starts with {@link #MAGIC} and holds one record per log message with its
+ * level, the time since the last record, a reference to the message in a table
+ * of Strings and the typed arguments of the message. Files without the magic
+ * bytes are copied unchanged (they are text log files of an older nxt). A
+ * binary log may be followed by further binary logs that start with
+ * {@link #MAGIC} again (e.g. if a log that is streamed from a nxt switches
+ * between the pc and the file of the nxt): the table of Strings is cleared
+ * then.
+ * <p>
+ * The nxt writes the binary log into a ring log file (see the LogRingFile of
+ * the nxt) that starts with {@link #RING_MAGIC} and a header page and is
+ * divided into segments. Every segment holds a binary log of its own and
+ * every page starts with the number of its segment. The segments are decoded
+ * from the oldest to the newest one.
+ * <p>
+ * It can be run on a harvested log file with
+ * <code>java logging.LogDecoder &lt;log file&gt; [&lt;text file&gt;]</code>.
+ * Without a text file the log is printed to the console.
+ * 
+ * @author Annabelle Klarl
+ */
+public class LogDecoder {
+
+	/** the first bytes of a binary log file (the last one is the version) */
+	public static final byte[] MAGIC = { 'C', 'M', 'L', 1 };
+
+	/** the first bytes of a ring log file (the last one is the version) */
+	public static final byte[] RING_MAGIC = { 'C', 'M', 'R', 1 };
+
+	/** a record that sets the absolute time */
+	public static final int RECORD_TIME = 0x0F;
+
+	/** a record that ends the log */
+	public static final int RECORD_END = 0x0E;
+
+	/** the types of arguments */
+	public static final int ARGUMENT_TEXT = 0x00;
+	public static final int ARGUMENT_INT = 0x01;
+	public static final int ARGUMENT_FLOAT = 0x02;
+
+	/** the number of Strings that are referenced instead of written again */
+	public static final int MAX_STRINGS = 64;
+
+	// the number of fraction digits written for float arguments
+	private static final int FRACTION_DIGITS = 3;
+
+	private final ExtendedDataInputStream in;
+	private final FrameBuilder line = new FrameBuilder(null, 128);
+
+	private final String[] strings = new String[MAX_STRINGS];
+	private int nextString = 0;
+	private long time = 0;
+
+	/**
+	 * Constructor (the magic bytes must already be read from the input stream)
+	 * 
+	 * @param in
+	 *            the binary log records
+	 */
+	public LogDecoder(InputStream in) {
+		this.in = new ExtendedDataInputStream(in);
+	}
+
+	/**
+	 * reads the next log message and turns it into a line of text
+	 * 
+	 * @return the line with a trailing line break or null at the end of the
+	 *         log
+	 * @throws IOException
+	 *             thrown if the log cannot be read or is corrupt
+	 */
+	public byte[] readLine() throws IOException {
+		int head = this.in.read();
+		while (head == RECORD_TIME || head == MAGIC[0]) {
+			if (head == MAGIC[0]) {
+				this.readMagic();
+			}
+			else {
+				this.time = this.readVarLong();
+			}
+			head = this.in.read();
+		}
+		if (head < 0 || head == RECORD_END) {
+			return null;
+		}
+
+		int level = head & 0x0F;
+		int arguments = head >>> 4;
+		if (level >= LogLevel.values().length) {
+			throw new IOException("Unknown log record " + head);
+		}
+		this.time += this.in.readVarInt();
+
+		String format = this.readReference();
+		this.line.reset().putText(LogLevel.values()[level].toString())
+				.putByte((byte) ' ').putDecimal(this.time).putByte((byte) ' ');
+
+		int index = 0;
+		for (int i = 0; i < arguments; i++) {
+			index = this.putFormat(format, index);
+			this.putArgument();
+		}
+		return this.line.putText(format, index, format.length()).putByte(
+				(byte) '\n').toFrame();
+	}
+
+	/**
+	 * reads the rest of the magic bytes of a binary log that follows the log
+	 * before and starts with a new table of Strings
+	 * 
+	 * @throws IOException
+	 *             thrown if the log cannot be read or the magic bytes are
+	 *             wrong
+	 */
+	private void readMagic() throws IOException {
+		for (int i = 1; i < MAGIC.length; i++) {
+			if (this.in.readUnsignedByte() != MAGIC[i]) {
+				throw new IOException("Unknown log record " + MAGIC[0]);
+			}
+		}
+		for (int i = 0; i < MAX_STRINGS; i++) {
+			this.strings[i] = null;
+		}
+		this.nextString = 0;
+	}
+
+	/**
+	 * reads a reference to a String (and the String itself if it is new)
+	 * 
+	 * @return the String
+	 * @throws IOException
+	 *             thrown if the log cannot be read or refers to an unknown
+	 *             String
+	 */
+	private String readReference() throws IOException {
+		int reference = this.in.readVarInt();
+		if (reference == 0) {
+			String value = this.in.readCompactString();
+			this.strings[this.nextString] = value;
+			this.nextString = (this.nextString + 1) % MAX_STRINGS;
+			return value;
+		}
+		if (reference > MAX_STRINGS || this.strings[reference - 1] == null) {
+			throw new IOException("Unknown String " + reference);
+		}
+		return this.strings[reference - 1];
+	}
+
+	/**
+	 * reads an argument and appends it to the line
+	 * 
+	 * @throws IOException
+	 *             thrown if the log cannot be read or the type of the
+	 *             argument is unknown
+	 */
+	private void putArgument() throws IOException {
+		int type = this.in.readUnsignedByte();
+		switch (type) {
+		case ARGUMENT_TEXT:
+			this.line.putText(this.readReference());
+			break;
+		case ARGUMENT_INT:
+			int zigzag = this.in.readVarInt();
+			this.line.putDecimal((long) ((zigzag >>> 1) ^ -(zigzag & 1)));
+			break;
+		case ARGUMENT_FLOAT:
+			this.line.putDecimal(this.in.readFloat(), FRACTION_DIGITS);
+			break;
+		default:
+			throw new IOException("Unknown argument type " + type);
+		}
+	}
+
+	/**
+	 * copies the format up to the next "{}" to the line. If there is no "{}"
+	 * left, the rest of the format and a space are copied.
+	 * 
+	 * @param format
+	 *            the message with "{}" for the arguments
+	 * @param index
+	 *            where to start in the format
+	 * @return the index in the format behind the "{}"
+	 */
+	private int putFormat(String format, int index) {
+		int length = format.length();
+		for (int i = index; i < length - 1; i++) {
+			if (format.charAt(i) == '{' && format.charAt(i + 1) == '}') {
+				this.line.putText(format, index, i);
+				return i + 2;
+			}
+		}
+		this.line.putText(format, index, length).putByte((byte) ' ');
+		return length;
+	}
+
+	/**
+	 * reads an unsigned varlong (seven bits per byte)
+	 * 
+	 * @return the long that was read
+	 * @throws IOException
+	 *             thrown if the log cannot be read or the varlong is too long
+	 */
+	private long readVarLong() throws IOException {
+		long value = 0;
+		for (int shift = 0; shift < 70; shift += 7) {
+			int b = this.in.readUnsignedByte();
+			value |= (long) (b & 0x7F) << shift;
+			if ((b & 0x80) == 0) {
+				return value;
+			}
+		}
+		throw new IOException("Varlong is too long");
+	}
+
+	/**
+	 * decodes a log file into text. A file that is not a binary log file is
+	 * copied unchanged. A truncated last record (e.g. if the nxt was switched
+	 * off while logging) ends the log.
+	 * 
+	 * @param in
+	 *            the log file
+	 * @param out
+	 *            where to write the text
+	 * @throws IOException
+	 *             thrown if the log cannot be read or is corrupt or the text
+	 *             cannot be written
+	 */
+	public static void decode(InputStream in, OutputStream out)
+			throws IOException {
+		byte[] magic = new byte[MAGIC.length];
+		int length = 0;
+		int read = 0;
+		while (length < magic.length
+				&& (read = in.read(magic, length, magic.length - length)) > 0) {
+			length += read;
+		}
+
+		if (startsWith(magic, length, RING_MAGIC)) {
+			decodeRing(in, out);
+			return;
+		}
+		if (!startsWith(magic, length, MAGIC)) {
+			out.write(magic, 0, length);
+			byte[] buffer = new byte[4096];
+			while ((read = in.read(buffer)) > 0) {
+				out.write(buffer, 0, read);
+			}
+			return;
+		}
+
+		LogDecoder decoder = new LogDecoder(in);
+		try {
+			byte[] line;
+			while ((line = decoder.readLine()) != null) {
+				out.write(line);
+			}
+		}
+		catch (EOFException e) {
+			// truncated last record
+		}
+	}
+
+	/**
+	 * decodes the segments of a ring log file from the oldest to the newest
+	 * one (the magic bytes must already be read)
+	 * 
+	 * @param in
+	 *            the ring log file
+	 * @param out
+	 *            where to write the text
+	 * @throws IOException
+	 *             thrown if the log cannot be read or is corrupt or the text
+	 *             cannot be written
+	 */
+	private static void decodeRing(InputStream in, OutputStream out)
+			throws IOException {
+		DataInputStream data = new DataInputStream(in);
+		int pageSize = data.readInt();
+		int segmentPages = data.readInt();
+		int segments = data.readInt();
+		if (pageSize <= 8 || segmentPages <= 0 || segments <= 0) {
+			throw new IOException("Corrupt header of ring log file");
+		}
+		data.readFully(new byte[pageSize - RING_MAGIC.length - 12]);
+
+		// read all pages (a truncated file ends with the last complete page)
+		byte[][] pages = new byte[segments * segmentPages][];
+		try {
+			for (int i = 0; i < pages.length; i++) {
+				byte[] page = new byte[pageSize];
+				data.readFully(page);
+				pages[i] = page;
+			}
+		}
+		catch (EOFException e) {
+		}
+
+		// the segments in the order they were written (0 was never written)
+		int last = 0;
+		while (true) {
+			int next = -1;
+			for (int i = 0; i < segments; i++) {
+				int sequence = getSequence(pages[i * segmentPages]);
+				if (sequence > last
+						&& (next == -1 || sequence < getSequence(pages[next
+								* segmentPages]))) {
+					next = i;
+				}
+			}
+			if (next == -1) {
+				return;
+			}
+			last = getSequence(pages[next * segmentPages]);
+
+			// the pages of an older segment are not written yet
+			ByteArrayOutputStream segment = new ByteArrayOutputStream();
+			for (int i = 0; i < segmentPages; i++) {
+				byte[] page = pages[next * segmentPages + i];
+				if (getSequence(page) != last) {
+					break;
+				}
+				segment.write(page, 4, pageSize - 4);
+			}
+			decode(new ByteArrayInputStream(segment.toByteArray()), out);
+		}
+	}
+
+	/**
+	 * gets the number of the segment a page of a ring log file belongs to
+	 * 
+	 * @param page
+	 *            the page (may be null if it was not read)
+	 * @return the number of the segment or 0
+	 */
+	private static int getSequence(byte[] page) {
+		if (page == null) {
+			return 0;
+		}
+		return ((page[0] & 0xFF) << 24) | ((page[1] & 0xFF) << 16)
+				| ((page[2] & 0xFF) << 8) | (page[3] & 0xFF);
+	}
+
+	/**
+	 * returns whether the first bytes of a file are the given magic bytes
+	 * 
+	 * @param bytes
+	 *            the first bytes of the file
+	 * @param length
+	 *            how many bytes were read
+	 * @param magic
+	 *            the magic bytes
+	 * @return whether the file starts with the magic bytes
+	 */
+	private static boolean startsWith(byte[] bytes, int length, byte[] magic) {
+		if (length < magic.length) {
+			return false;
+		}
+		for (int i = 0; i < magic.length; i++) {
+			if (bytes[i] != magic[i]) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * decodes a log file
+	 * 
+	 * @param args
+	 *            the log file and optionally the text file to write
+	 */
+	public static void main(String[] args) {
+		if (args.length < 1) {
+			System.out
+					.println("usage: java logging.LogDecoder <log file> [<text file>]");
+			return;
+		}
+
+		InputStream in = null;
+		OutputStream out = System.out;
+		try {
+			in = new BufferedInputStream(new FileInputStream(args[0]));
+			if (args.length > 1) {
+				out = new FileOutputStream(args[1]);
+			}
+			decode(in, out);
+			out.flush();
+		}
+		catch (IOException e) {
+			System.out.println("Could not decode " + args[0] + ": "
+					+ e.getMessage());
+		}
+		finally {
+			try {
+				if (in != null) {
+					in.close();
+				}
+				if (out != System.out) {
+					out.close();
+				}
+			}
+			catch (IOException e) {
+			}
+		}
+	}
+}
@@ -29,8 +29,10 @@ import java.io.OutputStream;
 
 import logging.Logger.LogLevel;
 
+import common.RingBufferQueue;
+import common.FrameBuilder;
+import common.FramePool;
 import common.Writer;
-import common.WriterUtils;
 import common.exceptions.QueueBlockedException;
 
 /**
@@ -41,8 +43,15 @@ import common.exceptions.QueueBlockedException;
  */
 class LogWriter extends Writer {
 
+	// the number and the maximum length of log lines that are recycled
+	private static final int FRAME_POOL_SIZE = 8;
+	private static final int MAX_POOLED_LINE = 128;
+
+	private final FrameBuilder builder = this.initBuilder();
+
 	/**
-	 * Constructor
+	 * Constructor (only the logger writes to this writer and it synchronizes
+	 * all writes, so the queue has a single producer)
 	 * 
 	 * @param fileName
 	 *            the name of the logfile
@@ -50,17 +59,29 @@ class LogWriter extends Writer {
 	 *            the size of the buffer for log messages
 	 */
 	public LogWriter(String fileName, int queueSize) {
-		super(initFileOutput(fileName), queueSize);
+		super(initFileOutput(fileName), new RingBufferQueue<byte[]>(queueSize,
+				false), false);
 	}
 
 	/**
-	 * Constructor
+	 * Constructor (see {@link LogWriter#LogWriter(String, int)})
 	 * 
 	 * @param queueSize
 	 *            the size of the buffer for log messages
 	 */
 	public LogWriter(int queueSize) {
-		super(initOutput(), queueSize);
+		super(initOutput(), new RingBufferQueue<byte[]>(queueSize, false),
+				false);
+	}
+
+	/**
+	 * creates the frame pool of this writer and the builder for the log lines
+	 * 
+	 * @return the builder for the log lines
+	 */
+	private FrameBuilder initBuilder() {
+		this.setFramePool(new FramePool(FRAME_POOL_SIZE, MAX_POOLED_LINE));
+		return new FrameBuilder(this.getFramePool(), MAX_POOLED_LINE);
 	}
 
 	/**
@@ -129,12 +150,13 @@ class LogWriter extends Writer {
 	 *            whether to block the message queue after logging this message
 	 */
 	public void write(LogLevel level, Long time, String message, boolean blocked) {
-		byte[] levelBytes = (level.toString() + " ").getBytes();
-		byte[] timeBytes = (time.toString() + " ").getBytes();
-		byte[] messageBytes = (message + "\n").getBytes();
-
-		byte[] byteMessage = WriterUtils.concatArrays(levelBytes, timeBytes,
-				messageBytes);
+		byte[] byteMessage;
+		synchronized (this.builder) {
+			byteMessage = this.builder.reset().putText(level.toString())
+					.putByte((byte) ' ').putDecimal(time.longValue())
+					.putByte((byte) ' ').putText(message).putByte(
+							(byte) '\n').toFrame();
+		}
 
 		try {
 			this.write(byteMessage, blocked);